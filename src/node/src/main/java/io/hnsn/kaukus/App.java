@@ -8,6 +8,7 @@ import io.hnsn.kaukus.utilities.Ref;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.text.MessageFormat;
@@ -126,7 +127,8 @@ public class App {
                         log.error("Invalid namespace.");
                         continue;
                     }
-                    log.info(node.getStorageAgent().get(namespace.getValue(), tokens[2]));
+                    final var value = node.getStorageAgent().get(namespace.getValue(), tokens[2]);
+                    log.info(value == null ? null : new String(value, StandardCharsets.UTF_8));
                 }
                 else if (line.startsWith("set ")) {
                     final var tokens = line.split(" ");
@@ -135,7 +137,7 @@ public class App {
                         log.error("Invalid namespace.");
                         continue;
                     }
-                    node.getStorageAgent().set(namespace.getValue(), tokens[2], tokens[3]);
+                    node.getStorageAgent().set(namespace.getValue(), tokens[2], tokens[3].getBytes(StandardCharsets.UTF_8));
                 }
             }
         }
@@ -14,4 +14,11 @@ public interface NodeConfiguration {
     String getWebServerHostname();
     int getWebServerPort();
     int getElectionTimeoutInSeconds();
+    int getBlockCacheSizeInMegabytes();
+    String getWalDurability();
+    String getCompactionStyle();
+    int getCompactionThreads();
+    String getCompactionThresholds();
+    String getCompression();
+    int getIoThreads();
 }
@@ -21,6 +21,13 @@ public class SimpleNodeConfiguration implements NodeConfiguration {
     private static final String KEY_WEBSERVER_HOSTNAME = "node.webserver.hostname";
     private static final String KEY_WEBSERVER_PORT = "node.webserver.port";
     private static final String KEY_ELECTION_TIMEOUT = "node.election.timeout";
+    private static final String KEY_BLOCK_CACHE_SIZE = "node.data.cache.size";
+    private static final String KEY_WAL_DURABILITY = "node.data.wal.durability";
+    private static final String KEY_COMPACTION_STYLE = "node.data.compaction.style";
+    private static final String KEY_COMPACTION_THREADS = "node.data.compaction.threads";
+    private static final String KEY_COMPACTION_THRESHOLDS = "node.data.compaction.thresholds";
+    private static final String KEY_COMPRESSION = "node.data.compression";
+    private static final String KEY_IO_THREADS = "node.data.io.threads";
     private static final String DEFAULT_SYSTEM_STORE = "/etc/kaukus/system";
     private static final String DEFAULT_DATA_STORE = "/etc/kaukus/data";
     private static final int DEFAULT_SYSTEM_PORT = 21000;
@@ -30,6 +37,13 @@ public class SimpleNodeConfiguration implements NodeConfiguration {
     private static final String DEFAULT_WEBSERVER_HOSTNAME = "localhost";
     private static final int DEFAULT_WEBSERVER_PORT = 8080;
     private static final int DEFAULT_ELECTION_TIMEOUT_IN_SECONDS = 3;
+    private static final int DEFAULT_BLOCK_CACHE_SIZE_IN_MEGABYTES = 64;
+    private static final String DEFAULT_WAL_DURABILITY = "buffered";
+    private static final String DEFAULT_COMPACTION_STYLE = "size_tiered";
+    private static final int DEFAULT_COMPACTION_THREADS = 2;
+    private static final String DEFAULT_COMPACTION_THRESHOLDS = "4";
+    private static final String DEFAULT_COMPRESSION = "snappy";
+    private static final int DEFAULT_IO_THREADS = 4;
 
     private final Config config;
     private final NodeParameters parameters;
@@ -114,6 +128,62 @@ public class SimpleNodeConfiguration implements NodeConfiguration {
         );
     }
 
+    @Override
+    public int getBlockCacheSizeInMegabytes() {
+        return Objects.requireNonNullElse(
+            NullCoallesce.of(parameters.getBlockCacheSize(), getOrNull(Integer.class, KEY_BLOCK_CACHE_SIZE)),
+            DEFAULT_BLOCK_CACHE_SIZE_IN_MEGABYTES
+        );
+    }
+
+    @Override
+    public String getWalDurability() {
+        return Objects.requireNonNullElse(
+            NullCoallesce.of(parameters.getWalDurability(), getOrNull(String.class, KEY_WAL_DURABILITY)),
+            DEFAULT_WAL_DURABILITY
+        );
+    }
+
+    @Override
+    public String getCompactionStyle() {
+        return Objects.requireNonNullElse(
+            NullCoallesce.of(parameters.getCompactionStyle(), getOrNull(String.class, KEY_COMPACTION_STYLE)),
+            DEFAULT_COMPACTION_STYLE
+        );
+    }
+
+    @Override
+    public int getCompactionThreads() {
+        return Objects.requireNonNullElse(
+            NullCoallesce.of(parameters.getCompactionThreads(), getOrNull(Integer.class, KEY_COMPACTION_THREADS)),
+            DEFAULT_COMPACTION_THREADS
+        );
+    }
+
+    @Override
+    public String getCompactionThresholds() {
+        return Objects.requireNonNullElse(
+            NullCoallesce.of(parameters.getCompactionThresholds(), getOrNull(String.class, KEY_COMPACTION_THRESHOLDS)),
+            DEFAULT_COMPACTION_THRESHOLDS
+        );
+    }
+
+    @Override
+    public String getCompression() {
+        return Objects.requireNonNullElse(
+            NullCoallesce.of(parameters.getCompression(), getOrNull(String.class, KEY_COMPRESSION)),
+            DEFAULT_COMPRESSION
+        );
+    }
+
+    @Override
+    public int getIoThreads() {
+        return Objects.requireNonNullElse(
+            NullCoallesce.of(parameters.getIoThreads(), getOrNull(Integer.class, KEY_IO_THREADS)),
+            DEFAULT_IO_THREADS
+        );
+    }
+
     @SuppressWarnings("unchecked")
     private <TValue> TValue getOrNull(Class<TValue> cls, String path) {
         return config.hasPath(path) ? (TValue) config.getAnyRef(path) : null;
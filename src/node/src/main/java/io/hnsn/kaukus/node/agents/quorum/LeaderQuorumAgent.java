@@ -10,8 +10,10 @@ import io.hnsn.kaukus.encoding.LeaderElectedBroadcast;
 import io.hnsn.kaukus.encoding.LeaderVoteBroadcast;
 import io.hnsn.kaukus.encoding.RequestLeaderVoteBroadcast;
 import io.hnsn.kaukus.encoding.RequestStorageDeleteMessage;
+import io.hnsn.kaukus.encoding.RequestStorageDeleteRangeMessage;
 import io.hnsn.kaukus.encoding.RequestStorageSetMessage;
 import io.hnsn.kaukus.encoding.StorageDeleteMessage;
+import io.hnsn.kaukus.encoding.StorageDeleteRangeMessage;
 import io.hnsn.kaukus.encoding.StorageSetMessage;
 import io.hnsn.kaukus.node.agents.AgentException;
 import io.hnsn.kaukus.node.agents.broadcast.BroadcastAgent;
@@ -23,6 +25,7 @@ import io.hnsn.kaukus.node.state.ListenerSource;
 import io.hnsn.kaukus.types.Namespace;
 import io.hnsn.kaukus.utilities.Ref;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -32,11 +35,17 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import lombok.RequiredArgsConstructor;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.specific.SpecificData;
@@ -52,6 +61,8 @@ public class LeaderQuorumAgent implements QuorumAgent {
   private final Provider<String> nodeIdentifier;
   private final StorageAgent storageAgent;
   private final ExecutorService serialExecution = Executors.newSingleThreadExecutor();
+  // Completes once the namespace's last queued replicated write is applied, or has failed
+  private final Map<Namespace, CompletableFuture<Void>> appliedReplicatedWrites = new ConcurrentHashMap<>();
   private String leaderNodeIdentifier = null;
   private StateMachine<LeaderQuorumState, LeaderQuorumTrigger> stateMachine;
   private ScheduledFuture<?> electionTimeout;
@@ -103,7 +114,11 @@ public class LeaderQuorumAgent implements QuorumAgent {
       }
 
       log.info("Handling set announcement for \"{}/{}\".", namespace.getValue(), message.getKey());
-      storageAgent.set(namespace.getValue(), message.getKey(), message.getValue());
+      final var value = toBytes(message.getValue());
+      applyReplicatedWrite(namespace.getValue(),
+          () -> storageAgent.setAsync(namespace.getValue(), message.getKey(), value, message.getExpiresAt()),
+          () -> storageAgent.set(namespace.getValue(), message.getKey(), value, message.getExpiresAt()),
+          e -> log.error("Failed to apply set announcement for \"{}/{}\".", namespace.getValue(), message.getKey(), e));
     }
     else if (payload.getSchema().getName().compareTo(RequestStorageSetMessage.SCHEMA$.getName()) == 0) {
       final var message = (RequestStorageSetMessage) SpecificData.getForSchema(RequestStorageSetMessage.SCHEMA$).deepCopy(payload.getSchema(), payload);
@@ -113,7 +128,7 @@ public class LeaderQuorumAgent implements QuorumAgent {
         return;
       }
 
-      requestStorageSet(namespace.getValue(), message.getKey(), message.getValue());
+      requestStorageSet(namespace.getValue(), message.getKey(), toBytes(message.getValue()), message.getExpiresAt());
     }
     else if (payload.getSchema().getName().compareTo(StorageDeleteMessage.SCHEMA$.getName()) == 0) {
       final var message = (StorageDeleteMessage) SpecificData.getForSchema(StorageDeleteMessage.SCHEMA$).deepCopy(payload.getSchema(), payload);
@@ -124,7 +139,10 @@ public class LeaderQuorumAgent implements QuorumAgent {
       }
 
       log.info("Handling delete announcement for \"{}/{}\".", namespace.getValue(), message.getKey());
-      storageAgent.delete(namespace.getValue(), message.getKey());
+      applyReplicatedWrite(namespace.getValue(),
+          () -> storageAgent.deleteAsync(namespace.getValue(), message.getKey()),
+          () -> storageAgent.delete(namespace.getValue(), message.getKey()),
+          e -> log.error("Failed to apply delete announcement for \"{}/{}\".", namespace.getValue(), message.getKey(), e));
     }
     else if (payload.getSchema().getName().compareTo(RequestStorageDeleteMessage.SCHEMA$.getName()) == 0) {
       final var message = (RequestStorageDeleteMessage) SpecificData.getForSchema(RequestStorageDeleteMessage.SCHEMA$).deepCopy(payload.getSchema(), payload);
@@ -136,6 +154,30 @@ public class LeaderQuorumAgent implements QuorumAgent {
 
       requestStorageDelete(namespace.getValue(), message.getKey());
     }
+    else if (payload.getSchema().getName().compareTo(StorageDeleteRangeMessage.SCHEMA$.getName()) == 0) {
+      final var message = (StorageDeleteRangeMessage) SpecificData.getForSchema(StorageDeleteRangeMessage.SCHEMA$).deepCopy(payload.getSchema(), payload);
+      final var namespace = new Ref<Namespace>();
+      if (!Namespace.tryParse(message.getNamespace(), namespace)) {
+        log.error("Failed to parse storage delete range's namespace {}.", message.getNamespace());
+        return;
+      }
+
+      log.info("Handling delete range announcement for \"{}/[{}, {})\".", namespace.getValue(), message.getFromKey(), message.getToKey());
+      applyReplicatedWrite(namespace.getValue(),
+          () -> storageAgent.deleteRangeAsync(namespace.getValue(), message.getFromKey(), message.getToKey()),
+          () -> storageAgent.deleteRange(namespace.getValue(), message.getFromKey(), message.getToKey()),
+          e -> log.error("Failed to apply delete range announcement for \"{}/[{}, {})\".", namespace.getValue(), message.getFromKey(), message.getToKey(), e));
+    }
+    else if (payload.getSchema().getName().compareTo(RequestStorageDeleteRangeMessage.SCHEMA$.getName()) == 0) {
+      final var message = (RequestStorageDeleteRangeMessage) SpecificData.getForSchema(RequestStorageDeleteRangeMessage.SCHEMA$).deepCopy(payload.getSchema(), payload);
+      final var namespace = new Ref<Namespace>();
+      if (!Namespace.tryParse(message.getNamespace(), namespace)) {
+        log.error("Failed to parse request storage delete range's namespace {}.", message.getNamespace());
+        return;
+      }
+
+      requestStorageDeleteRange(namespace.getValue(), message.getFromKey(), message.getToKey());
+    }
   }
 
   @Override
@@ -146,6 +188,67 @@ public class LeaderQuorumAgent implements QuorumAgent {
     serialExecution.shutdown();
   }
 
+  /**
+   * Applies a replicated write on the storage I/O executor so the connection's reader isn't held
+   * up on storage I/O. A replicated write that's dropped leaves this node diverged from the
+   * leader for good, so one the full I/O queue rejects is written synchronously instead, once the
+   * namespace's earlier replicated writes are done, holding up the reader until there's room.
+   */
+  private void applyReplicatedWrite(Namespace namespace, Supplier<CompletableFuture<Void>> writeAsync, Runnable write,
+      Consumer<Throwable> onFailure) {
+    final var future = writeAsync.get();
+    if (future.isCompletedExceptionally() && isRejected(future)) {
+      final var previous = appliedReplicatedWrites.get(namespace);
+      if (previous != null) {
+        previous.join();
+      }
+      applySynchronously(write, onFailure);
+      return;
+    }
+
+    // Writes accepted but rejected when their batch was scheduled are failed in order, and
+    // applied in that order here
+    appliedReplicatedWrites.put(namespace, future.handle((ignored, e) -> {
+      if (e == null) {
+        return null;
+      }
+      if (unwrap(e) instanceof RejectedExecutionException) {
+        applySynchronously(write, onFailure);
+      } else {
+        onFailure.accept(e);
+      }
+      return null;
+    }));
+  }
+
+  private static void applySynchronously(Runnable write, Consumer<Throwable> onFailure) {
+    try {
+      write.run();
+    } catch (RuntimeException e) {
+      onFailure.accept(e);
+    }
+  }
+
+  private static boolean isRejected(CompletableFuture<Void> future) {
+    try {
+      future.join();
+      return false;
+    } catch (CompletionException e) {
+      return unwrap(e) instanceof RejectedExecutionException;
+    }
+  }
+
+  private static Throwable unwrap(Throwable e) {
+    return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+  }
+
+  // Values travel as Avro bytes; the buffer may be a view of the whole message
+  private static byte[] toBytes(ByteBuffer buffer) {
+    final var bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
   @Override
   public String getLeaderNodeIdentifier() {
     return leaderNodeIdentifier;
@@ -157,21 +260,26 @@ public class LeaderQuorumAgent implements QuorumAgent {
   }
 
   @Override
-  public void requestStorageSet(Namespace namespace, String key, String value) {
+  public void requestStorageSet(Namespace namespace, String key, byte[] value) {
+    requestStorageSet(namespace, key, value, 0);
+  }
+
+  @Override
+  public void requestStorageSet(Namespace namespace, String key, byte[] value, long expiresAt) {
     if (isLeader()) {
       log.info("Set requested for \"{}/{}\".", namespace.toString(), key);
       // No need to request - just set and broadcast
-      storageAgent.set(namespace, key, value);
+      storageAgent.set(namespace, key, value, expiresAt);
       log.debug("Broadcasting set announcement for \"{}/{}\".", namespace.toString(), key);
       connectionAgent.getConnectedNodeIdentifiers().forEach(id -> {
         final var connection = connectionAgent.getConnection(id);
-        connection.sendMessage(new StorageSetMessage(namespace.toString(), key, value, nodeIdentifier.get()));
+        connection.sendMessage(new StorageSetMessage(namespace.toString(), key, ByteBuffer.wrap(value), nodeIdentifier.get(), expiresAt));
       });
     }
     else {
       log.info("Set request proxied to leader [{}] for \"{}/{}\".", leaderNodeIdentifier, namespace.toString(), key);
       connectionAgent.getConnection(leaderNodeIdentifier).sendMessage(new RequestStorageSetMessage(
-          namespace.toString(), key, value, nodeIdentifier.get()));
+          namespace.toString(), key, ByteBuffer.wrap(value), nodeIdentifier.get(), expiresAt));
     }
   }
 
@@ -194,6 +302,24 @@ public class LeaderQuorumAgent implements QuorumAgent {
     }
   }
 
+  @Override
+  public void requestStorageDeleteRange(Namespace namespace, String fromKey, String toKey) {
+    if (isLeader()) {
+      log.info("Delete range requested for \"{}/[{}, {})\".", namespace.toString(), fromKey, toKey);
+      storageAgent.deleteRange(namespace, fromKey, toKey);
+      log.debug("Broadcasting delete range announcement for \"{}/[{}, {})\".", namespace, fromKey, toKey);
+      connectionAgent.getConnectedNodeIdentifiers().forEach(id -> {
+        final var connection = connectionAgent.getConnection(id);
+        connection.sendMessage(new StorageDeleteRangeMessage(namespace.toString(), fromKey, toKey, nodeIdentifier.get()));
+      });
+    }
+    else {
+      log.info("Delete range request proxied to leader [{}] for \"{}/[{}, {})\".", leaderNodeIdentifier, namespace.toString(), fromKey, toKey);
+      connectionAgent.getConnection(leaderNodeIdentifier).sendMessage(new RequestStorageDeleteRangeMessage(
+          namespace.toString(), fromKey, toKey, nodeIdentifier.get()));
+    }
+  }
+
   @Override
   public void registerOnLeaderChangedListener(OnLeaderChangedListener listener) {
     listeners.get(OnLeaderChangedListener.class).add(listener);
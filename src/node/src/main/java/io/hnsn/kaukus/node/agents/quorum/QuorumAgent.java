@@ -7,8 +7,20 @@ import io.hnsn.kaukus.types.Namespace;
 public interface QuorumAgent extends Agent {
   String getLeaderNodeIdentifier();
   boolean isLeader();
-  void requestStorageSet(Namespace namespace, String key, String value);
+  void requestStorageSet(Namespace namespace, String key, byte[] value);
+
+  /**
+   * Sets a value that expires at {@code expiresAt}, in epoch milliseconds; 0 never expires. The
+   * expiry is absolute so every node expires the value at the same time.
+   */
+  void requestStorageSet(Namespace namespace, String key, byte[] value, long expiresAt);
   void requestStorageDelete(Namespace namespace, String key);
+
+  /**
+   * Deletes every key from {@code fromKey} (inclusive) to {@code toKey} (exclusive); the leader
+   * replicates it as a single message rather than a delete per key.
+   */
+  void requestStorageDeleteRange(Namespace namespace, String fromKey, String toKey);
   void registerOnLeaderChangedListener(OnLeaderChangedListener listener);
   void unregisterOnLeaderChangedListener(OnLeaderChangedListener listener);
 }
@@ -1,11 +1,44 @@
 package io.hnsn.kaukus.node.agents.storage;
 
 import io.hnsn.kaukus.node.agents.Agent;
+import io.hnsn.kaukus.persistence.WriteBatch;
 import io.hnsn.kaukus.types.Namespace;
+import java.util.concurrent.CompletableFuture;
 
 public interface StorageAgent extends Agent {
-  String get(Namespace namespace, String key);
-  void set(Namespace namespace, String key, String value);
+  /**
+   * Values are opaque bytes; they're stored and replicated as they were set.
+   */
+  byte[] get(Namespace namespace, String key);
+  void set(Namespace namespace, String key, byte[] value);
+
+  /**
+   * Sets a value that reads as deleted from {@code expiresAt}, in epoch milliseconds; 0 never
+   * expires.
+   */
+  void set(Namespace namespace, String key, byte[] value, long expiresAt);
 
   void delete(Namespace namespace, String key);
+
+  /**
+   * Deletes every key from {@code fromKey} (inclusive) to {@code toKey} (exclusive) with a single
+   * range tombstone.
+   */
+  void deleteRange(Namespace namespace, String fromKey, String toKey);
+
+  /**
+   * Applies every put and delete of the batch together; after a crash either all or none of them
+   * are recovered.
+   */
+  void write(Namespace namespace, WriteBatch batch);
+
+  /**
+   * Asynchronous variants run on a shared I/O executor; writes made through them apply in the
+   * order they're made.
+   */
+  CompletableFuture<byte[]> getAsync(Namespace namespace, String key);
+  CompletableFuture<Void> setAsync(Namespace namespace, String key, byte[] value);
+  CompletableFuture<Void> setAsync(Namespace namespace, String key, byte[] value, long expiresAt);
+  CompletableFuture<Void> deleteAsync(Namespace namespace, String key);
+  CompletableFuture<Void> deleteRangeAsync(Namespace namespace, String fromKey, String toKey);
 }
@@ -2,13 +2,31 @@ package io.hnsn.kaukus.node.agents.storage;
 
 import io.hnsn.kaukus.configuration.NodeConfiguration;
 import io.hnsn.kaukus.node.agents.AgentException;
+import io.hnsn.kaukus.persistence.BlockCache;
+import io.hnsn.kaukus.persistence.CompactionStyle;
 import io.hnsn.kaukus.persistence.LSMTree;
+import io.hnsn.kaukus.persistence.LSMTreeConfiguration;
+import io.hnsn.kaukus.persistence.SSTableCompression;
+import io.hnsn.kaukus.persistence.SSTableConfiguration;
+import io.hnsn.kaukus.persistence.WalDurability;
+import io.hnsn.kaukus.persistence.WriteBatch;
 import io.hnsn.kaukus.types.Namespace;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nonnull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -16,12 +34,79 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 @RequiredArgsConstructor
 public class StorageAgentImpl implements StorageAgent {
+  private static final int IO_QUEUE_SIZE = 4096;
+
   // TODO: Cleanup
   private final NodeConfiguration nodeConfiguration;
   private final Map<Namespace, LSMTree> storageMap = new HashMap<>();
+  // Shared by every namespace so hot blocks compete for a single memory budget
+  private BlockCache blockCache;
+  // Shared by every namespace so at most a fixed number of compactions run at once
+  private ExecutorService compactionExecutor;
+  // Shared by every namespace so asynchronous operations don't take a thread each
+  private ExecutorService ioExecutor;
+  private LSMTreeConfiguration lsmTreeConfiguration;
 
   @Override
   public void start() throws AgentException {
+    final WalDurability walDurability;
+    try {
+      walDurability = WalDurability.valueOf(nodeConfiguration.getWalDurability().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new AgentException("Unknown WAL durability: " + nodeConfiguration.getWalDurability(), e);
+    }
+
+    final CompactionStyle compactionStyle;
+    try {
+      compactionStyle = CompactionStyle.valueOf(nodeConfiguration.getCompactionStyle().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new AgentException("Unknown compaction style: " + nodeConfiguration.getCompactionStyle(), e);
+    }
+
+    final SSTableCompression compression;
+    try {
+      compression = SSTableCompression.valueOf(nodeConfiguration.getCompression().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new AgentException("Unknown compression: " + nodeConfiguration.getCompression(), e);
+    }
+
+    final List<Integer> compactionThresholds = new ArrayList<>();
+    try {
+      for (var threshold : nodeConfiguration.getCompactionThresholds().split(",")) {
+        compactionThresholds.add(Integer.parseInt(threshold.trim()));
+      }
+    } catch (NumberFormatException e) {
+      throw new AgentException("Invalid compaction thresholds: " + nodeConfiguration.getCompactionThresholds(), e);
+    }
+
+    final var compactionThreads = Math.max(1, nodeConfiguration.getCompactionThreads());
+    final var compactionThreadCount = new AtomicInteger();
+    compactionExecutor = new ThreadPoolExecutor(compactionThreads, compactionThreads, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>(), runnable -> {
+          final var thread = new Thread(runnable, "compaction-" + compactionThreadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+
+    final var ioThreads = Math.max(1, nodeConfiguration.getIoThreads());
+    final var ioThreadCount = new AtomicInteger();
+    ioExecutor = new ThreadPoolExecutor(ioThreads, ioThreads, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(IO_QUEUE_SIZE), runnable -> {
+          final var thread = new Thread(runnable, "storage-io-" + ioThreadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+
+    blockCache = new BlockCache(nodeConfiguration.getBlockCacheSizeInMegabytes() * 1024L * 1024L);
+    lsmTreeConfiguration = LSMTreeConfiguration.builder()
+        .sstableConfiguration(SSTableConfiguration.builder().blockCache(blockCache).compression(compression).build())
+        .walDurability(walDurability)
+        .compactionStyle(compactionStyle)
+        .sizeTieredThresholds(compactionThresholds)
+        .compactionExecutor(compactionExecutor)
+        .ioExecutor(ioExecutor)
+        .build();
+
     final var dataPath = nodeConfiguration.getDataStorePath();
     if (!Files.exists(dataPath)) {
       try {
@@ -33,17 +118,22 @@ public class StorageAgentImpl implements StorageAgent {
   }
 
   @Override
-  public String get(Namespace namespace, String key) {
+  public byte[] get(Namespace namespace, String key) {
     final var storage = storageMap.computeIfAbsent(namespace, (n) -> getOrCreate(n, false));
     if (storage == null) {
       return null;
     }
-    return storage.get(key);
+    return storage.get(toBytes(key));
   }
 
   @Override
-  public void set(Namespace namespace, String key, String value) {
-    storageMap.computeIfAbsent(namespace, this::getOrCreate).put(key, value);
+  public void set(Namespace namespace, String key, byte[] value) {
+    storageMap.computeIfAbsent(namespace, this::getOrCreate).put(toBytes(key), value);
+  }
+
+  @Override
+  public void set(Namespace namespace, String key, byte[] value, long expiresAt) {
+    storageMap.computeIfAbsent(namespace, this::getOrCreate).put(toBytes(key), value, expiresAt);
   }
 
   @Override
@@ -51,6 +141,50 @@ public class StorageAgentImpl implements StorageAgent {
     storageMap.computeIfAbsent(namespace, this::getOrCreate).remove(key);
   }
 
+  @Override
+  public void deleteRange(Namespace namespace, String fromKey, String toKey) {
+    storageMap.computeIfAbsent(namespace, this::getOrCreate).deleteRange(fromKey, toKey);
+  }
+
+  @Override
+  public void write(Namespace namespace, WriteBatch batch) {
+    storageMap.computeIfAbsent(namespace, this::getOrCreate).write(batch);
+  }
+
+  @Override
+  public CompletableFuture<byte[]> getAsync(Namespace namespace, String key) {
+    final var storage = storageMap.computeIfAbsent(namespace, (n) -> getOrCreate(n, false));
+    if (storage == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return storage.getAsync(toBytes(key));
+  }
+
+  @Override
+  public CompletableFuture<Void> setAsync(Namespace namespace, String key, byte[] value) {
+    return storageMap.computeIfAbsent(namespace, this::getOrCreate).putAsync(toBytes(key), value);
+  }
+
+  @Override
+  public CompletableFuture<Void> setAsync(Namespace namespace, String key, byte[] value, long expiresAt) {
+    return storageMap.computeIfAbsent(namespace, this::getOrCreate).putAsync(toBytes(key), value, expiresAt);
+  }
+
+  @Override
+  public CompletableFuture<Void> deleteAsync(Namespace namespace, String key) {
+    return storageMap.computeIfAbsent(namespace, this::getOrCreate).removeAsync(key);
+  }
+
+  @Override
+  public CompletableFuture<Void> deleteRangeAsync(Namespace namespace, String fromKey, String toKey) {
+    return storageMap.computeIfAbsent(namespace, this::getOrCreate).deleteRangeAsync(fromKey, toKey);
+  }
+
+  // Keys are text; the tree stores text as UTF-8
+  private static byte[] toBytes(String key) {
+    return key == null ? null : key.getBytes(StandardCharsets.UTF_8);
+  }
+
   @Nonnull
   private LSMTree getOrCreate(Namespace namespace) {
     return Objects.requireNonNull(getOrCreate(namespace, true));
@@ -61,7 +195,7 @@ public class StorageAgentImpl implements StorageAgent {
     final var namespacePath = nodeConfiguration.getDataStorePath().resolve(namespace.toString());
     final var exists = Files.exists(namespacePath);
     if (exists || shouldCreate) {
-      return LSMTree.openOrCreate(namespacePath);
+      return LSMTree.openOrCreate(namespacePath, lsmTreeConfiguration);
     }
 
     return null;
@@ -69,8 +203,32 @@ public class StorageAgentImpl implements StorageAgent {
 
   @Override
   public void close() throws IOException {
+    // Let queued asynchronous operations finish while their namespaces are still open
+    if (ioExecutor != null) {
+      ioExecutor.shutdown();
+      try {
+        ioExecutor.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    // Closing a namespace stops its running compaction
     for (var storage : storageMap.values()) {
       storage.close();
     }
+
+    if (compactionExecutor != null) {
+      compactionExecutor.shutdown();
+      try {
+        compactionExecutor.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    if (blockCache != null) {
+      log.info("Block cache hits: {}, misses: {}", blockCache.getHitCount(), blockCache.getMissCount());
+    }
   }
 }
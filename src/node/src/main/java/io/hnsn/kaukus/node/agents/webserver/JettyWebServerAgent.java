@@ -4,10 +4,11 @@ import io.hnsn.kaukus.configuration.NodeConfiguration;
 import io.hnsn.kaukus.node.agents.AgentException;
 import io.hnsn.kaukus.node.agents.quorum.QuorumAgent;
 import io.hnsn.kaukus.node.agents.storage.StorageAgent;
+import io.hnsn.kaukus.persistence.LSMTree;
 import io.hnsn.kaukus.types.Namespace;
 import io.hnsn.kaukus.utilities.Ref;
 import java.io.IOException;
-import java.util.stream.Collectors;
+import java.security.InvalidParameterException;
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -80,9 +81,9 @@ public class JettyWebServerAgent implements WebServerAgent {
         resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
       }
       else {
-        resp.getWriter().write(value);
-        resp.getWriter().flush();
-        resp.getWriter().close();
+        resp.getOutputStream().write(value);
+        resp.getOutputStream().flush();
+        resp.getOutputStream().close();
         resp.setStatus(HttpServletResponse.SC_OK);
       }
     }
@@ -98,7 +99,8 @@ public class JettyWebServerAgent implements WebServerAgent {
 
       final var namespaceString = tokens[0];
       final var key = tokens[1];
-      final var value = req.getReader().lines().collect(Collectors.joining());
+      // The body is stored as is; binary values never go through a charset
+      final var value = req.getInputStream().readAllBytes();
 
       final var namespace = new Ref<Namespace>();
       if (!Namespace.tryParse(namespaceString, namespace)) {
@@ -107,7 +109,23 @@ public class JettyWebServerAgent implements WebServerAgent {
         return;
       }
 
-      quorumAgent.requestStorageSet(namespace.getValue(), key, value);
+      // An optional time to live, in seconds, becomes an absolute expiry here so every node
+      // expires the value at the same time
+      var expiresAt = 0L;
+      final var ttl = req.getParameter("ttl");
+      if (ttl != null) {
+        try {
+          final var seconds = Long.parseLong(ttl);
+          if (seconds <= 0) throw new NumberFormatException();
+          expiresAt = Math.addExact(System.currentTimeMillis(), Math.multiplyExact(seconds, 1000L));
+        } catch (NumberFormatException | ArithmeticException e) {
+          log.error("Failed to parse request's ttl {}.", ttl);
+          resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+          return;
+        }
+      }
+
+      quorumAgent.requestStorageSet(namespace.getValue(), key, value, expiresAt);
 
       resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
     }
@@ -115,6 +133,10 @@ public class JettyWebServerAgent implements WebServerAgent {
     @Override
     protected void doDelete(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
       final var tokens = req.getServletPath().substring(1).split("/");
+      if (tokens.length == 1) {
+        doDeleteRange(req, resp, tokens[0]);
+        return;
+      }
       if (tokens.length != 2) {
         resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
         return;
@@ -134,5 +156,33 @@ public class JettyWebServerAgent implements WebServerAgent {
 
       resp.setStatus(HttpServletResponse.SC_OK);
     }
+
+    /**
+     * Deletes the keys of a namespace from the {@code from} (inclusive) to the {@code to}
+     * (exclusive) parameter, or every key starting with the {@code prefix} parameter.
+     */
+    private void doDeleteRange(HttpServletRequest req, HttpServletResponse resp, String namespaceString) throws IOException {
+      final var namespace = new Ref<Namespace>();
+      if (!Namespace.tryParse(namespaceString, namespace)) {
+        log.error("Failed to parse request's namespace {}.", namespaceString);
+        resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        return;
+      }
+
+      final var prefix = req.getParameter("prefix");
+      final var fromKey = prefix != null ? prefix : req.getParameter("from");
+      final var toKey = prefix != null ? LSMTree.getPrefixEnd(prefix) : req.getParameter("to");
+      try {
+        LSMTree.validateRange(fromKey, toKey);
+      } catch (InvalidParameterException e) {
+        log.error("Failed to parse request's range [{}, {}).", fromKey, toKey);
+        resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        return;
+      }
+
+      quorumAgent.requestStorageDeleteRange(namespace.getValue(), fromKey, toKey);
+
+      resp.setStatus(HttpServletResponse.SC_OK);
+    }
   }
 }
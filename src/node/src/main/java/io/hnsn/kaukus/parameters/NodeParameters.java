@@ -42,4 +42,25 @@ public class NodeParameters {
 
     @Parameter(names = "--election-timeout", description = "Specify the election timeout in seconds; defaults to 3s.")
     private Integer electionTimeout;
+
+    @Parameter(names = "--block-cache-size", description = "Specify the size of the shared SSTable block cache in megabytes; defaults to 64.")
+    private Integer blockCacheSize;
+
+    @Parameter(names = "--wal-durability", description = "Specify when write-ahead log writes are forced to disk: sync, interval or buffered; defaults to buffered.")
+    private String walDurability;
+
+    @Parameter(names = "--compaction-style", description = "Specify how segments are compacted in the background: none, leveled or size_tiered; defaults to size_tiered.")
+    private String compactionStyle;
+
+    @Parameter(names = "--compaction-threads", description = "Specify the number of background compactions run at once across all namespaces; defaults to 2.")
+    private Integer compactionThreads;
+
+    @Parameter(names = "--compaction-thresholds", description = "Specify the comma separated number of similarly sized segments merged per size tier, smallest tier first; defaults to 4.")
+    private String compactionThresholds;
+
+    @Parameter(names = "--compression", description = "Specify how segment data blocks are compressed: none, snappy or deflate; defaults to snappy.")
+    private String compression;
+
+    @Parameter(names = "--io-threads", description = "Specify the number of threads running asynchronous storage operations across all namespaces; defaults to 4.")
+    private Integer ioThreads;
 }
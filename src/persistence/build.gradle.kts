@@ -8,11 +8,30 @@ plugins {
 
 dependencies {
     api(project(":utilities"))
+    api("org.apache.avro:avro:1.11.0")
     implementation("com.esotericsoftware:kryo:5.0.4")
+    implementation("org.xerial.snappy:snappy-java:1.1.8.4")
 
     compileOnly("org.projectlombok:lombok:1.18.22")
 	annotationProcessor("org.projectlombok:lombok:1.18.22")
 
     testCompileOnly("org.projectlombok:lombok:1.18.22")
 	testAnnotationProcessor("org.projectlombok:lombok:1.18.22")
-}
\ No newline at end of file
+}
+
+tasks.named<Test>("test") {
+    useJUnitPlatform {
+        excludeTags("benchmark")
+    }
+}
+
+// Benchmarks are tests tagged "benchmark"; they print their results rather than assert on them
+tasks.register<Test>("benchmark") {
+    group = "verification"
+    testClassesDirs = sourceSets["test"].output.classesDirs
+    classpath = sourceSets["test"].runtimeClasspath
+    useJUnitPlatform {
+        includeTags("benchmark")
+    }
+    testLogging.showStandardStreams = true
+}
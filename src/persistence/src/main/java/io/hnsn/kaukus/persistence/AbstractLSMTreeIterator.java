@@ -0,0 +1,92 @@
+package io.hnsn.kaukus.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import io.hnsn.kaukus.persistence.serialization.SerializerFactory;
+
+/**
+ * Streams the live key/value pairs of an {@link LSMTree} scan. Tombstones, values expired by the
+ * time the scan started and the entries they shadow are skipped. The iterator holds the tree's segment files, and the snapshot it reads, open
+ * until it's exhausted or closed, so it should be closed when abandoned early.
+ * @param <T> The pairs returned, built from each entry's key and value bytes
+ */
+/*package*/ abstract class AbstractLSMTreeIterator<T> implements Iterator<T>, Closeable {
+    private final MergingIterator merged;
+    private final SerializerFactory serializerFactory;
+    /**
+     * Holds the values the segments only point to.
+     */
+    private final ValueLog valueLog;
+    /**
+     * Snapshot taken for the scan alone; null if the scan reads a snapshot owned by the caller.
+     */
+    private final LSMTreeSnapshot snapshot;
+    /**
+     * Time the scan started; values expired by then are skipped.
+     */
+    private final long now = System.currentTimeMillis();
+    private int remaining;
+    private T next = null;
+    private boolean isClosed = false;
+
+    /**
+     * @param limit Most pairs returned; 0 for no limit
+     * @param snapshot Snapshot closed along with the iterator, if any
+     */
+    /*package*/ AbstractLSMTreeIterator(MergingIterator merged, int limit, SerializerFactory serializerFactory, ValueLog valueLog, LSMTreeSnapshot snapshot) {
+        this.merged = merged;
+        this.serializerFactory = serializerFactory;
+        this.valueLog = valueLog;
+        this.snapshot = snapshot;
+        this.remaining = limit > 0 ? limit : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @param key The key as a byte string; see {@link Keys}
+     */
+    /*package*/ abstract T toPair(String key, byte[] value);
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (next == null && !isClosed) {
+                if (remaining == 0 || !merged.hasNext()) {
+                    close();
+                    break;
+                }
+
+                var entry = merged.next();
+                if (entry.isDeleted(now)) continue;
+                next = toPair(entry.key, entry.getValue(serializerFactory, valueLog));
+                remaining--;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return next != null;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        var pair = next;
+        next = null;
+        return pair;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isClosed) return;
+        isClosed = true;
+        try {
+            merged.close();
+        } finally {
+            if (snapshot != null) snapshot.close();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package io.hnsn.kaukus.persistence;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+
+/**
+ * Bounded cache of SSTable data blocks that can be shared between LSMTrees. Blocks are keyed by
+ * the segment they were read from and their offset within it, and charged by their size in
+ * bytes. The cache is split into independently locked shards, each evicting its least recently
+ * used blocks once it exceeds its share of the capacity.
+ */
+public class BlockCache {
+    private static final int DEFAULT_SHARD_COUNT = 16;
+
+    private final Shard[] shards;
+    private final long capacity;
+    private final AtomicLong segmentIds = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity Maximum size of the cached blocks, in bytes
+     */
+    public BlockCache(long capacity) {
+        this(capacity, DEFAULT_SHARD_COUNT);
+    }
+
+    public BlockCache(long capacity, int shardCount) {
+        if (capacity < 0) throw new IllegalArgumentException("Capacity cannot be negative");
+        if (shardCount < 1) throw new IllegalArgumentException("Shard count must be positive");
+        this.capacity = capacity;
+        this.shards = new Shard[shardCount];
+        for (var i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(capacity / shardCount);
+        }
+    }
+
+    /**
+     * Allocates the identifier an SSTable caches its blocks under. Identifiers are never reused so
+     * a segment file replaced on disk can never be served stale blocks.
+     */
+    /*package*/ long newSegmentId() {
+        return segmentIds.incrementAndGet();
+    }
+
+    /*package*/ DataBlock get(long segmentId, long offset) {
+        var key = new Key(segmentId, offset);
+        var block = shardFor(key).get(key);
+        if (block == null) misses.increment();
+        else hits.increment();
+        return block;
+    }
+
+    /*package*/ void put(long segmentId, long offset, DataBlock block) {
+        var key = new Key(segmentId, offset);
+        shardFor(key).put(key, block);
+    }
+
+    /**
+     * Drops every cached block of a segment; called once the segment is replaced or deleted.
+     */
+    /*package*/ void invalidate(long segmentId) {
+        for (var shard : shards) shard.invalidate(segmentId);
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getUsage() {
+        var usage = 0L;
+        for (var shard : shards) usage += shard.getUsage();
+        return usage;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    private Shard shardFor(Key key) {
+        // Block offsets are typically multiples of the block size; mix them before picking a shard
+        var hash = key.segmentId * 0x9E3779B97F4A7C15L + key.offset;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return shards[(int) Math.floorMod(hash, (long) shards.length)];
+    }
+
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    private static class Key {
+        private final long segmentId;
+        private final long offset;
+    }
+
+    private static class Shard {
+        private final long capacity;
+        private final LinkedHashMap<Key, DataBlock> blocks = new LinkedHashMap<>(16, 0.75f, true);
+        private long usage = 0;
+
+        private Shard(long capacity) {
+            this.capacity = capacity;
+        }
+
+        private synchronized DataBlock get(Key key) {
+            return blocks.get(key);
+        }
+
+        private synchronized void put(Key key, DataBlock block) {
+            var charge = block.getSize();
+            if (charge > capacity) return;
+
+            var previous = blocks.put(key, block);
+            if (previous != null) usage -= previous.getSize();
+            usage += charge;
+
+            var iterator = blocks.values().iterator();
+            while (usage > capacity && iterator.hasNext()) {
+                usage -= iterator.next().getSize();
+                iterator.remove();
+            }
+        }
+
+        private synchronized void invalidate(long segmentId) {
+            var iterator = blocks.entrySet().iterator();
+            while (iterator.hasNext()) {
+                var entry = iterator.next();
+                if (entry.getKey().segmentId == segmentId) {
+                    usage -= entry.getValue().getSize();
+                    iterator.remove();
+                }
+            }
+        }
+
+        private synchronized long getUsage() {
+            return usage;
+        }
+    }
+}
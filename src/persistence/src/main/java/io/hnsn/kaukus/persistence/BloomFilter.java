@@ -0,0 +1,90 @@
+package io.hnsn.kaukus.persistence;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed size Bloom filter over UTF-8 encoded keys. Each key is hashed once into 64 bits and the
+ * probe positions are derived by double hashing the two 32 bit halves.
+ */
+/*package*/ class BloomFilter {
+    private static final double LN2 = Math.log(2);
+
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashCount;
+
+    private BloomFilter(long[] bits, int hashCount) {
+        this.bits = bits;
+        this.bitCount = (long) bits.length * Long.SIZE;
+        this.hashCount = hashCount;
+    }
+
+    /**
+     * Creates a filter sized for {@code expectedEntries} keys at the given false positive rate.
+     */
+    static BloomFilter create(int expectedEntries, double falsePositiveRate) {
+        var entries = Math.max(1, expectedEntries);
+        var bitCount = (long) Math.ceil(-entries * Math.log(falsePositiveRate) / (LN2 * LN2));
+        var words = (int) Math.max(1, (bitCount + Long.SIZE - 1) / Long.SIZE);
+        var hashCount = (int) Math.max(1, Math.round((double) words * Long.SIZE / entries * LN2));
+        return new BloomFilter(new long[words], Math.min(hashCount, 30));
+    }
+
+    void add(long hash) {
+        var h1 = (int) hash;
+        var h2 = (int) (hash >>> 32);
+        for (var i = 0; i < hashCount; i++) {
+            var bit = Integer.toUnsignedLong(h1 + i * h2) % bitCount;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    void add(byte[] key) {
+        add(hash(key));
+    }
+
+    boolean mightContain(byte[] key) {
+        var hash = hash(key);
+        var h1 = (int) hash;
+        var h2 = (int) (hash >>> 32);
+        for (var i = 0; i < hashCount; i++) {
+            var bit = Integer.toUnsignedLong(h1 + i * h2) % bitCount;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * 64 bit FNV-1a followed by the MurmurHash3 finalizer to spread the bits.
+     */
+    static long hash(byte[] key) {
+        var hash = 0xcbf29ce484222325L;
+        for (var b : key) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(hashCount);
+        out.writeInt(bits.length);
+        for (var word : bits) out.writeLong(word);
+    }
+
+    static BloomFilter readFrom(ByteBuffer block) {
+        var hashCount = block.getInt();
+        var bits = new long[block.getInt()];
+        block.asLongBuffer().get(bits);
+        return new BloomFilter(bits, hashCount);
+    }
+}
@@ -0,0 +1,37 @@
+package io.hnsn.kaukus.persistence;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Frees direct and mapped buffers eagerly rather than waiting on the garbage collector; falls
+ * back to the latter if the JDK doesn't expose {@code Unsafe.invokeCleaner}. A cleaned buffer
+ * must never be read again.
+ */
+/*package*/ class BufferCleaner {
+    private final Object unsafe;
+    private final Method invokeCleaner;
+
+    private BufferCleaner(Object unsafe, Method invokeCleaner) {
+        this.unsafe = unsafe;
+        this.invokeCleaner = invokeCleaner;
+    }
+
+    static BufferCleaner create() {
+        try {
+            var unsafeClass = Class.forName("sun.misc.Unsafe");
+            var field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return new BufferCleaner(field.get(null), unsafeClass.getMethod("invokeCleaner", ByteBuffer.class));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return new BufferCleaner(null, null);
+        }
+    }
+
+    void clean(ByteBuffer buffer) {
+        if (invokeCleaner == null) return;
+        try {
+            invokeCleaner.invoke(unsafe, buffer);
+        } catch (ReflectiveOperationException ignored) { }
+    }
+}
@@ -12,15 +12,17 @@ import io.hnsn.kaukus.persistence.SSTable.IndexTuple;
 /*package*/ class ByteRatioLineMapper implements LineMapper {
     private final Decoder decoder = Base64.getDecoder();
 
+    /**
+     * Builds the sparse index for a legacy (v1) segment by scanning it and sampling a line every
+     * {@code bytesPerIndexEntry} bytes. Binary segments carry their own index; see
+     * {@link SegmentMetadata}.
+     */
     @Override
-    public IndexTuple[] mapLines(float mappingRatio, Path filePath) throws IOException {
-        var length = Files.size(filePath);
-        final var lengthStep = (int) Math.floor(length * mappingRatio);
-
+    public IndexTuple[] mapLines(int bytesPerIndexEntry, Path filePath) throws IOException {
         var index = new LinkedList<IndexTuple>();
         
         var lastIndex = Long.MIN_VALUE;
-        var bytesRead = 0;
+        var bytesRead = 0L;
 
         // Use a flywheel to minimize object creation ¯\_(ツ)_/¯
         var lineTokens = new LineTokens();
@@ -28,12 +30,12 @@ import io.hnsn.kaukus.persistence.SSTable.IndexTuple;
         var lineIterator = Files.lines(filePath).map(line -> {
             var isTombstone = !line.contains(":");
             var key = isTombstone ? line : line.split(":")[0];
-            return lineTokens.set((long) line.length() + 1, new String(decoder.decode(key)), isTombstone);
+            return lineTokens.set((long) line.length() + 1, Keys.fromBytes(decoder.decode(key)), isTombstone);
         }).iterator();
 
         while (lineIterator.hasNext()) {
             var tokens = lineIterator.next();
-            if (bytesRead > lastIndex + lengthStep) {
+            if (lastIndex == Long.MIN_VALUE || bytesRead - lastIndex >= bytesPerIndexEntry) {
                 index.add(new IndexTuple(tokens.key, bytesRead, tokens.isTombstone));
                 lastIndex = bytesRead;
             }
@@ -57,4 +59,4 @@ import io.hnsn.kaukus.persistence.SSTable.IndexTuple;
             return this;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,19 @@
+package io.hnsn.kaukus.persistence;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Segments picked to be merged together and the level the merged segments are written to.
+ */
+@AllArgsConstructor
+@Getter
+/*package*/ class Compaction {
+    /**
+     * Newest data first; level 0 segments newest first followed by deeper levels in order.
+     */
+    private final List<Segment> inputs;
+    private final int outputLevel;
+}
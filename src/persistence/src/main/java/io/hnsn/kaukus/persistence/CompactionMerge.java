@@ -0,0 +1,79 @@
+package io.hnsn.kaukus.persistence;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import io.hnsn.kaukus.persistence.SSTable.Entry;
+import io.hnsn.kaukus.persistence.SSTable.EntryIterator;
+import lombok.Getter;
+
+/**
+ * Merges the entries of segments being compacted in a single pass, through a
+ * {@link MergingIterator}. Range tombstones drop the keys they cover from older inputs. Once the
+ * inputs hold the bottommost data for their keys, tombstones, range tombstones and values expired
+ * by the time of the merge are dropped; until then expired values are kept as tombstones and the
+ * inputs' range tombstones are carried over to the outputs.
+ */
+/*package*/ class CompactionMerge implements EntryIterator {
+    private final MergingIterator merged;
+    private final long now;
+    private final boolean isBottommost;
+    /**
+     * Range tombstones the outputs must hold, coalesced; none for bottommost inputs.
+     */
+    @Getter
+    private final List<RangeTombstone> rangeTombstones;
+    private Entry next = null;
+
+    /**
+     * @param inputPaths Segments to merge, newest first
+     * @param inputRangeTombstones Range tombstones of each input, in the same order
+     * @param isBottommost True if no older segment may hold the inputs' keys
+     * @param now Time values are expired by, in milliseconds since the epoch
+     */
+    CompactionMerge(List<Path> inputPaths, List<List<RangeTombstone>> inputRangeTombstones, boolean isBottommost, long now) throws IOException {
+        var iterators = new ArrayList<EntryIterator>(inputPaths.size());
+        // Range tombstones of the inputs merged so far, which delete the keys of older inputs
+        var rangeTombstones = new ArrayList<RangeTombstone>();
+        try {
+            for (var i = 0; i < inputPaths.size(); i++) {
+                iterators.add(RangeTombstone.filter(SSTable.iterate(inputPaths.get(i)), List.copyOf(rangeTombstones)));
+                rangeTombstones.addAll(inputRangeTombstones.get(i));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (var iterator : iterators) iterator.close();
+            throw e;
+        }
+
+        this.merged = new MergingIterator(iterators);
+        this.now = now;
+        this.isBottommost = isBottommost;
+        this.rangeTombstones = isBottommost ? List.of() : RangeTombstone.coalesce(rangeTombstones);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && merged.hasNext()) {
+            var entry = merged.next();
+            if (!entry.isDeleted(now)) next = entry;
+            else if (!isBottommost) next = entry.isTombstone ? entry : Entry.tombstone(entry.key);
+        }
+        return next != null;
+    }
+
+    @Override
+    public Entry next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        var entry = next;
+        next = null;
+        return entry;
+    }
+
+    @Override
+    public void close() throws IOException {
+        merged.close();
+    }
+}
@@ -0,0 +1,11 @@
+package io.hnsn.kaukus.persistence;
+
+/**
+ * Decides which segments of an {@link LSMTree} are compacted next.
+ */
+/*package*/ interface CompactionPicker {
+    /**
+     * @return The next compaction, or null if the layout doesn't need one
+     */
+    Compaction pick(Manifest manifest);
+}
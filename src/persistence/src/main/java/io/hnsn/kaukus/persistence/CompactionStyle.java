@@ -0,0 +1,22 @@
+package io.hnsn.kaukus.persistence;
+
+/**
+ * How an {@link LSMTree} lays out and compacts its segments.
+ */
+public enum CompactionStyle {
+    /**
+     * Segments are only compacted by {@link LSMTree#compact()}, which merges them all into one.
+     */
+    NONE,
+    /**
+     * Flushed segments are compacted in the background into levels of non-overlapping segments,
+     * each level {@link LSMTreeConfiguration#getLevelSizeMultiplier()} times larger than the one
+     * before it.
+     */
+    LEVELED,
+    /**
+     * Flushed segments are compacted in the background once enough adjacent segments of similar
+     * size accumulate; see {@link LSMTreeConfiguration#getSizeTieredThresholds()}.
+     */
+    SIZE_TIERED
+}
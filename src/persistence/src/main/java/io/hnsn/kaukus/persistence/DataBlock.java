@@ -0,0 +1,227 @@
+package io.hnsn.kaukus.persistence;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Read-only view over a single data block of a binary SSTable. See {@link SSTableFormat} for
+ * the record layout.
+ */
+/*package*/ class DataBlock implements Iterable<DataBlock.Record> {
+    private final ByteBuffer buffer;
+    private final boolean isPrefixCompressed;
+    /**
+     * End of the records; prefix compressed blocks keep their restart points past it.
+     */
+    private final int recordsLimit;
+    private final int restartCount;
+
+    /**
+     * @param version Format version of the segment the block was read from
+     */
+    DataBlock(ByteBuffer buffer, byte version) {
+        this.buffer = buffer;
+        this.isPrefixCompressed = version >= SSTableFormat.VERSION_4;
+        if (isPrefixCompressed) {
+            restartCount = buffer.getInt(buffer.limit() - 4);
+            recordsLimit = buffer.limit() - 4 - 4 * restartCount;
+        } else {
+            restartCount = 0;
+            recordsLimit = buffer.limit();
+        }
+    }
+
+    /**
+     * Size of the block in bytes.
+     */
+    int getSize() {
+        return buffer.remaining();
+    }
+
+    /**
+     * Searches the block for {@code key}. Keys are compared as bytes, in place where they're stored
+     * whole, so only the matching record is materialized.
+     * @param key UTF-8 encoded key
+     * @return The matching record or null if the block doesn't contain the key
+     */
+    Record find(byte[] key) {
+        var cursor = new Cursor();
+        var position = isPrefixCompressed ? seekRestart(cursor, key) : buffer.position();
+        while (position < recordsLimit) {
+            cursor.read(position);
+            var compare = isPrefixCompressed
+                ? Arrays.compareUnsigned(cursor.key, 0, cursor.keyLength, key, 0, key.length)
+                : SSTableFormat.compareKeys(buffer, cursor.suffixOffset, cursor.suffixLength, key);
+            if (compare == 0) return cursor.toRecord();
+            if (compare > 0) return null;
+            position = cursor.next;
+        }
+
+        return null;
+    }
+
+    /**
+     * Binary searches the restart points, whose keys are stored whole, for the last one at or
+     * before the key.
+     * @return The position to scan for the key from
+     */
+    private int seekRestart(Cursor cursor, byte[] key) {
+        var left = 0;
+        var right = restartCount;
+        while (left < right) {
+            var middle = (left + right) >>> 1;
+            cursor.read(getRestart(middle));
+            if (SSTableFormat.compareKeys(buffer, cursor.suffixOffset, cursor.suffixLength, key) <= 0) left = middle + 1;
+            else right = middle;
+        }
+
+        return left == 0 ? buffer.position() : getRestart(left - 1);
+    }
+
+    private int getRestart(int restart) {
+        return buffer.position() + buffer.getInt(recordsLimit + 4 * restart);
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return new Iterator<>() {
+            private final Cursor cursor = new Cursor();
+            private int position = buffer.position();
+
+            @Override
+            public boolean hasNext() {
+                return position < recordsLimit;
+            }
+
+            @Override
+            public Record next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                cursor.read(position);
+                position = cursor.next;
+                return cursor.toRecord();
+            }
+        };
+    }
+
+    /**
+     * Decodes records one after another. Prefix compressed keys are rebuilt into a reused array,
+     * so a cursor must read every record from a restart point on; records stored whole can be
+     * read from anywhere.
+     */
+    private class Cursor {
+        private byte type;
+        private int suffixOffset;
+        private int suffixLength;
+        private int valueOffset;
+        private int valueLength;
+        private int next;
+        /**
+         * The whole key of prefix compressed records.
+         */
+        private byte[] key = new byte[64];
+        private int keyLength;
+
+        private void read(int position) {
+            type = buffer.get(position);
+            if (!isPrefixCompressed) {
+                suffixLength = buffer.getInt(position + 1);
+                suffixOffset = position + 5;
+                valueLength = buffer.getInt(suffixOffset + suffixLength);
+                valueOffset = suffixOffset + suffixLength + 4;
+                next = valueOffset + valueLength;
+                return;
+            }
+
+            next = position + 1;
+            var shared = readVarInt();
+            suffixLength = readVarInt();
+            valueLength = readVarInt();
+            suffixOffset = next;
+            valueOffset = suffixOffset + suffixLength;
+            next = valueOffset + valueLength;
+
+            keyLength = shared + suffixLength;
+            if (keyLength > key.length) key = Arrays.copyOf(key, Math.max(keyLength, key.length * 2));
+            buffer.get(suffixOffset, key, shared, suffixLength);
+        }
+
+        private int readVarInt() {
+            var value = 0;
+            for (var shift = 0; ; shift += 7) {
+                var b = buffer.get(next++);
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+        }
+
+        private Record toRecord() {
+            byte[] key;
+            if (isPrefixCompressed) key = Arrays.copyOf(this.key, keyLength);
+            else {
+                key = new byte[suffixLength];
+                buffer.get(suffixOffset, key);
+            }
+
+            // Expiring values and value pointers lead with their expiry time
+            var expiresAt = LSMTreeValue.NEVER_EXPIRES;
+            var valueOffset = this.valueOffset;
+            var valueLength = this.valueLength;
+            if (type == SSTableFormat.RECORD_EXPIRING_VALUE || type == SSTableFormat.RECORD_VALUE_POINTER) {
+                expiresAt = buffer.getLong(valueOffset);
+                valueOffset += 8;
+                valueLength -= 8;
+            }
+
+            var value = new byte[valueLength];
+            buffer.get(valueOffset, value);
+            return new Record(type, key, value, expiresAt);
+        }
+    }
+
+    @AllArgsConstructor
+    @Getter
+    /*package*/ static class Record {
+        private final byte type;
+        private final byte[] key;
+        /**
+         * The encoded {@link ValuePointer} of values held in the value log.
+         */
+        private final byte[] value;
+        /**
+         * Milliseconds since the epoch the value expires at; {@link LSMTreeValue#NEVER_EXPIRES} if
+         * it doesn't.
+         */
+        private final long expiresAt;
+
+        public boolean isTombstone() {
+            return type == SSTableFormat.RECORD_TOMBSTONE;
+        }
+
+        public boolean isValuePointer() {
+            return type == SSTableFormat.RECORD_VALUE_POINTER;
+        }
+
+        /**
+         * Where the value is held in the value log, or null if the record holds it.
+         */
+        public ValuePointer getValuePointer() {
+            return isValuePointer() ? ValuePointer.readFrom(ByteBuffer.wrap(value)) : null;
+        }
+
+        public boolean isExpired(long now) {
+            return LSMTreeValue.isExpired(expiresAt, now);
+        }
+
+        /**
+         * The key as a byte string; see {@link Keys}.
+         */
+        public String getKeyString() {
+            return Keys.fromBytes(key);
+        }
+    }
+}
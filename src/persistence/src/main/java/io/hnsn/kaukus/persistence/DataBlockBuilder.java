@@ -0,0 +1,111 @@
+package io.hnsn.kaukus.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Accumulates records for a single data block of a binary SSTable. Keys are stored as the suffix
+ * they don't share with the previous key, except every {@code restartInterval} records where
+ * they're stored whole. See {@link SSTableFormat} for the record layout.
+ */
+/*package*/ class DataBlockBuilder {
+    private final ByteArrayOutputStream buffer;
+    private final DataOutputStream out;
+    private final int restartInterval;
+    private int[] restarts = new int[16];
+    private int restartCount = 0;
+    private int recordCount = 0;
+    private byte[] firstKey = null;
+    private byte[] lastKey = null;
+    private boolean isFirstTombstone = false;
+
+    DataBlockBuilder(int blockSize, int restartInterval) {
+        buffer = new ByteArrayOutputStream(blockSize);
+        out = new DataOutputStream(buffer);
+        this.restartInterval = Math.max(1, restartInterval);
+    }
+
+    void add(byte type, byte[] key, byte[] value) throws IOException {
+        if (firstKey == null) {
+            firstKey = key;
+            isFirstTombstone = type == SSTableFormat.RECORD_TOMBSTONE;
+        }
+
+        var shared = 0;
+        if (recordCount++ % restartInterval == 0) {
+            if (restartCount == restarts.length) restarts = Arrays.copyOf(restarts, restarts.length * 2);
+            restarts[restartCount++] = buffer.size();
+        } else {
+            var mismatch = Arrays.mismatch(lastKey, key);
+            shared = mismatch < 0 ? key.length : mismatch;
+        }
+        lastKey = key;
+
+        out.writeByte(type);
+        writeVarInt(shared);
+        writeVarInt(key.length - shared);
+        writeVarInt(value.length);
+        out.write(key, shared, key.length - shared);
+        out.write(value);
+    }
+
+    private void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Size of the block so far, restart points included, in bytes.
+     */
+    int size() {
+        return buffer.size() + 4 * restartCount + 4;
+    }
+
+    boolean isEmpty() {
+        return firstKey == null;
+    }
+
+    byte[] getFirstKey() {
+        return firstKey;
+    }
+
+    byte[] getLastKey() {
+        return lastKey;
+    }
+
+    boolean isFirstTombstone() {
+        return isFirstTombstone;
+    }
+
+    /**
+     * Writes the block out, compressed, and resets the builder for the next block.
+     * @return The number of bytes written
+     */
+    int writeTo(OutputStream outputStream, SSTableCompression compression) throws IOException {
+        for (var i = 0; i < restartCount; i++) out.writeInt(restarts[i]);
+        out.writeInt(restartCount);
+
+        int length;
+        if (compression == SSTableCompression.NONE) {
+            length = buffer.size();
+            buffer.writeTo(outputStream);
+        } else {
+            var block = compression.compress(buffer.toByteArray());
+            length = block.length;
+            outputStream.write(block);
+        }
+        buffer.reset();
+        restartCount = 0;
+        recordCount = 0;
+        firstKey = null;
+        lastKey = null;
+        isFirstTombstone = false;
+        return length;
+    }
+}
@@ -0,0 +1,40 @@
+package io.hnsn.kaukus.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Forces files and directory entries to disk. A file written and renamed into place survives a
+ * crash only once its contents are forced before the rename and its directory after it; until
+ * then nothing it replaces may be deleted.
+ */
+/*package*/ final class FileSync {
+    /**
+     * Windows can't open directories; its renames don't need a directory sync.
+     */
+    private static final boolean IS_DIRECTORY_SYNCABLE = File.separatorChar == '/';
+
+    private FileSync() { }
+
+    /**
+     * Forces a written and closed file's contents to disk.
+     */
+    static void force(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Forces a directory's entries, such as files renamed into it, to disk.
+     */
+    static void forceDirectory(Path directory) throws IOException {
+        if (!IS_DIRECTORY_SYNCABLE) return;
+        try (var channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package io.hnsn.kaukus.persistence;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Conversions between the keys callers hand an {@link LSMTree} and the keys it holds internally.
+ *
+ * Keys are arbitrary bytes. Internally they're held as byte strings: a {@code String} with one char,
+ * 0 to 255, per byte of the key. Ordering byte strings by char is ordering the keys' bytes unsigned
+ * and lexicographically, which is {@link SSTableFormat#KEY_ORDER}, and compact strings store them a
+ * byte per char, so they cost what the bytes do while keeping the tree's key plumbing as is.
+ *
+ * Text keys are their UTF-8 encoding. Segments, the write-ahead log and the manifest have always
+ * stored text keys as UTF-8, so decoding any stored key as ISO-8859-1 yields its byte string.
+ */
+/*package*/ final class Keys {
+    private Keys() { }
+
+    /**
+     * @return The byte string of the key's bytes, or null if the key is null
+     */
+    static String fromBytes(byte[] key) {
+        return key == null ? null : new String(key, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return The byte string of the buffer's remaining bytes, or null if the buffer is null; the
+     *         buffer's position isn't moved
+     */
+    static String fromBytes(ByteBuffer key) {
+        if (key == null) return null;
+        if (key.hasArray()) return new String(key.array(), key.arrayOffset() + key.position(), key.remaining(), StandardCharsets.ISO_8859_1);
+
+        var bytes = new byte[key.remaining()];
+        key.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    static byte[] toBytes(String key) {
+        return key.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return The byte string of the text's UTF-8 encoding, or null if the text is null; ASCII text
+     *         is its own byte string and is returned as is
+     */
+    static String fromText(String text) {
+        if (text == null || isAscii(text)) return text;
+        return new String(text.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Decodes a byte string as UTF-8; bytes that aren't UTF-8 decode as U+FFFD.
+     */
+    static String toText(String key) {
+        if (key == null || isAscii(key)) return key;
+        return new String(key.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+    }
+
+    private static boolean isAscii(String text) {
+        for (var i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) return false;
+        }
+        return true;
+    }
+}
@@ -8,8 +8,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.io.OutputStream;
 import java.io.StringBufferInputStream;
+import java.io.UncheckedIOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
@@ -19,27 +22,75 @@ import java.nio.file.StandardCopyOption;
 import java.security.InvalidParameterException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
-import java.util.Base64.Encoder;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.SortedMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
 import javax.management.RuntimeErrorException;
 
-import io.hnsn.kaukus.persistence.serialization.StreamSerializer;
+import io.hnsn.kaukus.persistence.SSTable.EntryIterator;
+import io.hnsn.kaukus.persistence.serialization.Codec;
+import io.hnsn.kaukus.persistence.serialization.CodecRegistry;
+import lombok.AllArgsConstructor;
+import lombok.RequiredArgsConstructor;
 
 /**
  * Log Structured Merge Tree (LSM-Tree)
- * Keeps an internal cache (map for now) of key/value pairs. Writes are added to a
- * WAL-file that is flushed to disk immediately and, as needed, flushed out to
- * String Sorted Tables (SSTables). Reads check the in-memory cache first and then
- * walk backwards through the available SSTables.
+ * Keeps an internal, sorted cache (memtable) of key/value pairs. Writes are added to a
+ * WAL-file, durable according to the configured {@link WalDurability}, and to the memtable. Once the memtable grows
+ * too large or too old it's frozen, along with its WAL-file, and written out to a String Sorted
+ * Table (SSTable) in the background while a fresh memtable takes new writes. Reads check the
+ * memtable, then any frozen memtables and then the SSTables, newest first, as laid out by the
+ * tree's {@link Manifest}.
+ *
+ * Every write is tagged with the sequence number of its WAL record. A {@link LSMTreeSnapshot}
+ * pins a sequence number along with the memtables and segments of the moment it's taken, which
+ * gives reads and scans through it a fixed point in time.
+ *
+ * Values of at least {@link LSMTreeConfiguration#getValueLogThreshold()} bytes are separated into
+ * the tree's {@link ValueLog} when they're flushed; segments only point to them, so compactions
+ * merge pointers instead of copying the values. {@link #collectValueLog()} reclaims the space of
+ * the values overwritten or deleted since.
+ *
+ * Keys and values are bytes, keys ordered unsigned and lexicographically. The {@code String} API
+ * is a thin adapter over the byte API that stores text as UTF-8, so text keys are ordered by code
+ * point and either API reads what the other wrote.
  */
 public class LSMTree implements Closeable {
+    /**
+     * Leads typed values written with a {@link Codec}; Java serialized values lead with the
+     * stream's magic, 0xACED, instead. UTF-8 text never holds the byte, so text values aren't
+     * taken for typed ones.
+     */
+    private static final byte CODEC_VALUE = (byte) 0xFF;
+    private static final Logger LOGGER = System.getLogger(LSMTree.class.getName());
     /**
      * Full path of the directory containing the SSTables and WAL File.
      */
@@ -55,21 +106,95 @@ public class LSMTree implements Closeable {
      */
     private final Path walFile;
     /**
-     * In-memory cache of key/value pairs.
+     * Describes the levels and segments of the tree; "file.manifest".
+     */
+    private final Path manifestFile;
+    /**
+     * In-memory, sorted cache of key/value pairs taking writes.
      */
-    private final Map<String, LSMTreeValue> memoryMap = new ConcurrentHashMap<>();
+    private volatile Memtable memtable;
+    /**
+     * Memtables that have been swapped out and are waiting to be written to their segment;
+     * newest first.
+     */
+    private final List<FrozenMemtable> frozenMemtables = new CopyOnWriteArrayList<>();
+    private final LSMTreeConfiguration configuration;
     /**
      * Configuration for the internal SSTables.
      */
-    private final SSTableConfiguration configuration = SSTableConfiguration.builder().build();
+    private final SSTableConfiguration sstableConfiguration;
+    /**
+     * Values separated from the segments; "file.vlog.N".
+     */
+    private final ValueLog valueLog;
+    private final ScheduledExecutorService flushExecutor;
+    private final boolean isFlushExecutorOwned;
+    private ScheduledFuture<?> expiryCheck = null;
+    /**
+     * Index of the next segment; reserved when a memtable is frozen so segments are numbered in
+     * the order their memtables were written.
+     */
+    private final AtomicLong nextSegmentIndex = new AtomicLong();
+    /**
+     * Sequence number of the last WAL record written or replayed.
+     */
+    private final AtomicLong lastSequence = new AtomicLong();
+    /**
+     * True if the WAL replayed on open is a text log; it's flushed before new records are
+     * appended.
+     */
+    private boolean isWalLegacy = false;
 
     // Lazy
-    private volatile SortedMap<String, SSTable> segments = null;
-    private OutputStream walOutputStream = null;
-    private StreamSerializer walSerializer = null;
+    private volatile Manifest manifest = null;
+    private volatile WriteAheadLog wal = null;
+    private ScheduledFuture<?> walSync = null;
     private final Object segmentLock = new Object();
     private final Object walLock = new Object();
-    private final Encoder encoder = Base64.getEncoder();
+    private final Object flushLock = new Object();
+    private final ReentrantLock compactionLock = new ReentrantLock();
+    private final Object snapshotLock = new Object();
+    /**
+     * Number of open snapshots by sequence number.
+     */
+    private final TreeMap<Long, Integer> snapshotSequences = new TreeMap<>();
+    /**
+     * Sequence number of the oldest open snapshot, or {@link Long#MAX_VALUE} if there are none;
+     * memtables keep the versions of a key it may read.
+     */
+    private volatile long retainedSequence = Long.MAX_VALUE;
+    /**
+     * Picks background compactions; null if the tree is only compacted on demand.
+     */
+    private final CompactionPicker compactionPicker;
+    private final Executor compactionExecutor;
+    /**
+     * True while a background compaction is queued or running; a tree never queues more than one.
+     */
+    private final AtomicBoolean isCompactionScheduled = new AtomicBoolean();
+    private final Executor ioExecutor;
+    private final boolean isIoExecutorOwned;
+    /**
+     * Async writes waiting to be written together as a batch.
+     */
+    private final BlockingQueue<PendingWrite> pendingWrites;
+    /**
+     * True while a batch of pending writes is queued or being written; a tree writes one at a time
+     * so async writes apply in the order they were made.
+     */
+    private final AtomicBoolean isPendingWriteScheduled = new AtomicBoolean();
+    private final Object pendingWriteLock = new Object();
+    /**
+     * Set by {@link #close()} once it's written the last pending writes; any found after are
+     * failed rather than written to the released memtables.
+     */
+    private boolean arePendingWritesClosed = false;
+    private volatile boolean isClosed = false;
+    /**
+     * Writes hold the read lock across their WAL append and memtable update; swapping the
+     * memtable and WAL takes the write lock so a write can't straddle the two.
+     */
+    private final ReadWriteLock memtableLock = new ReentrantReadWriteLock();
 
     /**
      * Opens of creates a new LSMTree. This is a blocking call as it handles
@@ -78,7 +203,17 @@ public class LSMTree implements Closeable {
      * @return
      */
     public static LSMTree openOrCreate(Path filePath) {
-        var lsmTree = new LSMTree(filePath);
+        return openOrCreate(filePath, LSMTreeConfiguration.builder().build());
+    }
+
+    /**
+     * Opens or creates a new LSMTree with the given configuration.
+     * @param filePath
+     * @param configuration
+     * @return
+     */
+    public static LSMTree openOrCreate(Path filePath, LSMTreeConfiguration configuration) {
+        var lsmTree = new LSMTree(filePath, configuration);
 
         if (!Files.exists(lsmTree.filePath)) {
             try {
@@ -89,9 +224,20 @@ public class LSMTree implements Closeable {
             }
         }
 
-        // Delete any orphaned merge results "file.1-0"
+        // Delete any orphaned merge and flush results "file.1-0", segments missing from the
+        // manifest and value log files no segment references
         try {
+            lsmTree.loadManifest();
             lsmTree.purgeOrphanedSegments();
+            lsmTree.openValueLog();
+        } catch (IOException e) {
+            // TODO Auto-generated catch block
+            throw new RuntimeException(e);
+        }
+
+        // Frozen WAL files belong to memtables that never made it to their segment
+        try {
+            lsmTree.recoverFrozenMemtables();
         } catch (IOException e) {
             // TODO Auto-generated catch block
             throw new RuntimeException(e);
@@ -101,36 +247,128 @@ public class LSMTree implements Closeable {
             lsmTree.rebuildIndex();
         }
 
+        lsmTree.start();
         return lsmTree;
     }
-    
+
     /**
      * Private constructor; use {@code}openOrCreate(){@code}
      * @param filePath
      */
-    private LSMTree(Path filePath) {
+    private LSMTree(Path filePath, LSMTreeConfiguration configuration) {
+        this.configuration = configuration;
+        this.sstableConfiguration = configuration.getSstableConfiguration();
+        memtable = newMemtable();
         this.filePath = filePath.getParent();
         fileName = filePath.getName(filePath.getNameCount() - 1);
         walFile = filePath;
+        manifestFile = this.filePath.resolve(fileName + ".manifest");
+        valueLog = new ValueLog(this.filePath, fileName.toString(), configuration.getValueLogFileSize());
+
+        compactionPicker = switch (configuration.getCompactionStyle()) {
+            case LEVELED -> new LeveledCompactionPicker(configuration);
+            case SIZE_TIERED -> new SizeTieredCompactionPicker(configuration);
+            default -> null;
+        };
+
+        isFlushExecutorOwned = configuration.getFlushExecutor() == null;
+        flushExecutor = isFlushExecutorOwned
+            ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+                var thread = new Thread(runnable, "lsmtree-flush-" + fileName);
+                thread.setDaemon(true);
+                return thread;
+            })
+            : configuration.getFlushExecutor();
+        compactionExecutor = configuration.getCompactionExecutor() != null ? configuration.getCompactionExecutor() : flushExecutor;
+
+        isIoExecutorOwned = configuration.getIoExecutor() == null;
+        var ioThreads = Math.max(1, configuration.getIoThreads());
+        var ioThreadCount = new AtomicInteger();
+        ioExecutor = isIoExecutorOwned
+            ? new ThreadPoolExecutor(ioThreads, ioThreads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(configuration.getIoQueueSize()), runnable -> {
+                var thread = new Thread(runnable, "lsmtree-io-" + fileName + "-" + ioThreadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            })
+            : configuration.getIoExecutor();
+        pendingWrites = new ArrayBlockingQueue<>(configuration.getIoQueueSize());
+    }
+
+    /**
+     * Reserves segment indexes past every existing segment and frozen WAL, flushes any recovered
+     * memtables and starts checking the memtable's age.
+     */
+    private void start() {
+        for (var segment : manifest.getSegments()) {
+            nextSegmentIndex.accumulateAndGet(segment.getIndex() + 1, Math::max);
+        }
+
+        if (isWalLegacy) freeze(memtable);
+        if (!frozenMemtables.isEmpty()) flushExecutor.execute(this::flushFrozenMemtables);
+        scheduleCompaction();
+
+        var maxAge = configuration.getMemtableMaxAgeInMilliseconds();
+        if (maxAge > 0) {
+            var period = Math.max(1, maxAge / 2);
+            expiryCheck = flushExecutor.scheduleWithFixedDelay(this::flushIfExpired, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        if (configuration.getWalDurability() == WalDurability.INTERVAL) {
+            var interval = configuration.getWalSyncIntervalInMilliseconds();
+            walSync = flushExecutor.scheduleWithFixedDelay(this::syncWal, interval, interval, TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
-     * Reads each line of an unprocessed WAL file and updates the in-memory
-     * cache.
+     * Replays the unprocessed WAL file into the memtable. A torn or corrupt tail left by a crash
+     * is cut off so new records follow the last valid one.
      */
     private void rebuildIndex() {
         try {
+            if (WriteAheadLog.isLegacy(walFile)) {
+                // New records are binary so the text log is flushed as soon as the tree starts
+                replayLegacyWal(walFile, memtable);
+                isWalLegacy = true;
+                return;
+            }
+
+            var validLength = replayWal(walFile, memtable);
+            WriteAheadLog.truncate(walFile, validLength);
+        } catch (IOException e) {
+            // TODO Auto-generated catch block
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return Length of the WAL up to the end of its last valid record
+     */
+    private long replayWal(Path walFile, Memtable memtable) throws IOException {
+        return WriteAheadLog.replay(walFile, (sequence, key, value, expiresAt) -> {
+            lastSequence.accumulateAndGet(sequence, Math::max);
+            memtable.put(key, value == null ? LSMTreeValue.tombstone(sequence) : new LSMTreeValue(value, sequence, expiresAt));
+        }, (sequence, fromKey, toKey) -> {
+            lastSequence.accumulateAndGet(sequence, Math::max);
+            memtable.deleteRange(new RangeTombstone(fromKey, toKey, sequence));
+        });
+    }
+
+    /**
+     * Replays a WAL written as Base64 text lines, before WAL records were binary.
+     */
+    private void replayLegacyWal(Path walFile, Memtable memtable) {
+        try (var lines = Files.lines(walFile)) {
             final var decoder = Base64.getDecoder();
-            Files.lines(walFile).forEach(line -> {
+            lines.forEach(line -> {
                 var tokens = line.split(":");
                 var isTombstone = tokens.length == 1;
-                var key = new String(decoder.decode(tokens[0]));
+                var key = Keys.fromBytes(decoder.decode(tokens[0]));
                 try {
                     var value = isTombstone
                         ? LSMTreeValue.TOMBSTONE
-                        : new LSMTreeValue(configuration.serializerFactory.createDeserializer(
+                        : new LSMTreeValue(sstableConfiguration.serializerFactory.createDeserializer(
                             new ByteArrayInputStream(tokens[1].getBytes())).read());
-                    memoryMap.put(key, value);
+                    memtable.put(key, value);
                 } catch (IOException e) {
                     // TODO Auto-generated catch block
                     throw new RuntimeException(e);
@@ -142,22 +380,203 @@ public class LSMTree implements Closeable {
         }
     }
 
+    /**
+     * Rebuilds the memtables of frozen WAL files "file.N.wal" so they're flushed to segment N. A
+     * frozen WAL whose segment already exists was flushed but not yet deleted.
+     */
+    private void recoverFrozenMemtables() throws IOException {
+        var pathMatcher = FileSystems.getDefault().getPathMatcher(MessageFormat.format("regex:{0}/{1}\\.[0-9]*\\.wal$", filePath, fileName));
+        var frozenWalFiles = new ArrayList<Path>();
+        try (var files = Files.newDirectoryStream(filePath, pathMatcher::matches)) {
+            for (var file : files) frozenWalFiles.add(file);
+        }
+
+        // Oldest last
+        frozenWalFiles.sort(Comparator.comparingLong((Path file) -> frozenWalIndex(file)).reversed());
+        for (var frozenWalFile : frozenWalFiles) {
+            var index = frozenWalIndex(frozenWalFile);
+            nextSegmentIndex.accumulateAndGet(index + 1, Math::max);
+            if (manifest.contains(index)) {
+                Files.delete(frozenWalFile);
+                continue;
+            }
+
+            var frozenMemtable = newMemtable();
+            if (WriteAheadLog.isLegacy(frozenWalFile)) replayLegacyWal(frozenWalFile, frozenMemtable);
+            else replayWal(frozenWalFile, frozenMemtable);
+            frozenMemtables.add(new FrozenMemtable(frozenMemtable, index, frozenWalFile));
+        }
+    }
+
+    /**
+     * A fresh memtable, held on or off the heap as configured.
+     */
+    private Memtable newMemtable() {
+        return configuration.getMemtableStorage() == MemtableStorage.OFF_HEAP
+            ? Memtable.offHeap(configuration.getMemtableArenaChunkSize())
+            : new Memtable();
+    }
+
+    /**
+     * Returns the value or tombstone of the key held in memory, if any.
+     */
+    private LSMTreeValue getFromMemory(String key) {
+        // Read the active memtable first; it's frozen before it's replaced
+        var lsmTreeValue = memtable.read(key, Long.MAX_VALUE);
+        if (lsmTreeValue != null) return lsmTreeValue;
+
+        for (var frozenMemtable : frozenMemtables) {
+            lsmTreeValue = frozenMemtable.memtable.read(key, Long.MAX_VALUE);
+            if (lsmTreeValue != null) return lsmTreeValue;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the value or tombstone of the key held in a snapshot's memtables, if any.
+     */
+    private static LSMTreeValue getFromMemory(LSMTreeSnapshot snapshot, String key) {
+        for (var memtable : snapshot.getMemtables()) {
+            var lsmTreeValue = memtable.read(key, snapshot.getSequence());
+            if (lsmTreeValue != null) return lsmTreeValue;
+        }
+
+        return null;
+    }
+
+    /**
+     * Takes a snapshot of the tree; see {@link LSMTreeSnapshot}. Writers are held off while it's
+     * taken so every write up to its sequence number is in the memtables it pins.
+     */
+    public LSMTreeSnapshot snapshot() {
+        memtableLock.writeLock().lock();
+        try {
+            var sequence = lastSequence.get();
+            var memtables = new ArrayList<Memtable>(frozenMemtables.size() + 1);
+            memtables.add(memtable);
+            for (var frozenMemtable : frozenMemtables) memtables.add(frozenMemtable.memtable);
+            // A memtable freed since is in the manifest taken below
+            memtables.removeIf(memtable -> !memtable.acquire());
+
+            // Compactions release their inputs after installing the manifest that drops them
+            Manifest manifest;
+            synchronized (segmentLock) {
+                manifest = this.manifest;
+                for (var segment : manifest.getSegments()) segment.acquire();
+            }
+
+            synchronized (snapshotLock) {
+                snapshotSequences.merge(sequence, 1, Integer::sum);
+                retainedSequence = snapshotSequences.firstKey();
+            }
+            return new LSMTreeSnapshot(this, sequence, List.copyOf(memtables), manifest);
+        } finally {
+            memtableLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops retaining versions for a closed snapshot and releases its segments.
+     */
+    /*package*/ void release(LSMTreeSnapshot snapshot) throws IOException {
+        synchronized (snapshotLock) {
+            if (snapshotSequences.merge(snapshot.getSequence(), -1, Integer::sum) == 0) snapshotSequences.remove(snapshot.getSequence());
+            retainedSequence = snapshotSequences.isEmpty() ? Long.MAX_VALUE : snapshotSequences.firstKey();
+        }
+
+        for (var memtable : snapshot.getMemtables()) memtable.release();
+        for (var segment : snapshot.getManifest().getSegments()) release(segment);
+    }
+
+    /**
+     * Releases a reference to a segment, closing and deleting it once nothing references it.
+     */
+    private void release(Segment segment) throws IOException {
+        if (!segment.release()) return;
+        Collection<Long> valueLogFiles = valueLog.isEmpty() ? List.of() : segment.getSstable().getValueLogReferences().keySet();
+        segment.getSstable().close();
+        Files.deleteIfExists(segmentPath(segment.getIndex()));
+
+        // The segment may have been the last to point into some value log files
+        if (!valueLogFiles.isEmpty()) valueLog.release(valueLogFiles);
+    }
+
+    /**
+     * Acquires the current manifest's segments that may hold the key so a compaction can't delete
+     * them while they're read. A compaction may release one before it's acquired, once the
+     * manifest replacing it is installed, in which case the new manifest is tried.
+     */
+    private List<Segment> acquireCandidates(String key) {
+        while (true) {
+            var candidates = manifest.getCandidates(key);
+            var acquired = 0;
+            while (acquired < candidates.size() && candidates.get(acquired).tryAcquire()) acquired++;
+            if (acquired == candidates.size()) return candidates;
+
+            release(candidates.subList(0, acquired));
+        }
+    }
+
+    private void release(List<Segment> segments) {
+        try {
+            for (var segment : segments) release(segment);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     /**
      * Returns true if the key is contained within the LSMTree.
      * @param key The key to search for
      * @return True if the key is contained within the LSMTree; false otherwise
      */
     public boolean containsKey(String key) {
-        if (memoryMap.containsKey(key)) {
-            var lsmTreeValue = memoryMap.get(key);
-            return lsmTreeValue != null && !lsmTreeValue.isTombstone();
+        return contains(Keys.fromText(key));
+    }
+
+    /**
+     * Returns true if the key is contained within the LSMTree.
+     * @param key The key to search for
+     * @return True if the key is contained within the LSMTree; false otherwise
+     */
+    public boolean containsKey(byte[] key) {
+        return contains(Keys.fromBytes(key));
+    }
+
+    private boolean contains(String key) {
+        var lsmTreeValue = getFromMemory(key);
+        if (lsmTreeValue != null) return !lsmTreeValue.isDeleted(System.currentTimeMillis());
+
+        var candidates = acquireCandidates(key);
+        try {
+            return containsKey(candidates, key);
+        } finally {
+            release(candidates);
         }
+    }
 
-        var segments = getSegments();
-        for (var segment : segments.entrySet()) {
+    /**
+     * @param key The key as a byte string; see {@link Keys}
+     */
+    /*package*/ boolean containsKey(LSMTreeSnapshot snapshot, String key) {
+        var lsmTreeValue = getFromMemory(snapshot, key);
+        if (lsmTreeValue != null) return !lsmTreeValue.isDeleted(System.currentTimeMillis());
+
+        return containsKey(snapshot.getManifest().getCandidates(key), key);
+    }
+
+    /**
+     * @param candidates Segments that may hold the key, in the order they're read; see
+     *                   {@link Manifest#getCandidates(String)}
+     */
+    private boolean containsKey(List<Segment> candidates, String key) {
+        for (var segment : candidates) {
             try {
-                var containsKey = segment.getValue().containsKey(key);
-                if (containsKey.isHasKey()) return !containsKey.isTombstone();
+                var result = segment.getSstable().tryGetValueOrContains(key, true);
+                if (result != null) return !result.isTombstone();
+                // A segment's range tombstones only delete the keys of older segments
+                if (segment.getSstable().isRangeDeleted(key)) return false;
             } catch (FileNotFoundException e) {
                 // TODO Auto-generated catch block
                 throw new RuntimeException(e);
@@ -170,11 +589,25 @@ public class LSMTree implements Closeable {
         return false;
     }
 
+    /**
+     * Returns the typed value associated with the key or null if it is not set in the LSMTree.
+     * Values written with a codec are decoded with the codec of {@code cls}, so they must be read
+     * as the class they were written as; others are Java deserialized. Values written with
+     * {@link #put(byte[], byte[])} can't be told apart from typed ones, so don't write a key with
+     * both.
+     * @param key The key to search for
+     * @param cls The class of the value
+     */
     public <T> T get(String key, Class<T> cls) throws ClassNotFoundException {
-        var serializedString = get(key);
-        if (serializedString == null) return null;
-        // TODO: Encoding
-        try (var inputStream = new ByteArrayInputStream(serializedString.getBytes(StandardCharsets.ISO_8859_1))) {
+        var serialized = read(Keys.fromText(key));
+        if (serialized == null) return null;
+        if (serialized.length > 0 && serialized[0] == CODEC_VALUE) {
+            var codec = configuration.getCodecRegistry().getCodec(cls);
+            if (codec == null) throw new IllegalArgumentException("No codec for " + cls.getName());
+            return codec.decode(Arrays.copyOfRange(serialized, 1, serialized.length));
+        }
+        if (isLegacyObject(serialized)) serialized = new String(serialized, StandardCharsets.UTF_8).getBytes(StandardCharsets.ISO_8859_1);
+        try (var inputStream = new ByteArrayInputStream(serialized)) {
             try (var outputStream = new ObjectInputStream(inputStream)) {
                 @SuppressWarnings("unchecked")
                 var output = (T) outputStream.readObject();
@@ -189,25 +622,71 @@ public class LSMTree implements Closeable {
         throw new RuntimeException("Unexpected unserialized? response");
     }
 
+    /**
+     * Objects used to be stored as the UTF-8 encoding of their serialized bytes read as ISO-8859-1
+     * text, which turns the stream magic 0xACED into these bytes.
+     */
+    private static boolean isLegacyObject(byte[] serialized) {
+        return serialized.length >= 4 && serialized[0] == (byte) 0xC2 && serialized[1] == (byte) 0xAC && serialized[2] == (byte) 0xC3 && serialized[3] == (byte) 0xAD;
+    }
+
     /**
      * Returns the value associated with the key or null if it is not set in
      * the LSMTree.
      * @param key The key to search for
-     * @return The value associated or null
+     * @return The value associated, decoded as UTF-8, or null
      */
     public String get(String key) {
-        if (memoryMap.containsKey(key)) {
-            var lsmTreeValue = memoryMap.get(key);
+        var value = read(Keys.fromText(key));
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the value associated with the key or null if it is not set in
+     * the LSMTree.
+     * @param key The key to search for
+     * @return The value associated or null
+     */
+    public byte[] get(byte[] key) {
+        return read(Keys.fromBytes(key));
+    }
+
+    private byte[] read(String key) {
+        var lsmTreeValue = getFromMemory(key);
+        if (lsmTreeValue != null) {
             // Tombstoned
-            if (lsmTreeValue == LSMTreeValue.TOMBSTONE) return null;
-            return lsmTreeValue.getValue();
+            if (lsmTreeValue.isDeleted(System.currentTimeMillis())) return null;
+            return lsmTreeValue.getValueBytes();
+        }
+
+        var candidates = acquireCandidates(key);
+        try {
+            return read(candidates, key);
+        } finally {
+            release(candidates);
         }
+    }
+
+    /**
+     * @param key The key as a byte string; see {@link Keys}
+     */
+    /*package*/ byte[] read(LSMTreeSnapshot snapshot, String key) {
+        var lsmTreeValue = getFromMemory(snapshot, key);
+        if (lsmTreeValue != null) return lsmTreeValue.isDeleted(System.currentTimeMillis()) ? null : lsmTreeValue.getValueBytes();
+
+        return read(snapshot.getManifest().getCandidates(key), key);
+    }
 
-        var segments = getSegments();
-        for (var segment : segments.entrySet()) {
+    /**
+     * @param candidates Segments that may hold the key, in the order they're read; see
+     *                   {@link Manifest#getCandidates(String)}
+     */
+    private byte[] read(List<Segment> candidates, String key) {
+        for (var segment : candidates) {
             try {
-                var result = segment.getValue().tryGetValue(key);
-                if (result != null) return result.getValue();
+                var result = segment.getSstable().tryGetValueOrContains(key, false);
+                if (result != null) return result.getValuePointer() != null ? valueLog.read(result.getValuePointer()) : result.getValueBytes();
+                if (segment.getSstable().isRangeDeleted(key)) return null;
             } catch (FileNotFoundException e) {
                 // TODO Auto-generated catch block
                 throw new RuntimeException(e);
@@ -220,196 +699,1295 @@ public class LSMTree implements Closeable {
         return null;
     }
 
-    public <T> void put(String key, T value) {
-        if (key == null) throw new InvalidParameterException("Key cannot be null");
-        if (key.isEmpty()) throw new InvalidParameterException("Key cannot be empty");
-        if (value == null) throw new InvalidParameterException("Value cannot be null");
-
-        try (var outputStream = new ByteArrayOutputStream()) {
-            try (var objectStream = new ObjectOutputStream(outputStream)) {
-                objectStream.writeObject(value);
-                objectStream.flush();
-            }
-
-            var string = new String(outputStream.toByteArray(), StandardCharsets.ISO_8859_1);
-            put(key, string);
-        } catch (IOException ignored) { }
+    /**
+     * Iterates the keys from {@code fromKey} (inclusive) to {@code toKey} (exclusive) in key order.
+     * @param fromKey First key of the scan; null to start at the first key
+     * @param toKey Key the scan stops before; null to scan to the last key
+     */
+    public LSMTreeIterator scan(String fromKey, String toKey) {
+        return scan(fromKey, toKey, false, 0);
     }
 
     /**
-     * Associates a value with a key. {@code}value{@code} cannot be null.
-     * @param key The key to associate the value with
-     * @param value The value to be associated
+     * Iterates the keys from {@code fromKey} (inclusive) to {@code toKey} (exclusive). The memtables
+     * and every segment holding keys in the range are merged lazily; only a block of each is held
+     * in memory at a time. The scan reads a snapshot taken when it starts, so writes made during
+     * the scan aren't seen.
+     * @param fromKey First key of the scan; null to start at the first key
+     * @param toKey Key the scan stops before; null to scan to the last key
+     * @param isReversed True to iterate from the last key in the range to the first
+     * @param limit Most pairs returned; 0 for no limit
      */
-    public void put(String key, String value) {
-        if (key == null) throw new InvalidParameterException("Key cannot be null");
-        if (key.isEmpty()) throw new InvalidParameterException("Key cannot be empty");
-        if (value == null) throw new InvalidParameterException("Value cannot be null");
+    public LSMTreeIterator scan(String fromKey, String toKey, boolean isReversed, int limit) {
+        return scan(snapshot(), Keys.fromText(fromKey), Keys.fromText(toKey), isReversed, limit, true);
+    }
 
-        walWrite(key, value);
-        memoryMap.put(key, new LSMTreeValue(value));
+    /**
+     * Iterates the keys from {@code fromKey} (inclusive) to {@code toKey} (exclusive) in key order;
+     * see {@link #scan(String, String, boolean, int)}.
+     * @param fromKey First key of the scan; null to start at the first key
+     * @param toKey Key the scan stops before; null to scan to the last key
+     */
+    public LSMTreeBytesIterator scanBytes(byte[] fromKey, byte[] toKey) {
+        return scanBytes(fromKey, toKey, false, 0);
     }
 
     /**
-     * Removes a key/value pair from the LSMTree.
-     * @param key
+     * Iterates the keys from {@code fromKey} (inclusive) to {@code toKey} (exclusive); see
+     * {@link #scan(String, String, boolean, int)}.
+     * @param fromKey First key of the scan; null to start at the first key
+     * @param toKey Key the scan stops before; null to scan to the last key
+     * @param isReversed True to iterate from the last key in the range to the first
+     * @param limit Most pairs returned; 0 for no limit
      */
-    public void remove(String key) {
-        walDelete(key);
-        memoryMap.put(key, LSMTreeValue.TOMBSTONE);
+    public LSMTreeBytesIterator scanBytes(byte[] fromKey, byte[] toKey, boolean isReversed, int limit) {
+        return scanBytes(snapshot(), Keys.fromBytes(fromKey), Keys.fromBytes(toKey), isReversed, limit, true);
     }
 
     /**
-     * Flushes the LSMTree to disk; this writes all entries in the in-memory
-     * cache out to a new SSTable.
+     * @param fromKey The key as a byte string; see {@link Keys}
+     * @param toKey The key as a byte string
+     * @param isSnapshotOwned True to close the snapshot along with the iterator
      */
-    public void flush() {
-        // Write the sorted map to a new segment file
-        synchronized (segmentLock) {
-            var segments = getSegments();
+    /*package*/ LSMTreeIterator scan(LSMTreeSnapshot snapshot, String fromKey, String toKey, boolean isReversed, int limit, boolean isSnapshotOwned) {
+        var merged = merge(snapshot, fromKey, toKey, isReversed, isSnapshotOwned);
+        return new LSMTreeIterator(merged, limit, sstableConfiguration.serializerFactory, valueLog, isSnapshotOwned ? snapshot : null);
+    }
 
-            try {
-                // TODO: Come up with a better way to avoid needless? locking
-                // Ensure the wal is locked as it stops all writing
-                synchronized (walLock) {
-                    var entries = new ArrayList<>(memoryMap.entrySet());
-
-                    entries.sort(Entry.comparingByKey());
-                    var nextSegmentIndex = segments.size() == 0 ? 0 : Integer.parseInt(segments.lastKey().substring(segments.lastKey().lastIndexOf('.') + 1)) + 1;
-                    var nextSegmentFileName = filePath.resolve(fileName + "." + nextSegmentIndex).toString();
-                    try (var out = new FileOutputStream(nextSegmentFileName); var sstableWriter = new SSTableWriter(out, configuration.serializerFactory)) {
-                        // TODO: Only write out entries that have changed from their last SSTable entry
-                        for (var pair : entries) {
-                            var key = pair.getKey();
-                            var lsmTreeValue = pair.getValue();
-
-                            // Write out the entry
-                            if (lsmTreeValue != null && lsmTreeValue.getValue() != null) sstableWriter.write(key, lsmTreeValue.getValue());
-                            else sstableWriter.writeTombstone(key);
-                        }
-                    }
+    /**
+     * Like {@link #scan(LSMTreeSnapshot, String, String, boolean, int, boolean)}, returning bytes.
+     */
+    /*package*/ LSMTreeBytesIterator scanBytes(LSMTreeSnapshot snapshot, String fromKey, String toKey, boolean isReversed, int limit, boolean isSnapshotOwned) {
+        var merged = merge(snapshot, fromKey, toKey, isReversed, isSnapshotOwned);
+        return new LSMTreeBytesIterator(merged, limit, sstableConfiguration.serializerFactory, valueLog, isSnapshotOwned ? snapshot : null);
+    }
 
-                    // Delete the wall
-                    Files.deleteIfExists(walFile);
-                    memoryMap.clear();
-                    segments.put(nextSegmentFileName, new SSTable(Path.of(nextSegmentFileName), configuration));
+    /**
+     * Merges the snapshot's memtables and every segment holding keys in the range; an owned
+     * snapshot is closed if that fails.
+     */
+    private MergingIterator merge(LSMTreeSnapshot snapshot, String fromKey, String toKey, boolean isReversed, boolean isSnapshotOwned) {
+        var iterators = new ArrayList<EntryIterator>();
+        // Range tombstones of the sources added so far, which delete the keys of older sources
+        var rangeTombstones = new ArrayList<RangeTombstone>();
+        try {
+            // Newest first
+            for (var memtable : snapshot.getMemtables()) {
+                iterators.add(RangeTombstone.filter(memtableIterator(memtable, fromKey, toKey, isReversed, snapshot.getSequence()), List.copyOf(rangeTombstones)));
+                for (var rangeTombstone : memtable.getRangeTombstones(snapshot.getSequence())) {
+                    if (rangeTombstone.overlapsRange(fromKey, toKey)) rangeTombstones.add(rangeTombstone);
+                }
+            }
+            for (var segment : snapshot.getManifest().getSegments()) {
+                if (!segment.overlapsRange(fromKey, toKey)) continue;
+                iterators.add(RangeTombstone.filter(segment.getSstable().scan(fromKey, toKey, isReversed), List.copyOf(rangeTombstones)));
+                for (var rangeTombstone : segment.getSstable().getRangeTombstones()) {
+                    if (rangeTombstone.overlapsRange(fromKey, toKey)) rangeTombstones.add(rangeTombstone);
                 }
-            } catch (IOException e) {
-                // TODO
-                throw new RuntimeException(e);
             }
+
+            return new MergingIterator(iterators, isReversed);
+        } catch (IOException | RuntimeException e) {
+            closeAll(iterators);
+            if (isSnapshotOwned) {
+                try { snapshot.close(); } catch (IOException suppressed) { e.addSuppressed(suppressed); }
+            }
+            if (e instanceof RuntimeException) throw (RuntimeException) e;
+            throw new UncheckedIOException((IOException) e);
         }
     }
 
     /**
-     * Blocking call that compacts all SSTables into a single SSTable.
-     * @throws FileNotFoundException
-     * @throws IOException
+     * Iterates the keys starting with {@code prefix} in key order.
      */
-    public void compact() throws FileNotFoundException, IOException {
-        var segments = getSegments();
-        while (segments.size() > 1) {
-            var keys = segments.keySet().toArray(new String[0]);
-            var olderFile = keys[keys.length - 1];
-            var newerFile = keys[keys.length - 2];
-            incrementalCompact(Path.of(olderFile), Path.of(newerFile));
-        }
+    public LSMTreeIterator prefix(String prefix) {
+        return prefix(prefix, false, 0);
     }
 
-    private void incrementalCompact(Path olderFile, Path newerFile) throws FileNotFoundException, IOException {
-        var outputFile = Path.of(newerFile.toString() + "-0");
+    /**
+     * Iterates the keys starting with {@code prefix}.
+     * @param isReversed True to iterate from the last key with the prefix to the first
+     * @param limit Most pairs returned; 0 for no limit
+     */
+    public LSMTreeIterator prefix(String prefix, boolean isReversed, int limit) {
+        var start = getPrefixStart(Keys.fromText(prefix));
+        return scan(snapshot(), start, getKeyPrefixEnd(start), isReversed, limit, true);
+    }
 
-        // Compact new,old to new-0
-        // Segments, if reloaded at this point, will still only grab new/old
-        SSTable.compact(olderFile, newerFile, outputFile);
+    /**
+     * Iterates the keys starting with {@code prefix} in key order.
+     */
+    public LSMTreeBytesIterator prefixBytes(byte[] prefix) {
+        return prefixBytes(prefix, false, 0);
+    }
 
-        // Need to lock the segment when we perform the overwrite as the replaced index needs to
-        // be regenerated
-        synchronized (segmentLock) {
-            // Overwrite new with new-0; potentially leaving old behind which is fine as it's values
-            // are safely merged into new-0
-            Files.move(outputFile, newerFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
-            segments.put(newerFile.toString(), new SSTable(newerFile, configuration));
-            segments.remove(olderFile.toString());
-        }
+    /**
+     * Iterates the keys starting with {@code prefix}.
+     * @param isReversed True to iterate from the last key with the prefix to the first
+     * @param limit Most pairs returned; 0 for no limit
+     */
+    public LSMTreeBytesIterator prefixBytes(byte[] prefix, boolean isReversed, int limit) {
+        var start = getPrefixStart(Keys.fromBytes(prefix));
+        return scanBytes(snapshot(), start, getKeyPrefixEnd(start), isReversed, limit, true);
+    }
 
-        // Finally, delete old
-        Files.delete(olderFile);
+    /*package*/ static String getPrefixStart(String prefix) {
+        if (prefix == null) throw new InvalidParameterException("Prefix cannot be null");
+        return prefix.isEmpty() ? null : prefix;
     }
 
-    private void purgeOrphanedSegments() throws IOException {
-        var pathMatcher = FileSystems.getDefault().getPathMatcher(MessageFormat.format("regex:{0}/{1}\\.[0-9]*\\-0$", filePath, fileName));
-        try (var files = Files.newDirectoryStream(filePath, pathMatcher::matches)) {
-            for (var file : files) {
-                try { Files.deleteIfExists(file); } catch (IOException ignored) { }
-            }
-        }
+    /**
+     * The smallest key that sorts after every key starting with {@code prefix}, both byte strings,
+     * or null if there's none; the prefix with its last byte incremented, dropping trailing 0xFF
+     * bytes.
+     */
+    /*package*/ static String getKeyPrefixEnd(String prefix) {
+        if (prefix == null) return null;
+        var end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == 0xFF) end--;
+        if (end == 0) return null;
+        return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
     }
 
-    private void walWrite(String key, String value) {
-        synchronized (walLock) {
-            try {
-                if (walOutputStream == null) {
-                    walOutputStream = new FileOutputStream(walFile.toString());
-                    walSerializer = configuration.serializerFactory.createStreamSerializer(walOutputStream);
-                }
+    /**
+     * The smallest text key that sorts after every text key starting with {@code prefix}, or null
+     * if there's none. Text keys are ordered by code point so this is the prefix with its last
+     * code point incremented, dropping trailing maximal code points.
+     */
+    public static String getPrefixEnd(String prefix) {
+        var end = prefix;
+        while (!end.isEmpty()) {
+            var last = end.codePointBefore(end.length());
+            end = end.substring(0, end.length() - Character.charCount(last));
+            if (last < Character.MAX_CODE_POINT) return end + Character.toString(last + 1);
+        }
 
-                walOutputStream.write(encoder.encode(key.getBytes()));
-                walOutputStream.write(':');
-                walSerializer.write(value);
-                walOutputStream.write('\n');
-                walOutputStream.flush();
-            } catch (IOException e) {
-                // TODO
-                throw new RuntimeException(e);
+        return null;
+    }
+
+    /**
+     * Iterates the versions of a memtable's entries written at or before {@code sequence}; those
+     * deleted by a newer range tombstone are returned as tombstones.
+     */
+    private static EntryIterator memtableIterator(Memtable memtable, String fromKey, String toKey, boolean isReversed, long sequence) {
+        final var entries = memtable.range(fromKey, toKey, isReversed).iterator();
+        return new EntryIterator() {
+            private SSTable.Entry next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && entries.hasNext()) {
+                    var entry = entries.next();
+                    var version = entry.getValue().getVisible(sequence);
+                    if (version == null) continue;
+                    next = memtable.hasRangeTombstones() && memtable.getRangeDeleteSequence(entry.getKey(), sequence) > version.getSequence()
+                        ? SSTable.Entry.tombstone(entry.getKey())
+                        : new SSTable.Entry(entry.getKey(), version);
+                }
+                return next != null;
             }
+
+            @Override
+            public SSTable.Entry next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                var entry = next;
+                next = null;
+                return entry;
+            }
+
+            @Override
+            public void close() { }
+        };
+    }
+
+    private static void closeAll(List<EntryIterator> iterators) {
+        for (var iterator : iterators) {
+            try { iterator.close(); } catch (IOException ignored) { }
         }
     }
 
-    private void walDelete(String key) {
-        synchronized (walLock) {
+    /**
+     * Associates a typed value with a key. The value is encoded with the codec registered for its
+     * class in the configuration's {@link CodecRegistry}; classes without one are Java serialized.
+     * @param key The key to associate the value with
+     * @param value The value to be associated
+     */
+    public <T> void put(String key, T value) {
+        if (key == null) throw new InvalidParameterException("Key cannot be null");
+        if (key.isEmpty()) throw new InvalidParameterException("Key cannot be empty");
+        if (value == null) throw new InvalidParameterException("Value cannot be null");
+
+        @SuppressWarnings("unchecked")
+        var codec = configuration.getCodecRegistry().getCodec((Class<T>) value.getClass());
+        if (codec != null) {
+            var encoded = codec.encode(value);
+            var bytes = new byte[encoded.length + 1];
+            bytes[0] = CODEC_VALUE;
+            System.arraycopy(encoded, 0, bytes, 1, encoded.length);
+            putKey(Keys.fromText(key), bytes, LSMTreeValue.NEVER_EXPIRES);
+            return;
+        }
+
+        try (var outputStream = new ByteArrayOutputStream()) {
+            try (var objectStream = new ObjectOutputStream(outputStream)) {
+                objectStream.writeObject(value);
+                objectStream.flush();
+            }
+
+            putKey(Keys.fromText(key), outputStream.toByteArray(), LSMTreeValue.NEVER_EXPIRES);
+        } catch (IOException ignored) { }
+    }
+
+    /**
+     * Associates a value with a key. {@code}value{@code} cannot be null.
+     * @param key The key to associate the value with
+     * @param value The value to be associated
+     */
+    public void put(String key, String value) {
+        put(key, value, LSMTreeValue.NEVER_EXPIRES);
+    }
+
+    /**
+     * Associates a value with a key until {@code expiresAt}. Once expired the key reads as if it
+     * had been removed and compaction drops the value.
+     * @param expiresAt Milliseconds since the epoch; {@link LSMTreeValue#NEVER_EXPIRES} never
+     * expires
+     */
+    public void put(String key, String value, long expiresAt) {
+        putKey(Keys.fromText(key), value == null ? null : value.getBytes(StandardCharsets.UTF_8), expiresAt);
+    }
+
+    /**
+     * Associates a value with a key. {@code}value{@code} cannot be null.
+     * @param key The key to associate the value with
+     * @param value The value to be associated
+     */
+    public void put(byte[] key, byte[] value) {
+        put(key, value, LSMTreeValue.NEVER_EXPIRES);
+    }
+
+    /**
+     * Associates a value with a key until {@code expiresAt}; see {@link #put(String, String, long)}.
+     * @param expiresAt Milliseconds since the epoch; {@link LSMTreeValue#NEVER_EXPIRES} never
+     * expires
+     */
+    public void put(byte[] key, byte[] value, long expiresAt) {
+        putKey(Keys.fromBytes(key), value, expiresAt);
+    }
+
+    /**
+     * Associates the remaining bytes of {@code value} with the remaining bytes of {@code key};
+     * neither buffer's position is moved.
+     */
+    public void put(ByteBuffer key, ByteBuffer value) {
+        putKey(Keys.fromBytes(key), value == null ? null : toBytes(value), LSMTreeValue.NEVER_EXPIRES);
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        var bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private void putKey(String key, byte[] value, long expiresAt) {
+        validateKey(key);
+        if (value == null) throw new InvalidParameterException("Value cannot be null");
+
+        Memtable memtable;
+        memtableLock.readLock().lock();
+        try {
+            checkWritable();
+            var sequence = walWrite(key, value, expiresAt);
+            memtable = this.memtable;
+            memtable.put(key, new LSMTreeValue(value, sequence, expiresAt), retainedSequence);
+        } finally {
+            memtableLock.readLock().unlock();
+        }
+
+        flushIfFull(memtable);
+    }
+
+    /**
+     * Removes a key/value pair from the LSMTree.
+     * @param key
+     */
+    public void remove(String key) {
+        removeKey(Keys.fromText(key));
+    }
+
+    /**
+     * Removes a key/value pair from the LSMTree.
+     * @param key
+     */
+    public void remove(byte[] key) {
+        removeKey(Keys.fromBytes(key));
+    }
+
+    private void removeKey(String key) {
+        Memtable memtable;
+        memtableLock.readLock().lock();
+        try {
+            checkWritable();
+            var sequence = walDelete(key);
+            memtable = this.memtable;
+            memtable.put(key, LSMTreeValue.tombstone(sequence), retainedSequence);
+        } finally {
+            memtableLock.readLock().unlock();
+        }
+
+        flushIfFull(memtable);
+    }
+
+    /**
+     * Removes every key from {@code fromKey} (inclusive) to {@code toKey} (exclusive) with a
+     * single range tombstone, however many keys it covers. Writes made after it aren't affected.
+     * Compaction drops the keys it covers and, once nothing older is left, the tombstone itself.
+     */
+    public void deleteRange(String fromKey, String toKey) {
+        deleteKeyRange(Keys.fromText(fromKey), Keys.fromText(toKey));
+    }
+
+    /**
+     * Removes every key from {@code fromKey} (inclusive) to {@code toKey} (exclusive); see
+     * {@link #deleteRange(String, String)}.
+     */
+    public void deleteRange(byte[] fromKey, byte[] toKey) {
+        deleteKeyRange(Keys.fromBytes(fromKey), Keys.fromBytes(toKey));
+    }
+
+    private void deleteKeyRange(String fromKey, String toKey) {
+        validateRange(fromKey, toKey);
+
+        Memtable memtable;
+        memtableLock.readLock().lock();
+        try {
+            checkWritable();
+            var sequence = walDeleteRange(fromKey, toKey);
+            memtable = this.memtable;
+            memtable.deleteRange(new RangeTombstone(fromKey, toKey, sequence));
+        } finally {
+            memtableLock.readLock().unlock();
+        }
+
+        flushIfFull(memtable);
+    }
+
+    /**
+     * Throws if {@code fromKey} and {@code toKey} don't bound a range {@link #deleteRange(String, String)}
+     * accepts, so callers can reject a range before handing it off.
+     */
+    public static void validateRange(String fromKey, String toKey) {
+        if (fromKey == null) throw new InvalidParameterException("From key cannot be null");
+        if (toKey == null) throw new InvalidParameterException("To key cannot be null");
+        if (SSTableFormat.compareKeys(fromKey, toKey) >= 0) throw new InvalidParameterException("From key must sort before to key");
+    }
+
+    /**
+     * Rejects writes once the tree is closed; called under the memtable read lock so a write
+     * either finishes before {@link #close()} releases the memtables or doesn't start.
+     */
+    private void checkWritable() {
+        if (isClosed) throw new IllegalStateException("LSMTree is closed");
+    }
+
+    private static void validateKey(String key) {
+        if (key == null) throw new InvalidParameterException("Key cannot be null");
+        if (key.isEmpty()) throw new InvalidParameterException("Key cannot be empty");
+    }
+
+    /**
+     * Applies a batch of puts and removes with a single WAL record, so either all of them or none
+     * survive a crash. Readers may see a batch partly applied while it's being written, but
+     * snapshots never do.
+     */
+    public void write(WriteBatch batch) {
+        write(batch, false);
+    }
+
+    /**
+     * @param isQueued True for async writes, which {@link #close()} still writes once the tree is
+     *        closed to others
+     */
+    private void write(WriteBatch batch, boolean isQueued) {
+        if (batch.isEmpty()) return;
+
+        Memtable memtable;
+        memtableLock.readLock().lock();
+        try {
+            if (!isQueued) checkWritable();
+            var sequence = walWrite(batch);
+            memtable = this.memtable;
+            var retainedSequence = this.retainedSequence;
+            for (var operation : batch.getOperations()) {
+                if (operation.getToKey() != null) {
+                    memtable.deleteRange(new RangeTombstone(operation.getKey(), operation.getToKey(), sequence++));
+                    continue;
+                }
+
+                var value = operation.getValue() == null
+                    ? LSMTreeValue.tombstone(sequence)
+                    : new LSMTreeValue(operation.getValue(), sequence, operation.getExpiresAt());
+                memtable.put(operation.getKey(), value, retainedSequence);
+                sequence++;
+            }
+        } finally {
+            memtableLock.readLock().unlock();
+        }
+
+        flushIfFull(memtable);
+    }
+
+    /**
+     * Reads a key on the I/O executor; see {@link #get(String)}.
+     * @return The value, or a future failed with {@link RejectedExecutionException} if the
+     *         executor's queue is full
+     */
+    public CompletableFuture<String> getAsync(String key) {
+        return supplyAsync(() -> get(key));
+    }
+
+    /**
+     * Reads a key on the I/O executor; see {@link #getAsync(String)}.
+     */
+    public CompletableFuture<byte[]> getAsync(byte[] key) {
+        return supplyAsync(() -> get(key));
+    }
+
+    private <T> CompletableFuture<T> supplyAsync(Supplier<T> read) {
+        try {
+            // Reads queued on a shared executor may only run once the tree is closed
+            return CompletableFuture.supplyAsync(() -> {
+                if (isClosed) throw new CompletionException(new IOException("LSMTree is closed"));
+                return read.get();
+            }, ioExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Queues a put; see {@link #put(String, String)}. Queued writes are written together as a
+     * single {@link WriteBatch} on the I/O executor, so writes queued while a batch is being
+     * written share the next WAL record and complete together. Async writes apply in the order
+     * they're queued.
+     * @return Completes once the write is in the WAL and memtable, or fails with
+     *         {@link RejectedExecutionException} if too many writes are queued
+     */
+    public CompletableFuture<Void> putAsync(String key, String value) {
+        return putAsync(key, value, LSMTreeValue.NEVER_EXPIRES);
+    }
+
+    /**
+     * Queues a put of a value that expires; see {@link #putAsync(String, String)} and
+     * {@link #put(String, String, long)}.
+     */
+    public CompletableFuture<Void> putAsync(String key, String value, long expiresAt) {
+        return putKeyAsync(Keys.fromText(key), value == null ? null : value.getBytes(StandardCharsets.UTF_8), expiresAt);
+    }
+
+    /**
+     * Queues a put; see {@link #putAsync(String, String)}.
+     */
+    public CompletableFuture<Void> putAsync(byte[] key, byte[] value) {
+        return putAsync(key, value, LSMTreeValue.NEVER_EXPIRES);
+    }
+
+    /**
+     * Queues a put of a value that expires; see {@link #putAsync(String, String, long)}.
+     */
+    public CompletableFuture<Void> putAsync(byte[] key, byte[] value, long expiresAt) {
+        return putKeyAsync(Keys.fromBytes(key), value, expiresAt);
+    }
+
+    private CompletableFuture<Void> putKeyAsync(String key, byte[] value, long expiresAt) {
+        validateKey(key);
+        if (value == null) throw new InvalidParameterException("Value cannot be null");
+
+        return queueWrite(new PendingWrite(key, value, expiresAt, null));
+    }
+
+    /**
+     * Queues a removal; see {@link #putAsync(String, String)}.
+     */
+    public CompletableFuture<Void> removeAsync(String key) {
+        return removeKeyAsync(Keys.fromText(key));
+    }
+
+    /**
+     * Queues a removal; see {@link #putAsync(String, String)}.
+     */
+    public CompletableFuture<Void> removeAsync(byte[] key) {
+        return removeKeyAsync(Keys.fromBytes(key));
+    }
+
+    private CompletableFuture<Void> removeKeyAsync(String key) {
+        validateKey(key);
+
+        return queueWrite(new PendingWrite(key, null, LSMTreeValue.NEVER_EXPIRES, null));
+    }
+
+    /**
+     * Queues a removal of a range of keys; see {@link #putAsync(String, String)} and
+     * {@link #deleteRange(String, String)}.
+     */
+    public CompletableFuture<Void> deleteRangeAsync(String fromKey, String toKey) {
+        return deleteKeyRangeAsync(Keys.fromText(fromKey), Keys.fromText(toKey));
+    }
+
+    /**
+     * Queues a removal of a range of keys; see {@link #deleteRangeAsync(String, String)}.
+     */
+    public CompletableFuture<Void> deleteRangeAsync(byte[] fromKey, byte[] toKey) {
+        return deleteKeyRangeAsync(Keys.fromBytes(fromKey), Keys.fromBytes(toKey));
+    }
+
+    private CompletableFuture<Void> deleteKeyRangeAsync(String fromKey, String toKey) {
+        validateRange(fromKey, toKey);
+
+        return queueWrite(new PendingWrite(fromKey, null, LSMTreeValue.NEVER_EXPIRES, toKey));
+    }
+
+    private CompletableFuture<Void> queueWrite(PendingWrite pendingWrite) {
+        if (isClosed) return CompletableFuture.failedFuture(new IOException("LSMTree is closed"));
+        if (!pendingWrites.offer(pendingWrite)) return CompletableFuture.failedFuture(new RejectedExecutionException("Too many pending writes"));
+
+        // Closed since the check; close() may have already drained the queue for the last time
+        if (isClosed) writePending();
+        else schedulePendingWrites();
+        return pendingWrite.future;
+    }
+
+    private void schedulePendingWrites() {
+        if (pendingWrites.isEmpty() || !isPendingWriteScheduled.compareAndSet(false, true)) return;
+
+        try {
+            ioExecutor.execute(this::writePending);
+        } catch (RejectedExecutionException e) {
+            isPendingWriteScheduled.set(false);
+            var rejected = new ArrayList<PendingWrite>();
+            pendingWrites.drainTo(rejected);
+            for (var pendingWrite : rejected) pendingWrite.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Writes every pending write as one batch and completes their futures.
+     */
+    private void writePending() {
+        try {
+            synchronized (pendingWriteLock) {
+                var writes = new ArrayList<PendingWrite>();
+                pendingWrites.drainTo(writes);
+                if (writes.isEmpty()) return;
+                if (arePendingWritesClosed) {
+                    for (var pendingWrite : writes) pendingWrite.future.completeExceptionally(new IOException("LSMTree is closed"));
+                    return;
+                }
+
+                var batch = new WriteBatch();
+                for (var pendingWrite : writes) {
+                    if (pendingWrite.toKey != null) batch.deleteKeyRange(pendingWrite.key, pendingWrite.toKey);
+                    else if (pendingWrite.value == null) batch.removeKey(pendingWrite.key);
+                    else batch.putKey(pendingWrite.key, pendingWrite.value, pendingWrite.expiresAt);
+                }
+
+                try {
+                    write(batch, true);
+                } catch (RuntimeException e) {
+                    for (var pendingWrite : writes) pendingWrite.future.completeExceptionally(e);
+                    return;
+                }
+                for (var pendingWrite : writes) pendingWrite.future.complete(null);
+            }
+        } finally {
+            isPendingWriteScheduled.set(false);
+            // Writes queued after the drain may have missed the scheduled flag
+            if (!isClosed) schedulePendingWrites();
+        }
+    }
+
+    /**
+     * Flushes the LSMTree to disk; this writes all entries in the in-memory
+     * cache out to a new SSTable. Blocks until every frozen memtable has been written too.
+     */
+    public void flush() {
+        freeze(memtable);
+        flushFrozenMemtables();
+    }
+
+    private void flushIfFull(Memtable memtable) {
+        if (memtable.getApproximateSize() < configuration.getMemtableFlushSize()) return;
+        if (freeze(memtable)) flushExecutor.execute(this::flushFrozenMemtables);
+    }
+
+    private void flushIfExpired() {
+        var memtable = this.memtable;
+        var firstWriteNanos = memtable.getFirstWriteNanos();
+        if (firstWriteNanos == 0) return;
+        if (System.nanoTime() - firstWriteNanos < TimeUnit.MILLISECONDS.toNanos(configuration.getMemtableMaxAgeInMilliseconds())) return;
+
+        try {
+            if (freeze(memtable)) flushFrozenMemtables();
+        } catch (RuntimeException ignored) {
+            // The frozen memtable stays queued and is retried by the next flush
+        }
+    }
+
+    /**
+     * Atomically swaps the memtable and WAL file for fresh ones; the frozen WAL file is renamed
+     * "file.N.wal" where N is the index of the segment the frozen memtable will be written to.
+     * @param expected The memtable to freeze; nothing is frozen if it has already been replaced
+     * @return True if the memtable was frozen
+     */
+    private boolean freeze(Memtable expected) {
+        memtableLock.writeLock().lock();
+        try {
+            if (memtable != expected || expected.isEmpty()) return false;
+
+            var index = nextSegmentIndex.getAndIncrement();
+            var frozenWalFile = frozenWalPath(index);
+            synchronized (walLock) {
+                if (wal != null) wal.close();
+                wal = null;
+                if (Files.exists(walFile)) Files.move(walFile, frozenWalFile, StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            // Publish the frozen memtable before replacing it so readers always find it
+            frozenMemtables.add(0, new FrozenMemtable(expected, index, frozenWalFile));
+            memtable = newMemtable();
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            memtableLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the frozen memtables out to their segments, oldest first, so a segment is never
+     * installed before the segments it shadows.
+     */
+    private void flushFrozenMemtables() {
+        synchronized (flushLock) {
+            while (!frozenMemtables.isEmpty()) {
+                writeSegment(frozenMemtables.get(frozenMemtables.size() - 1));
+            }
+        }
+
+        scheduleCompaction();
+    }
+
+    private void writeSegment(FrozenMemtable frozenMemtable) {
+        var segmentFile = segmentPath(frozenMemtable.index);
+        var outputFile = Path.of(segmentFile.toString() + "-0");
+        var valueLogThreshold = configuration.getValueLogThreshold();
+        try {
+            // Keep the value log files written to until the segment references them
+            if (valueLogThreshold > 0) valueLog.pin();
             try {
-                if (walOutputStream == null) {
-                    walOutputStream = new FileOutputStream(walFile.toString());
-                    walSerializer = configuration.serializerFactory.createStreamSerializer(walOutputStream);
+                flushSegment(frozenMemtable, segmentFile, outputFile, valueLogThreshold);
+            } finally {
+                if (valueLogThreshold > 0) valueLog.unpin();
+            }
+
+            frozenMemtables.remove(frozenMemtable);
+            frozenMemtable.memtable.release();
+
+            // Delete the wall
+            Files.deleteIfExists(frozenMemtable.walFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes out and installs a frozen memtable's segment; values of at least
+     * {@code valueLogThreshold} bytes are appended to the value log, leaving the segment a
+     * pointer.
+     */
+    private void flushSegment(FrozenMemtable frozenMemtable, Path segmentFile, Path outputFile, int valueLogThreshold) throws IOException {
+        String smallestKey, largestKey;
+        try (var out = new FileOutputStream(outputFile.toString()); var sstableWriter = new SSTableWriter(out, sstableConfiguration)) {
+            // TODO: Only write out entries that have changed from their last SSTable entry
+            // The memtable is already in key order
+            var memtable = frozenMemtable.memtable;
+            for (var pair : memtable) {
+                var key = pair.getKey();
+                var lsmTreeValue = pair.getValue();
+
+                // Deleted by a later range tombstone, which the segment holds
+                if (memtable.hasRangeTombstones() && memtable.getRangeDeleteSequence(key, Long.MAX_VALUE) > lsmTreeValue.getSequence()) continue;
+
+                // Write out the entry; expired values are kept as they are so compaction can drop them
+                var valueBytes = lsmTreeValue != null ? lsmTreeValue.getValueBytes() : null;
+                if (valueBytes == null) sstableWriter.writeTombstone(Keys.toBytes(key));
+                else if (valueLogThreshold > 0 && valueBytes.length >= valueLogThreshold) sstableWriter.writeValuePointer(Keys.toBytes(key), valueLog.append(valueBytes), lsmTreeValue.getExpiresAt());
+                else sstableWriter.write(Keys.toBytes(key), valueBytes, lsmTreeValue.getExpiresAt());
+            }
+            for (var rangeTombstone : memtable.getRangeTombstones()) {
+                sstableWriter.writeRangeTombstone(Keys.toBytes(rangeTombstone.getFromKey()), Keys.toBytes(rangeTombstone.getToKey()));
+            }
+            smallestKey = Keys.fromBytes(sstableWriter.getFirstKey());
+            largestKey = Keys.fromBytes(sstableWriter.getLastKey());
+        }
+
+        // The segment and its separated values must be durable before the WAL holding them is
+        // deleted
+        FileSync.force(outputFile);
+        if (valueLogThreshold > 0) valueLog.sync();
+        Files.move(outputFile, segmentFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        FileSync.forceDirectory(filePath);
+
+        // Install the segment before dropping the frozen memtable so readers always find it
+        var segment = openSegment(frozenMemtable.index, 0, smallestKey, largestKey);
+        synchronized (segmentLock) {
+            installManifest(manifest.withFlushed(segment));
+        }
+    }
+
+    /**
+     * Opens a segment that was just written, taking its references to value log files.
+     */
+    private Segment openSegment(long index, int level, String smallestKey, String largestKey) throws IOException {
+        var segmentFile = segmentPath(index);
+        var segment = new Segment(index, level, smallestKey, largestKey, Files.size(segmentFile), new SSTable(segmentFile, sstableConfiguration));
+        if (!valueLog.isEmpty()) valueLog.retain(segment.getSstable().getValueLogReferences().keySet());
+        return segment;
+    }
+
+    /**
+     * Blocking call that compacts all SSTables into a single SSTable in one pass. Leveled trees
+     * compact into the deepest level, split into segments of the target size.
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    public void compact() throws FileNotFoundException, IOException {
+        compactionLock.lock();
+        try {
+            var segments = manifest.getSegments();
+            if (segments.size() < 2) return;
+
+            var outputLevel = configuration.getCompactionStyle() == CompactionStyle.LEVELED ? Math.max(1, manifest.getLevelCount() - 1) : 0;
+            compact(new Compaction(segments, outputLevel), false);
+        } finally {
+            compactionLock.unlock();
+        }
+
+        // Background compactions skipped while this one ran
+        scheduleCompaction();
+    }
+
+    /**
+     * Queues a background compaction unless one is already queued or running, or the tree is
+     * only compacted on demand.
+     */
+    private void scheduleCompaction() {
+        if (compactionPicker == null || isClosed) return;
+        if (!isCompactionScheduled.compareAndSet(false, true)) return;
+
+        try {
+            compactionExecutor.execute(this::compactIfNeeded);
+        } catch (RejectedExecutionException ignored) {
+            // Shutting down
+            isCompactionScheduled.set(false);
+        }
+    }
+
+    /**
+     * Runs the picked compactions until the layout doesn't need another. Stops early, discarding
+     * the compaction in progress, once the tree is closed.
+     */
+    private void compactIfNeeded() {
+        // Don't tie up a shared executor thread waiting; a running compaction picks again when
+        // it's done and a manual one schedules another
+        if (!compactionLock.tryLock()) {
+            isCompactionScheduled.set(false);
+            return;
+        }
+
+        try {
+            while (!isClosed) {
+                // Segments installed from here on queue another compaction
+                isCompactionScheduled.set(false);
+                var compaction = compactionPicker.pick(manifest);
+                if (compaction == null) break;
+                compact(compaction, true);
+            }
+
+            // Compactions leave the values they drop behind in the value log
+            if (!isClosed && configuration.getValueLogGarbageRatio() > 0) collectValueLog(true);
+        } catch (CompactionCancelledException ignored) {
+            // Closed mid compaction; the inputs are untouched
+        } catch (IOException | RuntimeException e) {
+            // Don't take down the shared executor's thread; the inputs are untouched and the next
+            // flush schedules another compaction
+            isCompactionScheduled.set(false);
+            LOGGER.log(Level.ERROR, "Background compaction of " + filePath + " failed", e);
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Merges the compaction's inputs in a single pass and swaps the merged segments in for them.
+     * Reads keep going to the inputs until the new manifest is installed. Outputs below level 0
+     * are split at the target segment size. Once the inputs hold the bottommost data for their
+     * keys, tombstones, range tombstones and expired values are dropped; until then expired values
+     * are kept as tombstones. Range tombstones drop the keys they cover from older inputs.
+     * Snapshots keep reading the inputs, so nothing they need is lost.
+     */
+    private void compact(Compaction compaction, boolean isCancellable) throws IOException {
+        var inputs = compaction.getInputs();
+        var outputLevel = compaction.getOutputLevel();
+        var splitSize = outputLevel > 0 ? configuration.getTargetSegmentSize() : Long.MAX_VALUE;
+
+        var inputPaths = new ArrayList<Path>(inputs.size());
+        var inputRangeTombstones = new ArrayList<List<RangeTombstone>>(inputs.size());
+        for (var input : inputs) {
+            inputPaths.add(segmentPath(input.getIndex()));
+            inputRangeTombstones.add(input.getSstable().getRangeTombstones());
+        }
+
+        var outputs = new ArrayList<Segment>();
+        try {
+            try (var merge = new CompactionMerge(inputPaths, inputRangeTombstones, manifest.isBottommost(inputs), System.currentTimeMillis())) {
+                var entries = new PeekingIterator(merge);
+                var outputRangeTombstones = merge.getRangeTombstones();
+                if (entries.hasNext() || !outputRangeTombstones.isEmpty()) {
+                    String lowerKey = null;
+                    do {
+                        var output = writeCompactionOutput(entries, outputRangeTombstones, lowerKey, outputLevel, splitSize, isCancellable);
+                        outputs.add(output);
+                        lowerKey = entries.hasNext() ? entries.peek().key : null;
+                    } while (entries.hasNext());
                 }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (var output : outputs) release(output);
+            throw e;
+        }
 
-                walOutputStream.write(encoder.encode(key.getBytes()));
-                walOutputStream.write(':');
-                walOutputStream.write('\n');
-                walOutputStream.flush();
-            } catch (IOException e) {
-                // TODO
-                throw new RuntimeException(e);
+        // The outputs must be durable before the manifest dropping the inputs is
+        FileSync.forceDirectory(filePath);
+        synchronized (segmentLock) {
+            installManifest(manifest.withCompacted(inputs, outputs));
+        }
+
+        // Drop any cached blocks of the replaced segments and delete them once no snapshot reads them
+        for (var input : inputs) release(input);
+    }
+
+    /**
+     * Writes merged entries to a new segment until it reaches the split size. The segment takes
+     * the part of the range tombstones from {@code lowerKey}, where the previous segment ended, to
+     * the next segment's first key so segments split from one compaction don't overlap.
+     */
+    private Segment writeCompactionOutput(PeekingIterator merged, List<RangeTombstone> rangeTombstones, String lowerKey, int level, long splitSize, boolean isCancellable) throws IOException {
+        var index = nextSegmentIndex.getAndIncrement();
+        var segmentFile = segmentPath(index);
+        var outputFile = Path.of(segmentFile.toString() + "-0");
+        String smallestKey, largestKey;
+        try (var sstableWriter = new SSTableWriter(new FileOutputStream(outputFile.toString()), sstableConfiguration)) {
+            while (merged.hasNext() && sstableWriter.getSize() < splitSize) {
+                if (isCancellable && isClosed) throw new CompactionCancelledException();
+                merged.next().writeTo(sstableWriter, sstableConfiguration.serializerFactory);
             }
+
+            var upperKey = merged.hasNext() ? merged.peek().key : null;
+            for (var rangeTombstone : rangeTombstones) {
+                var clipped = rangeTombstone.clip(lowerKey, upperKey);
+                if (clipped != null) sstableWriter.writeRangeTombstone(Keys.toBytes(clipped.getFromKey()), Keys.toBytes(clipped.getToKey()));
+            }
+            smallestKey = Keys.fromBytes(sstableWriter.getFirstKey());
+            largestKey = Keys.fromBytes(sstableWriter.getLastKey());
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(outputFile);
+            throw e;
         }
+
+        FileSync.force(outputFile);
+        Files.move(outputFile, segmentFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return openSegment(index, level, smallestKey, largestKey);
     }
 
-    private SortedMap<String, SSTable> getSegments() {
-        if (segments == null) {
-            synchronized (segmentLock) {
-                if (segments == null) {
-                    segments = new TreeMap<>(Comparator.reverseOrder());
-                    var pathMatcher = FileSystems.getDefault().getPathMatcher(MessageFormat.format("regex:{0}/{1}\\.[0-9]*$", filePath, fileName));
-                    try (var files = Files.newDirectoryStream(filePath, pathMatcher::matches)) {
-                        for (var file : files) {
-                            segments.put(file.toString(), new SSTable(file, configuration));
-                        }
-                    } catch (IOException e) {
-                        // TODO
-                        throw new RuntimeException(e);
+    /**
+     * Blocking call that reclaims the space of values overwritten or deleted since they were
+     * separated into the value log. The live values of every value log file, but the one appended
+     * to, whose share of dead bytes reaches {@link LSMTreeConfiguration#getValueLogGarbageRatio()}
+     * are moved to the end of the log by rewriting the segments pointing to them. The files are
+     * deleted once no snapshot reads the replaced segments.
+     * @throws IOException
+     */
+    public void collectValueLog() throws IOException {
+        compactionLock.lock();
+        try {
+            collectValueLog(false);
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Collects the value log; callers hold the compaction lock so the segments rewritten aren't
+     * being compacted.
+     */
+    private void collectValueLog(boolean isCancellable) throws IOException {
+        if (valueLog.isEmpty()) return;
+
+        // Values are live while a segment of the current manifest points to them
+        var liveBytes = new TreeMap<Long, Long>();
+        for (var segment : manifest.getSegments()) {
+            for (var reference : segment.getSstable().getValueLogReferences().entrySet()) liveBytes.merge(reference.getKey(), reference.getValue(), Long::sum);
+        }
+
+        var collected = new HashSet<Long>();
+        for (var file : liveBytes.entrySet()) {
+            if (valueLog.isActive(file.getKey())) continue;
+            var size = valueLog.size(file.getKey());
+            if (size > 0 && 1 - (double) file.getValue() / size >= configuration.getValueLogGarbageRatio()) collected.add(file.getKey());
+        }
+        if (collected.isEmpty()) return;
+
+        for (var segment : manifest.getSegments()) {
+            if (isCancellable && isClosed) throw new CompactionCancelledException();
+            if (!Collections.disjoint(segment.getSstable().getValueLogReferences().keySet(), collected)) rewriteValues(segment, collected, isCancellable);
+        }
+    }
+
+    /**
+     * Swaps in a copy of the segment whose values in the collected value log files are appended
+     * to the log again. Everything else is copied as it is; expired values in the collected files
+     * only need to shadow older ones so they become tombstones.
+     */
+    private void rewriteValues(Segment segment, Set<Long> collected, boolean isCancellable) throws IOException {
+        var index = nextSegmentIndex.getAndIncrement();
+        var segmentFile = segmentPath(index);
+        var outputFile = Path.of(segmentFile.toString() + "-0");
+        var now = System.currentTimeMillis();
+        Segment rewritten;
+        valueLog.pin();
+        try {
+            try (var entries = SSTable.iterate(segmentPath(segment.getIndex()));
+                 var sstableWriter = new SSTableWriter(new FileOutputStream(outputFile.toString()), sstableConfiguration)) {
+                while (entries.hasNext()) {
+                    if (isCancellable && isClosed) throw new CompactionCancelledException();
+                    var entry = entries.next();
+                    if (!entry.isTombstone && entry.valuePointer != null && collected.contains(entry.valuePointer.getFile())) {
+                        if (entry.isDeleted(now)) entry = SSTable.Entry.tombstone(entry.key);
+                        else entry.valuePointer = valueLog.append(valueLog.read(entry.valuePointer));
                     }
+                    entry.writeTo(sstableWriter, sstableConfiguration.serializerFactory);
+                }
+                for (var rangeTombstone : segment.getSstable().getRangeTombstones()) {
+                    sstableWriter.writeRangeTombstone(Keys.toBytes(rangeTombstone.getFromKey()), Keys.toBytes(rangeTombstone.getToKey()));
                 }
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(outputFile);
+                throw e;
+            }
+
+            FileSync.force(outputFile);
+            valueLog.sync();
+            Files.move(outputFile, segmentFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            FileSync.forceDirectory(filePath);
+            rewritten = openSegment(index, segment.getLevel(), segment.getSmallestKey(), segment.getLargestKey());
+            synchronized (segmentLock) {
+                installManifest(manifest.withCompacted(List.of(segment), List.of(rewritten)));
             }
+        } finally {
+            valueLog.unpin();
         }
 
-        return segments;
+        release(segment);
+    }
+
+    /**
+     * Persists and swaps in a new manifest; callers hold the segment lock.
+     */
+    private void installManifest(Manifest manifest) throws IOException {
+        manifest.writeTo(manifestFile);
+        this.manifest = manifest;
+    }
+
+    /**
+     * Loads the manifest. Trees written before there was a manifest have every segment "file.N" in
+     * level 0, newest (highest N) first; their manifest is written straight away.
+     */
+    private void loadManifest() throws IOException {
+        if (Files.exists(manifestFile)) {
+            manifest = Manifest.read(manifestFile, index -> new SSTable(segmentPath(index), sstableConfiguration));
+            return;
+        }
+
+        var segments = new ArrayList<Segment>();
+        var pathMatcher = FileSystems.getDefault().getPathMatcher(MessageFormat.format("regex:{0}/{1}\\.[0-9]*$", filePath, fileName));
+        try (var files = Files.newDirectoryStream(filePath, pathMatcher::matches)) {
+            for (var file : files) segments.add(describeSegment(file));
+        }
+        segments.sort(Comparator.comparingLong(Segment::getIndex).reversed());
+
+        manifest = Manifest.of(segments);
+        if (!segments.isEmpty()) manifest.writeTo(manifestFile);
+    }
+
+    /**
+     * Scans a level 0 segment for its key range.
+     */
+    private Segment describeSegment(Path segmentFile) throws IOException {
+        var fileName = segmentFile.getFileName().toString();
+        var index = Long.parseLong(fileName.substring(fileName.lastIndexOf('.') + 1));
+        String smallestKey = null, largestKey = null;
+        try (var iterator = SSTable.iterate(segmentFile)) {
+            while (iterator.hasNext()) {
+                var key = iterator.next().key;
+                if (smallestKey == null) smallestKey = key;
+                largestKey = key;
+            }
+        }
+
+        // An empty segment holds no keys; give it a range no key falls in
+        if (smallestKey == null) {
+            smallestKey = "\u00FF";
+            largestKey = "";
+        }
+        return new Segment(index, 0, smallestKey, largestKey, Files.size(segmentFile), new SSTable(segmentFile, sstableConfiguration));
+    }
+
+    /**
+     * Tracks the existing value log files and deletes those no segment of the manifest points
+     * to, left behind by flushes and collections that didn't finish.
+     */
+    private void openValueLog() throws IOException {
+        if (!valueLog.open()) return;
+        for (var segment : manifest.getSegments()) valueLog.retain(segment.getSstable().getValueLogReferences().keySet());
+        valueLog.purge();
+    }
+
+    private void purgeOrphanedSegments() throws IOException {
+        var pathMatcher = FileSystems.getDefault().getPathMatcher(MessageFormat.format("regex:{0}/{1}\\.[0-9]*(\\-0)?$", filePath, fileName));
+        try (var files = Files.newDirectoryStream(filePath, pathMatcher::matches)) {
+            for (var file : files) {
+                // Merge and flush results "file.N-0" and segments that never made it into the manifest
+                var name = file.getFileName().toString();
+                if (!name.endsWith("-0") && manifest.contains(Long.parseLong(name.substring(name.lastIndexOf('.') + 1)))) continue;
+                try { Files.deleteIfExists(file); } catch (IOException ignored) { }
+            }
+        }
+        Files.deleteIfExists(Path.of(manifestFile.toString() + ".tmp"));
+    }
+
+    private Path segmentPath(long index) {
+        return filePath.resolve(fileName + "." + index);
+    }
+
+    private Path frozenWalPath(long index) {
+        return filePath.resolve(fileName + "." + index + ".wal");
+    }
+
+    /**
+     * Parses N out of a frozen WAL path "file.N.wal".
+     */
+    private static long frozenWalIndex(Path frozenWalFile) {
+        var name = frozenWalFile.getFileName().toString();
+        name = name.substring(0, name.length() - ".wal".length());
+        return Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+    }
+
+    /**
+     * @return Sequence number of the write
+     */
+    private long walWrite(String key, byte[] value, long expiresAt) {
+        try {
+            return getWal().put(key, value, expiresAt);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long walDelete(String key) {
+        try {
+            return getWal().delete(key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long walDeleteRange(String fromKey, String toKey) {
+        try {
+            return getWal().deleteRange(fromKey, toKey);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return Sequence number of the batch's first operation
+     */
+    private long walWrite(WriteBatch batch) {
+        try {
+            return getWal().write(batch);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private WriteAheadLog getWal() throws IOException {
+        var wal = this.wal;
+        if (wal != null) return wal;
+
+        synchronized (walLock) {
+            if (this.wal == null) {
+                // Append; the WAL may hold entries replayed on open
+                this.wal = WriteAheadLog.open(walFile, configuration.getWalDurability(), configuration.getWalSyncIntervalInMilliseconds(), lastSequence);
+            }
+            return this.wal;
+        }
+    }
+
+    private void syncWal() {
+        var wal = this.wal;
+        if (wal == null) return;
+
+        try {
+            wal.sync();
+        } catch (IOException ignored) {
+            // The WAL may have been closed by a concurrent freeze, which syncs it
+        }
     }
 
     @Override
     public void close() throws IOException {
-        if (walOutputStream != null) walOutputStream.close();
-        if (walSerializer != null) walSerializer.close();
+        // Wait out the writes in progress; any later ones are rejected
+        memtableLock.writeLock().lock();
+        try {
+            isClosed = true;
+        } finally {
+            memtableLock.writeLock().unlock();
+        }
+        if (expiryCheck != null) expiryCheck.cancel(false);
+        if (walSync != null) walSync.cancel(false);
+
+        // Let queued async operations finish before the storage they use is released, then write
+        // whatever async writes are still queued; any queued after are failed
+        if (isIoExecutorOwned) {
+            var executor = (ExecutorService) ioExecutor;
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (pendingWriteLock) {
+            writePending();
+            arePendingWritesClosed = true;
+        }
         flush();
+
+        memtableLock.writeLock().lock();
+        try {
+            synchronized (walLock) {
+                if (wal != null) wal.close();
+                wal = null;
+            }
+
+            // Free off-heap memtables; any left frozen are recovered from their WAL files
+            memtable.release();
+            for (var frozenMemtable : frozenMemtables) frozenMemtable.memtable.release();
+        } finally {
+            memtableLock.writeLock().unlock();
+        }
+
+        if (isFlushExecutorOwned) {
+            flushExecutor.shutdown();
+            try {
+                flushExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Wait out a running compaction; background ones stop as soon as they see the tree closed
+        compactionLock.lock();
+        try {
+            // Release the segments' cached blocks; the cache may outlive this tree
+            for (var segment : manifest.getSegments()) segment.getSstable().close();
+            valueLog.close();
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Lets compaction see the first key of the next output before finishing the current one.
+     */
+    private static class PeekingIterator implements EntryIterator {
+        private final EntryIterator entries;
+        private SSTable.Entry next = null;
+
+        private PeekingIterator(EntryIterator entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null || entries.hasNext();
+        }
+
+        @Override
+        public SSTable.Entry next() {
+            var entry = peek();
+            next = null;
+            return entry;
+        }
+
+        private SSTable.Entry peek() {
+            if (next == null) next = entries.next();
+            return next;
+        }
+
+        @Override
+        public void close() throws IOException {
+            entries.close();
+        }
+    }
+
+    /**
+     * Thrown out of a background compaction that was stopped by the tree closing.
+     */
+    private static class CompactionCancelledException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private CompactionCancelledException() {
+            super("Compaction cancelled");
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class PendingWrite {
+        /**
+         * Byte string of the key, see {@link Keys}; the first key of a range delete.
+         */
+        private final String key;
+        /**
+         * Null for a remove or range delete.
+         */
+        private final byte[] value;
+        private final long expiresAt;
+        /**
+         * Key a range delete stops before; null for anything else.
+         */
+        private final String toKey;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+    }
+
+    @AllArgsConstructor
+    private static class FrozenMemtable {
+        private final Memtable memtable;
+        /**
+         * Index of the segment the memtable is written to.
+         */
+        private final long index;
+        private final Path walFile;
     }
 }
@@ -0,0 +1,24 @@
+package io.hnsn.kaukus.persistence;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Map.Entry;
+
+import io.hnsn.kaukus.persistence.serialization.SerializerFactory;
+
+/**
+ * Streams the live key/value pairs of an {@link LSMTree} scan as bytes; see {@link LSMTreeIterator}.
+ */
+public class LSMTreeBytesIterator extends AbstractLSMTreeIterator<Entry<byte[], byte[]>> {
+    /**
+     * @param limit Most pairs returned; 0 for no limit
+     * @param snapshot Snapshot closed along with the iterator, if any
+     */
+    /*package*/ LSMTreeBytesIterator(MergingIterator merged, int limit, SerializerFactory serializerFactory, ValueLog valueLog, LSMTreeSnapshot snapshot) {
+        super(merged, limit, serializerFactory, valueLog, snapshot);
+    }
+
+    @Override
+    /*package*/ Entry<byte[], byte[]> toPair(String key, byte[] value) {
+        return new SimpleImmutableEntry<>(Keys.toBytes(key), value);
+    }
+}
@@ -0,0 +1,170 @@
+package io.hnsn.kaukus.persistence;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+
+import io.hnsn.kaukus.persistence.serialization.CodecRegistry;
+import lombok.Builder;
+import lombok.Builder.Default;
+import lombok.Getter;
+
+@Getter
+@Builder
+public class LSMTreeConfiguration {
+    /**
+     * Configuration for the tree's SSTables.
+     */
+    @Default
+    private final SSTableConfiguration sstableConfiguration = SSTableConfiguration.builder().build();
+    /**
+     * Codecs typed values are written and read with; see {@link LSMTree#put(String, Object)}.
+     */
+    @Default
+    private final CodecRegistry codecRegistry = new CodecRegistry();
+    /**
+     * Approximate size, in bytes, the memtable may grow to before it's frozen and flushed to a new
+     * segment in the background.
+     */
+    @Default
+    private final long memtableFlushSize = 4 * 1024 * 1024;
+    /**
+     * Time since its first write after which the memtable is flushed regardless of its size; 0
+     * disables age based flushes.
+     */
+    @Default
+    private final long memtableMaxAgeInMilliseconds = 0;
+    /**
+     * Where memtables hold their keys and values.
+     */
+    @Default
+    private final MemtableStorage memtableStorage = MemtableStorage.HEAP;
+    /**
+     * Size of the chunks off-heap memtables append keys and values to, in bytes; larger entries
+     * get a chunk of their own. Off-heap memtables only.
+     */
+    @Default
+    private final int memtableArenaChunkSize = 1024 * 1024;
+    /**
+     * Values of at least this many bytes are written to the tree's value log when they're flushed,
+     * leaving segments with a pointer to them, so compactions don't copy them; 0 keeps every
+     * value in the segments.
+     */
+    @Default
+    private final int valueLogThreshold = 0;
+    /**
+     * Size, in bytes, past which values are appended to a new value log file.
+     */
+    @Default
+    private final long valueLogFileSize = 64 * 1024 * 1024;
+    /**
+     * Share of a value log file's bytes belonging to values overwritten or deleted since, past
+     * which its live values are moved to the end of the log and the file deleted; see
+     * {@link LSMTree#collectValueLog()}. Background compactions collect the value log too unless
+     * it's 0.
+     */
+    @Default
+    private final double valueLogGarbageRatio = 0.5;
+    /**
+     * Executor frozen memtables are flushed on; may be shared between LSMTrees. When null each
+     * tree flushes on its own thread.
+     */
+    @Default
+    private final ScheduledExecutorService flushExecutor = null;
+    /**
+     * When writes to the WAL are forced to disk; concurrent writes are committed together so
+     * stricter modes cost less per write as concurrency grows.
+     */
+    @Default
+    private final WalDurability walDurability = WalDurability.BUFFERED;
+    /**
+     * How often the WAL is forced to disk under {@link WalDurability#INTERVAL}.
+     */
+    @Default
+    private final long walSyncIntervalInMilliseconds = 1000;
+    /**
+     * How segments are laid out and compacted.
+     */
+    @Default
+    private final CompactionStyle compactionStyle = CompactionStyle.NONE;
+    /**
+     * Number of level 0 segments that triggers compacting them into level 1; leveled compaction
+     * only.
+     */
+    @Default
+    private final int level0CompactionTrigger = 4;
+    /**
+     * Target size of level 1, in bytes; leveled compaction only.
+     */
+    @Default
+    private final long levelBaseSize = 16 * 1024 * 1024;
+    /**
+     * Ratio between the target sizes of consecutive levels; leveled compaction only.
+     */
+    @Default
+    private final int levelSizeMultiplier = 10;
+    /**
+     * Number of levels, including level 0; leveled compaction only.
+     */
+    @Default
+    private final int maxLevels = 7;
+    /**
+     * Size at which compaction outputs below level 0 are split into another segment; leveled
+     * compaction only.
+     */
+    @Default
+    private final long targetSegmentSize = 4 * 1024 * 1024;
+    /**
+     * Segments smaller than this are in the first size tier, in bytes; size-tiered compaction
+     * only.
+     */
+    @Default
+    private final long sizeTieredMinSegmentSize = 4 * 1024 * 1024;
+    /**
+     * Ratio between the upper bounds of consecutive size tiers; size-tiered compaction only.
+     */
+    @Default
+    private final int sizeTieredTierRatio = 4;
+    /**
+     * Number of adjacent segments of a tier that are merged, starting with the first tier; tiers
+     * past the end of the list use its last threshold. Size-tiered compaction only.
+     */
+    @Default
+    private final List<Integer> sizeTieredThresholds = List.of(4);
+    /**
+     * Share of a segment's entries that are tombstones past which it's compacted down to where
+     * they can be dropped, even if its level or tier doesn't need a compaction; 0 disables it.
+     */
+    @Default
+    private final double tombstoneCompactionRatio = 0.5;
+    /**
+     * Fewest tombstones a segment holds before its tombstone ratio is considered, so small
+     * segments of deletes don't each trigger a compaction.
+     */
+    @Default
+    private final long tombstoneCompactionMinCount = 1000;
+    /**
+     * Executor background compactions run on; may be shared between LSMTrees, which then
+     * compact concurrently up to its number of threads. A tree never runs more than one
+     * compaction at a time. When null compactions run on the flush executor.
+     */
+    @Default
+    private final Executor compactionExecutor = null;
+    /**
+     * Executor the async operations run on; may be shared between LSMTrees and should have a
+     * bounded queue. When null each tree runs them on its own pool of {@link #ioThreads}.
+     */
+    @Default
+    private final Executor ioExecutor = null;
+    /**
+     * Number of threads of a tree's own I/O executor.
+     */
+    @Default
+    private final int ioThreads = 2;
+    /**
+     * Number of async reads a tree's own I/O executor queues, and of async writes any tree queues,
+     * before rejecting more.
+     */
+    @Default
+    private final int ioQueueSize = 1024;
+}
@@ -0,0 +1,29 @@
+package io.hnsn.kaukus.persistence;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Map.Entry;
+
+import io.hnsn.kaukus.persistence.serialization.SerializerFactory;
+
+/**
+ * Streams the live key/value pairs of an {@link LSMTree} scan as UTF-8 text; see
+ * {@link LSMTreeBytesIterator} for the raw bytes. Tombstones, values expired by the time the scan
+ * started and the entries they shadow are skipped. The iterator holds the tree's segment files, and
+ * the snapshot it reads, open until it's exhausted or closed, so it should be closed when abandoned
+ * early.
+ */
+public class LSMTreeIterator extends AbstractLSMTreeIterator<Entry<String, String>> {
+    /**
+     * @param limit Most pairs returned; 0 for no limit
+     * @param snapshot Snapshot closed along with the iterator, if any
+     */
+    /*package*/ LSMTreeIterator(MergingIterator merged, int limit, SerializerFactory serializerFactory, ValueLog valueLog, LSMTreeSnapshot snapshot) {
+        super(merged, limit, serializerFactory, valueLog, snapshot);
+    }
+
+    @Override
+    /*package*/ Entry<String, String> toPair(String key, byte[] value) {
+        return new SimpleImmutableEntry<>(Keys.toText(key), new String(value, StandardCharsets.UTF_8));
+    }
+}
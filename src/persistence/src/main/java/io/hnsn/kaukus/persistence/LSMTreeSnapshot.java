@@ -0,0 +1,121 @@
+package io.hnsn.kaukus.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * A read-only view of an {@link LSMTree} as of the moment it was taken; later writes, flushes and
+ * compactions aren't seen through it. A snapshot pins the sequence number of the last write it
+ * sees along with the memtables and segments holding those writes. Until it's closed the tree
+ * keeps the versions it may read in memory and its segments on disk, so snapshots should be
+ * short lived.
+ */
+public class LSMTreeSnapshot implements Closeable {
+    private final LSMTree lsmTree;
+    /**
+     * Sequence number of the last write seen through the snapshot.
+     */
+    @Getter
+    private final long sequence;
+    /**
+     * The active memtable followed by the frozen ones, newest first.
+     */
+    @Getter(AccessLevel.PACKAGE)
+    private final List<Memtable> memtables;
+    @Getter(AccessLevel.PACKAGE)
+    private final Manifest manifest;
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
+
+    /*package*/ LSMTreeSnapshot(LSMTree lsmTree, long sequence, List<Memtable> memtables, Manifest manifest) {
+        this.lsmTree = lsmTree;
+        this.sequence = sequence;
+        this.memtables = memtables;
+        this.manifest = manifest;
+    }
+
+    /**
+     * Returns the value the key had when the snapshot was taken, or null if it wasn't set.
+     */
+    public String get(String key) {
+        var value = lsmTree.read(this, Keys.fromText(key));
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the value the key had when the snapshot was taken, or null if it wasn't set.
+     */
+    public byte[] get(byte[] key) {
+        return lsmTree.read(this, Keys.fromBytes(key));
+    }
+
+    public boolean containsKey(String key) {
+        return lsmTree.containsKey(this, Keys.fromText(key));
+    }
+
+    public boolean containsKey(byte[] key) {
+        return lsmTree.containsKey(this, Keys.fromBytes(key));
+    }
+
+    /**
+     * Iterates the keys from {@code fromKey} (inclusive) to {@code toKey} (exclusive) in key order;
+     * see {@link LSMTree#scan(String, String, boolean, int)}.
+     */
+    public LSMTreeIterator scan(String fromKey, String toKey) {
+        return scan(fromKey, toKey, false, 0);
+    }
+
+    public LSMTreeIterator scan(String fromKey, String toKey, boolean isReversed, int limit) {
+        return lsmTree.scan(this, Keys.fromText(fromKey), Keys.fromText(toKey), isReversed, limit, false);
+    }
+
+    /**
+     * Iterates the keys from {@code fromKey} (inclusive) to {@code toKey} (exclusive) in key order;
+     * see {@link LSMTree#scanBytes(byte[], byte[], boolean, int)}.
+     */
+    public LSMTreeBytesIterator scanBytes(byte[] fromKey, byte[] toKey) {
+        return scanBytes(fromKey, toKey, false, 0);
+    }
+
+    public LSMTreeBytesIterator scanBytes(byte[] fromKey, byte[] toKey, boolean isReversed, int limit) {
+        return lsmTree.scanBytes(this, Keys.fromBytes(fromKey), Keys.fromBytes(toKey), isReversed, limit, false);
+    }
+
+    /**
+     * Iterates the keys starting with {@code prefix} in key order.
+     */
+    public LSMTreeIterator prefix(String prefix) {
+        return prefix(prefix, false, 0);
+    }
+
+    public LSMTreeIterator prefix(String prefix, boolean isReversed, int limit) {
+        var start = LSMTree.getPrefixStart(Keys.fromText(prefix));
+        return lsmTree.scan(this, start, LSMTree.getKeyPrefixEnd(start), isReversed, limit, false);
+    }
+
+    /**
+     * Iterates the keys starting with {@code prefix} in key order.
+     */
+    public LSMTreeBytesIterator prefixBytes(byte[] prefix) {
+        return prefixBytes(prefix, false, 0);
+    }
+
+    public LSMTreeBytesIterator prefixBytes(byte[] prefix, boolean isReversed, int limit) {
+        var start = LSMTree.getPrefixStart(Keys.fromBytes(prefix));
+        return lsmTree.scanBytes(this, start, LSMTree.getKeyPrefixEnd(start), isReversed, limit, false);
+    }
+
+    /**
+     * Releases the versions and segments held for the snapshot. Iterators of the snapshot must be
+     * closed first.
+     */
+    @Override
+    public void close() throws IOException {
+        if (isClosed.compareAndSet(false, true)) lsmTree.release(this);
+    }
+}
@@ -1,21 +1,154 @@
 package io.hnsn.kaukus.persistence;
 
+import java.nio.charset.StandardCharsets;
+
 import lombok.Getter;
 
+/**
+ * A version of a key held in a {@link Memtable}: its value, which may expire, or a tombstone,
+ * tagged with the sequence number of the write. While snapshots are open a key's versions are chained newest
+ * first so each snapshot can find the version it was taken after.
+ */
 @Getter
 public class LSMTreeValue {
-    public static final LSMTreeValue TOMBSTONE = new LSMTreeValue(true);
+    public static final LSMTreeValue TOMBSTONE = new LSMTreeValue(true, 0);
+    /**
+     * Expiry time of values that never expire.
+     */
+    public static final long NEVER_EXPIRES = 0;
 
-    private final String value;
+    private final byte[] valueBytes;
     private final boolean isTombstone;
+    /**
+     * Sequence number of the write; 0 for writes replayed from a legacy WAL.
+     */
+    private final long sequence;
+    /**
+     * Milliseconds since the epoch the value expires at, or {@link #NEVER_EXPIRES}. Expired
+     * values read as if they were removed.
+     */
+    private final long expiresAt;
+    /**
+     * The next older version, if any snapshot may still need it.
+     */
+    @Getter(lombok.AccessLevel.NONE)
+    private volatile LSMTreeValue previous = null;
 
     public <T> LSMTreeValue(String value) {
-        this.value = value;
+        this(value, 0);
+    }
+
+    public LSMTreeValue(String value, long sequence) {
+        this(value, sequence, NEVER_EXPIRES);
+    }
+
+    public LSMTreeValue(String value, long sequence, long expiresAt) {
+        this(value.getBytes(StandardCharsets.UTF_8), sequence, expiresAt);
+    }
+
+    public LSMTreeValue(byte[] value, long sequence, long expiresAt) {
+        this.valueBytes = value;
         this.isTombstone = false;
+        this.sequence = sequence;
+        this.expiresAt = expiresAt;
     }
 
-    private LSMTreeValue(boolean isTombstone) {
-        this.value = null;
+    private LSMTreeValue(boolean isTombstone, long sequence) {
+        this.valueBytes = null;
         this.isTombstone = isTombstone;
+        this.sequence = sequence;
+        this.expiresAt = NEVER_EXPIRES;
+    }
+
+    public static LSMTreeValue tombstone(long sequence) {
+        return new LSMTreeValue(true, sequence);
+    }
+
+    /**
+     * The value decoded as UTF-8 text, or null for tombstones.
+     */
+    public String getValue() {
+        var valueBytes = getValueBytes();
+        return valueBytes == null ? null : new String(valueBytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * True if the value is a tombstone or has expired by {@code now}.
+     */
+    public boolean isDeleted(long now) {
+        return isTombstone || isExpired(expiresAt, now);
+    }
+
+    /**
+     * @param expiresAt Expiry time, or {@link #NEVER_EXPIRES}
+     * @param now Milliseconds since the epoch
+     */
+    /*package*/ static boolean isExpired(long expiresAt, long now) {
+        return expiresAt != NEVER_EXPIRES && expiresAt <= now;
+    }
+
+    /**
+     * The newest version written at or before {@code sequence}.
+     * @return The version or null if the key was first written after {@code sequence}
+     */
+    /*package*/ LSMTreeValue getVisible(long sequence) {
+        var version = this;
+        while (version != null && version.sequence > sequence) version = version.previous;
+        return version;
+    }
+
+    /**
+     * Adds a version to a key's versions, newest first. Only the versions newer than
+     * {@code retainedSequence} and the newest one at or before it can be read by any snapshot;
+     * older ones are dropped.
+     * @param versions The key's current versions; null if it has none
+     * @param retainedSequence Sequence number of the oldest open snapshot, or {@link Long#MAX_VALUE}
+     * @return The newest version
+     */
+    /*package*/ static LSMTreeValue addVersion(LSMTreeValue versions, LSMTreeValue version, long retainedSequence) {
+        if (versions == null || versions.sequence <= version.sequence) {
+            // Every reader sees the new version so the older ones aren't linked at all
+            if (versions != null && version.sequence > retainedSequence) {
+                version.previous = versions;
+                prune(versions, retainedSequence);
+            }
+            return version;
+        }
+
+        // A write with a later sequence number got here first; the older one goes behind it
+        if (versions.sequence <= retainedSequence) return versions;
+        var copy = versions.copy();
+        copy.previous = addVersion(versions.previous, version, retainedSequence);
+        return copy;
+    }
+
+    /**
+     * Unlinks the versions older than the newest one at or before {@code retainedSequence}.
+     */
+    private static void prune(LSMTreeValue versions, long retainedSequence) {
+        for (var version = versions; version != null; version = version.previous) {
+            if (version.sequence <= retainedSequence) {
+                version.previous = null;
+                return;
+            }
+        }
+    }
+
+    /**
+     * An unlinked copy of this version.
+     */
+    /*package*/ LSMTreeValue copy() {
+        return isTombstone ? tombstone(sequence) : new LSMTreeValue(valueBytes, sequence, expiresAt);
+    }
+
+    /**
+     * This version with its value on the heap, readable after the memtable holding it is freed.
+     */
+    /*package*/ LSMTreeValue detach() {
+        return this;
+    }
+
+    /*package*/ boolean hasPrevious() {
+        return previous != null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,111 @@
+package io.hnsn.kaukus.persistence;
+
+import java.util.ArrayList;
+
+/**
+ * Picks the next compaction of a leveled {@link LSMTree}. Every level gets a score: level 0 the
+ * number of its segments over {@link LSMTreeConfiguration#getLevel0CompactionTrigger()}, deeper
+ * levels their size over their target size. The level with the highest score of at least 1 is
+ * compacted into the next level: all of level 0 at once, or a single segment of a deeper level,
+ * along with every segment of the next level they overlap. Segments of a deeper level are picked
+ * round-robin by key so the whole level is eventually rewritten.
+ *
+ * When no level is over its target a tombstone heavy segment is compacted into the next level
+ * instead, the shallowest first; each compaction carries its tombstones a level down until they
+ * reach the bottommost data for their keys and are dropped.
+ */
+/*package*/ class LeveledCompactionPicker implements CompactionPicker {
+    private final LSMTreeConfiguration configuration;
+    /**
+     * Largest key of the last segment compacted out of each level.
+     */
+    private final String[] compactPointers;
+
+    LeveledCompactionPicker(LSMTreeConfiguration configuration) {
+        this.configuration = configuration;
+        this.compactPointers = new String[configuration.getMaxLevels()];
+    }
+
+    /**
+     * Target size of a level; level 1 is {@link LSMTreeConfiguration#getLevelBaseSize()} and each
+     * deeper level is {@link LSMTreeConfiguration#getLevelSizeMultiplier()} times larger.
+     */
+    long getMaxLevelSize(int level) {
+        var size = (double) configuration.getLevelBaseSize();
+        for (var i = 1; i < level; i++) size *= configuration.getLevelSizeMultiplier();
+        return (long) Math.min(size, Long.MAX_VALUE);
+    }
+
+    double getScore(Manifest manifest, int level) {
+        if (level == 0) return (double) manifest.getLevel(0).size() / configuration.getLevel0CompactionTrigger();
+        return (double) manifest.getLevelSize(level) / getMaxLevelSize(level);
+    }
+
+    /**
+     * @return The compaction of the level most in need of one, or null if no level is over its
+     * target
+     */
+    @Override
+    public Compaction pick(Manifest manifest) {
+        var bestLevel = -1;
+        var bestScore = 1.0;
+        // The last level has nowhere to compact into
+        for (var level = 0; level < Math.min(manifest.getLevelCount(), configuration.getMaxLevels() - 1); level++) {
+            var score = getScore(manifest, level);
+            if (score >= bestScore) {
+                bestLevel = level;
+                bestScore = score;
+            }
+        }
+
+        if (bestLevel < 0) return pickTombstoneHeavy(manifest);
+        return bestLevel == 0 ? pickLevel0(manifest) : pickLevel(manifest, bestLevel);
+    }
+
+    private Compaction pickTombstoneHeavy(Manifest manifest) {
+        for (var level = 0; level < Math.min(manifest.getLevelCount(), configuration.getMaxLevels() - 1); level++) {
+            for (var segment : manifest.getLevel(level)) {
+                if (segment.isTombstoneHeavy(configuration)) return level == 0 ? pickLevel0(manifest) : pickSegment(manifest, segment, level);
+            }
+        }
+
+        return null;
+    }
+
+    private Compaction pickLevel0(Manifest manifest) {
+        var inputs = new ArrayList<>(manifest.getLevel(0));
+        var smallest = inputs.get(0).getSmallestKey();
+        var largest = inputs.get(0).getLargestKey();
+        for (var segment : inputs) {
+            if (SSTableFormat.compareKeys(segment.getSmallestKey(), smallest) < 0) smallest = segment.getSmallestKey();
+            if (SSTableFormat.compareKeys(segment.getLargestKey(), largest) > 0) largest = segment.getLargestKey();
+        }
+
+        inputs.addAll(manifest.getOverlapping(1, smallest, largest));
+        return new Compaction(inputs, 1);
+    }
+
+    private Compaction pickLevel(Manifest manifest, int level) {
+        var segments = manifest.getLevel(level);
+        var picked = segments.get(0);
+        var pointer = compactPointers[level];
+        if (pointer != null) {
+            for (var segment : segments) {
+                // Segments ending with a range tombstone may share their last key with the next one
+                if (SSTableFormat.compareKeys(segment.getLargestKey(), pointer) > 0) {
+                    picked = segment;
+                    break;
+                }
+            }
+        }
+        compactPointers[level] = picked.getLargestKey();
+        return pickSegment(manifest, picked, level);
+    }
+
+    private Compaction pickSegment(Manifest manifest, Segment picked, int level) {
+        var inputs = new ArrayList<Segment>();
+        inputs.add(picked);
+        inputs.addAll(manifest.getOverlapping(level + 1, picked.getSmallestKey(), picked.getLargestKey()));
+        return new Compaction(inputs, level + 1);
+    }
+}
@@ -6,5 +6,5 @@ import java.nio.file.Path;
 import io.hnsn.kaukus.persistence.SSTable.IndexTuple;
 
 /*package*/ interface LineMapper {
-    IndexTuple[] mapLines(float mappingRatio, Path filePath) throws IOException;
+    IndexTuple[] mapLines(int bytesPerIndexEntry, Path filePath) throws IOException;
 }
\ No newline at end of file
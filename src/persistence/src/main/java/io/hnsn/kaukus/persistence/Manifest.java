@@ -0,0 +1,298 @@
+package io.hnsn.kaukus.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.LongFunction;
+import java.util.zip.CRC32C;
+
+/**
+ * The layout of an {@link LSMTree}'s segments. Level 0 holds flushed segments, newest first, whose
+ * key ranges may overlap; every deeper level holds segments with disjoint key ranges, ordered by
+ * key. A point lookup checks the level 0 segments that may hold the key and then at most one
+ * segment per deeper level.
+ *
+ * Manifests are immutable; every flush and compaction produces a new one which is persisted
+ * before it's swapped in. On disk the manifest is
+ * <pre>
+ * [magic (4) | version (1) | segment count (4)]
+ * [segment: level (4) | index (8) | size (8) | smallest key length (4) | smallest key | largest key length (4) | largest key] ...
+ * [crc32c (4)]
+ * </pre>
+ * with segments in the order they're held in memory.
+ */
+/*package*/ class Manifest {
+    static final int MAGIC = 0x894B4D46;
+    static final byte VERSION = 1;
+
+    private static final Comparator<Segment> KEY_RANGE_ORDER = (a, b) -> SSTableFormat.compareKeys(a.getSmallestKey(), b.getSmallestKey());
+
+    private final List<List<Segment>> levels;
+
+    private Manifest(List<List<Segment>> levels) {
+        this.levels = levels;
+    }
+
+    static Manifest empty() {
+        return new Manifest(List.of(List.of()));
+    }
+
+    /**
+     * @param segments Level 0 segments, newest first
+     */
+    static Manifest of(List<Segment> segments) {
+        return new Manifest(List.of(List.copyOf(segments)));
+    }
+
+    /**
+     * Number of levels up to and including the deepest one holding segments.
+     */
+    int getLevelCount() {
+        return levels.size();
+    }
+
+    /**
+     * Segments of the level; newest first for level 0, by key for deeper levels.
+     */
+    List<Segment> getLevel(int level) {
+        return level < levels.size() ? levels.get(level) : List.of();
+    }
+
+    long getLevelSize(int level) {
+        var size = 0L;
+        for (var segment : getLevel(level)) size += segment.getSize();
+        return size;
+    }
+
+    /**
+     * Every segment, newest data first.
+     */
+    List<Segment> getSegments() {
+        var segments = new ArrayList<Segment>();
+        for (var level : levels) segments.addAll(level);
+        return segments;
+    }
+
+    boolean contains(long index) {
+        for (var level : levels) {
+            for (var segment : level) {
+                if (segment.getIndex() == index) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The segments that may hold the key, in the order they must be read: the level 0 segments
+     * whose range covers the key, newest first, then the one segment of each deeper level.
+     */
+    List<Segment> getCandidates(String key) {
+        var candidates = new ArrayList<Segment>();
+        for (var segment : levels.get(0)) {
+            if (segment.mayContain(key)) candidates.add(segment);
+        }
+
+        for (var level = 1; level < levels.size(); level++) find(levels.get(level), key, candidates);
+
+        return candidates;
+    }
+
+    /**
+     * Binary searches a level's disjoint, ordered segments for the ones covering the key. A
+     * segment whose range ends with a range tombstone claims the key the tombstone stops before,
+     * which the next segment may start with, so up to two segments are found.
+     */
+    private static void find(List<Segment> level, String key, List<Segment> candidates) {
+        var left = 0;
+        var right = level.size();
+        while (left < right) {
+            var middle = (left + right) >>> 1;
+            if (SSTableFormat.compareKeys(level.get(middle).getLargestKey(), key) < 0) left = middle + 1;
+            else right = middle;
+        }
+
+        for (var i = left; i < Math.min(left + 2, level.size()); i++) {
+            if (level.get(i).mayContain(key)) candidates.add(level.get(i));
+        }
+    }
+
+    /**
+     * Segments of the level holding any keys from {@code smallest} to {@code largest}.
+     */
+    List<Segment> getOverlapping(int level, String smallest, String largest) {
+        var overlapping = new ArrayList<Segment>();
+        for (var segment : getLevel(level)) {
+            if (segment.overlaps(smallest, largest)) overlapping.add(segment);
+        }
+        return overlapping;
+    }
+
+    /**
+     * True if no segment but the inputs of a compaction may hold older entries for keys in the
+     * inputs' range, so the merge doesn't need to keep anything that only shadows older entries.
+     * Segments of the inputs' shallowest level that aren't inputs count as older, except level 0
+     * segments flushed after the inputs.
+     */
+    boolean isBottommost(Collection<Segment> inputs) {
+        var indexes = new HashSet<Long>();
+        String smallest = null, largest = null;
+        var shallowestLevel = Integer.MAX_VALUE;
+        for (var input : inputs) {
+            indexes.add(input.getIndex());
+            if (smallest == null || SSTableFormat.compareKeys(input.getSmallestKey(), smallest) < 0) smallest = input.getSmallestKey();
+            if (largest == null || SSTableFormat.compareKeys(input.getLargestKey(), largest) > 0) largest = input.getLargestKey();
+            shallowestLevel = Math.min(shallowestLevel, input.getLevel());
+        }
+        if (indexes.isEmpty()) return true;
+
+        for (var level = shallowestLevel; level < levels.size(); level++) {
+            var isNewer = level == 0;
+            for (var segment : levels.get(level)) {
+                if (indexes.contains(segment.getIndex())) {
+                    isNewer = false;
+                    continue;
+                }
+                if (!isNewer && segment.overlaps(smallest, largest)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a freshly flushed segment as the newest level 0 segment.
+     */
+    Manifest withFlushed(Segment segment) {
+        var levels = new ArrayList<>(this.levels);
+        var level0 = new ArrayList<Segment>(levels.get(0).size() + 1);
+        level0.add(segment);
+        level0.addAll(levels.get(0));
+        levels.set(0, List.copyOf(level0));
+        return new Manifest(List.copyOf(levels));
+    }
+
+    /**
+     * Replaces the inputs of a compaction with its outputs. Level 0 outputs take the place of the
+     * newest level 0 input so they stay behind every segment flushed since; deeper outputs are
+     * placed by key.
+     */
+    Manifest withCompacted(Collection<Segment> inputs, List<Segment> outputs) {
+        var removed = new HashSet<Long>();
+        for (var input : inputs) removed.add(input.getIndex());
+
+        var outputLevel = outputs.isEmpty() ? 0 : outputs.get(0).getLevel();
+        var levels = new ArrayList<List<Segment>>();
+        for (var level = 0; level < Math.max(this.levels.size(), outputLevel + 1); level++) {
+            var segments = new ArrayList<Segment>();
+            var insertAt = -1;
+            for (var segment : getLevel(level)) {
+                if (removed.contains(segment.getIndex())) {
+                    if (insertAt < 0) insertAt = segments.size();
+                    continue;
+                }
+                segments.add(segment);
+            }
+
+            if (level == outputLevel && !outputs.isEmpty()) {
+                if (level == 0) segments.addAll(insertAt < 0 ? segments.size() : insertAt, outputs);
+                else {
+                    segments.addAll(outputs);
+                    segments.sort(KEY_RANGE_ORDER);
+                }
+            }
+            levels.add(List.copyOf(segments));
+        }
+
+        // Drop empty levels past the deepest populated one
+        while (levels.size() > 1 && levels.get(levels.size() - 1).isEmpty()) levels.remove(levels.size() - 1);
+        return new Manifest(List.copyOf(levels));
+    }
+
+    /**
+     * Atomically and durably replaces the manifest file with this manifest; once it returns the
+     * files the previous manifest referenced may be deleted.
+     */
+    void writeTo(Path manifestFile) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        var segments = getSegments();
+        out.writeInt(segments.size());
+        for (var segment : segments) {
+            out.writeInt(segment.getLevel());
+            out.writeLong(segment.getIndex());
+            out.writeLong(segment.getSize());
+            writeKey(out, segment.getSmallestKey());
+            writeKey(out, segment.getLargestKey());
+        }
+        var crc = new CRC32C();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+
+        var temporaryFile = Path.of(manifestFile.toString() + ".tmp");
+        try (var channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            var buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) channel.write(buffer);
+            channel.force(false);
+        }
+        Files.move(temporaryFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        FileSync.forceDirectory(manifestFile.toAbsolutePath().getParent());
+    }
+
+    private static void writeKey(DataOutputStream out, String key) throws IOException {
+        var bytes = Keys.toBytes(key);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a manifest file.
+     * @param open Opens the SSTable of segment N
+     */
+    static Manifest read(Path manifestFile, LongFunction<SSTable> open) throws IOException {
+        var buffer = ByteBuffer.wrap(Files.readAllBytes(manifestFile));
+        if (buffer.remaining() < 4 + 1 + 4 + 4 || buffer.getInt() != MAGIC) throw new IOException("Not a manifest: " + manifestFile);
+        var version = buffer.get();
+        if (version != VERSION) throw new IOException("Unsupported manifest version " + version + ": " + manifestFile);
+
+        var crc = new CRC32C();
+        crc.update(buffer.array(), 0, buffer.limit() - 4);
+        if ((int) crc.getValue() != buffer.getInt(buffer.limit() - 4)) throw new IOException("Corrupt manifest: " + manifestFile);
+
+        var levels = new ArrayList<List<Segment>>();
+        levels.add(new ArrayList<>());
+        var count = buffer.getInt();
+        for (var i = 0; i < count; i++) {
+            var level = buffer.getInt();
+            var index = buffer.getLong();
+            var size = buffer.getLong();
+            var smallestKey = readKey(buffer);
+            var largestKey = readKey(buffer);
+            while (levels.size() <= level) levels.add(new ArrayList<>());
+            levels.get(level).add(new Segment(index, level, smallestKey, largestKey, size, open.apply(index)));
+        }
+
+        for (var level = 0; level < levels.size(); level++) {
+            levels.set(level, Collections.unmodifiableList(levels.get(level)));
+        }
+        return new Manifest(Collections.unmodifiableList(levels));
+    }
+
+    private static String readKey(ByteBuffer buffer) {
+        var bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return Keys.fromBytes(bytes);
+    }
+}
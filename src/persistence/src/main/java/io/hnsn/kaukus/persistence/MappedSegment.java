@@ -0,0 +1,72 @@
+package io.hnsn.kaukus.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read-only memory mapping of an entire segment file. Readers {@link #acquire()} the mapping for
+ * the duration of a lookup; once the segment is closed the mapping is unmapped as soon as the last
+ * reader releases it. Reading an unmapped buffer crashes the JVM, so slices must never outlive a
+ * release.
+ */
+/*package*/ class MappedSegment {
+    private static final BufferCleaner CLEANER = BufferCleaner.create();
+
+    private final MappedByteBuffer buffer;
+    // The segment itself holds a reference until it's closed
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
+
+    private MappedSegment(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Maps the segment file.
+     * @return The mapping or null if the file is too large to be mapped into a single buffer
+     */
+    static MappedSegment map(Path filePath) throws IOException {
+        try (var channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) return null;
+            return new MappedSegment(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * @return True if the mapping may be read until {@link #release()} is called; false if it has
+     *         been closed
+     */
+    boolean acquire() {
+        while (true) {
+            var count = references.get();
+            if (count == 0) return false;
+            if (references.compareAndSet(count, count + 1)) return true;
+        }
+    }
+
+    void release() {
+        if (references.decrementAndGet() == 0) CLEANER.clean(buffer);
+    }
+
+    void close() {
+        if (isClosed.compareAndSet(false, true)) release();
+    }
+
+    int size() {
+        return buffer.capacity();
+    }
+
+    /**
+     * A view of {@code length} bytes starting at {@code offset}; only valid while acquired.
+     */
+    ByteBuffer slice(long offset, int length) {
+        return buffer.slice((int) offset, length);
+    }
+}
@@ -0,0 +1,358 @@
+package io.hnsn.kaukus.persistence;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The in-memory, sorted portion of an {@link LSMTree}. Entries are kept in key order as they're
+ * written so flushing is a single in-order pass and ranges of unflushed keys can be iterated
+ * without sorting. Readers and writers never block one another.
+ *
+ * Each key maps to its newest {@link LSMTreeValue}, which links to the older versions open
+ * snapshots may still read. Range deletes are kept apart as {@link RangeTombstone}s tagged with
+ * their sequence number; a key's version is deleted by any newer range tombstone covering it.
+ *
+ * An off-heap memtable keeps its keys and values in a {@link MemtableArena}, indexed by their
+ * addresses. Point reads copy what they return onto the heap; iterating requires holding a
+ * reference, see {@link #acquire()}, as the arena is freed once the last one is released.
+ */
+/*package*/ class Memtable implements Iterable<Entry<String, LSMTreeValue>> {
+    /**
+     * Rough per entry overhead of the skip list node, map entry and value objects.
+     */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    /**
+     * Keyed by byte strings, or by the addresses of keys in the arena for off-heap memtables.
+     */
+    private final ConcurrentSkipListMap<Object, LSMTreeValue> entries;
+    /**
+     * Holds the keys and values of off-heap memtables; null for heap memtables.
+     */
+    private final MemtableArena arena;
+    private final List<RangeTombstone> rangeTombstones = new CopyOnWriteArrayList<>();
+    private final AtomicLong approximateSize = new AtomicLong();
+    private volatile long firstWriteNanos = 0;
+    /**
+     * Held by the tree until the memtable's segment is installed and by every snapshot reading it.
+     */
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    /**
+     * Creates a memtable ordered the same way as SSTable keys; see {@link SSTableFormat#KEY_ORDER}.
+     */
+    Memtable() {
+        this(SSTableFormat.KEY_ORDER);
+    }
+
+    /**
+     * @param comparator Key order; must match the order of the segments the memtable is flushed to
+     */
+    Memtable(Comparator<String> comparator) {
+        entries = new ConcurrentSkipListMap<>((a, b) -> comparator.compare((String) a, (String) b));
+        arena = null;
+    }
+
+    private Memtable(MemtableArena arena) {
+        entries = new ConcurrentSkipListMap<>((a, b) -> compare(arena, a, b));
+        this.arena = arena;
+    }
+
+    /**
+     * Creates a memtable holding its keys and values off-heap, ordered the same way as SSTable
+     * keys. Keys must be byte strings; see {@link Keys}.
+     * @param chunkSize Size of the arena's chunks, in bytes
+     */
+    static Memtable offHeap(int chunkSize) {
+        return new Memtable(new MemtableArena(chunkSize));
+    }
+
+    /**
+     * Compares index keys of an off-heap memtable: arena addresses of stored keys and the byte
+     * string keys looked up.
+     */
+    private static int compare(MemtableArena arena, Object a, Object b) {
+        if (a instanceof Long) {
+            if (b instanceof Long) return arena.compare((Long) a, (Long) b);
+            return arena.compare((Long) a, (String) b);
+        }
+        if (b instanceof Long) return -arena.compare((Long) b, (String) a);
+        return SSTableFormat.compareKeys((String) a, (String) b);
+    }
+
+    /**
+     * @return The newest value, a tombstone or null if the key hasn't been written
+     */
+    LSMTreeValue get(String key) {
+        return get(key, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return The value or tombstone written at or before {@code sequence}, or null if there's none
+     */
+    LSMTreeValue get(String key, long sequence) {
+        if (arena == null) return getVisible(key, sequence);
+        if (!acquire()) return null;
+        try {
+            var version = getVisible(key, sequence);
+            return version != null ? version.detach() : null;
+        } finally {
+            release();
+        }
+    }
+
+    private LSMTreeValue getVisible(String key, long sequence) {
+        var versions = entries.get(key);
+        return versions != null ? versions.getVisible(sequence) : null;
+    }
+
+    /**
+     * Like {@link #get(String, long)}, but a version deleted by a newer range tombstone, or a key
+     * only a range tombstone covers, reads as a tombstone.
+     */
+    LSMTreeValue read(String key, long sequence) {
+        var lsmTreeValue = get(key, sequence);
+        if (rangeTombstones.isEmpty()) return lsmTreeValue;
+
+        var rangeDeleteSequence = getRangeDeleteSequence(key, sequence);
+        if (rangeDeleteSequence > 0 && (lsmTreeValue == null || lsmTreeValue.getSequence() < rangeDeleteSequence)) return LSMTreeValue.tombstone(rangeDeleteSequence);
+        return lsmTreeValue;
+    }
+
+    /**
+     * Writes a value while no snapshots are open; older versions of the key are dropped.
+     */
+    void put(String key, LSMTreeValue value) {
+        put(key, value, Long.MAX_VALUE);
+    }
+
+    /**
+     * Writes a value, keeping the older versions of the key that snapshots taken at or after
+     * {@code retainedSequence} may read.
+     */
+    void put(String key, LSMTreeValue value, long retainedSequence) {
+        if (firstWriteNanos == 0) firstWriteNanos = System.nanoTime();
+        if (arena != null) {
+            putOffHeap(key, value, retainedSequence);
+            return;
+        }
+
+        // The remapping function may be retried so it only records what it replaced
+        var replaced = new LSMTreeValue[1];
+        var versions = entries.compute(key, (k, previous) -> {
+            replaced[0] = previous;
+            return LSMTreeValue.addVersion(previous, value, retainedSequence);
+        });
+
+        // Versions kept for snapshots stay charged until the memtable is flushed
+        var previous = replaced[0];
+        if (previous == null) approximateSize.addAndGet(sizeOf(key, value));
+        else if (versions.hasPrevious()) approximateSize.addAndGet(sizeOf(value));
+        else approximateSize.addAndGet(sizeOf(versions) - sizeOf(previous));
+    }
+
+    /**
+     * Moves the value into the arena and, the first time the key is written, the key too. Keys
+     * are never removed, so only a race between the key's first writes stores it twice. The
+     * arena accounts for the memtable's size.
+     */
+    private void putOffHeap(String key, LSMTreeValue value, long retainedSequence) {
+        var stored = value.isTombstone() ? value : new MemtableArena.Value(arena, arena.allocate(value.getValueBytes()), value.getSequence(), value.getExpiresAt());
+        Object indexKey = entries.containsKey(key) ? key : arena.allocate(Keys.toBytes(key));
+        entries.compute(indexKey, (k, previous) -> LSMTreeValue.addVersion(previous, stored, retainedSequence));
+    }
+
+    /**
+     * Adds a range tombstone; the entries it covers are kept for snapshots and dropped on flush.
+     */
+    void deleteRange(RangeTombstone rangeTombstone) {
+        if (firstWriteNanos == 0) firstWriteNanos = System.nanoTime();
+
+        rangeTombstones.add(rangeTombstone);
+        approximateSize.addAndGet(ENTRY_OVERHEAD + rangeTombstone.getFromKey().length() + rangeTombstone.getToKey().length());
+    }
+
+    /**
+     * Every range tombstone, in the order they were added.
+     */
+    List<RangeTombstone> getRangeTombstones() {
+        return Collections.unmodifiableList(rangeTombstones);
+    }
+
+    /**
+     * The range tombstones written at or before {@code sequence}.
+     */
+    List<RangeTombstone> getRangeTombstones(long sequence) {
+        var visible = new ArrayList<RangeTombstone>();
+        for (var rangeTombstone : rangeTombstones) {
+            if (rangeTombstone.getSequence() <= sequence) visible.add(rangeTombstone);
+        }
+        return visible;
+    }
+
+    /**
+     * @return Sequence number of the newest range tombstone covering the key written at or
+     *         before {@code sequence}, or 0 if there's none
+     */
+    long getRangeDeleteSequence(String key, long sequence) {
+        var rangeDeleteSequence = 0L;
+        for (var rangeTombstone : rangeTombstones) {
+            if (rangeTombstone.getSequence() <= sequence && rangeTombstone.getSequence() > rangeDeleteSequence && rangeTombstone.covers(key)) {
+                rangeDeleteSequence = rangeTombstone.getSequence();
+            }
+        }
+        return rangeDeleteSequence;
+    }
+
+    boolean hasRangeTombstones() {
+        return !rangeTombstones.isEmpty();
+    }
+
+    /**
+     * Keys are byte strings, a byte per char; see {@link Keys}.
+     */
+    private static long sizeOf(String key, LSMTreeValue value) {
+        return ENTRY_OVERHEAD + key.length() + sizeOf(value);
+    }
+
+    private static long sizeOf(LSMTreeValue value) {
+        return value.getValueBytes() == null ? 0 : value.getValueBytes().length;
+    }
+
+    /**
+     * Approximate heap usage of the entries, in bytes; exact for the keys and values of off-heap
+     * memtables.
+     */
+    long getApproximateSize() {
+        return arena == null ? approximateSize.get() : approximateSize.get() + arena.getSize();
+    }
+
+    /**
+     * Takes another reference, keeping an off-heap memtable's arena readable until it's
+     * {@link #release() released}.
+     * @return True if the memtable may be read; false if it has been freed
+     */
+    boolean acquire() {
+        while (true) {
+            var count = references.get();
+            if (count <= 0) return false;
+            if (references.compareAndSet(count, count + 1)) return true;
+        }
+    }
+
+    /**
+     * Releases a reference, freeing an off-heap memtable's arena with the last one.
+     */
+    void release() {
+        if (references.decrementAndGet() == 0 && arena != null) arena.free();
+    }
+
+    /**
+     * {@link System#nanoTime()} of the first write, or 0 if the memtable hasn't been written to.
+     */
+    long getFirstWriteNanos() {
+        return firstWriteNanos;
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty() && rangeTombstones.isEmpty();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Iterates the newest version of every entry, tombstones included, in key order.
+     */
+    @Override
+    public Iterator<Entry<String, LSMTreeValue>> iterator() {
+        return entries(entries).iterator();
+    }
+
+    /**
+     * Iterates the entries from {@code fromKey} (inclusive) to {@code toKey} (exclusive) in key
+     * order; a null bound is unbounded.
+     */
+    Iterable<Entry<String, LSMTreeValue>> range(String fromKey, String toKey) {
+        return range(fromKey, toKey, false);
+    }
+
+    /**
+     * Iterates the entries from {@code fromKey} (inclusive) to {@code toKey} (exclusive) in key
+     * order or, if reversed, from the last key before {@code toKey} back to {@code fromKey}; a null
+     * bound is unbounded.
+     */
+    Iterable<Entry<String, LSMTreeValue>> range(String fromKey, String toKey, boolean isReversed) {
+        NavigableMap<Object, LSMTreeValue> range = entries;
+        if (fromKey != null) range = range.tailMap(fromKey, true);
+        if (toKey != null) range = range.headMap(toKey, false);
+        return entries(isReversed ? range.descendingMap() : range);
+    }
+
+    /**
+     * Iterates the entries whose keys start with {@code prefix} in key order. Assumes the key order
+     * keeps keys sharing a prefix adjacent, as lexicographic orders do.
+     */
+    Iterable<Entry<String, LSMTreeValue>> prefix(String prefix) {
+        return () -> new Iterator<>() {
+            private final Iterator<Entry<String, LSMTreeValue>> iterator = entries(entries.tailMap(prefix, true)).iterator();
+            private Entry<String, LSMTreeValue> next = advance();
+
+            private Entry<String, LSMTreeValue> advance() {
+                if (!iterator.hasNext()) return null;
+                var entry = iterator.next();
+                return entry.getKey().startsWith(prefix) ? entry : null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Entry<String, LSMTreeValue> next() {
+                if (next == null) throw new NoSuchElementException();
+                var entry = next;
+                next = advance();
+                return entry;
+            }
+        };
+    }
+
+    /**
+     * The entries of part of the index, keyed by byte strings; off-heap keys are copied out as
+     * they're iterated.
+     */
+    @SuppressWarnings("unchecked")
+    private Iterable<Entry<String, LSMTreeValue>> entries(NavigableMap<Object, LSMTreeValue> index) {
+        // Heap memtables are keyed by byte strings already
+        if (arena == null) return (Iterable<Entry<String, LSMTreeValue>>) (Iterable<?>) index.entrySet();
+
+        return () -> new Iterator<>() {
+            private final Iterator<Entry<Object, LSMTreeValue>> iterator = index.entrySet().iterator();
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Entry<String, LSMTreeValue> next() {
+                var entry = iterator.next();
+                return new SimpleImmutableEntry<>(Keys.fromBytes(arena.read((Long) entry.getKey())), entry.getValue());
+            }
+        };
+    }
+}
@@ -0,0 +1,163 @@
+package io.hnsn.kaukus.persistence;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Off-heap storage for the keys and values of a {@link Memtable}. Records are appended to direct
+ * buffer chunks and addressed by their chunk and offset, so the heap only holds the memtable's
+ * index of addresses. Nothing is freed until the whole arena is, at once.
+ *
+ * A record is
+ * <pre>
+ * [length (4) | bytes]
+ * </pre>
+ * and keys are stored as their bytes; see {@link Keys}.
+ */
+/*package*/ class MemtableArena {
+    private static final BufferCleaner CLEANER = BufferCleaner.create();
+
+    private final int chunkSize;
+    /**
+     * Grown under the arena's lock; records are written before their address is handed out.
+     */
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    /**
+     * Chunk records that fit a chunk are appended to, or -1 before the first is allocated.
+     */
+    private int current = -1;
+    private int position = 0;
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * @param chunkSize Size of the chunks, in bytes; larger records get a chunk of their own
+     */
+    MemtableArena(int chunkSize) {
+        this.chunkSize = Math.max(Integer.BYTES, chunkSize);
+    }
+
+    /**
+     * Appends a record.
+     * @return The record's address
+     */
+    synchronized long allocate(byte[] bytes) {
+        var length = Integer.BYTES + bytes.length;
+        int chunkIndex, offset;
+        if (length > chunkSize) {
+            chunkIndex = addChunk(length);
+            offset = 0;
+        } else {
+            if (current < 0 || position + length > chunkSize) {
+                current = addChunk(chunkSize);
+                position = 0;
+            }
+            chunkIndex = current;
+            offset = position;
+            position += length;
+        }
+
+        var chunk = chunks[chunkIndex];
+        chunk.putInt(offset, bytes.length);
+        chunk.put(offset + Integer.BYTES, bytes);
+        size.addAndGet(length);
+        return ((long) chunkIndex << 32) | offset;
+    }
+
+    private int addChunk(int capacity) {
+        var grown = Arrays.copyOf(chunks, chunks.length + 1);
+        grown[chunks.length] = ByteBuffer.allocateDirect(capacity);
+        chunks = grown;
+        return grown.length - 1;
+    }
+
+    byte[] read(long address) {
+        var chunk = chunks[(int) (address >>> 32)];
+        var offset = (int) address;
+        var bytes = new byte[chunk.getInt(offset)];
+        chunk.get(offset + Integer.BYTES, bytes);
+        return bytes;
+    }
+
+    /**
+     * Compares the key stored at {@code address} with a byte string key; see
+     * {@link SSTableFormat#KEY_ORDER}.
+     */
+    int compare(long address, String key) {
+        var chunk = chunks[(int) (address >>> 32)];
+        var offset = (int) address;
+        var length = chunk.getInt(offset);
+        offset += Integer.BYTES;
+        for (var i = 0; i < Math.min(length, key.length()); i++) {
+            var difference = (chunk.get(offset + i) & 0xFF) - key.charAt(i);
+            if (difference != 0) return difference;
+        }
+        return length - key.length();
+    }
+
+    /**
+     * Compares the keys stored at two addresses; see {@link SSTableFormat#KEY_ORDER}.
+     */
+    int compare(long address, long otherAddress) {
+        var chunk = chunks[(int) (address >>> 32)];
+        var offset = (int) address;
+        var length = chunk.getInt(offset);
+        offset += Integer.BYTES;
+        var otherChunk = chunks[(int) (otherAddress >>> 32)];
+        var otherOffset = (int) otherAddress;
+        var otherLength = otherChunk.getInt(otherOffset);
+        otherOffset += Integer.BYTES;
+        for (var i = 0; i < Math.min(length, otherLength); i++) {
+            var difference = (chunk.get(offset + i) & 0xFF) - (otherChunk.get(otherOffset + i) & 0xFF);
+            if (difference != 0) return difference;
+        }
+        return length - otherLength;
+    }
+
+    /**
+     * Bytes of the records appended, headers included.
+     */
+    long getSize() {
+        return size.get();
+    }
+
+    /**
+     * Frees every chunk. Nothing may read the arena afterwards; reading a freed chunk crashes
+     * the JVM.
+     */
+    synchronized void free() {
+        for (var chunk : chunks) CLEANER.clean(chunk);
+        chunks = new ByteBuffer[0];
+        current = -1;
+        position = 0;
+    }
+
+    /**
+     * A version whose value is held in the arena; its bytes are copied out on every read.
+     */
+    static class Value extends LSMTreeValue {
+        private final MemtableArena arena;
+        private final long address;
+
+        Value(MemtableArena arena, long address, long sequence, long expiresAt) {
+            super((byte[]) null, sequence, expiresAt);
+            this.arena = arena;
+            this.address = address;
+        }
+
+        @Override
+        public byte[] getValueBytes() {
+            return arena.read(address);
+        }
+
+        @Override
+        LSMTreeValue copy() {
+            return new Value(arena, address, getSequence(), getExpiresAt());
+        }
+
+        @Override
+        LSMTreeValue detach() {
+            return new LSMTreeValue(getValueBytes(), getSequence(), getExpiresAt());
+        }
+    }
+}
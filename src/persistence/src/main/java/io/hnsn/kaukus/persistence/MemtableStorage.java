@@ -0,0 +1,18 @@
+package io.hnsn.kaukus.persistence;
+
+/**
+ * Where an {@link LSMTree}'s memtables hold their keys and values.
+ */
+public enum MemtableStorage {
+    /**
+     * Keys and values are objects on the heap; the memtable's size is an estimate of their
+     * footprint.
+     */
+    HEAP,
+    /**
+     * Keys and values are appended to off-heap chunks, leaving the heap only an index of their
+     * offsets. The memtable's size is exactly the bytes stored and its chunks are freed together
+     * once its segment is installed and no snapshot reads it.
+     */
+    OFF_HEAP
+}
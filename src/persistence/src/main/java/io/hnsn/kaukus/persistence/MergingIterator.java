@@ -0,0 +1,103 @@
+package io.hnsn.kaukus.persistence;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import io.hnsn.kaukus.persistence.SSTable.Entry;
+import io.hnsn.kaukus.persistence.SSTable.EntryIterator;
+
+/**
+ * Merges the entries of several segments into a single key ordered stream through a heap of the
+ * segments' iterators. When more than one segment holds a key only the entry of the newest
+ * segment is returned; tombstones are returned like any other entry. Merges of reversed iterators
+ * return keys in reverse order.
+ */
+/*package*/ class MergingIterator implements EntryIterator {
+    private final List<EntryIterator> iterators;
+    /**
+     * Current entry of every iterator that isn't exhausted; next key first and, for equal keys,
+     * newest segment first.
+     */
+    private final PriorityQueue<Head> heads;
+
+    /**
+     * @param iterators Iterators of the segments to merge, newest segment first; closed with
+     * this iterator
+     */
+    MergingIterator(List<EntryIterator> iterators) {
+        this(iterators, false);
+    }
+
+    /**
+     * @param iterators Iterators of the segments to merge, newest segment first; closed with
+     * this iterator
+     * @param isReversed True if the iterators return keys in reverse order
+     */
+    MergingIterator(List<EntryIterator> iterators, boolean isReversed) {
+        this.iterators = iterators;
+        this.heads = new PriorityQueue<>(Math.max(1, iterators.size()), (a, b) -> {
+            var comparison = SSTableFormat.compareKeys(a.entry.key, b.entry.key);
+            if (isReversed) comparison = -comparison;
+            return comparison != 0 ? comparison : Integer.compare(a.age, b.age);
+        });
+        for (var age = 0; age < iterators.size(); age++) advance(new Head(iterators.get(age), age));
+    }
+
+    private void advance(Head head) {
+        if (!head.iterator.hasNext()) return;
+        head.entry = head.iterator.next();
+        heads.add(head);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heads.isEmpty();
+    }
+
+    @Override
+    public Entry next() {
+        if (heads.isEmpty()) throw new NoSuchElementException();
+
+        var newest = heads.poll();
+        var entry = newest.entry;
+        advance(newest);
+
+        // Skip the shadowed entries of older segments
+        while (!heads.isEmpty() && SSTableFormat.compareKeys(heads.peek().entry.key, entry.key) == 0) {
+            advance(heads.poll());
+        }
+
+        return entry;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (var iterator : iterators) {
+            try {
+                iterator.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+                else failure.addSuppressed(e);
+            }
+        }
+
+        if (failure != null) throw failure;
+    }
+
+    private static class Head {
+        private final EntryIterator iterator;
+        /**
+         * Position of the segment in the merge; 0 is the newest.
+         */
+        private final int age;
+        private Entry entry;
+
+        private Head(EntryIterator iterator, int age) {
+            this.iterator = iterator;
+            this.age = age;
+        }
+    }
+}
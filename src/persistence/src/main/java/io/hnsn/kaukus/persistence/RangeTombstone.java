@@ -0,0 +1,119 @@
+package io.hnsn.kaukus.persistence;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import io.hnsn.kaukus.persistence.SSTable.EntryIterator;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Deletes every key from {@code fromKey} (inclusive) to {@code toKey} (exclusive) written before
+ * it. In a memtable it's tagged with the sequence number of its write and deletes the older
+ * versions of the keys it covers. In a segment it deletes the keys of older segments but never
+ * the segment's own entries, which are newer; flushes drop the entries it deletes.
+ */
+@AllArgsConstructor
+@Getter
+/*package*/ class RangeTombstone {
+    private final String fromKey;
+    private final String toKey;
+    /**
+     * Sequence number of the write; 0 once the tombstone is in a segment.
+     */
+    private final long sequence;
+
+    RangeTombstone(String fromKey, String toKey) {
+        this(fromKey, toKey, 0);
+    }
+
+    boolean covers(String key) {
+        return SSTableFormat.compareKeys(key, fromKey) >= 0 && SSTableFormat.compareKeys(key, toKey) < 0;
+    }
+
+    /**
+     * True if the tombstone covers any keys from {@code lowerKey} (inclusive) to {@code upperKey}
+     * (exclusive); a null bound is unbounded.
+     */
+    boolean overlapsRange(String lowerKey, String upperKey) {
+        return (lowerKey == null || SSTableFormat.compareKeys(toKey, lowerKey) > 0)
+            && (upperKey == null || SSTableFormat.compareKeys(fromKey, upperKey) < 0);
+    }
+
+    /**
+     * The part of the tombstone from {@code lowerKey} (inclusive) to {@code upperKey} (exclusive),
+     * or null if it covers none of it; a null bound is unbounded.
+     */
+    RangeTombstone clip(String lowerKey, String upperKey) {
+        if (!overlapsRange(lowerKey, upperKey)) return null;
+        var from = lowerKey != null && SSTableFormat.compareKeys(lowerKey, fromKey) > 0 ? lowerKey : fromKey;
+        var to = upperKey != null && SSTableFormat.compareKeys(upperKey, toKey) < 0 ? upperKey : toKey;
+        return new RangeTombstone(from, to, sequence);
+    }
+
+    static boolean covers(Collection<RangeTombstone> rangeTombstones, String key) {
+        for (var rangeTombstone : rangeTombstones) {
+            if (rangeTombstone.covers(key)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Merges overlapping and adjacent tombstones into the fewest tombstones covering the same
+     * keys, in key order; sequence numbers are dropped so only use it for segments.
+     */
+    static List<RangeTombstone> coalesce(Collection<RangeTombstone> rangeTombstones) {
+        var sorted = new ArrayList<>(rangeTombstones);
+        sorted.sort((a, b) -> SSTableFormat.compareKeys(a.fromKey, b.fromKey));
+
+        var coalesced = new ArrayList<RangeTombstone>();
+        String from = null, to = null;
+        for (var rangeTombstone : sorted) {
+            if (from != null && SSTableFormat.compareKeys(rangeTombstone.fromKey, to) <= 0) {
+                if (SSTableFormat.compareKeys(rangeTombstone.toKey, to) > 0) to = rangeTombstone.toKey;
+                continue;
+            }
+            if (from != null) coalesced.add(new RangeTombstone(from, to));
+            from = rangeTombstone.fromKey;
+            to = rangeTombstone.toKey;
+        }
+        if (from != null) coalesced.add(new RangeTombstone(from, to));
+        return coalesced;
+    }
+
+    /**
+     * Skips the entries of a segment covered by the tombstones of newer segments.
+     */
+    static EntryIterator filter(EntryIterator entries, List<RangeTombstone> rangeTombstones) {
+        if (rangeTombstones.isEmpty()) return entries;
+
+        return new EntryIterator() {
+            private SSTable.Entry next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && entries.hasNext()) {
+                    var entry = entries.next();
+                    if (!covers(rangeTombstones, entry.key)) next = entry;
+                }
+                return next != null;
+            }
+
+            @Override
+            public SSTable.Entry next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                var entry = next;
+                next = null;
+                return entry;
+            }
+
+            @Override
+            public void close() throws IOException {
+                entries.close();
+            }
+        };
+    }
+}
@@ -1,36 +1,78 @@
 package io.hnsn.kaukus.persistence;
 
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Base64.Decoder;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import io.hnsn.kaukus.persistence.serialization.SerializerFactory;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.Getter;
 
-public class SSTable {
+public class SSTable implements Closeable {
     private final Path filePath;
     private final SSTableConfiguration configuration;
+    /**
+     * Identifies this segment's blocks in the shared block cache.
+     */
+    private final long segmentId;
 
     private volatile IndexTuple[] index;
+    private volatile BloomFilter filter;
+    private volatile byte version;
+    private volatile SSTableCompression compression;
+    private volatile long entryCount;
+    private volatile long tombstoneCount;
+    private volatile List<RangeTombstone> rangeTombstones;
+    private volatile Map<Long, Long> valueLogReferences;
+    private volatile MappedSegment mapping;
+    private volatile boolean isUnmappable = false;
+    private volatile boolean isClosed = false;
     private final Object indexLock = new Object();
     private final static Decoder decoder = Base64.getDecoder();
 
     public SSTable(Path filePath, SSTableConfiguration configuration) {
         this.filePath = filePath;
         this.configuration = configuration;
+        this.segmentId = configuration.getBlockCache() != null ? configuration.getBlockCache().newSegmentId() : 0;
     }
 
+    /**
+     * Looks up a text key; see {@link #tryGetValue(byte[])}.
+     */
     public SSTableResult tryGetValue(String key) throws FileNotFoundException, IOException {
-        return tryGetValueOrContains(key, false);
+        return tryGetValue(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public SSTableResult tryGetValue(byte[] key) throws FileNotFoundException, IOException {
+        return tryGetValueOrContains(Keys.fromBytes(key), key, false);
+    }
+
+    /**
+     * Looks up a text key; see {@link #containsKey(byte[])}.
+     */
+    public ContainsKey containsKey(String key) throws FileNotFoundException, IOException {
+        return containsKey(key.getBytes(StandardCharsets.UTF_8));
     }
 
     /**
@@ -44,14 +86,23 @@ public class SSTable {
      * @throws FileNotFoundException
      * @throws IOException
      */
-    public ContainsKey containsKey(String key) throws FileNotFoundException, IOException {
-        var result = tryGetValueOrContains(key, true);
+    public ContainsKey containsKey(byte[] key) throws FileNotFoundException, IOException {
+        var result = tryGetValueOrContains(Keys.fromBytes(key), key, true);
         if (result == null) return ContainsKey.FALSE;
         return new ContainsKey(true, result.isTombstone);
     }
 
+    /**
+     * @param key The key as a byte string; see {@link Keys}
+     */
     /*package*/ SSTableResult tryGetValueOrContains(String key, boolean existsOnly) throws FileNotFoundException, IOException {
+        return tryGetValueOrContains(key, Keys.toBytes(key), existsOnly);
+    }
+
+    private SSTableResult tryGetValueOrContains(String key, byte[] keyBytes, boolean existsOnly) throws FileNotFoundException, IOException {
         var index = getIndex();
+        if (version != SSTableFormat.VERSION_1) return tryGetBlockValueOrContains(index, key, keyBytes, existsOnly);
+
         var left = 0;
         var right = index.length;
 
@@ -65,9 +116,11 @@ public class SSTable {
                     return index[middle].isTombstone ? SSTableResult.TOMBSTONE : SSTableResult.EMPTY;
                 }
 
-                var tokens = getByteValueAtOffset(index[middle].getIndex());
-                if (tokens.isTombstone) return SSTableResult.TOMBSTONE;
-                return new SSTableResult(tokens.getDecodedValue(configuration.serializerFactory));
+                try (var lineReader = openLineReader(index[middle].getIndex())) {
+                    var tokens = LineResult.of(lineReader.readLine());
+                    if (tokens.isTombstone) return SSTableResult.TOMBSTONE;
+                    return new SSTableResult(tokens.getDecodedValue(configuration.serializerFactory));
+                }
             }
             else if (compare > 0) right = middle;
             else left = middle + 1;
@@ -78,13 +131,11 @@ public class SSTable {
         if (left < 0 || left >= index.length) return null;
         var tuple = index[left];
         var offset = tuple.getIndex();
-        long end = -1;
 
-        end = left + 1 < index.length ? index[left + 1].getIndex() : Files.size(filePath);
-        try (var randomAccessFile = new RandomAccessFile(filePath.toString(), "r")) {
-            randomAccessFile.seek(offset);
+        try (var lineReader = openLineReader(offset)) {
+            var end = left + 1 < index.length ? index[left + 1].getIndex() : lineReader.length();
             while (offset < end) {
-                var line = randomAccessFile.readLine();
+                var line = lineReader.readLine();
                 offset += line.length() + 1;
                 var tokens = LineResult.of(line);
                 var decodedLineKey = tokens.getDecodedKey(decoder);
@@ -96,6 +147,7 @@ public class SSTable {
                     }
 
                     // Read and deserialize
+                    if (tokens.isTombstone) return SSTableResult.TOMBSTONE;
                     return new SSTableResult(tokens.getDecodedValue(configuration.serializerFactory));
                 }
             }
@@ -104,16 +156,286 @@ public class SSTable {
         return null;
     }
 
-    private LineResult getByteValueAtOffset(long offset) {
-        try (var randomAccessFile = new RandomAccessFile(filePath.toString(), "r")) {
+    private SSTableResult tryGetBlockValueOrContains(IndexTuple[] index, String key, byte[] keyBytes, boolean existsOnly) throws IOException {
+        // Rule out keys that were never written here without touching the disk
+        if (filter != null && !filter.mightContain(keyBytes)) return null;
+
+        // Binary search for the last block starting at or before the key
+        var left = 0;
+        var right = index.length;
+        while (left < right) {
+            var middle = (left + right) / 2;
+            var compare = SSTableFormat.compareKeys(index[middle].getKey(), key);
+            if (compare == 0) {
+                // Later index keys of version 4 segments may not be keys at all
+                if (existsOnly && (version < SSTableFormat.VERSION_4 || middle == 0)) {
+                    // Checking for existence only; skipping file open if we can. From version 5 a
+                    // value may have expired so only tombstones are certain.
+                    if (index[middle].isTombstone) return SSTableResult.TOMBSTONE;
+                    if (version < SSTableFormat.VERSION_5) return SSTableResult.EMPTY;
+                }
+
+                left = middle + 1;
+                break;
+            }
+            else if (compare > 0) right = middle;
+            else left = middle + 1;
+        }
+
+        left = left - 1;
+        if (left < 0) return null;
+
+        // Records are copied out of the block so they remain valid once the mapping is released
+        var mapping = acquireMapping();
+        DataBlock.Record record;
+        try {
+            var block = mapping != null && compression == SSTableCompression.NONE
+                ? new DataBlock(mapping.slice(index[left].getIndex(), index[left].getLength()), version)
+                : readBlock(index[left], mapping, null);
+            record = block.find(keyBytes);
+        } finally {
+            if (mapping != null) mapping.release();
+        }
+
+        if (record == null) return null;
+        // Expired values shadow older ones just like tombstones
+        if (record.isTombstone() || record.isExpired(System.currentTimeMillis())) return SSTableResult.TOMBSTONE;
+        if (existsOnly) return SSTableResult.EMPTY;
+        if (record.isValuePointer()) return new SSTableResult(record.getValuePointer());
+        return new SSTableResult(record.getValue());
+    }
+
+    /**
+     * Acquires the segment's memory mapping, creating it on first use.
+     * @return The acquired mapping or null if segments are read through the file or the mapping is
+     *         unavailable
+     */
+    private MappedSegment acquireMapping() throws IOException {
+        if (configuration.getReadMode() != SSTableReadMode.MAPPED) return null;
+        if (mapping == null && !isUnmappable) {
+            synchronized (indexLock) {
+                if (mapping == null && !isUnmappable && !isClosed) {
+                    mapping = MappedSegment.map(filePath);
+                    isUnmappable = mapping == null;
+                }
+            }
+        }
+
+        var mapping = this.mapping;
+        return mapping != null && mapping.acquire() ? mapping : null;
+    }
+
+    /**
+     * Reads and decompresses a data block through the block cache.
+     * @param mapping The acquired mapping to read the block from, or null to read the file
+     * @param randomAccessFile The open segment file to read the block from, or null to open it
+     */
+    private DataBlock readBlock(IndexTuple tuple, MappedSegment mapping, RandomAccessFile randomAccessFile) throws IOException {
+        var blockCache = configuration.getBlockCache();
+        if (blockCache != null) {
+            var block = blockCache.get(segmentId, tuple.getIndex());
+            if (block != null) return block;
+        }
+
+        DataBlock block;
+        if (mapping != null) {
+            // Decompressing copies the block off the mapping
+            block = new DataBlock(compression.decompress(mapping.slice(tuple.getIndex(), tuple.getLength())), version);
+        } else if (randomAccessFile != null) {
+            block = readBlock(randomAccessFile, tuple, version, compression);
+        } else {
+            try (var file = new RandomAccessFile(filePath.toString(), "r")) {
+                block = readBlock(file, tuple, version, compression);
+            }
+        }
+
+        // Blocks of a replaced segment would never be invalidated
+        if (blockCache != null && !isClosed) blockCache.put(segmentId, tuple.getIndex(), block);
+        return block;
+    }
+
+    private static DataBlock readBlock(RandomAccessFile randomAccessFile, IndexTuple tuple, byte version, SSTableCompression compression) throws IOException {
+        var bytes = new byte[tuple.getLength()];
+        randomAccessFile.seek(tuple.getIndex());
+        randomAccessFile.readFully(bytes);
+        return new DataBlock(compression.decompress(ByteBuffer.wrap(bytes)), version);
+    }
+
+    /**
+     * Iterates the entries, tombstones included, from {@code fromKey} (inclusive) to {@code toKey}
+     * (exclusive) in key order or reversed; a null bound is unbounded. Only the block, or sampled
+     * run of lines of a legacy (v1) segment, being read is held in memory. The segment file is
+     * opened up front so the scan can finish even if a compaction deletes the segment meanwhile.
+     */
+    /*package*/ EntryIterator scan(String fromKey, String toKey, boolean isReversed) throws IOException {
+        final var randomAccessFile = new RandomAccessFile(filePath.toString(), "r");
+        final IndexTuple[] index;
+        try {
+            index = getIndex();
+        } catch (RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+
+        return new EntryIterator() {
+            private int chunk = isReversed ? findChunk(index, toKey, false) : findChunk(index, fromKey, true);
+            private Iterator<Entry> entries = Collections.emptyIterator();
+            private Entry next = null;
+            private boolean isDone = false;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && !isDone) {
+                    if (!entries.hasNext()) {
+                        if (chunk < 0 || chunk >= index.length) {
+                            isDone = true;
+                            break;
+                        }
+
+                        try {
+                            var chunkEntries = readChunk(index, chunk, randomAccessFile);
+                            if (isReversed) Collections.reverse(chunkEntries);
+                            entries = chunkEntries.iterator();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        chunk += isReversed ? -1 : 1;
+                        continue;
+                    }
+
+                    var entry = entries.next();
+                    var isBeforeFrom = fromKey != null && SSTableFormat.compareKeys(entry.key, fromKey) < 0;
+                    var isAfterTo = toKey != null && SSTableFormat.compareKeys(entry.key, toKey) >= 0;
+                    if (isReversed ? isBeforeFrom : isAfterTo) isDone = true;
+                    else if (!isBeforeFrom && !isAfterTo) next = entry;
+                }
+
+                return next != null;
+            }
+
+            @Override
+            public Entry next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                var entry = next;
+                next = null;
+                return entry;
+            }
+
+            @Override
+            public void close() throws IOException {
+                randomAccessFile.close();
+            }
+        };
+    }
+
+    /**
+     * Finds the block, or sampled run of lines, a scan starts from: the last one starting at or
+     * before {@code key} when scanning forward, the last one starting before it when scanning in
+     * reverse.
+     * @return The index entry of the chunk; -1 if a reverse scan has nothing to read
+     */
+    private static int findChunk(IndexTuple[] index, String key, boolean isInclusive) {
+        if (key == null) return isInclusive ? 0 : index.length - 1;
+
+        var left = 0;
+        var right = index.length;
+        while (left < right) {
+            var middle = (left + right) >>> 1;
+            var compare = SSTableFormat.compareKeys(index[middle].getKey(), key);
+            if (compare < 0 || (isInclusive && compare == 0)) left = middle + 1;
+            else right = middle;
+        }
+
+        return isInclusive ? Math.max(0, left - 1) : left - 1;
+    }
+
+    private List<Entry> readChunk(IndexTuple[] index, int chunk, RandomAccessFile randomAccessFile) throws IOException {
+        var entries = new ArrayList<Entry>();
+        if (version == SSTableFormat.VERSION_1) {
+            var end = chunk + 1 < index.length ? index[chunk + 1].getIndex() : randomAccessFile.length();
+            randomAccessFile.seek(index[chunk].getIndex());
+            while (randomAccessFile.getFilePointer() < end) {
+                var line = randomAccessFile.readLine();
+                if (line == null) break;
+                entries.add(new Entry(decoder, line));
+            }
+            return entries;
+        }
+
+        for (var record : readBlock(index[chunk], null, randomAccessFile)) entries.add(new Entry(record));
+        return entries;
+    }
+
+    private LineReader openLineReader(long offset) throws IOException {
+        var mapping = acquireMapping();
+        if (mapping != null) return new MappedLineReader(mapping, (int) offset);
+        return new FileLineReader(filePath, offset);
+    }
+
+    /**
+     * Reads consecutive lines of a legacy (v1) segment.
+     */
+    private interface LineReader extends Closeable {
+        String readLine() throws IOException;
+        long length() throws IOException;
+    }
+
+    private static class FileLineReader implements LineReader {
+        private final RandomAccessFile randomAccessFile;
+
+        private FileLineReader(Path filePath, long offset) throws IOException {
+            randomAccessFile = new RandomAccessFile(filePath.toString(), "r");
             randomAccessFile.seek(offset);
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            return randomAccessFile.readLine();
+        }
+
+        @Override
+        public long length() throws IOException {
+            return randomAccessFile.length();
+        }
+
+        @Override
+        public void close() throws IOException {
+            randomAccessFile.close();
+        }
+    }
+
+    private static class MappedLineReader implements LineReader {
+        private final MappedSegment mapping;
+        private final ByteBuffer buffer;
+        private int position;
+
+        private MappedLineReader(MappedSegment mapping, int offset) {
+            this.mapping = mapping;
+            this.buffer = mapping.slice(0, mapping.size());
+            this.position = offset;
+        }
 
-            // Read and split the line
-            var line = randomAccessFile.readLine();
-            return LineResult.of(line);
-        } catch (IOException e) {
-            // TODO
-            throw new RuntimeException(e);
+        @Override
+        public String readLine() {
+            if (position >= buffer.limit()) return null;
+            var end = position;
+            while (end < buffer.limit() && buffer.get(end) != '\n') end++;
+
+            // Lines are Base64 so every byte is a single character
+            var bytes = new byte[end - position];
+            buffer.get(position, bytes);
+            position = end + 1;
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public long length() {
+            return buffer.limit();
+        }
+
+        @Override
+        public void close() {
+            mapping.release();
         }
     }
 
@@ -148,7 +470,7 @@ public class SSTable {
         }
 
         public String getDecodedKey(Decoder decoder) {
-            return new String(decoder.decode(key));
+            return Keys.fromBytes(decoder.decode(key));
         }
 
         public String getDecodedValue(SerializerFactory serializerFactory) throws IOException {
@@ -161,7 +483,24 @@ public class SSTable {
             synchronized (indexLock) {
                 if (index == null) {
                     try {
-                        index = new ByteRatioLineMapper().mapLines(configuration.getMappingRatio(), filePath);
+                        var mapping = acquireMapping();
+                        SegmentMetadata metadata;
+                        try {
+                            metadata = mapping != null
+                                ? SegmentMetadata.read(mapping, filePath, configuration.getBytesPerIndexEntry())
+                                : SegmentMetadata.read(filePath, configuration.getBytesPerIndexEntry());
+                        } finally {
+                            if (mapping != null) mapping.release();
+                        }
+
+                        version = metadata.getVersion();
+                        compression = metadata.getCompression();
+                        filter = metadata.getFilter();
+                        entryCount = metadata.getEntryCount();
+                        tombstoneCount = metadata.getTombstoneCount();
+                        rangeTombstones = metadata.getRangeTombstones();
+                        valueLogReferences = metadata.getValueLogReferences();
+                        index = metadata.getIndex();
                     } catch (IOException e) {
                         // TODO
                         throw new RuntimeException();
@@ -173,50 +512,185 @@ public class SSTable {
         return index;
     }
 
+    /**
+     * Share of the segment's entries that are tombstones; 0 for segments written without entry
+     * counts.
+     */
+    /*package*/ double getTombstoneRatio() {
+        getIndex();
+        return entryCount == 0 ? 0 : (double) tombstoneCount / entryCount;
+    }
+
+    /*package*/ long getTombstoneCount() {
+        getIndex();
+        return tombstoneCount;
+    }
+
+    /**
+     * The segment's range tombstones, in key order; they delete keys of older segments only.
+     */
+    /*package*/ List<RangeTombstone> getRangeTombstones() {
+        getIndex();
+        return rangeTombstones;
+    }
+
+    /**
+     * Bytes of each value log file the segment's value pointers reference.
+     */
+    /*package*/ Map<Long, Long> getValueLogReferences() {
+        getIndex();
+        return valueLogReferences;
+    }
+
+    /**
+     * True if one of the segment's range tombstones deletes the key from older segments.
+     */
+    /*package*/ boolean isRangeDeleted(String key) {
+        return RangeTombstone.covers(getRangeTombstones(), key);
+    }
+
+    /**
+     * Releases the segment's cached blocks and memory mapping; called once the segment has been
+     * replaced or deleted. In-flight lookups keep the mapping alive until they complete.
+     */
+    @Override
+    public void close() {
+        synchronized (indexLock) {
+            isClosed = true;
+            if (mapping != null) mapping.close();
+        }
+
+        if (configuration.getBlockCache() != null) configuration.getBlockCache().invalidate(segmentId);
+    }
+
     @AllArgsConstructor
     @Data
     /*package*/ static class IndexTuple {
         private final String key;
         private final long index;
         private final boolean isTombstone;
+        /**
+         * Length of the indexed data block; only known for binary (v2) segments.
+         */
+        private final int length;
+
+        public IndexTuple(String key, long index, boolean isTombstone) {
+            this(key, index, isTombstone, -1);
+        }
     }
 
     public static void compact(Path olderPath, Path newPath, Path outputPath) throws FileNotFoundException, IOException {
-        try (var outputStream = new FileOutputStream(outputPath.toString())) {
-            var olderEntry = new Entry();
-            var newerEntry = new Entry();
-            var olderIter = Files.lines(olderPath).map(line -> olderEntry.set(decoder, line)).iterator();
-            var newIter = Files.lines(newPath).map(line -> newerEntry.set(decoder, line)).iterator();
-            Entry olderLine, newerLine;
-            olderLine = olderIter.hasNext() ? olderIter.next() : null;
-            newerLine = newIter.hasNext() ? newIter.next() : null;
-            while(olderLine != null || newerLine != null) {
-                var comparison = olderLine != null && newerLine != null ? olderLine.key.compareTo(newerLine.key) : 0;
-                if (olderLine != null && newerLine != null && comparison == 0) {
-                    outputStream.write(newerLine.line.getBytes());
-                    outputStream.write('\n');
-                    olderLine = olderIter.hasNext() ? olderIter.next() : null;
-                    newerLine = newIter.hasNext() ? newIter.next() : null;
-                }
-                else if (olderLine != null && (newerLine == null || comparison < 0)) {
-                    outputStream.write(olderLine.line.getBytes());
-                    outputStream.write('\n');
-                    olderLine = olderIter.hasNext() ? olderIter.next() : null;
-                }
-                else if (newerLine != null && (olderLine == null || comparison > 0)) {
-                    outputStream.write(newerLine.line.getBytes());
-                    outputStream.write('\n');
-                    newerLine = newIter.hasNext() ? newIter.next() : null;
-                }
-            }
+        compact(olderPath, newPath, outputPath, SSTableConfiguration.builder().build());
+    }
+
+    /**
+     * Merges two segments into a new binary segment; entries in the newer segment win. Either input
+     * may be a legacy (v1) or binary segment.
+     */
+    public static void compact(Path olderPath, Path newPath, Path outputPath, SSTableConfiguration configuration) throws FileNotFoundException, IOException {
+        compact(List.of(newPath, olderPath), outputPath, configuration);
+    }
+
+    /**
+     * Merges any number of segments into a new binary segment in a single pass; for keys held by
+     * more than one segment the entry of the newest segment wins. Expired values are written as
+     * tombstones, dropping the value, since older segments may still hold the key. Inputs may be
+     * legacy (v1) or binary segments.
+     * @param inputPaths Segments to merge, newest first
+     */
+    public static void compact(List<Path> inputPaths, Path outputPath, SSTableConfiguration configuration) throws FileNotFoundException, IOException {
+        compact(inputPaths, outputPath, configuration, false);
+    }
+
+    /**
+     * Merges any number of segments like {@link #compact(List, Path, SSTableConfiguration)}.
+     * Range tombstones drop the keys they cover from older inputs and are written to the output
+     * unless the inputs are bottommost.
+     * @param isBottommost True if no older segment may hold the inputs' keys, in which case
+     *                     tombstones and expired values are dropped rather than written out
+     */
+    public static void compact(List<Path> inputPaths, Path outputPath, SSTableConfiguration configuration, boolean isBottommost) throws FileNotFoundException, IOException {
+        var inputRangeTombstones = new ArrayList<List<RangeTombstone>>(inputPaths.size());
+        for (var inputPath : inputPaths) inputRangeTombstones.add(readRangeTombstones(inputPath));
+
+        // The same merge as LSMTree's compactions
+        try (var merge = new CompactionMerge(inputPaths, inputRangeTombstones, isBottommost, System.currentTimeMillis());
+             var sstableWriter = new SSTableWriter(new FileOutputStream(outputPath.toString()), configuration)) {
+            for (var rangeTombstone : merge.getRangeTombstones()) sstableWriter.writeRangeTombstone(Keys.toBytes(rangeTombstone.getFromKey()), Keys.toBytes(rangeTombstone.getToKey()));
+            while (merge.hasNext()) merge.next().writeTo(sstableWriter, configuration.serializerFactory);
         }
     }
 
+    /**
+     * Reads the range tombstones of a segment; legacy (v1) segments have none.
+     */
+    /*package*/ static List<RangeTombstone> readRangeTombstones(Path filePath) throws IOException {
+        if (SSTableFormat.readVersion(filePath) == SSTableFormat.VERSION_1) return List.of();
+        return SegmentMetadata.read(filePath, 0).getRangeTombstones();
+    }
+
     /*package*/ static Stream<Entry> readAllLines(Path filePath) throws IOException {
-        final var decoder = Base64.getDecoder();
-        return Files.lines(filePath).map(line -> new Entry(decoder, line));
+        var iterator = iterate(filePath);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+            .onClose(() -> {
+                try { iterator.close(); } catch (IOException e) { throw new UncheckedIOException(e); }
+            });
     }
 
+    /**
+     * Iterates every entry of a segment, in key order, regardless of its format version.
+     */
+    /*package*/ static EntryIterator iterate(Path filePath) throws IOException {
+        if (SSTableFormat.readVersion(filePath) == SSTableFormat.VERSION_1) {
+            final var lines = Files.lines(filePath);
+            final var iterator = lines.map(line -> new Entry(decoder, line)).iterator();
+            return new EntryIterator() {
+                @Override
+                public boolean hasNext() { return iterator.hasNext(); }
+
+                @Override
+                public Entry next() { return iterator.next(); }
+
+                @Override
+                public void close() { lines.close(); }
+            };
+        }
+
+        final var metadata = SegmentMetadata.read(filePath, 0);
+        final var index = metadata.getIndex();
+        final var randomAccessFile = new RandomAccessFile(filePath.toString(), "r");
+        return new EntryIterator() {
+            private int block = 0;
+            private Iterator<DataBlock.Record> records = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!records.hasNext() && block < index.length) {
+                    try {
+                        records = readBlock(randomAccessFile, index[block++], metadata.getVersion(), metadata.getCompression()).iterator();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                return records.hasNext();
+            }
+
+            @Override
+            public Entry next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return new Entry(records.next());
+            }
+
+            @Override
+            public void close() throws IOException {
+                randomAccessFile.close();
+            }
+        };
+    }
+
+    /*package*/ interface EntryIterator extends Iterator<Entry>, Closeable { }
+
     @AllArgsConstructor
     @Getter
     public static class ContainsKey {
@@ -226,10 +700,29 @@ public class SSTable {
     }
 
     /*package*/ static class Entry {
+        /**
+         * The key as a byte string; see {@link Keys}.
+         */
         public String key;
         public String line;
         public boolean isTombstone = false;
+        /**
+         * Encoded value of a legacy (v1) line.
+         */
         public String value;
+        /**
+         * Raw value of a binary (v2) record or of an entry read from a memtable.
+         */
+        public byte[] valueBytes;
+        /**
+         * Where the value of a binary record is held in the value log; null if the record holds
+         * it.
+         */
+        public ValuePointer valuePointer;
+        /**
+         * Milliseconds since the epoch the value expires at, or {@link LSMTreeValue#NEVER_EXPIRES}.
+         */
+        public long expiresAt = LSMTreeValue.NEVER_EXPIRES;
 
         public Entry() { }
 
@@ -237,18 +730,79 @@ public class SSTable {
             set(decoder, line);
         }
 
+        public Entry(DataBlock.Record record) {
+            this.key = record.getKeyString();
+            this.isTombstone = record.isTombstone();
+            this.valuePointer = record.getValuePointer();
+            this.valueBytes = valuePointer == null ? record.getValue() : null;
+            this.expiresAt = record.getExpiresAt();
+        }
+
+        public Entry(String key, LSMTreeValue value) {
+            this.key = key;
+            this.isTombstone = value.isTombstone();
+            this.valueBytes = value.getValueBytes();
+            this.expiresAt = value.getExpiresAt();
+        }
+
+        /**
+         * A tombstone for the key; written in place of expired values that may shadow older ones.
+         */
+        public static Entry tombstone(String key) {
+            var entry = new Entry();
+            entry.key = key;
+            entry.isTombstone = true;
+            return entry;
+        }
+
+        /**
+         * True if the entry is a tombstone or an expired value.
+         */
+        public boolean isDeleted(long now) {
+            return isTombstone || LSMTreeValue.isExpired(expiresAt, now);
+        }
+
         public Entry set(Decoder decoder, String line) {
             var tokens = line.split(":");
-            if (tokens.length == 1) isTombstone = true;
-            else value = tokens[1];
-            this.key = new String(decoder.decode(tokens[0].getBytes()));
+            // "key:" is an empty value rather than a tombstone
+            isTombstone = !line.contains(":");
+            value = isTombstone ? null : tokens.length == 1 ? "" : tokens[1];
+            this.key = Keys.fromBytes(decoder.decode(tokens[0].getBytes()));
             this.line = line;
             return this;
         }
 
+        /**
+         * The value decoded as UTF-8 text, or null for tombstones.
+         */
         public String deserialize(SerializerFactory factory) throws IOException {
+            var bytes = getValue(factory);
+            return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * The value's bytes, or null for tombstones; legacy (v1) values are deserialized text.
+         */
+        public byte[] getValue(SerializerFactory factory) throws IOException {
             if (isTombstone) return null;
-            return factory.createDeserializer(new ByteArrayInputStream(value.getBytes())).read();
+            if (valueBytes != null) return valueBytes;
+            if (valuePointer != null) throw new IOException("Value is held in the value log");
+            return factory.createDeserializer(new ByteArrayInputStream(value.getBytes())).read().getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * The value's bytes, or null for tombstones; values held in the value log are read from it.
+         */
+        public byte[] getValue(SerializerFactory factory, ValueLog valueLog) throws IOException {
+            if (!isTombstone && valuePointer != null) return valueLog.read(valuePointer);
+            return getValue(factory);
+        }
+
+        public void writeTo(SSTableWriter sstableWriter, SerializerFactory factory) throws IOException {
+            if (isTombstone) sstableWriter.writeTombstone(Keys.toBytes(key));
+            // Pointers are copied as they are; the value stays where it is in the value log
+            else if (valuePointer != null) sstableWriter.writeValuePointer(Keys.toBytes(key), valuePointer, expiresAt);
+            else sstableWriter.write(Keys.toBytes(key), getValue(factory), expiresAt);
         }
     }
 }
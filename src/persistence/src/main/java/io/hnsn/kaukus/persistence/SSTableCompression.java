@@ -0,0 +1,129 @@
+package io.hnsn.kaukus.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.xerial.snappy.Snappy;
+
+/**
+ * How the data blocks of a binary {@link SSTable} are compressed. The compression is recorded in
+ * the segment header so segments written with different settings can be read side by side;
+ * index, metaindex and meta blocks are never compressed.
+ */
+public enum SSTableCompression {
+    /**
+     * Data blocks are stored as is.
+     */
+    NONE((byte) 0) {
+        @Override
+        byte[] compress(byte[] block) {
+            return block;
+        }
+
+        @Override
+        ByteBuffer decompress(ByteBuffer block) {
+            return block;
+        }
+    },
+    /**
+     * Data blocks are Snappy compressed; cheap to decompress with a moderate ratio.
+     */
+    SNAPPY((byte) 1) {
+        @Override
+        byte[] compress(byte[] block) throws IOException {
+            return Snappy.compress(block);
+        }
+
+        @Override
+        ByteBuffer decompress(ByteBuffer block) throws IOException {
+            var compressed = toArray(block);
+            var decompressed = new byte[Snappy.uncompressedLength(compressed)];
+            Snappy.uncompress(compressed, 0, compressed.length, decompressed, 0);
+            return ByteBuffer.wrap(decompressed);
+        }
+    },
+    /**
+     * Data blocks are Deflate compressed, prefixed by their uncompressed length; a better ratio
+     * than Snappy at a higher CPU cost.
+     */
+    DEFLATE((byte) 2) {
+        @Override
+        byte[] compress(byte[] block) {
+            var deflater = new Deflater();
+            try {
+                var out = new ByteArrayOutputStream(block.length / 2 + 16);
+                out.write(block.length >>> 24);
+                out.write(block.length >>> 16);
+                out.write(block.length >>> 8);
+                out.write(block.length);
+
+                deflater.setInput(block);
+                deflater.finish();
+                var buffer = new byte[Math.max(64, block.length / 2)];
+                while (!deflater.finished()) out.write(buffer, 0, deflater.deflate(buffer));
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        ByteBuffer decompress(ByteBuffer block) throws IOException {
+            var inflater = new Inflater();
+            try {
+                var decompressed = new byte[block.getInt(block.position())];
+                inflater.setInput(block.slice(block.position() + 4, block.remaining() - 4));
+                var length = 0;
+                while (length < decompressed.length && !inflater.finished()) {
+                    var inflated = inflater.inflate(decompressed, length, decompressed.length - length);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                    length += inflated;
+                }
+                if (length != decompressed.length) throw new IOException("Corrupt Deflate block");
+                return ByteBuffer.wrap(decompressed);
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt Deflate block", e);
+            } finally {
+                inflater.end();
+            }
+        }
+    };
+
+    private final byte id;
+
+    SSTableCompression(byte id) {
+        this.id = id;
+    }
+
+    /**
+     * Identifies the compression in segment headers.
+     */
+    byte getId() {
+        return id;
+    }
+
+    static SSTableCompression of(byte id) throws IOException {
+        for (var compression : values()) {
+            if (compression.id == id) return compression;
+        }
+
+        throw new IOException("Unknown SSTable compression " + id);
+    }
+
+    abstract byte[] compress(byte[] block) throws IOException;
+
+    /**
+     * @return The decompressed block; may share {@code block}'s contents
+     */
+    abstract ByteBuffer decompress(ByteBuffer block) throws IOException;
+
+    private static byte[] toArray(ByteBuffer block) {
+        var bytes = new byte[block.remaining()];
+        block.get(block.position(), bytes);
+        return bytes;
+    }
+}
@@ -11,8 +11,46 @@ import lombok.Setter;
 @Setter
 @Builder
 public class SSTableConfiguration {
+    /**
+     * Distance, in bytes, between the sampled keys of a legacy segment's in-memory index. Binary
+     * segments index every data block; see {@link #blockSize}.
+     */
     @Default
-    private final float mappingRatio = 0.1f;
+    private final int bytesPerIndexEntry = 4 * 1024;
+    /**
+     * Target size, in bytes, of the data blocks written to binary segments.
+     */
+    @Default
+    private final int blockSize = 4 * 1024;
+    /**
+     * Number of records between the data block keys stored whole rather than prefix compressed.
+     * Fewer makes lookups scan less of a block, more makes blocks smaller.
+     */
+    @Default
+    private final int blockRestartInterval = 16;
+    /**
+     * False positive rate of the Bloom filters written to binary segments; a rate of 0 disables
+     * them.
+     */
+    @Default
+    private final double bloomFilterFalsePositiveRate = 0.01;
+    /**
+     * Whether segments are read through file reads or a memory mapping.
+     */
+    @Default
+    private final SSTableReadMode readMode = SSTableReadMode.FILE;
+    /**
+     * Compression of the data blocks written to binary segments.
+     */
+    @Default
+    private final SSTableCompression compression = SSTableCompression.NONE;
+    /**
+     * Cache for data blocks read from binary segments; may be shared between LSMTrees. Blocks are
+     * cached decompressed. They aren't cached when null or when uncompressed segments are memory
+     * mapped.
+     */
+    @Default
+    private final BlockCache blockCache = null;
     @Default
     final SerializerFactory serializerFactory = new Base64SerializerFactory();
 }
\ No newline at end of file
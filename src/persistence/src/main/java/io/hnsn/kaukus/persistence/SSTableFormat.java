@@ -0,0 +1,212 @@
+package io.hnsn.kaukus.persistence;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * On-disk layout constants for SSTable segments.
+ *
+ * Version 1 segments have no header; they're newline delimited
+ * {@code base64(key) ':' base64(value)} text lines.
+ *
+ * Version 2 and later segments are binary:
+ * <pre>
+ * [header: magic (4) | version (1) | compression (1, version 3 and later)]
+ * [data block 0] ... [data block n]
+ * [metaindex block]
+ * [index block]
+ * [footer: metaindex handle (12) | index handle (12) | magic (4)]
+ * </pre>
+ * Data blocks hold length-prefixed records, {@code [type (1) | key length (4) | key | value length (4) | value]},
+ * and are cut once they exceed the configured block size. Version 3 data blocks are compressed as a
+ * whole with the {@link SSTableCompression} recorded in the header; block handles cover the
+ * compressed bytes.
+ *
+ * Version 4 data blocks prefix compress their keys. Records are
+ * {@code [type (1) | shared key length | key suffix length | value length | key suffix | value]},
+ * lengths being unsigned LEB128 varints, where the key is the first {@code shared} bytes of the
+ * previous key followed by the suffix. Every {@code blockRestartInterval} records the key is stored
+ * whole; the block ends with those records' offsets, {@code [restart offset (4)] ... [restart count (4)]},
+ * so lookups binary search the restart points before scanning.
+ *
+ * Version 5 adds {@link #RECORD_EXPIRING_VALUE} records, whose value is prefixed with the time it
+ * expires at, {@code [expires at (8) | value]}, in milliseconds since the epoch.
+ *
+ * Version 6 adds {@link #RECORD_VALUE_POINTER} records for values kept in the tree's
+ * {@link ValueLog} rather than the segment; their value is
+ * {@code [expires at (8) | file (8) | offset (8) | length (4)]}, see {@link ValuePointer}.
+ *
+ * The index block holds a key and handle for every data block; the metaindex block maps names to
+ * auxiliary blocks such as {@link #META_BLOOM_FILTER}, {@link #META_STATS},
+ * {@link #META_RANGE_TOMBSTONES} and {@link #META_VALUE_LOG}. Up to version 3 the index key is the
+ * first key of the block. From version 4 the first block's is, but later ones are the shortest prefix of
+ * the first key that sorts after every key of the previous block; only the block holding the key
+ * can hold a key in that range.
+ */
+/*package*/ final class SSTableFormat {
+    /**
+     * Leading bytes of every binary segment; 0x89 can't appear in a Base64 (v1) segment.
+     */
+    static final int MAGIC = 0x894B5354;
+    static final byte VERSION_1 = 1;
+    static final byte VERSION_2 = 2;
+    static final byte VERSION_3 = 3;
+    static final byte VERSION_4 = 4;
+    static final byte VERSION_5 = 5;
+    static final byte VERSION_6 = 6;
+
+    static final int HEADER_SIZE = 4 + 1;
+    static final int HEADER_SIZE_V3 = HEADER_SIZE + 1;
+    static final int BLOCK_HANDLE_SIZE = 8 + 4;
+    static final int FOOTER_SIZE = BLOCK_HANDLE_SIZE * 2 + 4;
+    /**
+     * Bytes read from the end of a segment when opening it; large enough to cover the footer,
+     * index, metaindex and meta blocks of most segments in a single read.
+     */
+    static final int TAIL_READ_SIZE = 64 * 1024;
+
+    static final byte RECORD_VALUE = 0;
+    static final byte RECORD_TOMBSTONE = 1;
+    static final byte RECORD_EXPIRING_VALUE = 2;
+    static final byte RECORD_VALUE_POINTER = 3;
+
+    static final String META_BLOOM_FILTER = "filter.bloom";
+    /**
+     * {@code [entry count (8) | tombstone count (8)]}; segments written without it read as having
+     * no tombstones.
+     */
+    static final String META_STATS = "stats";
+    /**
+     * {@code [count (4)] [tombstone: from key length (4) | from key | to key length (4) | to key] ...}
+     * in key order; see {@link RangeTombstone}. Segments without range tombstones don't have it.
+     */
+    static final String META_RANGE_TOMBSTONES = "range.tombstones";
+    /**
+     * {@code [count (4)] [value log file (8) | bytes (8)] ...}; the bytes of every value log file
+     * the segment's pointers reference, see {@link ValueLog}. Segments without pointers don't
+     * have it.
+     */
+    static final String META_VALUE_LOG = "value.log";
+
+    /**
+     * Keys are bytes ordered unsigned and lexicographically; text keys are stored as UTF-8, whose
+     * byte order is code point order. Internally keys are byte strings, see {@link Keys}, which this
+     * orders by char, so binary segments compare raw key bytes without decoding.
+     */
+    static final Comparator<String> KEY_ORDER = SSTableFormat::compareKeys;
+
+    private SSTableFormat() { }
+
+    /**
+     * Reads the format version from the segment header. Segments without a header are version 1.
+     */
+    static byte readVersion(Path filePath) throws IOException {
+        try (var randomAccessFile = new RandomAccessFile(filePath.toString(), "r")) {
+            return readVersion(randomAccessFile);
+        }
+    }
+
+    static byte readVersion(RandomAccessFile randomAccessFile) throws IOException {
+        randomAccessFile.seek(0);
+        if (randomAccessFile.length() < HEADER_SIZE || randomAccessFile.readInt() != MAGIC) return VERSION_1;
+        return randomAccessFile.readByte();
+    }
+
+    static byte readVersion(ByteBuffer segment) {
+        if (segment.limit() < HEADER_SIZE || segment.getInt(0) != MAGIC) return VERSION_1;
+        return segment.get(4);
+    }
+
+    /**
+     * Reads the data block compression from the header of a version 3 segment; earlier versions
+     * are uncompressed.
+     */
+    static SSTableCompression readCompression(RandomAccessFile randomAccessFile, byte version) throws IOException {
+        if (version < VERSION_3) return SSTableCompression.NONE;
+        randomAccessFile.seek(HEADER_SIZE);
+        return SSTableCompression.of(randomAccessFile.readByte());
+    }
+
+    static SSTableCompression readCompression(ByteBuffer segment, byte version) throws IOException {
+        if (version < VERSION_3) return SSTableCompression.NONE;
+        return SSTableCompression.of(segment.get(HEADER_SIZE));
+    }
+
+    /**
+     * Reads the footer from the last {@link #FOOTER_SIZE} bytes of {@code tail}.
+     */
+    static Footer readFooter(ByteBuffer tail) throws IOException {
+        if (tail.limit() < FOOTER_SIZE) throw new IOException("Corrupt SSTable footer");
+        var position = tail.limit() - FOOTER_SIZE;
+        var metaindex = new BlockHandle(tail.getLong(position), tail.getInt(position + 8));
+        var index = new BlockHandle(tail.getLong(position + BLOCK_HANDLE_SIZE), tail.getInt(position + BLOCK_HANDLE_SIZE + 8));
+        if (tail.getInt(position + BLOCK_HANDLE_SIZE * 2) != MAGIC) throw new IOException("Corrupt SSTable footer");
+        return new Footer(metaindex, index);
+    }
+
+    /**
+     * Reads the metaindex block; a map of auxiliary block names to their handles.
+     */
+    static Map<String, BlockHandle> readMetaindex(ByteBuffer block) {
+        var count = block.getInt();
+        var metaindex = new HashMap<String, BlockHandle>(count);
+        for (var i = 0; i < count; i++) {
+            var name = new byte[block.getInt()];
+            block.get(name);
+            metaindex.put(new String(name, StandardCharsets.UTF_8), new BlockHandle(block.getLong(), block.getInt()));
+        }
+
+        return metaindex;
+    }
+
+    static int compareKeys(String left, String right) {
+        var leftIndex = 0;
+        var rightIndex = 0;
+        while (leftIndex < left.length() && rightIndex < right.length()) {
+            var leftCodePoint = left.codePointAt(leftIndex);
+            var rightCodePoint = right.codePointAt(rightIndex);
+            if (leftCodePoint != rightCodePoint) return Integer.compare(leftCodePoint, rightCodePoint);
+            leftIndex += Character.charCount(leftCodePoint);
+            rightIndex += Character.charCount(rightCodePoint);
+        }
+
+        return Boolean.compare(leftIndex < left.length(), rightIndex < right.length());
+    }
+
+    /**
+     * Compares {@code length} bytes of {@code buffer} starting at {@code offset} against {@code key}
+     * without copying them out of the buffer.
+     */
+    static int compareKeys(ByteBuffer buffer, int offset, int length, byte[] key) {
+        var count = Math.min(length, key.length);
+        for (var i = 0; i < count; i++) {
+            var compare = Integer.compare(Byte.toUnsignedInt(buffer.get(offset + i)), Byte.toUnsignedInt(key[i]));
+            if (compare != 0) return compare;
+        }
+
+        return Integer.compare(length, key.length);
+    }
+
+    @AllArgsConstructor
+    @Getter
+    static class BlockHandle {
+        private final long offset;
+        private final int length;
+    }
+
+    @AllArgsConstructor
+    @Getter
+    static class Footer {
+        private final BlockHandle metaindex;
+        private final BlockHandle index;
+    }
+}
@@ -0,0 +1,15 @@
+package io.hnsn.kaukus.persistence;
+
+/**
+ * How an {@link SSTable} reads its segment file.
+ */
+public enum SSTableReadMode {
+    /**
+     * Each lookup opens the segment file and reads the bytes it needs.
+     */
+    FILE,
+    /**
+     * The segment is memory mapped once and lookups read directly from the mapping.
+     */
+    MAPPED
+}
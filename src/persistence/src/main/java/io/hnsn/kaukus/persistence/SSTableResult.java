@@ -1,28 +1,51 @@
 package io.hnsn.kaukus.persistence;
 
+import java.nio.charset.StandardCharsets;
+
 import lombok.Getter;
 import lombok.Setter;
 
 @Getter
 @Setter
 public class SSTableResult {
-    public static SSTableResult EMPTY = new SSTableResult(null);
+    public static SSTableResult EMPTY = new SSTableResult((byte[]) null);
     public static SSTableResult TOMBSTONE = new SSTableResult(true);
 
-    private String value;
+    private byte[] valueBytes;
+    /**
+     * Where the value is held in the tree's value log, in which case there are no value bytes;
+     * the tree reads the value. Null for values held by the segment.
+     */
+    private ValuePointer valuePointer;
     boolean isTombstone;
 
     public SSTableResult(String value) {
-        this.value = value;
+        this(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public SSTableResult(byte[] value) {
+        this.valueBytes = value;
+        this.isTombstone = false;
+    }
+
+    /*package*/ SSTableResult(ValuePointer valuePointer) {
+        this.valuePointer = valuePointer;
         this.isTombstone = false;
     }
 
     private SSTableResult(boolean isTombstone) {
-        this.value = null;
+        this.valueBytes = null;
         this.isTombstone = isTombstone;
     }
 
+    /**
+     * The value decoded as UTF-8 text.
+     */
+    public String getValue() {
+        return valueBytes == null ? null : new String(valueBytes, StandardCharsets.UTF_8);
+    }
+
     public boolean hasValue() {
-        return !isTombstone && value != null;
+        return !isTombstone && (valueBytes != null || valuePointer != null);
     }
-}
\ No newline at end of file
+}
@@ -1,35 +1,333 @@
 package io.hnsn.kaukus.persistence;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataOutputStream;
 import java.io.Flushable;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Base64.Encoder;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
 
+import io.hnsn.kaukus.persistence.SSTableFormat.BlockHandle;
 import io.hnsn.kaukus.persistence.serialization.SerializerFactory;
 import io.hnsn.kaukus.persistence.serialization.StreamSerializer;
+import lombok.AllArgsConstructor;
 
+/**
+ * Writes sorted key/value pairs out as an SSTable. Writers created with a {@link SerializerFactory}
+ * produce legacy (v1) text segments; writers created with an {@link SSTableConfiguration} produce
+ * binary block based (v6) segments. Keys must be written in {@link SSTableFormat#KEY_ORDER}.
+ *
+ * Keys and values are bytes; the {@code String} overloads write text as UTF-8. Legacy segments
+ * serialize values as text so they can only hold UTF-8 values.
+ */
 public class SSTableWriter implements Closeable, Flushable {
+    private static final byte[] EMPTY = new byte[0];
+
     private final OutputStream out;
+    private final byte version;
+
+    // Version 1
     private final Encoder encoder = Base64.getEncoder();
     private final StreamSerializer serializer;
 
+    // Version 2
+    private final int blockSize;
+    private final DataBlockBuilder dataBlock;
+    private final SSTableCompression compression;
+    private final List<IndexEntry> indexEntries = new ArrayList<>();
+    private byte[] previousBlockLastKey = null;
+    private final double bloomFilterFalsePositiveRate;
+    private long[] keyHashes = new long[128];
+    private int keyCount = 0;
+    private long tombstoneCount = 0;
+    private long position = 0;
+    private boolean isClosed = false;
+    private byte[] firstKey = null;
+    private byte[] lastKey = null;
+    private final List<RangeTombstone> rangeTombstones = new ArrayList<>();
+    /**
+     * Bytes of each value log file referenced by the pointers written.
+     */
+    private final TreeMap<Long, Long> valueLogBytes = new TreeMap<>();
+
     public SSTableWriter(OutputStream out, SerializerFactory serializerFactory) {
         this.out = out;
+        this.version = SSTableFormat.VERSION_1;
         this.serializer = serializerFactory.createStreamSerializer(out);
+        this.blockSize = 0;
+        this.dataBlock = null;
+        this.compression = SSTableCompression.NONE;
+        this.bloomFilterFalsePositiveRate = 0;
+    }
+
+    public SSTableWriter(OutputStream out, SSTableConfiguration configuration) throws IOException {
+        this.out = out;
+        this.version = SSTableFormat.VERSION_6;
+        this.serializer = null;
+        this.blockSize = configuration.getBlockSize();
+        this.dataBlock = new DataBlockBuilder(blockSize, configuration.getBlockRestartInterval());
+        this.compression = configuration.getCompression();
+        this.bloomFilterFalsePositiveRate = configuration.getBloomFilterFalsePositiveRate();
+
+        var header = new DataOutputStream(out);
+        header.writeInt(SSTableFormat.MAGIC);
+        header.writeByte(version);
+        header.writeByte(compression.getId());
+        position += SSTableFormat.HEADER_SIZE_V3;
     }
 
     public void write(String key, String value) throws IOException {
-        out.write(encoder.encode(key.getBytes()));
-        out.write(':');
-        serializer.write(value);
-        out.write('\n');
+        write(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void write(byte[] key, byte[] value) throws IOException {
+        track(key);
+        if (version == SSTableFormat.VERSION_1) {
+            out.write(encoder.encode(key));
+            out.write(':');
+            serializer.write(new String(value, StandardCharsets.UTF_8));
+            out.write('\n');
+            return;
+        }
+
+        writeRecord(SSTableFormat.RECORD_VALUE, key, value);
+    }
+
+    public void write(String key, String value, long expiresAt) throws IOException {
+        write(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8), expiresAt);
+    }
+
+    /**
+     * Writes a value that expires at {@code expiresAt}, in milliseconds since the epoch; 0 never
+     * expires. Legacy (v1) segments can't hold expiring values.
+     */
+    public void write(byte[] key, byte[] value, long expiresAt) throws IOException {
+        if (expiresAt == LSMTreeValue.NEVER_EXPIRES) {
+            write(key, value);
+            return;
+        }
+        if (version == SSTableFormat.VERSION_1) throw new IOException("Legacy segments can't hold expiring values");
+
+        track(key);
+        var record = ByteBuffer.allocate(8 + value.length).putLong(expiresAt).put(value);
+        writeRecord(SSTableFormat.RECORD_EXPIRING_VALUE, key, record.array());
+    }
+
+    /**
+     * Writes a pointer to a value held in the tree's {@link ValueLog} in place of the value.
+     * Legacy (v1) segments can't hold pointers.
+     */
+    /*package*/ void writeValuePointer(byte[] key, ValuePointer pointer, long expiresAt) throws IOException {
+        if (version == SSTableFormat.VERSION_1) throw new IOException("Legacy segments can't hold value pointers");
+
+        track(key);
+        var record = ByteBuffer.allocate(8 + ValuePointer.SIZE).putLong(expiresAt);
+        pointer.writeTo(record);
+        valueLogBytes.merge(pointer.getFile(), pointer.getRecordSize(), Long::sum);
+        writeRecord(SSTableFormat.RECORD_VALUE_POINTER, key, record.array());
     }
 
     public void writeTombstone(String key) throws IOException {
-        out.write(encoder.encode(key.getBytes()));
-        out.write('\n');
+        writeTombstone(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void writeTombstone(byte[] key) throws IOException {
+        track(key);
+        if (version == SSTableFormat.VERSION_1) {
+            out.write(encoder.encode(key));
+            out.write('\n');
+            return;
+        }
+
+        tombstoneCount++;
+        writeRecord(SSTableFormat.RECORD_TOMBSTONE, key, EMPTY);
+    }
+
+    public void writeRangeTombstone(String fromKey, String toKey) throws IOException {
+        writeRangeTombstone(fromKey.getBytes(StandardCharsets.UTF_8), toKey.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes a range tombstone deleting the keys from {@code fromKey} (inclusive) to
+     * {@code toKey} (exclusive) of older segments; see {@link RangeTombstone}. Range tombstones
+     * may be written in any order, before or after the keys. Legacy (v1) segments can't hold
+     * them.
+     */
+    public void writeRangeTombstone(byte[] fromKey, byte[] toKey) throws IOException {
+        if (version == SSTableFormat.VERSION_1) throw new IOException("Legacy segments can't hold range tombstones");
+        rangeTombstones.add(new RangeTombstone(Keys.fromBytes(fromKey), Keys.fromBytes(toKey)));
+    }
+
+    private void track(byte[] key) {
+        if (firstKey == null) firstKey = key;
+        lastKey = key;
+    }
+
+    /**
+     * Smallest key written so far, including the start of any range tombstone, or null if
+     * nothing has been written.
+     */
+    public byte[] getFirstKey() {
+        var first = firstKey;
+        for (var rangeTombstone : rangeTombstones) {
+            var fromKey = Keys.toBytes(rangeTombstone.getFromKey());
+            if (first == null || Arrays.compareUnsigned(fromKey, first) < 0) first = fromKey;
+        }
+        return first;
+    }
+
+    /**
+     * Largest key written so far, or null if nothing has been written. The end of a range
+     * tombstone counts as written although the tombstone doesn't cover it.
+     */
+    public byte[] getLastKey() {
+        var last = lastKey;
+        for (var rangeTombstone : rangeTombstones) {
+            var toKey = Keys.toBytes(rangeTombstone.getToKey());
+            if (last == null || Arrays.compareUnsigned(toKey, last) > 0) last = toKey;
+        }
+        return last;
+    }
+
+    /**
+     * Approximate size of the segment so far, in bytes; excludes the meta and index blocks
+     * written on close and counts the pending data block uncompressed. Legacy (v1) writers don't track their size.
+     */
+    public long getSize() {
+        return version == SSTableFormat.VERSION_1 ? 0 : position + dataBlock.size();
+    }
+
+    private void writeRecord(byte type, byte[] key, byte[] value) throws IOException {
+        // Tombstones are added to the filter too; they shadow older segments
+        if (keyCount == keyHashes.length) keyHashes = Arrays.copyOf(keyHashes, keyHashes.length * 2);
+        keyHashes[keyCount++] = BloomFilter.hash(key);
+
+        dataBlock.add(type, key, value);
+        if (dataBlock.size() >= blockSize) writeDataBlock();
+    }
+
+    private void writeDataBlock() throws IOException {
+        var firstKey = previousBlockLastKey == null
+            ? dataBlock.getFirstKey()
+            : getSeparator(previousBlockLastKey, dataBlock.getFirstKey());
+        var isFirstTombstone = dataBlock.isFirstTombstone();
+        previousBlockLastKey = dataBlock.getLastKey();
+        var offset = position;
+        var length = dataBlock.writeTo(out, compression);
+        position += length;
+        indexEntries.add(new IndexEntry(firstKey, offset, length, isFirstTombstone));
+    }
+
+    /**
+     * The shortest prefix of {@code key} that sorts after {@code previousKey}.
+     */
+    private static byte[] getSeparator(byte[] previousKey, byte[] key) {
+        var length = Arrays.mismatch(previousKey, key) + 1;
+        return length < key.length ? Arrays.copyOf(key, length) : key;
+    }
+
+    /**
+     * Writes out the remaining data block, the meta blocks, the metaindex and index blocks, and
+     * the footer.
+     */
+    private void finish() throws IOException {
+        if (!dataBlock.isEmpty()) writeDataBlock();
+
+        var metaBlocks = new LinkedHashMap<String, BlockHandle>();
+        if (bloomFilterFalsePositiveRate > 0) {
+            var filter = BloomFilter.create(keyCount, bloomFilterFalsePositiveRate);
+            for (var i = 0; i < keyCount; i++) filter.add(keyHashes[i]);
+
+            var block = new ByteArrayOutputStream();
+            filter.writeTo(new DataOutputStream(block));
+            metaBlocks.put(SSTableFormat.META_BLOOM_FILTER, new BlockHandle(position, block.size()));
+            block.writeTo(out);
+            position += block.size();
+        }
+
+        var stats = new ByteArrayOutputStream();
+        var statsOut = new DataOutputStream(stats);
+        statsOut.writeLong(keyCount);
+        statsOut.writeLong(tombstoneCount);
+        metaBlocks.put(SSTableFormat.META_STATS, new BlockHandle(position, stats.size()));
+        stats.writeTo(out);
+        position += stats.size();
+
+        if (!rangeTombstones.isEmpty()) {
+            var block = new ByteArrayOutputStream();
+            var blockOut = new DataOutputStream(block);
+            var coalesced = RangeTombstone.coalesce(rangeTombstones);
+            blockOut.writeInt(coalesced.size());
+            for (var rangeTombstone : coalesced) {
+                var fromKey = Keys.toBytes(rangeTombstone.getFromKey());
+                var toKey = Keys.toBytes(rangeTombstone.getToKey());
+                blockOut.writeInt(fromKey.length);
+                blockOut.write(fromKey);
+                blockOut.writeInt(toKey.length);
+                blockOut.write(toKey);
+            }
+            metaBlocks.put(SSTableFormat.META_RANGE_TOMBSTONES, new BlockHandle(position, block.size()));
+            block.writeTo(out);
+            position += block.size();
+        }
+
+        if (!valueLogBytes.isEmpty()) {
+            var block = new ByteArrayOutputStream();
+            var blockOut = new DataOutputStream(block);
+            blockOut.writeInt(valueLogBytes.size());
+            for (var file : valueLogBytes.entrySet()) {
+                blockOut.writeLong(file.getKey());
+                blockOut.writeLong(file.getValue());
+            }
+            metaBlocks.put(SSTableFormat.META_VALUE_LOG, new BlockHandle(position, block.size()));
+            block.writeTo(out);
+            position += block.size();
+        }
+
+        var metaindexOffset = position;
+        var metaindex = new ByteArrayOutputStream();
+        var metaindexOut = new DataOutputStream(metaindex);
+        metaindexOut.writeInt(metaBlocks.size());
+        for (var metaBlock : metaBlocks.entrySet()) {
+            var name = metaBlock.getKey().getBytes(StandardCharsets.UTF_8);
+            metaindexOut.writeInt(name.length);
+            metaindexOut.write(name);
+            metaindexOut.writeLong(metaBlock.getValue().getOffset());
+            metaindexOut.writeInt(metaBlock.getValue().getLength());
+        }
+        metaindex.writeTo(out);
+        position += metaindex.size();
+
+        var indexOffset = position;
+        var index = new ByteArrayOutputStream();
+        var indexOut = new DataOutputStream(index);
+        indexOut.writeInt(indexEntries.size());
+        for (var entry : indexEntries) {
+            indexOut.writeInt(entry.key.length);
+            indexOut.write(entry.key);
+            indexOut.writeLong(entry.offset);
+            indexOut.writeInt(entry.length);
+            indexOut.writeBoolean(entry.isTombstone);
+        }
+        index.writeTo(out);
+        position += index.size();
+
+        var footer = new DataOutputStream(out);
+        footer.writeLong(metaindexOffset);
+        footer.writeInt(metaindex.size());
+        footer.writeLong(indexOffset);
+        footer.writeInt(index.size());
+        footer.writeInt(SSTableFormat.MAGIC);
+        position += SSTableFormat.FOOTER_SIZE;
     }
 
     public void flush() throws IOException {
@@ -37,6 +335,17 @@ public class SSTableWriter implements Closeable, Flushable {
     }
 
     public void close() throws IOException {
+        if (isClosed) return;
+        isClosed = true;
+        if (version != SSTableFormat.VERSION_1) finish();
         out.close();
     }
+
+    @AllArgsConstructor
+    private static class IndexEntry {
+        private final byte[] key;
+        private final long offset;
+        private final int length;
+        private final boolean isTombstone;
+    }
 }
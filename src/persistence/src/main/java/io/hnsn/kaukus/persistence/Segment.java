@@ -0,0 +1,94 @@
+package io.hnsn.kaukus.persistence;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A segment of an {@link LSMTree} as recorded in its {@link Manifest}: the SSTable along with the
+ * level it belongs to and the range of keys it holds.
+ */
+@AllArgsConstructor
+@Getter
+/*package*/ class Segment {
+    /**
+     * N of the segment's file "file.N"; only names the file, the manifest decides its order.
+     */
+    private final long index;
+    private final int level;
+    private final String smallestKey;
+    /**
+     * May be the end of a range tombstone, which the segment doesn't cover; the next segment of
+     * the level may start with it.
+     */
+    private final String largestKey;
+    /**
+     * Size of the segment's file in bytes.
+     */
+    private final long size;
+    private final SSTable sstable;
+    /**
+     * Held by the tree while the segment is in its manifest and by every snapshot reading it; the
+     * segment is deleted once the last one is released.
+     */
+    @Getter(AccessLevel.NONE)
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    /**
+     * Takes another reference; only segments of the current manifest may be acquired.
+     */
+    void acquire() {
+        references.incrementAndGet();
+    }
+
+    /**
+     * Takes another reference unless the segment has already been released for good.
+     * @return True if the segment may be read until it's released; false if it's been deleted
+     */
+    boolean tryAcquire() {
+        while (true) {
+            var count = references.get();
+            if (count == 0) return false;
+            if (references.compareAndSet(count, count + 1)) return true;
+        }
+    }
+
+    /**
+     * @return True if this released the last reference
+     */
+    boolean release() {
+        return references.decrementAndGet() == 0;
+    }
+
+    /**
+     * True if enough of the segment's entries are tombstones that it should be compacted to drop
+     * them.
+     */
+    boolean isTombstoneHeavy(LSMTreeConfiguration configuration) {
+        if (configuration.getTombstoneCompactionRatio() <= 0) return false;
+        return sstable.getTombstoneCount() >= configuration.getTombstoneCompactionMinCount()
+            && sstable.getTombstoneRatio() >= configuration.getTombstoneCompactionRatio();
+    }
+
+    boolean mayContain(String key) {
+        return SSTableFormat.compareKeys(key, smallestKey) >= 0 && SSTableFormat.compareKeys(key, largestKey) <= 0;
+    }
+
+    /**
+     * True if the segment holds any keys from {@code smallest} to {@code largest}, inclusive.
+     */
+    boolean overlaps(String smallest, String largest) {
+        return SSTableFormat.compareKeys(largestKey, smallest) >= 0 && SSTableFormat.compareKeys(smallestKey, largest) <= 0;
+    }
+
+    /**
+     * True if the segment may hold any keys from {@code fromKey} (inclusive) to {@code toKey}
+     * (exclusive); a null bound is unbounded.
+     */
+    boolean overlapsRange(String fromKey, String toKey) {
+        return (fromKey == null || SSTableFormat.compareKeys(largestKey, fromKey) >= 0)
+            && (toKey == null || SSTableFormat.compareKeys(smallestKey, toKey) < 0);
+    }
+}
@@ -0,0 +1,165 @@
+package io.hnsn.kaukus.persistence;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.hnsn.kaukus.persistence.SSTable.IndexTuple;
+import io.hnsn.kaukus.persistence.SSTableFormat.BlockHandle;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Everything an {@link SSTable} needs in memory to serve lookups: the format version, the data
+ * block compression, the sparse index, the Bloom filter, the entry counts, the range
+ * tombstones and the value log files referenced.
+ *
+ * Binary segments keep all of it at the end of the file, so it's loaded by speculatively reading
+ * the last {@link SSTableFormat#TAIL_READ_SIZE} bytes; only segments whose index and meta blocks
+ * outgrow that need another read. Legacy (v1) segments have no persisted index and are still
+ * scanned, sampling a key every {@code bytesPerIndexEntry} bytes.
+ */
+@AllArgsConstructor
+@Getter
+/*package*/ class SegmentMetadata {
+    private final byte version;
+    private final SSTableCompression compression;
+    private final IndexTuple[] index;
+    /**
+     * Null if the segment was written without one.
+     */
+    private final BloomFilter filter;
+    /**
+     * Both 0 for segments written without counts; legacy (v1) segments aren't counted.
+     */
+    private final long entryCount;
+    private final long tombstoneCount;
+    /**
+     * In key order; empty if the segment has none.
+     */
+    private final List<RangeTombstone> rangeTombstones;
+    /**
+     * Bytes of each value log file the segment's value pointers reference; empty if it has none.
+     */
+    private final Map<Long, Long> valueLogReferences;
+
+    static SegmentMetadata read(Path filePath, int bytesPerIndexEntry) throws IOException {
+        try (var randomAccessFile = new RandomAccessFile(filePath.toString(), "r")) {
+            var version = SSTableFormat.readVersion(randomAccessFile);
+            if (version == SSTableFormat.VERSION_1) return readLegacy(filePath, bytesPerIndexEntry);
+
+            return read(version, SSTableFormat.readCompression(randomAccessFile, version), new Tail(randomAccessFile));
+        }
+    }
+
+    /**
+     * Reads the metadata straight out of a memory mapped segment.
+     */
+    static SegmentMetadata read(MappedSegment mapping, Path filePath, int bytesPerIndexEntry) throws IOException {
+        var segment = mapping.slice(0, mapping.size());
+        var version = SSTableFormat.readVersion(segment);
+        if (version == SSTableFormat.VERSION_1) return readLegacy(filePath, bytesPerIndexEntry);
+
+        return read(version, SSTableFormat.readCompression(segment, version), new Tail(segment));
+    }
+
+    private static SegmentMetadata readLegacy(Path filePath, int bytesPerIndexEntry) throws IOException {
+        return new SegmentMetadata(SSTableFormat.VERSION_1, SSTableCompression.NONE, new ByteRatioLineMapper().mapLines(bytesPerIndexEntry, filePath), null, 0, 0, List.of(), Map.of());
+    }
+
+    private static SegmentMetadata read(byte version, SSTableCompression compression, Tail tail) throws IOException {
+        var footer = SSTableFormat.readFooter(tail.buffer);
+        var metaindex = SSTableFormat.readMetaindex(tail.block(footer.getMetaindex()));
+        var filterHandle = metaindex.get(SSTableFormat.META_BLOOM_FILTER);
+        var filter = filterHandle != null ? BloomFilter.readFrom(tail.block(filterHandle)) : null;
+        var statsHandle = metaindex.get(SSTableFormat.META_STATS);
+        var stats = statsHandle != null ? tail.block(statsHandle) : null;
+        var entryCount = stats != null ? stats.getLong() : 0;
+        var tombstoneCount = stats != null ? stats.getLong() : 0;
+        var rangeTombstonesHandle = metaindex.get(SSTableFormat.META_RANGE_TOMBSTONES);
+        var rangeTombstones = rangeTombstonesHandle != null ? readRangeTombstones(tail.block(rangeTombstonesHandle)) : List.<RangeTombstone>of();
+        var valueLogHandle = metaindex.get(SSTableFormat.META_VALUE_LOG);
+        var valueLogReferences = valueLogHandle != null ? readValueLogReferences(tail.block(valueLogHandle)) : Map.<Long, Long>of();
+        return new SegmentMetadata(version, compression, readIndex(tail.block(footer.getIndex())), filter, entryCount, tombstoneCount, rangeTombstones, valueLogReferences);
+    }
+
+    private static List<RangeTombstone> readRangeTombstones(ByteBuffer block) {
+        var count = block.getInt();
+        var rangeTombstones = new ArrayList<RangeTombstone>(count);
+        for (var i = 0; i < count; i++) {
+            var fromKey = new byte[block.getInt()];
+            block.get(fromKey);
+            var toKey = new byte[block.getInt()];
+            block.get(toKey);
+            rangeTombstones.add(new RangeTombstone(Keys.fromBytes(fromKey), Keys.fromBytes(toKey)));
+        }
+
+        return List.copyOf(rangeTombstones);
+    }
+
+    private static Map<Long, Long> readValueLogReferences(ByteBuffer block) {
+        var count = block.getInt();
+        var valueLogReferences = new TreeMap<Long, Long>();
+        for (var i = 0; i < count; i++) valueLogReferences.put(block.getLong(), block.getLong());
+        return valueLogReferences;
+    }
+
+    private static IndexTuple[] readIndex(ByteBuffer block) {
+        var index = new IndexTuple[block.getInt()];
+        for (var i = 0; i < index.length; i++) {
+            var key = new byte[block.getInt()];
+            block.get(key);
+            var offset = block.getLong();
+            var length = block.getInt();
+            var isTombstone = block.get() != 0;
+            index[i] = new IndexTuple(Keys.fromBytes(key), offset, isTombstone, length);
+        }
+
+        return index;
+    }
+
+    /**
+     * The trailing bytes of a segment, extended towards the start of the file whenever a block
+     * outside of it is requested.
+     */
+    private static class Tail {
+        private final RandomAccessFile randomAccessFile;
+        private ByteBuffer buffer;
+        private long offset;
+
+        private Tail(RandomAccessFile randomAccessFile) throws IOException {
+            this.randomAccessFile = randomAccessFile;
+            var length = randomAccessFile.length();
+            offset = Math.max(SSTableFormat.HEADER_SIZE, length - SSTableFormat.TAIL_READ_SIZE);
+            buffer = ByteBuffer.wrap(read(offset, (int) (length - offset)));
+        }
+
+        private Tail(ByteBuffer segment) {
+            this.randomAccessFile = null;
+            this.buffer = segment;
+            this.offset = 0;
+        }
+
+        private ByteBuffer block(BlockHandle handle) throws IOException {
+            if (handle.getOffset() < offset) {
+                var extension = read(handle.getOffset(), (int) (offset - handle.getOffset()));
+                buffer = ByteBuffer.allocate(extension.length + buffer.limit()).put(extension).put(buffer.rewind()).flip();
+                offset = handle.getOffset();
+            }
+
+            return buffer.slice((int) (handle.getOffset() - offset), handle.getLength());
+        }
+
+        private byte[] read(long position, int length) throws IOException {
+            var bytes = new byte[length];
+            randomAccessFile.seek(position);
+            randomAccessFile.readFully(bytes);
+            return bytes;
+        }
+    }
+}
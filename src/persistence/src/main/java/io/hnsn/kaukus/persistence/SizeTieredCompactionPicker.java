@@ -0,0 +1,87 @@
+package io.hnsn.kaukus.persistence;
+
+import java.util.List;
+
+/**
+ * Picks the next compaction of a size-tiered {@link LSMTree}. Segments are put in tiers by size:
+ * tier 0 holds segments smaller than {@link LSMTreeConfiguration#getSizeTieredMinSegmentSize()}
+ * and each following tier holds segments up to {@link LSMTreeConfiguration#getSizeTieredTierRatio()}
+ * times larger. Once enough segments of a tier sit next to each other they're merged into a
+ * single segment, which usually lands in the next tier. Only adjacent segments are merged since
+ * the merged segment takes the place of the newest input; the lowest tier goes first.
+ *
+ * When no tier needs merging a tombstone heavy segment is merged with as many of the older
+ * segments after it as it takes for the merge to hold the bottommost data for its keys, so its
+ * tombstones are dropped. Segments needing more than {@link #MAX_INPUTS} inputs are left alone.
+ */
+/*package*/ class SizeTieredCompactionPicker implements CompactionPicker {
+    /**
+     * Most segments merged at once.
+     */
+    static final int MAX_INPUTS = 32;
+
+    private final LSMTreeConfiguration configuration;
+
+    SizeTieredCompactionPicker(LSMTreeConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    int getTier(long size) {
+        var tier = 0;
+        var bound = (double) Math.max(1, configuration.getSizeTieredMinSegmentSize());
+        var ratio = Math.max(2, configuration.getSizeTieredTierRatio());
+        while (size >= bound) {
+            tier++;
+            bound *= ratio;
+        }
+        return tier;
+    }
+
+    /**
+     * Number of adjacent segments of the tier that are merged; tiers past the configured
+     * thresholds use the last one.
+     */
+    int getThreshold(int tier) {
+        var thresholds = configuration.getSizeTieredThresholds();
+        return Math.max(2, thresholds.get(Math.min(tier, thresholds.size() - 1)));
+    }
+
+    @Override
+    public Compaction pick(Manifest manifest) {
+        // Level 0 is the whole tree, newest first
+        var segments = manifest.getLevel(0);
+        List<Segment> picked = null;
+        var pickedTier = Integer.MAX_VALUE;
+
+        var start = 0;
+        while (start < segments.size()) {
+            var tier = getTier(segments.get(start).getSize());
+            var end = start + 1;
+            while (end < segments.size() && getTier(segments.get(end).getSize()) == tier) end++;
+
+            if (end - start >= getThreshold(tier) && tier < pickedTier) {
+                // Merge the oldest of the run; newer segments of the tier keep accumulating
+                picked = segments.subList(Math.max(start, end - MAX_INPUTS), end);
+                pickedTier = tier;
+            }
+            start = end;
+        }
+
+        if (picked == null) picked = pickTombstoneHeavy(manifest);
+        return picked == null ? null : new Compaction(List.copyOf(picked), 0);
+    }
+
+    private List<Segment> pickTombstoneHeavy(Manifest manifest) {
+        var segments = manifest.getLevel(0);
+        for (var start = 0; start < segments.size(); start++) {
+            if (!segments.get(start).isTombstoneHeavy(configuration)) continue;
+
+            for (var end = start + 1; end <= Math.min(segments.size(), start + MAX_INPUTS); end++) {
+                var inputs = segments.subList(start, end);
+                if (manifest.isBottommost(inputs)) return inputs;
+            }
+        }
+
+        return null;
+    }
+}
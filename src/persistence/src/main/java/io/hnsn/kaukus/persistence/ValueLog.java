@@ -0,0 +1,298 @@
+package io.hnsn.kaukus.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only files "file.vlog.N" holding the values an {@link LSMTree} separates from its
+ * segments once they're at least {@link LSMTreeConfiguration#getValueLogThreshold()} bytes.
+ * Segments hold a {@link ValuePointer} in their place, so compactions move pointers rather than
+ * the values themselves.
+ *
+ * Values are appended to the newest file until it reaches the configured size; earlier files are
+ * only read. A record is
+ * <pre>
+ * [value length (4) | crc32c of the value (4) | value]
+ * </pre>
+ *
+ * Segments record how many bytes of each file they reference, see
+ * {@link SSTableFormat#META_VALUE_LOG}, and hold a reference to those files for as long as the
+ * segment exists. A file nothing references is deleted, unless it's still appended to or values
+ * are being written that a segment is yet to reference.
+ */
+/*package*/ class ValueLog implements Closeable {
+    static final int RECORD_HEADER_SIZE = 4 + 4;
+
+    private final Path filePath;
+    private final String fileName;
+    private final long maxFileSize;
+    /**
+     * Segments referencing each file; files are tracked from when they're opened or created until
+     * they're deleted.
+     */
+    private final Map<Long, Integer> references = new HashMap<>();
+    /**
+     * Writes in progress whose values aren't referenced yet; nothing is deleted while there are
+     * any.
+     */
+    private int pins = 0;
+    /**
+     * Open channels of the files read; a file's channel is closed once it's deleted and the last
+     * read through it is done.
+     */
+    private final Map<Long, Reader> readers = new ConcurrentHashMap<>();
+    /**
+     * N of the file appended to, or -1 until the first append.
+     */
+    private long activeFile = -1;
+    private FileChannel writer = null;
+    private long position = 0;
+    private long nextFile = 0;
+
+    /**
+     * @param maxFileSize Size, in bytes, past which values are appended to a new file
+     */
+    ValueLog(Path filePath, String fileName, long maxFileSize) {
+        this.filePath = filePath;
+        this.fileName = fileName;
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * Tracks the existing files; new values always go to a new file.
+     * @return True if there are any
+     */
+    synchronized boolean open() throws IOException {
+        var pathMatcher = FileSystems.getDefault().getPathMatcher(MessageFormat.format("regex:{0}/{1}\\.vlog\\.[0-9]+$", filePath, fileName));
+        try (var files = Files.newDirectoryStream(filePath, pathMatcher::matches)) {
+            for (var file : files) {
+                var name = file.getFileName().toString();
+                var index = Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+                references.put(index, 0);
+                nextFile = Math.max(nextFile, index + 1);
+            }
+        }
+        return !references.isEmpty();
+    }
+
+    /**
+     * True if there are no files, so no segment may reference any.
+     */
+    synchronized boolean isEmpty() {
+        return references.isEmpty();
+    }
+
+    /**
+     * N of every file.
+     */
+    synchronized Collection<Long> getFiles() {
+        return new ArrayList<>(references.keySet());
+    }
+
+    synchronized boolean isActive(long file) {
+        return file == activeFile;
+    }
+
+    /**
+     * Size of a file in bytes; 0 if it's gone.
+     */
+    long size(long file) throws IOException {
+        var path = path(file);
+        return Files.exists(path) ? Files.size(path) : 0;
+    }
+
+    /**
+     * Appends a value, starting a new file if the current one is full.
+     * @return Where the value was written
+     */
+    synchronized ValuePointer append(byte[] value) throws IOException {
+        var recordSize = RECORD_HEADER_SIZE + value.length;
+        if (writer == null || (position > 0 && position + recordSize > maxFileSize)) rotate();
+
+        var crc = new CRC32C();
+        crc.update(value);
+        var record = ByteBuffer.allocate(recordSize).putInt(value.length).putInt((int) crc.getValue()).put(value).flip();
+        var offset = position;
+        while (record.hasRemaining()) position += writer.write(record, position);
+        return new ValuePointer(activeFile, offset, value.length);
+    }
+
+    private void rotate() throws IOException {
+        if (writer != null) {
+            writer.force(false);
+            writer.close();
+        }
+
+        activeFile = nextFile++;
+        writer = FileChannel.open(path(activeFile), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        position = 0;
+        references.putIfAbsent(activeFile, 0);
+    }
+
+    /**
+     * Forces the values appended so far to disk.
+     */
+    synchronized void sync() throws IOException {
+        if (writer != null) writer.force(false);
+    }
+
+    /**
+     * Reads a value; the segment holding the pointer must be held so the file isn't deleted.
+     */
+    byte[] read(ValuePointer pointer) throws IOException {
+        var reader = acquireReader(pointer.getFile());
+        var record = ByteBuffer.allocate(RECORD_HEADER_SIZE + pointer.getLength());
+        try {
+            var position = pointer.getOffset();
+            while (record.hasRemaining()) {
+                var read = reader.channel.read(record, position);
+                if (read < 0) throw new IOException("Truncated value log: " + path(pointer.getFile()));
+                position += read;
+            }
+        } finally {
+            reader.release();
+        }
+        record.flip();
+
+        var length = record.getInt();
+        var checksum = record.getInt();
+        var value = new byte[pointer.getLength()];
+        record.get(value);
+        var crc = new CRC32C();
+        crc.update(value);
+        if (length != pointer.getLength() || checksum != (int) crc.getValue()) throw new IOException("Corrupt value log record: " + path(pointer.getFile()));
+        return value;
+    }
+
+    /**
+     * Acquires the file's channel, opening it on first use.
+     */
+    private Reader acquireReader(long file) throws IOException {
+        var reader = readers.get(file);
+        if (reader != null && reader.acquire()) return reader;
+
+        synchronized (readers) {
+            reader = readers.get(file);
+            if (reader == null || !reader.acquire()) {
+                reader = new Reader(FileChannel.open(path(file), StandardOpenOption.READ));
+                readers.put(file, reader);
+                reader.acquire();
+            }
+            return reader;
+        }
+    }
+
+    /**
+     * Takes a reference to each file for a segment pointing into them.
+     */
+    synchronized void retain(Collection<Long> files) {
+        for (var file : files) references.merge(file, 1, Integer::sum);
+    }
+
+    /**
+     * Releases a deleted segment's references, deleting the files no longer referenced.
+     */
+    synchronized void release(Collection<Long> files) throws IOException {
+        for (var file : files) {
+            references.computeIfPresent(file, (ignored, count) -> count - 1);
+        }
+        purge();
+    }
+
+    /**
+     * Holds off deletes while values are written that no segment references yet.
+     */
+    synchronized void pin() {
+        pins++;
+    }
+
+    synchronized void unpin() throws IOException {
+        pins--;
+        purge();
+    }
+
+    /**
+     * Deletes every file but the active one that no segment references.
+     */
+    synchronized void purge() throws IOException {
+        if (pins > 0) return;
+        var iterator = references.entrySet().iterator();
+        while (iterator.hasNext()) {
+            var reference = iterator.next();
+            if (reference.getValue() > 0 || reference.getKey() == activeFile) continue;
+            iterator.remove();
+
+            // Reads in progress keep the channel open; the file can be read until they're done
+            synchronized (readers) {
+                var reader = readers.remove(reference.getKey());
+                if (reader != null) reader.close();
+                Files.deleteIfExists(path(reference.getKey()));
+            }
+        }
+    }
+
+    private Path path(long file) {
+        return filePath.resolve(fileName + ".vlog." + file);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.force(false);
+            writer.close();
+            writer = null;
+        }
+        for (var reader : readers.values()) reader.close();
+        readers.clear();
+    }
+
+    /**
+     * A file's read channel. Reads {@link #acquire()} it for their duration; once it's closed the
+     * channel is closed as soon as the last read releases it.
+     */
+    private static class Reader {
+        private final FileChannel channel;
+        // The log itself holds a reference until the file is deleted
+        private final AtomicInteger references = new AtomicInteger(1);
+        private final AtomicBoolean isClosed = new AtomicBoolean(false);
+
+        private Reader(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * @return True if the channel may be read until {@link #release()} is called; false if it
+         *         has been closed
+         */
+        private boolean acquire() {
+            while (true) {
+                var count = references.get();
+                if (count == 0) return false;
+                if (references.compareAndSet(count, count + 1)) return true;
+            }
+        }
+
+        private void release() throws IOException {
+            if (references.decrementAndGet() == 0) channel.close();
+        }
+
+        private void close() throws IOException {
+            if (isClosed.compareAndSet(false, true)) release();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package io.hnsn.kaukus.persistence;
+
+import java.nio.ByteBuffer;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * Where a value separated from its segment is held in the tree's {@link ValueLog}: the log file,
+ * the offset of the value's record and the value's length. Encoded as
+ * {@code [file (8) | offset (8) | length (4)]}.
+ */
+@AllArgsConstructor
+@EqualsAndHashCode
+@Getter
+/*package*/ class ValuePointer {
+    static final int SIZE = 8 + 8 + 4;
+
+    /**
+     * N of the value log file "file.vlog.N".
+     */
+    private final long file;
+    private final long offset;
+    private final int length;
+
+    /**
+     * Bytes the value's record takes up in the log, header included.
+     */
+    long getRecordSize() {
+        return ValueLog.RECORD_HEADER_SIZE + length;
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.putLong(file).putLong(offset).putInt(length);
+    }
+
+    static ValuePointer readFrom(ByteBuffer buffer) {
+        return new ValuePointer(buffer.getLong(), buffer.getLong(), buffer.getInt());
+    }
+}
@@ -0,0 +1,19 @@
+package io.hnsn.kaukus.persistence;
+
+/**
+ * When writes to an {@link LSMTree}'s write-ahead log are forced to stable storage.
+ */
+public enum WalDurability {
+    /**
+     * Every batch of writes is fsync'd before the writers return.
+     */
+    SYNC,
+    /**
+     * Writes return once handed to the OS; the log is fsync'd at a fixed interval.
+     */
+    INTERVAL,
+    /**
+     * Writes return once handed to the OS and are never explicitly fsync'd.
+     */
+    BUFFERED
+}
@@ -0,0 +1,500 @@
+package io.hnsn.kaukus.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of binary, checksummed records with group commit.
+ * <pre>
+ * [header: magic (4) | version (1)]
+ * [record: length (4) | crc32c (4) | sequence (8) | op (1) | key length (4) | key | value] ...
+ * </pre>
+ * The length counts the bytes following the checksum, which covers all of them. Keys and values
+ * are raw bytes, text being UTF-8; deletes have no value and the value of an expiring put is prefixed with the time it
+ * expires at, {@code [expires at (8) | value]}. A range delete's key is the first key of the range
+ * and its value the key the range stops before. A {@link WriteBatch} is a single record
+ * <pre>
+ * [length (4) | crc32c (4) | sequence (8) | op (1) | count (4)]
+ * [entry: op (1) | key length (4) | key | value length (4) | value] ...
+ * </pre>
+ * whose entries take consecutive sequence numbers from the record's; sharing a checksum, they're
+ * replayed all together or not at all. Version 1 logs never hold batches, only version 3 and later
+ * logs hold expiring puts and only version 4 logs hold range deletes. Logs written before
+ * this format are Base64 text lines; see {@link #isLegacy(Path)}.
+ *
+ * Concurrent appends are gathered into a batch that's written with a single write call by
+ * whichever writer finds the log idle; the others wait until their batch is durable under the
+ * configured {@link WalDurability}. While a batch is being written the next one accumulates, so
+ * the number of writes (and fsyncs) grows with the number of batches rather than the number of
+ * records.
+ */
+/*package*/ class WriteAheadLog implements Closeable {
+    /**
+     * Leading bytes of a binary log; 0x89 can't appear in a Base64 (legacy) log.
+     */
+    static final int MAGIC = 0x894B574C;
+    static final byte VERSION = 4;
+    static final int HEADER_SIZE = 4 + 1;
+
+    static final byte OP_PUT = 0;
+    static final byte OP_DELETE = 1;
+    static final byte OP_BATCH = 2;
+    static final byte OP_PUT_EXPIRING = 3;
+    static final byte OP_DELETE_RANGE = 4;
+
+    /**
+     * Length and checksum preceding every record.
+     */
+    private static final int RECORD_PREFIX_SIZE = 4 + 4;
+    /**
+     * Sequence, op and key length (or entry count of a batch).
+     */
+    private static final int RECORD_FIXED_SIZE = 8 + 1 + 4;
+    /**
+     * Op, key length and value length of a batch entry.
+     */
+    private static final int BATCH_ENTRY_FIXED_SIZE = 1 + 4 + 4;
+    private static final int REPLAY_BUFFER_SIZE = 1024 * 1024;
+
+    private final FileChannel channel;
+    private final WalDurability durability;
+    private final long syncIntervalNanos;
+    /**
+     * Last sequence number handed out; shared by the logs of a tree so numbers keep increasing
+     * across logs.
+     */
+    private final AtomicLong sequence;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchWritten = lock.newCondition();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private ByteArrayOutputStream spare = new ByteArrayOutputStream();
+    /**
+     * Batch the pending records belong to.
+     */
+    private long pendingBatch = 1;
+    /**
+     * Last batch that was written (and fsync'd, if required).
+     */
+    private long writtenBatch = 0;
+    private boolean isWriting = false;
+    private boolean isClosed = false;
+    private IOException failure = null;
+    private volatile long lastSyncNanos = System.nanoTime();
+    private volatile boolean isDirty = false;
+
+    private WriteAheadLog(FileChannel channel, WalDurability durability, long syncIntervalInMilliseconds, AtomicLong sequence) {
+        this.channel = channel;
+        this.durability = durability;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalInMilliseconds);
+        this.sequence = sequence;
+    }
+
+    /**
+     * Opens a binary log for appending, creating it if needed. An existing log must have been
+     * truncated to its last valid record; see {@link #replay(Path, RecordConsumer)}.
+     * @param sequence Last sequence number used; incremented for every record appended
+     */
+    static WriteAheadLog open(Path filePath, WalDurability durability, long syncIntervalInMilliseconds, AtomicLong sequence) throws IOException {
+        var channel = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        try {
+            if (channel.size() == 0) {
+                var header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).put(VERSION).flip();
+                while (header.hasRemaining()) channel.write(header);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        return new WriteAheadLog(channel, durability, syncIntervalInMilliseconds, sequence);
+    }
+
+    /**
+     * Appends a put of a text value and blocks until the batch it joined has been written.
+     * @return The record's sequence number
+     */
+    long put(String key, String value) throws IOException {
+        return put(key, value.getBytes(StandardCharsets.UTF_8), LSMTreeValue.NEVER_EXPIRES);
+    }
+
+    /**
+     * Appends a put of a value expiring at {@code expiresAt}, or never if it's
+     * {@link LSMTreeValue#NEVER_EXPIRES}, and blocks until the batch it joined has been written.
+     * @return The record's sequence number
+     */
+    long put(String key, byte[] value, long expiresAt) throws IOException {
+        return append(encode(getPutOp(expiresAt), key, encodeValue(value, expiresAt)), 1);
+    }
+
+    /**
+     * Appends a delete and blocks until the batch it joined has been written.
+     * @return The record's sequence number
+     */
+    long delete(String key) throws IOException {
+        return append(encode(OP_DELETE, key, new byte[0]), 1);
+    }
+
+    /**
+     * Appends a delete of the keys from {@code fromKey} (inclusive) to {@code toKey} (exclusive)
+     * and blocks until the batch it joined has been written.
+     * @return The record's sequence number
+     */
+    long deleteRange(String fromKey, String toKey) throws IOException {
+        return append(encode(OP_DELETE_RANGE, fromKey, Keys.toBytes(toKey)), 1);
+    }
+
+    /**
+     * Appends a batch as one record and blocks until the batch of records it joined has been
+     * written.
+     * @return The sequence number of the batch's first operation; the rest follow consecutively
+     */
+    long write(WriteBatch batch) throws IOException {
+        var operations = batch.getOperations();
+        var keys = new byte[operations.size()][];
+        var values = new byte[operations.size()][];
+        var length = RECORD_FIXED_SIZE;
+        for (var i = 0; i < operations.size(); i++) {
+            var operation = operations.get(i);
+            keys[i] = Keys.toBytes(operation.getKey());
+            if (operation.getToKey() != null) values[i] = Keys.toBytes(operation.getToKey());
+            else if (operation.getValue() != null) values[i] = encodeValue(operation.getValue(), operation.getExpiresAt());
+            else values[i] = new byte[0];
+            length += BATCH_ENTRY_FIXED_SIZE + keys[i].length + values[i].length;
+        }
+
+        var record = ByteBuffer.allocate(RECORD_PREFIX_SIZE + length);
+        record.putInt(length).putInt(0).putLong(0).put(OP_BATCH).putInt(operations.size());
+        for (var i = 0; i < operations.size(); i++) {
+            record.put(getOp(operations.get(i)));
+            record.putInt(keys[i].length).put(keys[i]).putInt(values[i].length).put(values[i]);
+        }
+        return append(record.array(), operations.size());
+    }
+
+    /**
+     * Encodes everything but the sequence number and checksum, which are filled in once the
+     * record's position in the log is known.
+     * @param key The key as a byte string; see {@link Keys}
+     */
+    private static byte[] encode(byte op, String key, byte[] valueBytes) {
+        var keyBytes = Keys.toBytes(key);
+        var length = RECORD_FIXED_SIZE + keyBytes.length + valueBytes.length;
+        var record = ByteBuffer.allocate(RECORD_PREFIX_SIZE + length);
+        record.putInt(length).putInt(0).putLong(0).put(op).putInt(keyBytes.length).put(keyBytes).put(valueBytes);
+        return record.array();
+    }
+
+    private static byte getOp(WriteBatch.Operation operation) {
+        if (operation.getToKey() != null) return OP_DELETE_RANGE;
+        return operation.getValue() == null ? OP_DELETE : getPutOp(operation.getExpiresAt());
+    }
+
+    private static byte getPutOp(long expiresAt) {
+        return expiresAt == LSMTreeValue.NEVER_EXPIRES ? OP_PUT : OP_PUT_EXPIRING;
+    }
+
+    private static byte[] encodeValue(byte[] value, long expiresAt) {
+        if (expiresAt == LSMTreeValue.NEVER_EXPIRES) return value;
+        return ByteBuffer.allocate(8 + value.length).putLong(expiresAt).put(value).array();
+    }
+
+    /**
+     * @param count Number of sequence numbers the record takes
+     * @return The record's (first) sequence number
+     */
+    private long append(byte[] record, int count) throws IOException {
+        lock.lock();
+        try {
+            if (isClosed) throw new IOException("Write-ahead log is closed");
+
+            // Number and checksum the record in log order
+            var recordSequence = sequence.addAndGet(count) - count + 1;
+            var crc = new CRC32C();
+            ByteBuffer.wrap(record).putLong(RECORD_PREFIX_SIZE, recordSequence);
+            crc.update(record, RECORD_PREFIX_SIZE, record.length - RECORD_PREFIX_SIZE);
+            ByteBuffer.wrap(record).putInt(4, (int) crc.getValue());
+
+            pending.write(record);
+            var batch = pendingBatch;
+
+            while (writtenBatch < batch) {
+                if (failure != null) throw new IOException("Write-ahead log failed", failure);
+                if (isWriting) {
+                    batchWritten.awaitUninterruptibly();
+                    continue;
+                }
+
+                // Lead the batch; write out every pending record, including other writers'
+                isWriting = true;
+                var buffer = pending;
+                pending = spare;
+                var writing = pendingBatch++;
+
+                IOException writeFailure = null;
+                lock.unlock();
+                try {
+                    write(buffer);
+                } catch (IOException e) {
+                    writeFailure = e;
+                } finally {
+                    lock.lock();
+                }
+
+                buffer.reset();
+                spare = buffer;
+                isWriting = false;
+                if (writeFailure != null) failure = writeFailure;
+                else writtenBatch = writing;
+                batchWritten.signalAll();
+            }
+
+            return recordSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(ByteArrayOutputStream buffer) throws IOException {
+        var bytes = ByteBuffer.wrap(buffer.toByteArray());
+        while (bytes.hasRemaining()) channel.write(bytes);
+        isDirty = true;
+
+        if (durability == WalDurability.SYNC
+            || (durability == WalDurability.INTERVAL && System.nanoTime() - lastSyncNanos >= syncIntervalNanos)) {
+            sync();
+        }
+    }
+
+    /**
+     * Forces written records to stable storage if any were written since the last sync.
+     */
+    void sync() throws IOException {
+        if (!isDirty) return;
+        isDirty = false;
+        lastSyncNanos = System.nanoTime();
+        channel.force(false);
+    }
+
+    /**
+     * Syncs and closes the log; appends must have completed.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (isClosed) return;
+            isClosed = true;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            if (durability != WalDurability.BUFFERED) sync();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * True if the log is a Base64 text log written before the binary format.
+     */
+    static boolean isLegacy(Path filePath) throws IOException {
+        try (var channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            if (channel.size() == 0) return false;
+
+            var header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) { }
+            // A torn header is a binary log that never got a record
+            return header.position() < 4 ? header.get(0) != (byte) (MAGIC >>> 24) : header.getInt(0) != MAGIC;
+        }
+    }
+
+    /**
+     * Replays the records of a binary log in order, reading it sequentially in large chunks.
+     * Replay stops at the first torn or corrupt record; everything after it is assumed to be an
+     * interrupted write. Range deletes are skipped.
+     * @return Length of the log up to the end of the last valid record
+     */
+    static long replay(Path filePath, RecordConsumer consumer) throws IOException {
+        return replay(filePath, consumer, (sequence, fromKey, toKey) -> { });
+    }
+
+    /**
+     * Replays the records of a binary log like {@link #replay(Path, RecordConsumer)}, passing
+     * range deletes to {@code rangeDeleteConsumer}.
+     */
+    static long replay(Path filePath, RecordConsumer consumer, RangeDeleteConsumer rangeDeleteConsumer) throws IOException {
+        try (var channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            var buffer = ByteBuffer.allocate(REPLAY_BUFFER_SIZE);
+            var isEndOfFile = fill(channel, buffer);
+            buffer.flip();
+            // A torn header is a log that never got a record
+            if (buffer.remaining() < HEADER_SIZE) return 0;
+            if (buffer.getInt() != MAGIC) throw new IOException("Not a binary write-ahead log: " + filePath);
+            var version = buffer.get();
+            if (version < 1 || version > VERSION) throw new IOException("Unsupported write-ahead log version " + version + ": " + filePath);
+
+            var crc = new CRC32C();
+            var validLength = (long) HEADER_SIZE;
+            while (true) {
+                // Lengths are compared against what's left so a corrupt one can't overflow
+                if (buffer.remaining() < RECORD_PREFIX_SIZE
+                    || buffer.getInt(buffer.position()) > buffer.remaining() - RECORD_PREFIX_SIZE) {
+                    if (isEndOfFile) return validLength;
+
+                    // Make room for the whole record, growing the buffer if the record is larger
+                    var length = buffer.remaining() < RECORD_PREFIX_SIZE ? 0 : buffer.getInt(buffer.position());
+                    if (length > buffer.capacity() - RECORD_PREFIX_SIZE) {
+                        if (length > channel.size() - validLength) return validLength;
+                        buffer = ByteBuffer.allocate(RECORD_PREFIX_SIZE + length).put(buffer);
+                    } else {
+                        buffer.compact();
+                    }
+                    isEndOfFile = fill(channel, buffer);
+                    buffer.flip();
+                    continue;
+                }
+
+                var length = buffer.getInt();
+                var checksum = buffer.getInt();
+                var start = buffer.position();
+                if (length < RECORD_FIXED_SIZE) return validLength;
+
+                crc.reset();
+                crc.update(buffer.array(), start, length);
+                if ((int) crc.getValue() != checksum) return validLength;
+
+                var recordSequence = buffer.getLong();
+                var op = buffer.get();
+                if (op == OP_BATCH) {
+                    if (!replayBatch(buffer, start + length, recordSequence, consumer, rangeDeleteConsumer)) return validLength;
+                    buffer.position(start + length);
+                    validLength += RECORD_PREFIX_SIZE + length;
+                    continue;
+                }
+
+                var keyLength = buffer.getInt();
+                var valueLength = length - RECORD_FIXED_SIZE - keyLength;
+                if (keyLength < 0 || !isValidValue(op, valueLength)) return validLength;
+
+                var key = new String(buffer.array(), buffer.position(), keyLength, StandardCharsets.ISO_8859_1);
+                var valueOffset = buffer.position() + keyLength;
+                buffer.position(start + length);
+                if (op == OP_DELETE_RANGE) rangeDeleteConsumer.accept(recordSequence, key, Keys.fromBytes(decodeValue(buffer, op, valueOffset, valueLength)));
+                else consumer.accept(recordSequence, key, decodeValue(buffer, op, valueOffset, valueLength), decodeExpiresAt(buffer, op, valueOffset));
+                validLength += RECORD_PREFIX_SIZE + length;
+            }
+        }
+    }
+
+    /**
+     * Replays the entries of a batch record once all of them have been decoded, so a malformed
+     * batch replays nothing.
+     * @param end Position of the end of the record
+     * @return False if the batch is malformed
+     */
+    private static boolean replayBatch(ByteBuffer buffer, int end, long sequence, RecordConsumer consumer, RangeDeleteConsumer rangeDeleteConsumer) {
+        var count = buffer.getInt();
+        if (count < 0) return false;
+
+        var ops = new ArrayList<Byte>();
+        var keys = new ArrayList<String>();
+        var values = new ArrayList<byte[]>();
+        var expiries = new ArrayList<Long>();
+        for (var i = 0; i < count; i++) {
+            if (end - buffer.position() < BATCH_ENTRY_FIXED_SIZE) return false;
+            var op = buffer.get();
+            var keyLength = buffer.getInt();
+            if (keyLength < 0 || end - buffer.position() - 4 < keyLength) return false;
+            var key = new String(buffer.array(), buffer.position(), keyLength, StandardCharsets.ISO_8859_1);
+            buffer.position(buffer.position() + keyLength);
+            var valueLength = buffer.getInt();
+            if (end - buffer.position() < valueLength || !isValidValue(op, valueLength)) return false;
+            ops.add(op);
+            keys.add(key);
+            values.add(decodeValue(buffer, op, buffer.position(), valueLength));
+            expiries.add(decodeExpiresAt(buffer, op, buffer.position()));
+            buffer.position(buffer.position() + valueLength);
+        }
+
+        for (var i = 0; i < count; i++) {
+            if (ops.get(i) == OP_DELETE_RANGE) rangeDeleteConsumer.accept(sequence + i, keys.get(i), Keys.fromBytes(values.get(i)));
+            else consumer.accept(sequence + i, keys.get(i), values.get(i), expiries.get(i));
+        }
+        return true;
+    }
+
+    private static boolean isValidValue(byte op, int valueLength) {
+        return switch (op) {
+            case OP_PUT, OP_DELETE, OP_DELETE_RANGE -> valueLength >= 0;
+            case OP_PUT_EXPIRING -> valueLength >= 8;
+            default -> false;
+        };
+    }
+
+    /**
+     * @return The value of a put, the end of a range delete or null for a delete
+     */
+    private static byte[] decodeValue(ByteBuffer buffer, byte op, int offset, int length) {
+        if (op == OP_DELETE) return null;
+        if (op == OP_PUT_EXPIRING) return Arrays.copyOfRange(buffer.array(), offset + 8, offset + length);
+        return Arrays.copyOfRange(buffer.array(), offset, offset + length);
+    }
+
+    private static long decodeExpiresAt(ByteBuffer buffer, byte op, int offset) {
+        return op == OP_PUT_EXPIRING ? buffer.getLong(offset) : LSMTreeValue.NEVER_EXPIRES;
+    }
+
+    /**
+     * Reads until the buffer is full or the end of the file.
+     * @return True if the end of the file was reached
+     */
+    private static boolean fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Drops a torn or corrupt tail so new records follow the last valid one.
+     */
+    static void truncate(Path filePath, long length) throws IOException {
+        try (var channel = FileChannel.open(filePath, StandardOpenOption.WRITE)) {
+            if (channel.size() > length) channel.truncate(length);
+        }
+    }
+
+    @FunctionalInterface
+    interface RecordConsumer {
+        /**
+         * @param key The key as a byte string; see {@link Keys}
+         * @param value Null for a delete
+         * @param expiresAt Expiry time of the value, or {@link LSMTreeValue#NEVER_EXPIRES}
+         */
+        void accept(long sequence, String key, byte[] value, long expiresAt);
+    }
+
+    @FunctionalInterface
+    interface RangeDeleteConsumer {
+        /**
+         * @param fromKey First key of the range
+         * @param toKey Key the range stops before
+         */
+        void accept(long sequence, String fromKey, String toKey);
+    }
+}
@@ -0,0 +1,147 @@
+package io.hnsn.kaukus.persistence;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Puts, removes and range deletes applied to an {@link LSMTree} together by {@link LSMTree#write(WriteBatch)}.
+ * The batch is logged as a single WAL record so after a crash either all of it or none of it is
+ * recovered. Operations apply in the order they were added; a later operation on a key wins.
+ * Like the tree, a batch takes text or byte keys and values.
+ */
+public class WriteBatch {
+    private final List<Operation> operations = new ArrayList<>();
+
+    /**
+     * Adds a put of a value; see {@link LSMTree#put(String, String)}.
+     */
+    public WriteBatch put(String key, String value) {
+        return put(key, value, LSMTreeValue.NEVER_EXPIRES);
+    }
+
+    /**
+     * Adds a put of a value that expires; see {@link LSMTree#put(String, String, long)}.
+     */
+    public WriteBatch put(String key, String value, long expiresAt) {
+        return putKey(Keys.fromText(key), value == null ? null : value.getBytes(StandardCharsets.UTF_8), expiresAt);
+    }
+
+    /**
+     * Adds a put of a value; see {@link LSMTree#put(byte[], byte[])}.
+     */
+    public WriteBatch put(byte[] key, byte[] value) {
+        return put(key, value, LSMTreeValue.NEVER_EXPIRES);
+    }
+
+    /**
+     * Adds a put of a value that expires; see {@link LSMTree#put(byte[], byte[], long)}.
+     */
+    public WriteBatch put(byte[] key, byte[] value, long expiresAt) {
+        return putKey(Keys.fromBytes(key), value, expiresAt);
+    }
+
+    /**
+     * @param key The key as a byte string; see {@link Keys}
+     */
+    /*package*/ WriteBatch putKey(String key, byte[] value, long expiresAt) {
+        validateKey(key);
+        if (value == null) throw new InvalidParameterException("Value cannot be null");
+
+        operations.add(new Operation(key, value, expiresAt, null));
+        return this;
+    }
+
+    /**
+     * Adds a removal of a key; see {@link LSMTree#remove(String)}.
+     */
+    public WriteBatch remove(String key) {
+        return removeKey(Keys.fromText(key));
+    }
+
+    /**
+     * Adds a removal of a key; see {@link LSMTree#remove(byte[])}.
+     */
+    public WriteBatch remove(byte[] key) {
+        return removeKey(Keys.fromBytes(key));
+    }
+
+    /**
+     * @param key The key as a byte string; see {@link Keys}
+     */
+    /*package*/ WriteBatch removeKey(String key) {
+        validateKey(key);
+
+        operations.add(new Operation(key, null, LSMTreeValue.NEVER_EXPIRES, null));
+        return this;
+    }
+
+    /**
+     * Adds a removal of a range of keys; see {@link LSMTree#deleteRange(String, String)}.
+     */
+    public WriteBatch deleteRange(String fromKey, String toKey) {
+        return deleteKeyRange(Keys.fromText(fromKey), Keys.fromText(toKey));
+    }
+
+    /**
+     * Adds a removal of a range of keys; see {@link LSMTree#deleteRange(byte[], byte[])}.
+     */
+    public WriteBatch deleteRange(byte[] fromKey, byte[] toKey) {
+        return deleteKeyRange(Keys.fromBytes(fromKey), Keys.fromBytes(toKey));
+    }
+
+    /**
+     * @param fromKey The key as a byte string; see {@link Keys}
+     */
+    /*package*/ WriteBatch deleteKeyRange(String fromKey, String toKey) {
+        LSMTree.validateRange(fromKey, toKey);
+
+        operations.add(new Operation(fromKey, null, LSMTreeValue.NEVER_EXPIRES, toKey));
+        return this;
+    }
+
+    private static void validateKey(String key) {
+        if (key == null) throw new InvalidParameterException("Key cannot be null");
+        if (key.isEmpty()) throw new InvalidParameterException("Key cannot be empty");
+    }
+
+    public int size() {
+        return operations.size();
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    public void clear() {
+        operations.clear();
+    }
+
+    /*package*/ List<Operation> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    @Getter(AccessLevel.PACKAGE)
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    /*package*/ static class Operation {
+        /**
+         * Byte string of the key, see {@link Keys}; the first key of a range delete.
+         */
+        private final String key;
+        /**
+         * Null for a remove or range delete.
+         */
+        private final byte[] value;
+        private final long expiresAt;
+        /**
+         * Key a range delete stops before; null for anything else.
+         */
+        private final String toKey;
+    }
+}
@@ -0,0 +1,47 @@
+package io.hnsn.kaukus.persistence.serialization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecord;
+
+/**
+ * Encodes Avro records as Avro binary. The schema isn't stored alongside so records are read with
+ * the schema of the class they're read as, which must be the one they were written with.
+ */
+public class AvroCodec<T extends SpecificRecord> implements Codec<T> {
+    private final DatumWriter<T> writer;
+    private final DatumReader<T> reader;
+
+    public AvroCodec(Class<T> cls) {
+        writer = new SpecificDatumWriter<>(cls);
+        reader = new SpecificDatumReader<>(cls);
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        var outputStream = new ByteArrayOutputStream();
+        try {
+            writer.write(value, EncoderFactory.get().directBinaryEncoder(outputStream, null));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    @Override
+    public T decode(byte[] bytes) {
+        try {
+            return reader.read(null, DecoderFactory.get().binaryDecoder(bytes, null));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
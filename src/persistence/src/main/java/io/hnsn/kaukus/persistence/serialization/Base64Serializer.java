@@ -0,0 +1,11 @@
+package io.hnsn.kaukus.persistence.serialization;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+public class Base64Serializer implements Serializer {
+    @Override
+    public byte[] serialize(String value) {
+        return Base64.getEncoder().encode(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
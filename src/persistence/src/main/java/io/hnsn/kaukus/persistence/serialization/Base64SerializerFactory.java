@@ -16,7 +16,6 @@ public class Base64SerializerFactory implements SerializerFactory {
 
     @Override
     public Serializer createSerializer() {
-        // TODO Auto-generated method stub
-        return null;
+        return new Base64Serializer();
     }
 }
@@ -0,0 +1,27 @@
+package io.hnsn.kaukus.persistence.serialization;
+
+import java.util.function.Function;
+
+/**
+ * Encodes values of a type to bytes and back. A codec is shared by every thread reading or
+ * writing its type so it must be thread-safe.
+ */
+public interface Codec<T> {
+    byte[] encode(T value);
+
+    T decode(byte[] bytes);
+
+    static <T> Codec<T> of(Function<T, byte[]> encoder, Function<byte[], T> decoder) {
+        return new Codec<>() {
+            @Override
+            public byte[] encode(T value) {
+                return encoder.apply(value);
+            }
+
+            @Override
+            public T decode(byte[] bytes) {
+                return decoder.apply(bytes);
+            }
+        };
+    }
+}
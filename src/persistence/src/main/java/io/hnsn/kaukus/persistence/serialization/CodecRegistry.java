@@ -0,0 +1,56 @@
+package io.hnsn.kaukus.persistence.serialization;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.avro.specific.SpecificRecord;
+
+/**
+ * The codecs typed values are encoded with, by class. Strings, byte arrays and the primitives,
+ * boxed or not, have built-in codecs and Avro records get an {@link AvroCodec} the first time
+ * they're looked up; registering a codec for a class replaces any it had.
+ */
+public class CodecRegistry {
+    private final ConcurrentHashMap<Class<?>, Codec<?>> codecs = new ConcurrentHashMap<>();
+
+    public CodecRegistry() {
+        register(String.class, Codecs.STRING);
+        register(byte[].class, Codecs.BYTES);
+        register(Boolean.class, Codecs.BOOLEAN);
+        register(boolean.class, Codecs.BOOLEAN);
+        register(Byte.class, Codecs.BYTE);
+        register(byte.class, Codecs.BYTE);
+        register(Short.class, Codecs.SHORT);
+        register(short.class, Codecs.SHORT);
+        register(Character.class, Codecs.CHARACTER);
+        register(char.class, Codecs.CHARACTER);
+        register(Integer.class, Codecs.INTEGER);
+        register(int.class, Codecs.INTEGER);
+        register(Long.class, Codecs.LONG);
+        register(long.class, Codecs.LONG);
+        register(Float.class, Codecs.FLOAT);
+        register(float.class, Codecs.FLOAT);
+        register(Double.class, Codecs.DOUBLE);
+        register(double.class, Codecs.DOUBLE);
+    }
+
+    public <T> CodecRegistry register(Class<T> cls, Codec<T> codec) {
+        codecs.put(cls, codec);
+        return this;
+    }
+
+    /**
+     * @return The codec of exactly the class, or null if it has none
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Codec<T> getCodec(Class<T> cls) {
+        var codec = codecs.get(cls);
+        if (codec == null && SpecificRecord.class.isAssignableFrom(cls)) {
+            codec = codecs.computeIfAbsent(cls, c -> avro(c.asSubclass(SpecificRecord.class)));
+        }
+        return (Codec<T>) codec;
+    }
+
+    private static <T extends SpecificRecord> Codec<T> avro(Class<T> cls) {
+        return new AvroCodec<>(cls);
+    }
+}
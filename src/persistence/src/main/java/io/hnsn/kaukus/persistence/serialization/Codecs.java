@@ -0,0 +1,28 @@
+package io.hnsn.kaukus.persistence.serialization;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The built-in codecs. Numbers are fixed width and big-endian, strings are UTF-8 and byte arrays
+ * are stored as is.
+ */
+public final class Codecs {
+    public static final Codec<String> STRING = Codec.of(value -> value.getBytes(StandardCharsets.UTF_8), bytes -> new String(bytes, StandardCharsets.UTF_8));
+    public static final Codec<byte[]> BYTES = Codec.of(value -> value, bytes -> bytes);
+    public static final Codec<Boolean> BOOLEAN = Codec.of(value -> new byte[] { (byte) (value ? 1 : 0) }, bytes -> fixed(bytes, 1).get() != 0);
+    public static final Codec<Byte> BYTE = Codec.of(value -> new byte[] { value }, bytes -> fixed(bytes, Byte.BYTES).get());
+    public static final Codec<Short> SHORT = Codec.of(value -> ByteBuffer.allocate(Short.BYTES).putShort(value).array(), bytes -> fixed(bytes, Short.BYTES).getShort());
+    public static final Codec<Character> CHARACTER = Codec.of(value -> ByteBuffer.allocate(Character.BYTES).putChar(value).array(), bytes -> fixed(bytes, Character.BYTES).getChar());
+    public static final Codec<Integer> INTEGER = Codec.of(value -> ByteBuffer.allocate(Integer.BYTES).putInt(value).array(), bytes -> fixed(bytes, Integer.BYTES).getInt());
+    public static final Codec<Long> LONG = Codec.of(value -> ByteBuffer.allocate(Long.BYTES).putLong(value).array(), bytes -> fixed(bytes, Long.BYTES).getLong());
+    public static final Codec<Float> FLOAT = Codec.of(value -> ByteBuffer.allocate(Float.BYTES).putFloat(value).array(), bytes -> fixed(bytes, Float.BYTES).getFloat());
+    public static final Codec<Double> DOUBLE = Codec.of(value -> ByteBuffer.allocate(Double.BYTES).putDouble(value).array(), bytes -> fixed(bytes, Double.BYTES).getDouble());
+
+    private Codecs() { }
+
+    private static ByteBuffer fixed(byte[] bytes, int size) {
+        if (bytes.length != size) throw new IllegalArgumentException("Expected " + size + " bytes but got " + bytes.length);
+        return ByteBuffer.wrap(bytes);
+    }
+}
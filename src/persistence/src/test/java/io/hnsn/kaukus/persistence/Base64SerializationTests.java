@@ -10,6 +10,7 @@ import java.util.Base64;
 import org.junit.jupiter.api.Test;
 
 import io.hnsn.kaukus.persistence.serialization.Base64Deserializer;
+import io.hnsn.kaukus.persistence.serialization.Base64SerializerFactory;
 import io.hnsn.kaukus.persistence.serialization.Base64StreamSerializer;
 
 public class Base64SerializationTests {
@@ -24,6 +25,12 @@ public class Base64SerializationTests {
         }
     }
 
+    @Test
+    public void FactoryCreatesSerializer() {
+        var bytes = new Base64SerializerFactory().createSerializer().serialize("some-text");
+        assertEquals("some-text", new String(Base64.getDecoder().decode(bytes)));
+    }
+
     @Test
     public void CanDeserializingString() throws IOException {
         var bytes = Base64.getEncoder().encode("some-text".getBytes());
@@ -0,0 +1,101 @@
+package io.hnsn.kaukus.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.text.MessageFormat;
+
+import org.junit.jupiter.api.Test;
+
+public class BlockCacheTests {
+    private static DataBlock block(int size) {
+        return new DataBlock(ByteBuffer.wrap(new byte[size]), SSTableFormat.VERSION_2);
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        var blockCache = new BlockCache(1024, 1);
+        var block = block(16);
+
+        assertNull(blockCache.get(1, 0));
+        blockCache.put(1, 0, block);
+        assertSame(block, blockCache.get(1, 0));
+
+        assertEquals(1, blockCache.getHitCount());
+        assertEquals(1, blockCache.getMissCount());
+        assertEquals(16, blockCache.getUsage());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        var blockCache = new BlockCache(64, 1);
+        blockCache.put(1, 0, block(32));
+        blockCache.put(1, 32, block(32));
+
+        // Touch the first block so the second is the eldest
+        assertNotNull(blockCache.get(1, 0));
+        blockCache.put(1, 64, block(32));
+
+        assertNotNull(blockCache.get(1, 0));
+        assertNull(blockCache.get(1, 32));
+        assertNotNull(blockCache.get(1, 64));
+        assertEquals(64, blockCache.getUsage());
+    }
+
+    @Test
+    public void skipsBlocksLargerThanShard() {
+        var blockCache = new BlockCache(64, 2);
+        blockCache.put(1, 0, block(48));
+
+        assertNull(blockCache.get(1, 0));
+        assertEquals(0, blockCache.getUsage());
+    }
+
+    @Test
+    public void invalidatesSegment() {
+        var blockCache = new BlockCache(1024 * 1024);
+        for (var i = 0; i < 8; i++) {
+            blockCache.put(1, i * 16, block(16));
+            blockCache.put(2, i * 16, block(16));
+        }
+
+        blockCache.invalidate(1);
+
+        for (var i = 0; i < 8; i++) {
+            assertNull(blockCache.get(1, i * 16));
+            assertNotNull(blockCache.get(2, i * 16));
+        }
+        assertEquals(8 * 16, blockCache.getUsage());
+    }
+
+    @Test
+    public void sstableServesRepeatReadsFromCache() throws IOException {
+        var blockCache = new BlockCache(1024 * 1024);
+        var configuration = SSTableConfiguration.builder().blockSize(64).blockCache(blockCache).build();
+        var filePath = Path.of(File.createTempFile("test", null).getPath());
+        try (var sstableWriter = new SSTableWriter(new FileOutputStream(filePath.toString()), configuration)) {
+            for (var i = 0; i < 100; i++) {
+                sstableWriter.write(MessageFormat.format("some-key-{0,number,000}", i), MessageFormat.format("some-value-{0}", i));
+            }
+        }
+
+        var sstable = new SSTable(filePath, configuration);
+        assertEquals("some-value-42", sstable.tryGetValue("some-key-042").getValue());
+        assertEquals(0, blockCache.getHitCount());
+        assertEquals(1, blockCache.getMissCount());
+
+        assertEquals("some-value-42", sstable.tryGetValue("some-key-042").getValue());
+        assertEquals(1, blockCache.getHitCount());
+        assertEquals(1, blockCache.getMissCount());
+
+        sstable.close();
+        assertEquals(0, blockCache.getUsage());
+    }
+}
@@ -0,0 +1,56 @@
+package io.hnsn.kaukus.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.MessageFormat;
+
+import org.junit.jupiter.api.Test;
+
+public class BloomFilterTests {
+    @Test
+    public void containsEveryAddedKey() {
+        var filter = BloomFilter.create(1000, 0.01);
+        for (var i = 0; i < 1000; i++) {
+            filter.add(MessageFormat.format("some-key-{0}", i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        for (var i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain(MessageFormat.format("some-key-{0}", i).getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    @Test
+    public void falsePositiveRateIsBounded() {
+        var filter = BloomFilter.create(10000, 0.01);
+        for (var i = 0; i < 10000; i++) {
+            filter.add(MessageFormat.format("some-key-{0}", i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        var falsePositives = 0;
+        for (var i = 0; i < 10000; i++) {
+            if (filter.mightContain(MessageFormat.format("some-other-key-{0}", i).getBytes(StandardCharsets.UTF_8))) falsePositives++;
+        }
+
+        // 1% target; leave headroom for variance
+        assertTrue(falsePositives < 300);
+    }
+
+    @Test
+    public void canRoundTrip() throws IOException {
+        var filter = BloomFilter.create(10, 0.01);
+        filter.add("some-key".getBytes(StandardCharsets.UTF_8));
+
+        var outputStream = new ByteArrayOutputStream();
+        filter.writeTo(new DataOutputStream(outputStream));
+        var readFilter = BloomFilter.readFrom(ByteBuffer.wrap(outputStream.toByteArray()));
+
+        assertTrue(readFilter.mightContain("some-key".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(readFilter.mightContain("some-missing-key".getBytes(StandardCharsets.UTF_8)));
+    }
+}
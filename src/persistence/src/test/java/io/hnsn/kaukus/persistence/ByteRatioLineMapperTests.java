@@ -16,7 +16,7 @@ public class ByteRatioLineMapperTests {
     @Test
     public void CanBuildIndex() throws URISyntaxException, IOException {
         var filePath = Paths.get(getClass().getClassLoader().getResource("SSTableTest.0").toURI());
-        var index = new ByteRatioLineMapper().mapLines(0.33f, filePath);
+        var index = new ByteRatioLineMapper().mapLines(64, filePath);
         
         assertNotNull(index);
 
@@ -32,7 +32,7 @@ public class ByteRatioLineMapperTests {
     @Test
     public void CanReadTombstone() throws URISyntaxException, IOException {
         var filePath = Paths.get(getClass().getClassLoader().getResource("SSTableTombstoneTest.0").toURI());
-        var index = new ByteRatioLineMapper().mapLines(1, filePath);
+        var index = new ByteRatioLineMapper().mapLines(Integer.MAX_VALUE, filePath);
         
         assertNotNull(index);
         assertTrue(index[0].isTombstone());
@@ -0,0 +1,140 @@
+package io.hnsn.kaukus.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.text.MessageFormat;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import io.hnsn.kaukus.persistence.serialization.Codec;
+import io.hnsn.kaukus.persistence.serialization.CodecRegistry;
+
+/**
+ * Compares the built-in codecs with Java serialization, which typed values used to be written
+ * with. Run with {@code gradle :persistence:benchmark}.
+ */
+@Tag("benchmark")
+public class CodecBenchmarks {
+    private static final int WARMUP_ITERATIONS = 50_000;
+    private static final int ITERATIONS = 200_000;
+
+    private final CodecRegistry registry = new CodecRegistry();
+
+    @Test
+    public void integers() {
+        compare("Integer", Integer.class, 123456789);
+    }
+
+    @Test
+    public void longs() {
+        compare("Long", Long.class, 1234567890123L);
+    }
+
+    @Test
+    public void doubles() {
+        compare("Double", Double.class, Math.PI);
+    }
+
+    @Test
+    public void strings() {
+        compare("String", String.class, "some-moderately-long-string-value-of-about-sixty-characters");
+    }
+
+    @Test
+    public void avroRecords() {
+        compare("TestRecord", TestRecord.class, new TestRecord("some-name", 42), TestRecord::getName);
+    }
+
+    @Test
+    public void treePutAndGet() throws IOException, ClassNotFoundException {
+        var tempDirectory = Files.createTempDirectory(null);
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"))) {
+            for (var pass = 0; pass < 2; pass++) {
+                var start = System.nanoTime();
+                for (var i = 0; i < ITERATIONS; i++) {
+                    lsmTree.put("some-key-" + (i % 1000), (long) i);
+                    assertEquals((long) i, lsmTree.get("some-key-" + (i % 1000), Long.class));
+                }
+                if (pass > 0) report("LSMTree Long put+get", "codec", System.nanoTime() - start, lsmTree.get("some-key-0".getBytes()).length);
+            }
+        }
+    }
+
+    private <T> void compare(String name, Class<T> cls, T value) {
+        compare(name, cls, value, v -> v);
+    }
+
+    /**
+     * Times encoding and decoding the value, warmed up, with its codec and with Java
+     * serialization.
+     * @param comparable Maps values to something comparable by equals, checking round trips
+     */
+    private <T> void compare(String name, Class<T> cls, T value, Function<T, Object> comparable) {
+        var codec = registry.getCodec(cls);
+        assertEquals(comparable.apply(value), comparable.apply(codec.decode(codec.encode(value))));
+        assertEquals(comparable.apply(value), comparable.apply(cls.cast(deserialize(serialize(value)))));
+
+        run(codec, value, WARMUP_ITERATIONS);
+        runSerialization(value, WARMUP_ITERATIONS);
+
+        report(name, "codec", run(codec, value, ITERATIONS), codec.encode(value).length);
+        report(name, "java serialization", runSerialization(value, ITERATIONS), serialize(value).length);
+    }
+
+    private static <T> long run(Codec<T> codec, T value, int iterations) {
+        var start = System.nanoTime();
+        var sink = 0;
+        for (var i = 0; i < iterations; i++) {
+            sink += codec.decode(codec.encode(value)).hashCode();
+        }
+        blackhole(sink);
+        return System.nanoTime() - start;
+    }
+
+    private static long runSerialization(Object value, int iterations) {
+        var start = System.nanoTime();
+        var sink = 0;
+        for (var i = 0; i < iterations; i++) {
+            sink += deserialize(serialize(value)).hashCode();
+        }
+        blackhole(sink);
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, String path, long nanos, int size) {
+        System.out.println(MessageFormat.format("{0} {1}: {2} ns/op, {3} bytes", name, path, nanos / ITERATIONS, size));
+    }
+
+    private static volatile int blackholeValue;
+
+    private static void blackhole(int value) {
+        blackholeValue = value;
+    }
+
+    private static byte[] serialize(Object value) {
+        try (var outputStream = new ByteArrayOutputStream()) {
+            try (var objectStream = new ObjectOutputStream(outputStream)) {
+                objectStream.writeObject(value);
+            }
+            return outputStream.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Object deserialize(byte[] bytes) {
+        try (var objectStream = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return objectStream.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
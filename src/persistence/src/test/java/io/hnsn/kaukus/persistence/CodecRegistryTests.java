@@ -0,0 +1,75 @@
+package io.hnsn.kaukus.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import io.hnsn.kaukus.persistence.serialization.Codec;
+import io.hnsn.kaukus.persistence.serialization.CodecRegistry;
+import io.hnsn.kaukus.persistence.serialization.Codecs;
+
+public class CodecRegistryTests {
+    @Test
+    public void builtInCodecsRoundTrip() {
+        var registry = new CodecRegistry();
+        assertEquals("some-text-😀", roundTrip(registry, String.class, "some-text-😀"));
+        assertEquals(true, roundTrip(registry, Boolean.class, true));
+        assertEquals((byte) -7, roundTrip(registry, Byte.class, (byte) -7));
+        assertEquals((short) 1234, roundTrip(registry, Short.class, (short) 1234));
+        assertEquals('ÿ', roundTrip(registry, Character.class, 'ÿ'));
+        assertEquals(Integer.MIN_VALUE, roundTrip(registry, Integer.class, Integer.MIN_VALUE));
+        assertEquals(Long.MAX_VALUE, roundTrip(registry, Long.class, Long.MAX_VALUE));
+        assertEquals(5.04f, roundTrip(registry, Float.class, 5.04f));
+        assertEquals(Math.PI, roundTrip(registry, Double.class, Math.PI));
+        assertArrayEquals(new byte[] { 0, 1, (byte) 0xFF }, roundTrip(registry, byte[].class, new byte[] { 0, 1, (byte) 0xFF }));
+    }
+
+    @Test
+    public void primitivesShareTheBoxedCodecs() {
+        var registry = new CodecRegistry();
+        assertSame(registry.getCodec(Integer.class), registry.getCodec(int.class));
+        assertSame(registry.getCodec(Double.class), registry.getCodec(double.class));
+        assertEquals(4, registry.getCodec(int.class).encode(5).length);
+    }
+
+    @Test
+    public void fixedWidthCodecsRejectOtherLengths() {
+        assertThrows(IllegalArgumentException.class, () -> Codecs.LONG.decode(new byte[4]));
+    }
+
+    @Test
+    public void avroRecordsGetACodec() {
+        var registry = new CodecRegistry();
+        var codec = registry.getCodec(TestRecord.class);
+        assertSame(codec, registry.getCodec(TestRecord.class));
+
+        var record = codec.decode(codec.encode(new TestRecord("some-name", 42)));
+        assertEquals("some-name", record.getName());
+        assertEquals(42, record.getCount());
+    }
+
+    @Test
+    public void classesWithoutACodecHaveNone() {
+        assertNull(new CodecRegistry().getCodec(Map.class));
+    }
+
+    @Test
+    public void registeredCodecsReplaceBuiltIns() {
+        var registry = new CodecRegistry()
+            .register(String.class, Codec.of(value -> value.getBytes(StandardCharsets.UTF_16BE), bytes -> new String(bytes, StandardCharsets.UTF_16BE)));
+        assertEquals(4, registry.getCodec(String.class).encode("ab").length);
+        assertEquals("ab", roundTrip(registry, String.class, "ab"));
+    }
+
+    private static <T> T roundTrip(CodecRegistry registry, Class<T> cls, T value) {
+        var codec = registry.getCodec(cls);
+        return codec.decode(codec.encode(value));
+    }
+}
@@ -1,28 +1,45 @@
 package io.hnsn.kaukus.persistence;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.security.InvalidParameterException;
 import java.text.MessageFormat;
-import java.util.Base64;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.jupiter.api.Test;
 
-import io.hnsn.kaukus.persistence.serialization.Base64Deserializer;
+import io.hnsn.kaukus.persistence.serialization.Codec;
+import io.hnsn.kaukus.persistence.serialization.CodecRegistry;
+import io.hnsn.kaukus.persistence.serialization.Codecs;
+
 
 public class LSMTreeTests {
     @Test
@@ -124,21 +141,11 @@ public class LSMTreeTests {
             lsmTree.remove("some-other-key2");
             lsmTree.put("some-other-key3", "a new value 3");
 
-            var decoder = Base64.getDecoder();
-            var lines = Files.lines(filePath).map(line -> {
-                var tokens = line.split(":");
-                var key = new String(decoder.decode(tokens[0]));
-                var isTombstone = tokens.length == 1;
-                try {
-                    var value = isTombstone
-                        ? SSTableResult.TOMBSTONE
-                        : new SSTableResult(new Base64Deserializer(new ByteArrayInputStream(tokens[1].getBytes())).read());
-                    return new Object[] { key, isTombstone, value };
-                } catch (IOException e) {
-                    // TODO Auto-generated catch block
-                    throw new RuntimeException(e);
-                }
-            }).collect(Collectors.toList()).toArray(new Object[0][]);
+            var records = new ArrayList<Object[]>();
+            WriteAheadLog.replay(filePath, (sequence, key, value, expiresAt) -> records.add(new Object[] {
+                key, value == null, value == null ? SSTableResult.TOMBSTONE : new SSTableResult(value)
+            }));
+            var lines = records.toArray(new Object[0][]);
 
             assertEquals("some-other-key", lines[0][0]);
             assertFalse((boolean) lines[0][1]);
@@ -288,4 +295,1073 @@ public class LSMTreeTests {
             assertEquals("value", map.get("key"));
         }
     }
+
+    @Test
+    public void putsObjectsWithCodecs() throws IOException, ClassNotFoundException {
+        var configuration = LSMTreeConfiguration.builder()
+            .codecRegistry(new CodecRegistry().register(Instant.class, Codec.of(value -> Codecs.LONG.encode(value.toEpochMilli()), bytes -> Instant.ofEpochMilli(Codecs.LONG.decode(bytes)))))
+            .build();
+        var tempDirectory = Files.createTempDirectory(null);
+        var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration);
+        lsmTree.put("some-long-value", 5L);
+        lsmTree.put("some-record-value", new TestRecord("some-name", 42));
+        lsmTree.put("some-instant-value", Instant.ofEpochMilli(1234));
+        lsmTree.put("some-map-value", Map.of("key", "value"));
+        lsmTree.close();
+
+        lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration);
+        assertEquals(1 + Long.BYTES, lsmTree.get("some-long-value".getBytes(StandardCharsets.UTF_8)).length);
+        assertEquals(5L, lsmTree.get("some-long-value", long.class));
+        var record = lsmTree.get("some-record-value", TestRecord.class);
+        assertEquals("some-name", record.getName());
+        assertEquals(42, record.getCount());
+        assertEquals(Instant.ofEpochMilli(1234), lsmTree.get("some-instant-value", Instant.class));
+        assertEquals("value", lsmTree.get("some-map-value", Map.class).get("key"));
+
+        // Codec values must be read as a class with a codec
+        final var tree = lsmTree;
+        assertThrows(IllegalArgumentException.class, () -> tree.get("some-long-value", Number.class));
+
+        // Text values are never decoded with a codec, whatever they start with
+        lsmTree.put("some-text-value", "\u0001some-tex");
+        assertThrows(RuntimeException.class, () -> tree.get("some-text-value", Instant.class));
+        lsmTree.close();
+    }
+
+    @Test
+    public void canCompactMappedSegments() throws IOException {
+        var configuration = LSMTreeConfiguration.builder()
+            .sstableConfiguration(SSTableConfiguration.builder().blockSize(64).readMode(SSTableReadMode.MAPPED).build())
+            .build();
+        var tempDirectory = Files.createTempDirectory(null);
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration)) {
+            for (var i = 0; i < 20; i++) lsmTree.put(MessageFormat.format("some-key-{0}", i), "older value");
+            lsmTree.flush();
+            for (var i = 0; i < 10; i++) lsmTree.put(MessageFormat.format("some-key-{0}", i), "newer value");
+            lsmTree.remove("some-key-19");
+            lsmTree.flush();
+
+            // Map both segments before they're replaced and deleted
+            assertEquals("newer value", lsmTree.get("some-key-0"));
+            assertEquals("older value", lsmTree.get("some-key-10"));
+            lsmTree.compact();
+
+            for (var i = 0; i < 19; i++) {
+                assertEquals(i < 10 ? "newer value" : "older value", lsmTree.get(MessageFormat.format("some-key-{0}", i)));
+            }
+            assertNull(lsmTree.get("some-key-19"));
+        }
+    }
+
+    @Test
+    public void newestSegmentWinsPastTenSegments() throws IOException {
+        var tempDirectory = Files.createTempDirectory(null);
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"))) {
+            for (var i = 0; i < 12; i++) {
+                lsmTree.put("some-key", MessageFormat.format("some-value-{0}", i));
+                lsmTree.put(MessageFormat.format("some-key-{0}", i), "some-value");
+                lsmTree.flush();
+            }
+
+            assertEquals("some-value-11", lsmTree.get("some-key"));
+            for (var i = 0; i < 12; i++) {
+                assertEquals("some-value", lsmTree.get(MessageFormat.format("some-key-{0}", i)));
+                assertTrue(Files.exists(tempDirectory.resolve(MessageFormat.format("test.{0}", i))));
+            }
+        }
+    }
+
+    @Test
+    public void compactsAllSegmentsIntoOne() throws IOException {
+        var tempDirectory = Files.createTempDirectory(null);
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"))) {
+            for (var i = 0; i < 12; i++) {
+                lsmTree.put("some-key", MessageFormat.format("some-value-{0}", i));
+                lsmTree.put(MessageFormat.format("some-key-{0}", i), "some-value");
+                if (i == 5) lsmTree.remove("some-key-0");
+                lsmTree.flush();
+            }
+
+            lsmTree.compact();
+
+            assertEquals("some-value-11", lsmTree.get("some-key"));
+            assertNull(lsmTree.get("some-key-0"));
+            for (var i = 1; i < 12; i++) assertEquals("some-value", lsmTree.get(MessageFormat.format("some-key-{0}", i)));
+            // The merged segment replaces every input
+            assertTrue(Files.exists(tempDirectory.resolve("test.12")));
+            for (var i = 0; i < 12; i++) assertFalse(Files.exists(tempDirectory.resolve(MessageFormat.format("test.{0}", i))));
+        }
+
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"))) {
+            assertEquals("some-value-11", lsmTree.get("some-key"));
+            assertNull(lsmTree.get("some-key-0"));
+        }
+    }
+
+    @Test
+    public void compactsIntoLevels() throws IOException, InterruptedException, ExecutionException {
+        var tempDirectory = Files.createTempDirectory(null);
+        var flushExecutor = Executors.newSingleThreadScheduledExecutor();
+        var configuration = LSMTreeConfiguration.builder()
+            .sstableConfiguration(SSTableConfiguration.builder().blockSize(256).build())
+            .compactionStyle(CompactionStyle.LEVELED)
+            .level0CompactionTrigger(2)
+            .levelBaseSize(4 * 1024)
+            .levelSizeMultiplier(4)
+            .targetSegmentSize(1024)
+            .flushExecutor(flushExecutor)
+            .build();
+
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration)) {
+            for (var round = 0; round < 20; round++) {
+                for (var i = round; i < 1000; i += 7) {
+                    lsmTree.put(MessageFormat.format("some-key-{0,number,0000}", i), MessageFormat.format("some-value-{0}", round));
+                }
+                lsmTree.remove(MessageFormat.format("some-key-{0,number,0000}", round * 3));
+                lsmTree.flush();
+            }
+            // Wait out the background compactions
+            flushExecutor.submit(() -> { }).get();
+
+            var manifest = Manifest.read(tempDirectory.resolve("test.manifest"), index -> null);
+            assertTrue(manifest.getLevelCount() > 2);
+            assertTrue(manifest.getLevel(0).size() < 2);
+            for (var level = 1; level < manifest.getLevelCount(); level++) {
+                var segments = manifest.getLevel(level);
+                for (var i = 1; i < segments.size(); i++) {
+                    assertTrue(SSTableFormat.compareKeys(segments.get(i - 1).getLargestKey(), segments.get(i).getSmallestKey()) < 0);
+                }
+            }
+
+            assertLeveledValues(lsmTree);
+        }
+
+        // The layout is read back from the manifest
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration)) {
+            assertLeveledValues(lsmTree);
+        } finally {
+            flushExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void compactsSizeTiersInBackground() throws IOException, InterruptedException {
+        var compactionExecutor = Executors.newFixedThreadPool(2);
+        var configuration = LSMTreeConfiguration.builder()
+            .compactionStyle(CompactionStyle.SIZE_TIERED)
+            .sizeTieredMinSegmentSize(16 * 1024)
+            .sizeTieredThresholds(List.of(3))
+            .compactionExecutor(compactionExecutor)
+            .build();
+
+        // Trees share the executor
+        var tempDirectories = List.of(Files.createTempDirectory(null), Files.createTempDirectory(null));
+        var lsmTrees = new ArrayList<LSMTree>();
+        for (var tempDirectory : tempDirectories) lsmTrees.add(LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration));
+
+        for (var round = 0; round < 9; round++) {
+            for (var lsmTree : lsmTrees) {
+                lsmTree.put("some-key", MessageFormat.format("some-value-{0}", round));
+                lsmTree.put(MessageFormat.format("some-key-{0}", round), "some-value");
+                lsmTree.flush();
+            }
+        }
+
+        for (var i = 0; i < 100; i++) {
+            var isCompacted = true;
+            for (var tempDirectory : tempDirectories) {
+                isCompacted &= Manifest.read(tempDirectory.resolve("test.manifest"), index -> null).getLevel(0).size() < 3;
+            }
+            if (isCompacted) break;
+            Thread.sleep(50);
+        }
+
+        for (var t = 0; t < lsmTrees.size(); t++) {
+            var lsmTree = lsmTrees.get(t);
+            assertTrue(Manifest.read(tempDirectories.get(t).resolve("test.manifest"), index -> null).getLevel(0).size() < 3);
+            assertEquals("some-value-8", lsmTree.get("some-key"));
+            for (var round = 0; round < 9; round++) assertEquals("some-value", lsmTree.get(MessageFormat.format("some-key-{0}", round)));
+            lsmTree.close();
+        }
+
+        compactionExecutor.shutdown();
+    }
+
+    @Test
+    public void compactsTombstoneHeavySegments() throws IOException, InterruptedException {
+        var compactionExecutor = Executors.newSingleThreadExecutor();
+        var configuration = LSMTreeConfiguration.builder()
+            .compactionStyle(CompactionStyle.SIZE_TIERED)
+            // No tier is ever merged for its size
+            .sizeTieredThresholds(List.of(100))
+            .tombstoneCompactionRatio(0.5)
+            .tombstoneCompactionMinCount(10)
+            .compactionExecutor(compactionExecutor)
+            .build();
+
+        var tempDirectory = Files.createTempDirectory(null);
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration)) {
+            for (var i = 0; i < 20; i++) lsmTree.put(MessageFormat.format("some-key-{0,number,00}", i), "some-value");
+            lsmTree.flush();
+
+            var snapshot = lsmTree.snapshot();
+            for (var i = 0; i < 15; i++) lsmTree.remove(MessageFormat.format("some-key-{0,number,00}", i));
+            for (var i = 20; i < 25; i++) lsmTree.put(MessageFormat.format("some-key-{0,number,00}", i), "some-value");
+            lsmTree.flush();
+
+            for (var i = 0; i < 100 && Manifest.read(tempDirectory.resolve("test.manifest"), index -> null).getLevel(0).size() > 1; i++) {
+                Thread.sleep(50);
+            }
+
+            // Merged with the older segment, nothing is left for the tombstones to shadow
+            var entries = new ArrayList<SSTable.Entry>();
+            try (var iterator = SSTable.iterate(tempDirectory.resolve("test.2"))) {
+                while (iterator.hasNext()) entries.add(iterator.next());
+            }
+            assertEquals(10, entries.size());
+            for (var entry : entries) assertFalse(entry.isTombstone);
+            assertNull(lsmTree.get("some-key-00"));
+            assertEquals("some-value", lsmTree.get("some-key-24"));
+
+            // The snapshot still reads the compacted segments
+            assertEquals("some-value", snapshot.get("some-key-00"));
+            snapshot.close();
+        } finally {
+            compactionExecutor.shutdown();
+        }
+    }
+
+    private static void assertLeveledValues(LSMTree lsmTree) {
+        for (var i = 0; i < 1000; i++) {
+            var key = MessageFormat.format("some-key-{0,number,0000}", i);
+            var lastRound = -1;
+            for (var round = 0; round < 20; round++) {
+                if (i >= round && (i - round) % 7 == 0) lastRound = round;
+                if (i == round * 3) lastRound = -1;
+            }
+            assertEquals(lastRound < 0 ? null : MessageFormat.format("some-value-{0}", lastRound), lsmTree.get(key));
+        }
+    }
+
+    @Test
+    public void flushesWhenMemtableIsFull() throws IOException, InterruptedException {
+        var tempDirectory = Files.createTempDirectory(null);
+        var configuration = LSMTreeConfiguration.builder().memtableFlushSize(1024).build();
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration)) {
+            for (var i = 0; i < 100; i++) {
+                lsmTree.put(MessageFormat.format("some-key-{0}", i), MessageFormat.format("some-value-{0}", i));
+            }
+
+            // Every write stays readable while its memtable is frozen and flushed
+            for (var i = 0; i < 100; i++) {
+                assertEquals(MessageFormat.format("some-value-{0}", i), lsmTree.get(MessageFormat.format("some-key-{0}", i)));
+            }
+
+            var deadline = System.currentTimeMillis() + 10000;
+            while (!Files.exists(tempDirectory.resolve("test.0")) && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            assertTrue(Files.exists(tempDirectory.resolve("test.0")));
+        }
+    }
+
+    @Test
+    public void flushesWhenMemtableExpires() throws IOException, InterruptedException {
+        var tempDirectory = Files.createTempDirectory(null);
+        var configuration = LSMTreeConfiguration.builder().memtableMaxAgeInMilliseconds(50).build();
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration)) {
+            lsmTree.put("some-key", "some-value");
+
+            var deadline = System.currentTimeMillis() + 10000;
+            while (!Files.exists(tempDirectory.resolve("test.0")) && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            assertTrue(Files.exists(tempDirectory.resolve("test.0")));
+            assertFalse(Files.exists(tempDirectory.resolve("test")));
+            assertEquals("some-value", lsmTree.get("some-key"));
+        }
+    }
+
+    @Test
+    public void recoversFrozenWal() throws URISyntaxException, IOException {
+        var walResource = Paths.get(getClass().getClassLoader().getResource("SSTableWalFileTest").toURI());
+        var tempDirectory = Files.createTempDirectory(null);
+        // A memtable frozen into segment 1 that was never written, followed by newer writes
+        Files.copy(walResource, tempDirectory.resolve("test.1.wal"));
+        Files.writeString(tempDirectory.resolve("test"), "c29tZS1vdGhlci1rZXk=:bmV3ZXN0\n");
+
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"))) {
+            assertEquals("newest", lsmTree.get("some-other-key"));
+            assertNull(lsmTree.get("some-other-key2"));
+            assertEquals("a new value 3", lsmTree.get("some-other-key3"));
+
+            lsmTree.flush();
+            assertFalse(Files.exists(tempDirectory.resolve("test.1.wal")));
+            assertTrue(Files.exists(tempDirectory.resolve("test.1")));
+            assertTrue(Files.exists(tempDirectory.resolve("test.2")));
+            assertEquals("newest", lsmTree.get("some-other-key"));
+        }
+    }
+
+    @Test
+    public void walHoldsConcurrentWrites() throws IOException, InterruptedException {
+        var tempDirectory = Files.createTempDirectory(null);
+        var configuration = LSMTreeConfiguration.builder().walDurability(WalDurability.SYNC).build();
+
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration)) {
+            var threads = new ArrayList<Thread>();
+            for (var t = 0; t < 4; t++) {
+                var thread = t;
+                threads.add(new Thread(() -> {
+                    for (var i = 0; i < 100; i++) lsmTree.put("some-key-" + thread + "-" + i, "some-value-" + i);
+                }));
+            }
+            for (var thread : threads) thread.start();
+            for (var thread : threads) thread.join();
+
+            // Replay a copy of the live WAL as if the process had died
+            var copyDirectory = Files.createTempDirectory(null);
+            Files.copy(tempDirectory.resolve("test"), copyDirectory.resolve("test"));
+            try (var recovered = LSMTree.openOrCreate(copyDirectory.resolve("test"))) {
+                for (var t = 0; t < 4; t++) {
+                    for (var i = 0; i < 100; i++) assertEquals("some-value-" + i, recovered.get("some-key-" + t + "-" + i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void readsDuringBackgroundCompactions() throws IOException, InterruptedException {
+        var tempDirectory = Files.createTempDirectory(null);
+        var configuration = LSMTreeConfiguration.builder()
+            .memtableFlushSize(1024)
+            .compactionStyle(CompactionStyle.LEVELED)
+            .level0CompactionTrigger(2)
+            .build();
+
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration)) {
+            var written = new AtomicLong(-1);
+            var errors = new ConcurrentLinkedQueue<Throwable>();
+            var readers = new ArrayList<Thread>();
+            for (var t = 0; t < 4; t++) {
+                readers.add(new Thread(() -> {
+                    var random = new Random();
+                    while (written.get() < 3000) {
+                        var last = written.get();
+                        if (last < 0) continue;
+                        var i = random.nextInt((int) last + 1);
+                        try {
+                            assertEquals("some-value-" + i, lsmTree.get(MessageFormat.format("some-key-{0,number,0000}", i)));
+                        } catch (Throwable e) {
+                            errors.add(e);
+                        }
+                    }
+                }));
+            }
+            for (var reader : readers) reader.start();
+            for (var i = 0; i <= 3000; i++) {
+                lsmTree.put(MessageFormat.format("some-key-{0,number,0000}", i), "some-value-" + i);
+                written.set(i);
+            }
+            for (var reader : readers) reader.join();
+
+            // Segments compacted away mid lookup are only deleted once the lookup is done
+            assertEquals(List.of(), List.copyOf(errors));
+        }
+    }
+
+    @Test
+    public void rejectsWritesRacingClose() throws IOException, InterruptedException {
+        var tempDirectory = Files.createTempDirectory(null);
+        var configuration = LSMTreeConfiguration.builder()
+            .memtableStorage(MemtableStorage.OFF_HEAP)
+            .memtableArenaChunkSize(256)
+            .memtableFlushSize(4096)
+            .build();
+        var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration);
+
+        var acknowledged = new ConcurrentLinkedQueue<String>();
+        var errors = new ConcurrentLinkedQueue<Throwable>();
+        var started = new CountDownLatch(4);
+        var writers = new ArrayList<Thread>();
+        for (var t = 0; t < 4; t++) {
+            var writer = t;
+            writers.add(new Thread(() -> {
+                started.countDown();
+                for (var i = 0; ; i++) {
+                    var key = MessageFormat.format("some-key-{0}-{1}", writer, i);
+                    try {
+                        lsmTree.put(key, "some-value-" + i);
+                    } catch (IllegalStateException e) {
+                        return;
+                    } catch (Throwable e) {
+                        errors.add(e);
+                        return;
+                    }
+                    acknowledged.add(key);
+                }
+            }));
+        }
+        for (var writer : writers) writer.start();
+        started.await();
+        Thread.sleep(50);
+        lsmTree.close();
+        for (var writer : writers) writer.join();
+
+        // Writes either finished before the memtables were freed or were rejected
+        assertEquals(List.of(), List.copyOf(errors));
+        try (var reopened = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration)) {
+            for (var key : acknowledged) assertNotNull(reopened.get(key), key);
+        }
+    }
+
+    @Test
+    public void recoversFromTornWal() throws IOException {
+        var tempDirectory = Files.createTempDirectory(null);
+        var filePath = tempDirectory.resolve("test");
+        try (var wal = WriteAheadLog.open(filePath, WalDurability.BUFFERED, 0, new AtomicLong())) {
+            wal.put("some-key", "some-value");
+            wal.put("some-empty-key", "");
+        }
+        // A write interrupted by a crash
+        Files.write(filePath, new byte[] { 0, 0, 0, 42, 1, 2, 3 }, StandardOpenOption.APPEND);
+
+        var lsmTree = LSMTree.openOrCreate(filePath);
+        assertEquals("some-value", lsmTree.get("some-key"));
+        assertEquals("", lsmTree.get("some-empty-key"));
+        lsmTree.put("some-other-key", "some-other-value");
+
+        // The torn record was cut off so the new write is replayed too
+        var copyDirectory = Files.createTempDirectory(null);
+        Files.copy(filePath, copyDirectory.resolve("test"));
+        try (var recovered = LSMTree.openOrCreate(copyDirectory.resolve("test"))) {
+            assertEquals("some-value", recovered.get("some-key"));
+            assertEquals("some-other-value", recovered.get("some-other-key"));
+        }
+        lsmTree.close();
+    }
+
+    private static List<String> scanKeys(LSMTreeIterator iterator) throws IOException {
+        var keys = new ArrayList<String>();
+        try (iterator) {
+            while (iterator.hasNext()) {
+                var entry = iterator.next();
+                assertEquals(entry.getKey().replace("key", "value"), entry.getValue());
+                keys.add(entry.getKey());
+            }
+        }
+        return keys;
+    }
+
+    @Test
+    public void scansMemtableAndSegments() throws IOException {
+        var tempDirectory = Files.createTempDirectory(null);
+        var configuration = LSMTreeConfiguration.builder()
+            .sstableConfiguration(SSTableConfiguration.builder().blockSize(64).build())
+            .build();
+        var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration);
+
+        // Spread the keys and their overwrites and deletes over segments and the memtable
+        for (var i = 0; i < 100; i++) lsmTree.put(MessageFormat.format("some-key-{0,number,000}", i), "stale");
+        lsmTree.flush();
+        for (var i = 0; i < 100; i++) lsmTree.put(MessageFormat.format("some-key-{0,number,000}", i), MessageFormat.format("some-value-{0,number,000}", i));
+        lsmTree.flush();
+        for (var i = 0; i < 100; i += 10) lsmTree.remove(MessageFormat.format("some-key-{0,number,000}", i));
+        lsmTree.put("some-key-100", "some-value-100");
+        lsmTree.put("some-other-key", "some-other-value");
+
+        var expected = new ArrayList<String>();
+        for (var i = 0; i <= 100; i++) {
+            if (i % 10 != 0 || i == 100) expected.add(MessageFormat.format("some-key-{0,number,000}", i));
+        }
+
+        assertEquals(expected, scanKeys(lsmTree.prefix("some-key-")));
+        assertEquals(expected.subList(5, 16), scanKeys(lsmTree.scan("some-key-006", "some-key-018")));
+        assertEquals(List.of("some-key-099", "some-key-098", "some-key-097"), scanKeys(lsmTree.scan("some-key-050", "some-key-100", true, 3)));
+        assertEquals(List.of("some-key-100", "some-key-099"), scanKeys(lsmTree.prefix("some-key-", true, 2)));
+        assertEquals(List.of("some-key-001", "some-key-002"), scanKeys(lsmTree.scan(null, null, false, 2)));
+        assertEquals(List.of("some-other-key"), scanKeys(lsmTree.scan("some-key-101", null)));
+        assertEquals(List.of(), scanKeys(lsmTree.prefix("some-missing-")));
+        assertEquals(expected.size() + 1, scanKeys(lsmTree.scan(null, null, true, 0)).size());
+
+        // Unaffected by a compaction replacing the segments mid scan
+        try (var iterator = lsmTree.prefix("some-key-")) {
+            assertEquals("some-key-001", iterator.next().getKey());
+            lsmTree.compact();
+            var count = 1;
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+            assertEquals(expected.size(), count);
+        }
+        assertEquals(expected, scanKeys(lsmTree.prefix("some-key-")));
+
+        lsmTree.close();
+    }
+
+    @Test
+    public void scansPrefixesOfAnyCodePoint() throws IOException {
+        var tempDirectory = Files.createTempDirectory(null);
+        var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"));
+        for (var key : List.of("\uD83D\uDE00-key-1", "\uD83D\uDE00-key-2", "\uD83D\uDE01-key-1", "\uFFFF-key-1", "\uDBFF\uDFFF-key-1")) {
+            lsmTree.put(key, key.replace("key", "value"));
+        }
+        lsmTree.flush();
+
+        assertEquals(List.of("\uD83D\uDE00-key-1", "\uD83D\uDE00-key-2"), scanKeys(lsmTree.prefix("\uD83D\uDE00")));
+        assertEquals(List.of("\uFFFF-key-1"), scanKeys(lsmTree.prefix("\uFFFF")));
+        assertEquals(List.of("\uDBFF\uDFFF-key-1"), scanKeys(lsmTree.prefix("\uDBFF\uDFFF-")));
+        assertEquals(5, scanKeys(lsmTree.prefix("")).size());
+        lsmTree.close();
+    }
+
+    @Test
+    public void storesBinaryKeysAndValues() throws IOException {
+        var tempDirectory = Files.createTempDirectory(null);
+        var keys = List.of(new byte[] { 0x00 }, new byte[] { 0x7F, (byte) 0xFF }, new byte[] { (byte) 0x80 }, new byte[] { (byte) 0xFF, 0x00 }, new byte[] { (byte) 0xFF, (byte) 0xFF });
+        var value = new byte[256];
+        for (var i = 0; i < value.length; i++) value[i] = (byte) i;
+
+        var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"));
+        for (var key : keys) lsmTree.put(key, value);
+        lsmTree.put(ByteBuffer.wrap("some-text-key".getBytes(StandardCharsets.UTF_8)), ByteBuffer.wrap(value, 1, 2));
+        lsmTree.flush();
+        lsmTree.put(new byte[] { (byte) 0xFF, 0x01 }, new byte[0]);
+        lsmTree.remove(new byte[] { (byte) 0x80 });
+        lsmTree.close();
+
+        // Reopened so reads go through the WAL, segments and manifest
+        lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"));
+        assertArrayEquals(value, lsmTree.get(new byte[] { 0x00 }));
+        assertArrayEquals(new byte[] { 1, 2 }, lsmTree.get("some-text-key".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("\u0001\u0002", lsmTree.get("some-text-key"));
+        assertArrayEquals(new byte[0], lsmTree.get(new byte[] { (byte) 0xFF, 0x01 }));
+        assertFalse(lsmTree.containsKey(new byte[] { (byte) 0x80 }));
+
+        // Unsigned byte order; bytes from 0x80 sort after every ASCII key
+        var scanned = new ArrayList<byte[]>();
+        try (var iterator = lsmTree.scanBytes(null, null)) {
+            while (iterator.hasNext()) scanned.add(iterator.next().getKey());
+        }
+        assertEquals(List.of("00", "736f6d652d746578742d6b6579", "7fff", "ff00", "ff01", "ffff"), scanned.stream().map(LSMTreeTests::hex).toList());
+
+        var prefixed = new ArrayList<String>();
+        try (var iterator = lsmTree.prefixBytes(new byte[] { (byte) 0xFF }, true, 0)) {
+            while (iterator.hasNext()) prefixed.add(hex(iterator.next().getKey()));
+        }
+        assertEquals(List.of("ffff", "ff01", "ff00"), prefixed);
+        lsmTree.compact();
+        assertEquals(1, count(lsmTree.prefixBytes(new byte[] { (byte) 0xFF, 0x00 })));
+        assertEquals(2, count(lsmTree.scanBytes(new byte[] { 0x01 }, new byte[] { (byte) 0x80 })));
+        lsmTree.close();
+    }
+
+    private static String hex(byte[] bytes) {
+        var hex = new StringBuilder();
+        for (var b : bytes) hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+
+    private static int count(LSMTreeBytesIterator iterator) throws IOException {
+        var count = 0;
+        try (iterator) {
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void readsLegacyObjectValues() throws IOException, ClassNotFoundException {
+        var tempDirectory = Files.createTempDirectory(null);
+        var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"));
+        lsmTree.put("some-int-value", 5);
+
+        // Objects were stored as their serialized bytes read as ISO-8859-1 text
+        var serialized = new ByteArrayOutputStream();
+        try (var objectStream = new ObjectOutputStream(serialized)) {
+            objectStream.writeObject(7);
+        }
+        lsmTree.put("some-legacy-int-value", new String(serialized.toByteArray(), StandardCharsets.ISO_8859_1));
+        lsmTree.flush();
+
+        assertEquals(5, lsmTree.get("some-int-value", Integer.class));
+        assertEquals(7, lsmTree.get("some-legacy-int-value", Integer.class));
+        lsmTree.close();
+    }
+
+    @Test
+    public void snapshotsReadPointInTime() throws IOException {
+        var tempDirectory = Files.createTempDirectory(null);
+        var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"));
+        lsmTree.put("some-key-1", "some-value-1");
+        lsmTree.put("some-key-2", "some-value-2");
+        lsmTree.flush();
+        lsmTree.put("some-key-3", "some-value-3");
+
+        try (var snapshot = lsmTree.snapshot()) {
+            lsmTree.put("some-key-1", "some-other-value-1");
+            lsmTree.remove("some-key-3");
+            lsmTree.put("some-key-4", "some-value-4");
+            lsmTree.flush();
+            lsmTree.compact();
+            lsmTree.put("some-key-2", "some-other-value-2");
+
+            assertEquals("some-value-1", snapshot.get("some-key-1"));
+            assertEquals("some-value-2", snapshot.get("some-key-2"));
+            assertEquals("some-value-3", snapshot.get("some-key-3"));
+            assertNull(snapshot.get("some-key-4"));
+            assertFalse(snapshot.containsKey("some-key-4"));
+            assertEquals(List.of("some-key-1", "some-key-2", "some-key-3"), scanKeys(snapshot.prefix("some-key-")));
+
+            assertEquals("some-other-value-1", lsmTree.get("some-key-1"));
+            assertEquals("some-other-value-2", lsmTree.get("some-key-2"));
+            assertNull(lsmTree.get("some-key-3"));
+        }
+
+        lsmTree.close();
+    }
+
+    @Test
+    public void offHeapMemtablesFlushAndServeSnapshots() throws IOException {
+        var configuration = LSMTreeConfiguration.builder()
+            .memtableStorage(MemtableStorage.OFF_HEAP)
+            .memtableArenaChunkSize(256)
+            .memtableFlushSize(1024)
+            .build();
+        var tempDirectory = Files.createTempDirectory(null);
+        var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration);
+        lsmTree.put("some-key-a", "some-value-a");
+        lsmTree.put(new byte[] { (byte) 0xFF }, new byte[] { 0 });
+
+        try (var snapshot = lsmTree.snapshot()) {
+            // Fill several memtables, each flushed and freed in the background
+            for (var i = 0; i < 200; i++) lsmTree.put(MessageFormat.format("some-key-{0}", i), "some-value-" + i);
+            lsmTree.put("some-key-a", "some-other-value-a");
+            lsmTree.flush();
+
+            // The snapshot's memtable stays readable until it's closed
+            assertEquals("some-value-a", snapshot.get("some-key-a"));
+            assertArrayEquals(new byte[] { 0 }, snapshot.get(new byte[] { (byte) 0xFF }));
+            assertEquals(List.of("some-key-a"), scanKeys(snapshot.prefix("some-key-")));
+        }
+
+        assertEquals("some-other-value-a", lsmTree.get("some-key-a"));
+        assertEquals("some-value-199", lsmTree.get("some-key-199"));
+        lsmTree.put("some-key-b", "some-value-b");
+        lsmTree.close();
+
+        lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration);
+        assertEquals("some-value-b", lsmTree.get("some-key-b"));
+        assertEquals("some-other-value-a", lsmTree.get("some-key-a"));
+        // some-key-1, some-key-10 to 19 and some-key-100 to 199
+        assertEquals(111, scanKeys(lsmTree.prefix("some-key-1")).size());
+        lsmTree.close();
+    }
+
+    @Test
+    public void snapshotsKeepCompactedSegments() throws IOException {
+        var tempDirectory = Files.createTempDirectory(null);
+        var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"));
+        lsmTree.put("some-key", "some-value");
+        lsmTree.flush();
+        lsmTree.put("some-other-key", "some-other-value");
+        lsmTree.flush();
+
+        var snapshot = lsmTree.snapshot();
+        lsmTree.remove("some-key");
+        lsmTree.flush();
+        lsmTree.compact();
+
+        // The compacted inputs stay on disk while the snapshot reads them
+        assertTrue(Files.exists(tempDirectory.resolve("test.0")));
+        assertTrue(Files.exists(tempDirectory.resolve("test.1")));
+        assertEquals("some-value", snapshot.get("some-key"));
+        assertNull(lsmTree.get("some-key"));
+
+        snapshot.close();
+        assertFalse(Files.exists(tempDirectory.resolve("test.0")));
+        assertFalse(Files.exists(tempDirectory.resolve("test.1")));
+        assertEquals("some-other-value", lsmTree.get("some-other-key"));
+        lsmTree.close();
+    }
+
+    @Test
+    public void writesBatches() throws IOException {
+        var tempDirectory = Files.createTempDirectory(null);
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"))) {
+            lsmTree.put("some-key", "some-value");
+            lsmTree.write(new WriteBatch()
+                .put("some-batch-key-1", "some-stale-value")
+                .put("some-batch-key-2", "some-batch-value-2")
+                .remove("some-key")
+                .put("some-batch-key-1", "some-batch-value-1"));
+            lsmTree.write(new WriteBatch());
+
+            assertNull(lsmTree.get("some-key"));
+            assertEquals("some-batch-value-1", lsmTree.get("some-batch-key-1"));
+            assertEquals("some-batch-value-2", lsmTree.get("some-batch-key-2"));
+        }
+
+        // Recovered from the WAL
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"))) {
+            assertNull(lsmTree.get("some-key"));
+            assertEquals("some-batch-value-1", lsmTree.get("some-batch-key-1"));
+            assertEquals("some-batch-value-2", lsmTree.get("some-batch-key-2"));
+        }
+
+        assertThrows(InvalidParameterException.class, () -> new WriteBatch().put("some-key", null));
+        assertThrows(InvalidParameterException.class, () -> new WriteBatch().remove(""));
+    }
+
+    @Test
+    public void writesAsyncWritesInBatches() throws IOException {
+        // Holds tasks until they're run by hand
+        var tasks = new ArrayList<Runnable>();
+        var configuration = LSMTreeConfiguration.builder().ioExecutor(tasks::add).ioQueueSize(3).build();
+        var tempDirectory = Files.createTempDirectory(null);
+        var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration);
+
+        var writes = List.of(
+            lsmTree.putAsync("some-key", "some-value"),
+            lsmTree.putAsync("some-other-key", "some-other-value"),
+            lsmTree.removeAsync("some-key"));
+        var rejected = lsmTree.putAsync("some-rejected-key", "some-value");
+
+        assertTrue(rejected.isCompletedExceptionally());
+        assertEquals(1, tasks.size());
+        assertFalse(writes.get(0).isDone());
+
+        // One task writes every queued write
+        tasks.remove(0).run();
+        for (var write : writes) assertTrue(write.isDone() && !write.isCompletedExceptionally());
+        assertNull(lsmTree.get("some-key"));
+        assertEquals("some-other-value", lsmTree.get("some-other-key"));
+        assertNull(lsmTree.get("some-rejected-key"));
+
+        var read = lsmTree.getAsync("some-other-key");
+        tasks.remove(0).run();
+        assertEquals("some-other-value", read.join());
+
+        // Queued writes are written on close; reads left queued fail once the tree is closed
+        var pending = lsmTree.putAsync("some-pending-key", "some-pending-value");
+        var pendingRead = lsmTree.getAsync("some-other-key");
+        lsmTree.close();
+        assertTrue(pending.isDone());
+        tasks.forEach(Runnable::run);
+        assertTrue(pendingRead.isCompletedExceptionally());
+        try (var reopened = LSMTree.openOrCreate(tempDirectory.resolve("test"))) {
+            assertEquals("some-pending-value", reopened.get("some-pending-key"));
+        }
+    }
+
+    @Test
+    public void pipelinesAsyncOperations() throws IOException {
+        var tempDirectory = Files.createTempDirectory(null);
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"))) {
+            var writes = new ArrayList<CompletableFuture<Void>>();
+            for (var i = 0; i < 500; i++) writes.add(lsmTree.putAsync(MessageFormat.format("some-key-{0}", i), MessageFormat.format("some-value-{0}", i)));
+            writes.add(lsmTree.removeAsync("some-key-0"));
+            CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new)).join();
+
+            assertNull(lsmTree.getAsync("some-key-0").join());
+            for (var i = 1; i < 500; i++) assertEquals(MessageFormat.format("some-value-{0}", i), lsmTree.getAsync(MessageFormat.format("some-key-{0}", i)).join());
+        }
+    }
+
+    @Test
+    public void finishesQueuedAsyncOperationsOnClose() throws IOException {
+        var tempDirectory = Files.createTempDirectory(null);
+        var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"));
+        var reads = new ArrayList<CompletableFuture<String>>();
+        for (var i = 0; i < 100; i++) lsmTree.put(MessageFormat.format("some-key-{0}", i), MessageFormat.format("some-value-{0}", i));
+        for (var i = 0; i < 100; i++) reads.add(lsmTree.getAsync(MessageFormat.format("some-key-{0}", i)));
+        lsmTree.close();
+
+        // The tree's own executor runs what was queued before its storage is released
+        for (var i = 0; i < 100; i++) {
+            var read = reads.get(i);
+            assertTrue(read.isDone());
+            if (!read.isCompletedExceptionally()) assertEquals(MessageFormat.format("some-value-{0}", i), read.join());
+        }
+    }
+
+    @Test
+    public void expiresValues() throws IOException {
+        var tempDirectory = Files.createTempDirectory(null);
+        var now = System.currentTimeMillis();
+        var later = now + 60 * 60 * 1000;
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"))) {
+            lsmTree.put("some-key", "some-old-value");
+            lsmTree.flush();
+            // Expired values shadow older ones like tombstones
+            lsmTree.put("some-key", "some-value", now - 1000);
+            lsmTree.put("some-expiring-key", "some-expiring-value", later);
+            lsmTree.write(new WriteBatch().put("some-batch-key", "some-batch-value", now - 1000));
+
+            assertNull(lsmTree.get("some-key"));
+            assertFalse(lsmTree.containsKey("some-key"));
+            assertNull(lsmTree.get("some-batch-key"));
+            assertEquals("some-expiring-value", lsmTree.get("some-expiring-key"));
+            assertEquals(List.of("some-expiring-key"), scanKeys(lsmTree.scan(null, null)));
+        }
+
+        // Recovered from the WAL with their expiry
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"))) {
+            assertNull(lsmTree.get("some-key"));
+            assertEquals("some-expiring-value", lsmTree.get("some-expiring-key"));
+
+            lsmTree.flush();
+            assertNull(lsmTree.get("some-key"));
+            assertEquals("some-expiring-value", lsmTree.get("some-expiring-key"));
+
+            // Compacting everything leaves nothing for expired values to shadow
+            lsmTree.compact();
+            assertNull(lsmTree.get("some-key"));
+            assertEquals("some-expiring-value", lsmTree.get("some-expiring-key"));
+        }
+
+        var keys = new ArrayList<String>();
+        try (var entries = SSTable.iterate(tempDirectory.resolve("test.2"))) {
+            while (entries.hasNext()) keys.add(entries.next().key);
+        }
+        assertEquals(List.of("some-expiring-key"), keys);
+    }
+
+    @Test
+    public void deletesRanges() throws IOException {
+        var tempDirectory = Files.createTempDirectory(null);
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"))) {
+            for (var i = 0; i < 10; i++) lsmTree.put(MessageFormat.format("some-key-{0}", i), MessageFormat.format("some-value-{0}", i));
+            lsmTree.flush();
+            lsmTree.put("some-key-3", "some-value-3");
+
+            var snapshot = lsmTree.snapshot();
+            lsmTree.deleteRange("some-key-2", "some-key-5");
+            // Writes after the range delete aren't covered by it
+            lsmTree.put("some-key-4", "some-value-4");
+
+            assertNull(lsmTree.get("some-key-2"));
+            assertNull(lsmTree.get("some-key-3"));
+            assertFalse(lsmTree.containsKey("some-key-2"));
+            assertEquals("some-value-4", lsmTree.get("some-key-4"));
+            assertEquals("some-value-5", lsmTree.get("some-key-5"));
+            assertEquals(List.of("some-key-0", "some-key-1", "some-key-4", "some-key-5"), scanKeys(lsmTree.scan(null, "some-key-6")));
+            assertEquals(List.of("some-key-5", "some-key-4", "some-key-1"), scanKeys(lsmTree.scan(null, "some-key-6", true, 3)));
+
+            assertEquals("some-value-3", snapshot.get("some-key-3"));
+            assertEquals(5, scanKeys(snapshot.scan(null, "some-key-5")).size());
+            snapshot.close();
+
+            // The flushed segment's range tombstone shadows the older segment
+            lsmTree.flush();
+            assertNull(lsmTree.get("some-key-2"));
+            assertEquals("some-value-4", lsmTree.get("some-key-4"));
+            assertEquals(List.of("some-key-0", "some-key-1", "some-key-4", "some-key-5"), scanKeys(lsmTree.scan(null, "some-key-6")));
+
+            lsmTree.write(new WriteBatch().deleteRange("some-key-6", "some-key-8").put("some-key-7", "some-value-7"));
+            lsmTree.deleteRangeAsync("some-key-0", "some-key-1").join();
+        }
+
+        // Recovered from the WAL
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"))) {
+            assertNull(lsmTree.get("some-key-0"));
+            assertNull(lsmTree.get("some-key-6"));
+            assertEquals("some-value-7", lsmTree.get("some-key-7"));
+            assertEquals(List.of("some-key-1", "some-key-4", "some-key-5", "some-key-7", "some-key-8", "some-key-9"), scanKeys(lsmTree.prefix("some-key-")));
+
+            // Compacting everything drops the deleted keys and the range tombstones
+            lsmTree.flush();
+            lsmTree.compact();
+            assertEquals(List.of("some-key-1", "some-key-4", "some-key-5", "some-key-7", "some-key-8", "some-key-9"), scanKeys(lsmTree.prefix("some-key-")));
+        }
+
+        var keys = new ArrayList<String>();
+        try (var entries = SSTable.iterate(tempDirectory.resolve("test.3"))) {
+            while (entries.hasNext()) keys.add(entries.next().key);
+        }
+        assertEquals(List.of("some-key-1", "some-key-4", "some-key-5", "some-key-7", "some-key-8", "some-key-9"), keys);
+        assertEquals(List.of(), SSTable.readRangeTombstones(tempDirectory.resolve("test.3")));
+
+        assertThrows(InvalidParameterException.class, () -> new WriteBatch().deleteRange("some-key-2", "some-key-1"));
+    }
+
+    @Test
+    public void deletesRangesAcrossLevels() throws IOException, InterruptedException, ExecutionException {
+        var tempDirectory = Files.createTempDirectory(null);
+        var flushExecutor = Executors.newSingleThreadScheduledExecutor();
+        var configuration = LSMTreeConfiguration.builder()
+            .sstableConfiguration(SSTableConfiguration.builder().blockSize(256).build())
+            .compactionStyle(CompactionStyle.LEVELED)
+            .level0CompactionTrigger(2)
+            .levelBaseSize(4 * 1024)
+            .levelSizeMultiplier(4)
+            .targetSegmentSize(1024)
+            .flushExecutor(flushExecutor)
+            .build();
+
+        var expected = new String[1000];
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration)) {
+            for (var round = 0; round < 20; round++) {
+                for (var i = round; i < 1000; i += 7) {
+                    lsmTree.put(MessageFormat.format("some-key-{0,number,0000}", i), MessageFormat.format("some-value-{0}", round));
+                    expected[i] = MessageFormat.format("some-value-{0}", round);
+                }
+                var from = round * 47 % 950;
+                lsmTree.deleteRange(MessageFormat.format("some-key-{0,number,0000}", from), MessageFormat.format("some-key-{0,number,0000}", from + 30));
+                for (var i = from; i < from + 30; i++) expected[i] = null;
+                lsmTree.flush();
+            }
+            // Wait out the background compactions
+            flushExecutor.submit(() -> { }).get();
+
+            assertTrue(Manifest.read(tempDirectory.resolve("test.manifest"), index -> null).getLevelCount() > 2);
+            for (var i = 0; i < 1000; i++) assertEquals(expected[i], lsmTree.get(MessageFormat.format("some-key-{0,number,0000}", i)));
+
+            var keys = new ArrayList<String>();
+            try (var iterator = lsmTree.prefix("some-key-")) {
+                while (iterator.hasNext()) keys.add(iterator.next().getKey());
+            }
+            var expectedKeys = new ArrayList<String>();
+            for (var i = 0; i < 1000; i++) if (expected[i] != null) expectedKeys.add(MessageFormat.format("some-key-{0,number,0000}", i));
+            assertEquals(expectedKeys, keys);
+        } finally {
+            flushExecutor.shutdown();
+        }
+    }
+
+    private static List<Path> valueLogFiles(Path directory) throws IOException {
+        var files = new ArrayList<Path>();
+        try (var paths = Files.newDirectoryStream(directory, "test.vlog.*")) {
+            for (var path : paths) files.add(path);
+        }
+        return files;
+    }
+
+    @Test
+    public void separatesLargeValuesIntoTheValueLog() throws IOException {
+        var configuration = LSMTreeConfiguration.builder().valueLogThreshold(64).build();
+        var tempDirectory = Files.createTempDirectory(null);
+        var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration);
+        var largeValue = "some-large-value-".repeat(10);
+        lsmTree.put("some-key", "some-value");
+        lsmTree.put("some-large-key", largeValue);
+        lsmTree.put(new byte[] { (byte) 0xFF }, new byte[100]);
+        lsmTree.flush();
+
+        // Only the large values leave the segment
+        var sstable = new SSTable(tempDirectory.resolve("test.0"), SSTableConfiguration.builder().build());
+        assertNotNull(sstable.tryGetValue("some-large-key").getValuePointer());
+        assertEquals("some-value", sstable.tryGetValue("some-key").getValue());
+        assertEquals(List.of(tempDirectory.resolve("test.vlog.0")), valueLogFiles(tempDirectory));
+
+        assertEquals("some-value", lsmTree.get("some-key"));
+        assertEquals(largeValue, lsmTree.get("some-large-key"));
+        assertArrayEquals(new byte[100], lsmTree.get(new byte[] { (byte) 0xFF }));
+        try (var iterator = lsmTree.scan("some-large-key", "some-larger")) {
+            assertEquals(largeValue, iterator.next().getValue());
+        }
+
+        // Compaction moves the pointers, not the values
+        lsmTree.put("some-other-large-key", largeValue + "-2");
+        lsmTree.remove("some-key");
+        lsmTree.flush();
+        var valueLogSize = Files.size(tempDirectory.resolve("test.vlog.0"));
+        lsmTree.compact();
+        assertEquals(valueLogSize, Files.size(tempDirectory.resolve("test.vlog.0")));
+        assertEquals(largeValue + "-2", lsmTree.get("some-other-large-key"));
+        assertNull(lsmTree.get("some-key"));
+        lsmTree.close();
+
+        lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration);
+        assertEquals(largeValue, lsmTree.get("some-large-key"));
+        assertEquals(largeValue + "-2", lsmTree.get("some-other-large-key"));
+        assertArrayEquals(new byte[100], lsmTree.get(new byte[] { (byte) 0xFF }));
+        lsmTree.close();
+    }
+
+    @Test
+    public void collectsValueLogGarbage() throws IOException {
+        var configuration = LSMTreeConfiguration.builder()
+            .valueLogThreshold(64)
+            .valueLogFileSize(1024)
+            .valueLogGarbageRatio(0.4)
+            .build();
+        var tempDirectory = Files.createTempDirectory(null);
+        var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration);
+        var padding = "-".repeat(200);
+        for (var i = 0; i < 20; i++) lsmTree.put(MessageFormat.format("some-key-{0,number,00}", i), "some-value-1-" + i + padding);
+        lsmTree.flush();
+        var firstFiles = valueLogFiles(tempDirectory);
+        assertTrue(firstFiles.size() > 2);
+
+        // Files whose every value is overwritten go as soon as compaction drops the last pointer
+        for (var i = 0; i < 20; i++) lsmTree.put(MessageFormat.format("some-key-{0,number,00}", i), "some-value-2-" + i + padding);
+        lsmTree.flush();
+        lsmTree.compact();
+        for (var file : firstFiles) assertFalse(Files.exists(file));
+        var secondFiles = valueLogFiles(tempDirectory);
+
+        // Overwriting every other key leaves half of each file dead
+        for (var i = 0; i < 20; i += 2) lsmTree.put(MessageFormat.format("some-key-{0,number,00}", i), "some-value-3-" + i + padding);
+        lsmTree.flush();
+        lsmTree.compact();
+        for (var file : secondFiles) assertTrue(Files.exists(file));
+
+        try (var snapshot = lsmTree.snapshot()) {
+            lsmTree.collectValueLog();
+
+            // The snapshot's segments still point into the collected files
+            assertTrue(Files.exists(secondFiles.get(0)));
+            assertEquals("some-value-2-1" + padding, snapshot.get("some-key-01"));
+        }
+        for (var file : secondFiles) assertFalse(Files.exists(file));
+
+        for (var i = 0; i < 20; i++) {
+            assertEquals("some-value-" + (i % 2 == 0 ? 3 : 2) + "-" + i + padding, lsmTree.get(MessageFormat.format("some-key-{0,number,00}", i)));
+        }
+        lsmTree.close();
+
+        lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration);
+        for (var i = 0; i < 20; i++) {
+            assertEquals("some-value-" + (i % 2 == 0 ? 3 : 2) + "-" + i + padding, lsmTree.get(MessageFormat.format("some-key-{0,number,00}", i)));
+        }
+        lsmTree.close();
+    }
+
+    @Test
+    public void collectsValueLogInTheBackground() throws IOException, InterruptedException, ExecutionException {
+        var tempDirectory = Files.createTempDirectory(null);
+        var flushExecutor = Executors.newSingleThreadScheduledExecutor();
+        var configuration = LSMTreeConfiguration.builder()
+            .compactionStyle(CompactionStyle.LEVELED)
+            .level0CompactionTrigger(2)
+            .valueLogThreshold(100)
+            .valueLogFileSize(4 * 1024)
+            .flushExecutor(flushExecutor)
+            .build();
+
+        var padding = "-".repeat(100);
+        try (var lsmTree = LSMTree.openOrCreate(tempDirectory.resolve("test"), configuration)) {
+            for (var round = 0; round < 10; round++) {
+                for (var i = round; i < 100; i += 3) lsmTree.put(MessageFormat.format("some-key-{0,number,000}", i), "some-value-" + round + padding);
+                lsmTree.flush();
+            }
+            // Wait out the background compactions
+            flushExecutor.submit(() -> { }).get();
+
+            // The first files' values have all been overwritten since
+            assertFalse(Files.exists(tempDirectory.resolve("test.vlog.0")));
+            var valueLogSize = 0L;
+            for (var file : valueLogFiles(tempDirectory)) valueLogSize += Files.size(file);
+            // 322 values of 120 bytes were written, 100 of them are live
+            assertTrue(valueLogSize < 2 * 100 * 120, "Value log holds " + valueLogSize + " bytes");
+
+            for (var i = 0; i < 100; i++) {
+                var round = i < 10 ? i : 9 - (9 - i % 3) % 3;
+                assertEquals("some-value-" + round + padding, lsmTree.get(MessageFormat.format("some-key-{0,number,000}", i)));
+            }
+        } finally {
+            flushExecutor.shutdown();
+        }
+    }
 }
@@ -0,0 +1,133 @@
+package io.hnsn.kaukus.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class ManifestTests {
+    private static Segment segment(long index, int level, String smallestKey, String largestKey) {
+        return new Segment(index, level, smallestKey, largestKey, 100, null);
+    }
+
+    private static List<Long> indexes(List<Segment> segments) {
+        return segments.stream().map(Segment::getIndex).toList();
+    }
+
+    private static Manifest leveled() {
+        var manifest = Manifest.of(List.of(segment(5, 0, "a", "z"), segment(4, 0, "m", "p")));
+        return manifest.withCompacted(List.of(), List.of(segment(3, 1, "n", "r"), segment(2, 1, "a", "f")))
+            .withCompacted(List.of(), List.of(segment(1, 2, "a", "z")));
+    }
+
+    @Test
+    public void findsCandidatesInReadOrder() {
+        var manifest = leveled();
+
+        assertEquals(List.of(5L, 4L, 3L, 1L), indexes(manifest.getCandidates("o")));
+        assertEquals(List.of(5L, 2L, 1L), indexes(manifest.getCandidates("b")));
+        assertEquals(List.of(5L, 1L), indexes(manifest.getCandidates("h")));
+        assertEquals(List.of(), indexes(manifest.getCandidates("zz")));
+    }
+
+    @Test
+    public void keepsDeeperLevelsOrderedByKey() {
+        var manifest = leveled();
+
+        assertEquals(3, manifest.getLevelCount());
+        assertEquals(List.of(2L, 3L), indexes(manifest.getLevel(1)));
+        assertEquals(List.of(3L), indexes(manifest.getOverlapping(1, "g", "n")));
+        assertEquals(200, manifest.getLevelSize(1));
+    }
+
+    @Test
+    public void replacesCompactedSegments() {
+        var manifest = leveled().withFlushed(segment(6, 0, "c", "d"));
+
+        // Level 0 outputs stay behind segments flushed after their inputs
+        var compacted = manifest.withCompacted(List.of(manifest.getLevel(0).get(1), manifest.getLevel(0).get(2)), List.of(segment(7, 0, "a", "z")));
+        assertEquals(List.of(6L, 7L), indexes(compacted.getLevel(0)));
+
+        // Emptied levels past the deepest populated one are dropped
+        compacted = manifest.withCompacted(manifest.getLevel(2), List.of(segment(8, 1, "g", "h")));
+        assertEquals(2, compacted.getLevelCount());
+        assertEquals(List.of(2L, 8L, 3L), indexes(compacted.getLevel(1)));
+        assertFalse(compacted.contains(1));
+        assertTrue(compacted.contains(8));
+    }
+
+    @Test
+    public void canReadWrittenManifest() throws IOException {
+        var manifestFile = Files.createTempDirectory(null).resolve("test.manifest");
+        leveled().writeTo(manifestFile);
+
+        var manifest = Manifest.read(manifestFile, index -> null);
+
+        assertEquals(List.of(5L, 4L), indexes(manifest.getLevel(0)));
+        assertEquals(List.of(2L, 3L), indexes(manifest.getLevel(1)));
+        assertEquals(List.of(1L), indexes(manifest.getLevel(2)));
+        assertEquals("n", manifest.getLevel(1).get(1).getSmallestKey());
+        assertEquals("r", manifest.getLevel(1).get(1).getLargestKey());
+        assertNull(manifest.getLevel(1).get(1).getSstable());
+    }
+
+    @Test
+    public void rejectsCorruptManifest() throws IOException {
+        var manifestFile = Files.createTempDirectory(null).resolve("test.manifest");
+        leveled().writeTo(manifestFile);
+        var bytes = Files.readAllBytes(manifestFile);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(manifestFile, bytes);
+
+        assertThrows(IOException.class, () -> Manifest.read(manifestFile, index -> null));
+    }
+
+    @Test
+    public void picksLevelByScore() {
+        var configuration = LSMTreeConfiguration.builder().level0CompactionTrigger(2).levelBaseSize(150).build();
+        var picker = new LeveledCompactionPicker(configuration);
+
+        // Two level 0 segments score 1; level 1 scores 200 / 150
+        var compaction = picker.pick(leveled());
+        assertEquals(2, compaction.getOutputLevel());
+        assertEquals(List.of(2L, 1L), indexes(compaction.getInputs()));
+
+        // Round-robin through level 1
+        var manifest = leveled().withCompacted(List.of(), List.of(segment(9, 1, "x", "y")));
+        assertEquals(List.of(3L, 1L), indexes(picker.pick(manifest).getInputs()));
+
+        // Level 0 pulls in every level 1 segment it overlaps
+        var level0 = leveled().withFlushed(segment(6, 0, "c", "d")).withFlushed(segment(10, 0, "b", "c"));
+        compaction = new LeveledCompactionPicker(LSMTreeConfiguration.builder().level0CompactionTrigger(2).build()).pick(level0);
+        assertEquals(1, compaction.getOutputLevel());
+        assertEquals(List.of(10L, 6L, 5L, 4L, 2L, 3L), indexes(compaction.getInputs()));
+    }
+
+    @Test
+    public void findsBottommostCompactions() {
+        var manifest = leveled().withFlushed(segment(6, 0, "c", "d"));
+
+        assertTrue(manifest.isBottommost(manifest.getSegments().subList(1, 6)));
+        assertTrue(manifest.isBottommost(manifest.getLevel(2)));
+        // Older segments overlap the inputs
+        assertFalse(manifest.isBottommost(List.of(manifest.getLevel(0).get(2))));
+        assertFalse(manifest.isBottommost(manifest.getLevel(1)));
+    }
+
+    @Test
+    public void findsSegmentsEndingWithRangeTombstones() {
+        // Segment 2's range tombstone ends on the key segment 3 starts with
+        var manifest = Manifest.of(List.of()).withCompacted(List.of(), List.of(segment(2, 1, "a", "n"), segment(3, 1, "n", "r")));
+
+        assertEquals(List.of(2L, 3L), indexes(manifest.getCandidates("n")));
+        assertEquals(List.of(3L), indexes(manifest.getCandidates("o")));
+        assertEquals(List.of(2L), indexes(manifest.getCandidates("m")));
+    }
+}
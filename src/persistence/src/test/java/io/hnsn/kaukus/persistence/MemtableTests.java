@@ -0,0 +1,173 @@
+package io.hnsn.kaukus.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.junit.jupiter.api.Test;
+
+public class MemtableTests {
+    private static List<String> keys(Iterable<Entry<String, LSMTreeValue>> entries) {
+        var keys = new ArrayList<String>();
+        for (var entry : entries) keys.add(entry.getKey());
+        return keys;
+    }
+
+    @Test
+    public void iteratesInKeyOrder() {
+        var memtable = new Memtable();
+        // U+1F600 sorts after U+FFFD by code point but before it by UTF-16 code unit
+        memtable.put("\uFFFD", new LSMTreeValue("replacement"));
+        memtable.put("\uD83D\uDE00", new LSMTreeValue("emoji"));
+        memtable.put("b", LSMTreeValue.TOMBSTONE);
+        memtable.put("a", new LSMTreeValue("a"));
+
+        assertEquals(List.of("a", "b", "\uFFFD", "\uD83D\uDE00"), keys(memtable));
+    }
+
+    @Test
+    public void canUseComparator() {
+        var memtable = new Memtable(Comparator.<String>reverseOrder());
+        memtable.put("a", new LSMTreeValue("a"));
+        memtable.put("c", new LSMTreeValue("c"));
+        memtable.put("b", new LSMTreeValue("b"));
+
+        assertEquals(List.of("c", "b", "a"), keys(memtable));
+    }
+
+    @Test
+    public void getsTombstones() {
+        var memtable = new Memtable();
+        memtable.put("some-key", new LSMTreeValue("some-value"));
+        memtable.put("some-key", LSMTreeValue.TOMBSTONE);
+
+        assertSame(LSMTreeValue.TOMBSTONE, memtable.get("some-key"));
+        assertNull(memtable.get("some-missing-key"));
+        assertEquals(1, memtable.size());
+    }
+
+    @Test
+    public void canIterateRange() {
+        var memtable = new Memtable();
+        for (var key : List.of("a", "b", "c", "d", "e")) memtable.put(key, new LSMTreeValue(key));
+
+        assertEquals(List.of("b", "c"), keys(memtable.range("b", "d")));
+        assertEquals(List.of("a", "b"), keys(memtable.range(null, "c")));
+        assertEquals(List.of("d", "e"), keys(memtable.range("d", null)));
+    }
+
+    @Test
+    public void canIteratePrefix() {
+        var memtable = new Memtable();
+        for (var key : List.of("user", "user:1", "user:2", "users", "usf", "a")) memtable.put(key, new LSMTreeValue(key));
+
+        assertEquals(List.of("user:1", "user:2"), keys(memtable.prefix("user:")));
+        assertEquals(List.of("user", "user:1", "user:2", "users"), keys(memtable.prefix("user")));
+        assertEquals(List.of(), keys(memtable.prefix("z")));
+    }
+
+    @Test
+    public void keepsVersionsForSnapshots() {
+        var memtable = new Memtable();
+        memtable.put("some-key", new LSMTreeValue("some-value-1", 1));
+        memtable.put("some-key", new LSMTreeValue("some-value-2", 2), 1);
+        memtable.put("some-key", LSMTreeValue.tombstone(3), 1);
+
+        assertTrue(memtable.get("some-key").isTombstone());
+        assertTrue(memtable.get("some-key", 3).isTombstone());
+        assertEquals("some-value-2", memtable.get("some-key", 2).getValue());
+        assertEquals("some-value-1", memtable.get("some-key", 1).getValue());
+        assertNull(memtable.get("some-key", 0));
+
+        // Versions no snapshot can read are dropped
+        memtable.put("some-key", new LSMTreeValue("some-value-4", 4), 3);
+        assertEquals("some-value-4", memtable.get("some-key", 4).getValue());
+        assertTrue(memtable.get("some-key", 3).isTombstone());
+        assertNull(memtable.get("some-key", 2));
+    }
+
+    @Test
+    public void ordersVersionsBySequence() {
+        var memtable = new Memtable();
+        memtable.put("some-key", new LSMTreeValue("some-value-2", 2), 0);
+        memtable.put("some-key", new LSMTreeValue("some-value-1", 1), 0);
+
+        assertEquals("some-value-2", memtable.get("some-key").getValue());
+        assertEquals("some-value-1", memtable.get("some-key", 1).getValue());
+    }
+
+    @Test
+    public void readsRangeDeletes() {
+        var memtable = new Memtable();
+        memtable.put("some-key-a", new LSMTreeValue("some-value-1", 1), 0);
+        memtable.put("some-key-b", new LSMTreeValue("some-value-2", 2), 0);
+        memtable.deleteRange(new RangeTombstone("some-key-a", "some-key-c", 3));
+        memtable.put("some-key-b", new LSMTreeValue("some-value-4", 4), 0);
+
+        assertTrue(memtable.read("some-key-a", Long.MAX_VALUE).isTombstone());
+        assertEquals("some-value-4", memtable.read("some-key-b", Long.MAX_VALUE).getValue());
+        // Keys only the range covers read as tombstones too, so older segments aren't consulted
+        assertTrue(memtable.read("some-key-a0", Long.MAX_VALUE).isTombstone());
+        assertNull(memtable.read("some-key-c", Long.MAX_VALUE));
+
+        // Snapshots taken before the range delete don't see it
+        assertEquals("some-value-1", memtable.read("some-key-a", 2).getValue());
+        assertNull(memtable.read("some-key-a0", 2));
+        assertEquals(3, memtable.getRangeDeleteSequence("some-key-b", 4));
+        assertEquals(0, memtable.getRangeDeleteSequence("some-key-b", 2));
+        assertEquals(List.of(), memtable.getRangeTombstones(2));
+    }
+
+    @Test
+    public void offHeapMemtablesReadWhatWasWritten() {
+        var memtable = Memtable.offHeap(64);
+        memtable.put("b", new LSMTreeValue("some-value-b", 1), 0);
+        memtable.put("a", new LSMTreeValue("some-value-a", 2), 0);
+        memtable.put("\u00FF", new LSMTreeValue("some-value-ff", 3), 0);
+        memtable.put("b", new LSMTreeValue("some-value-b-2", 4), 0);
+        memtable.put("c", LSMTreeValue.tombstone(5), 0);
+        // Larger than a chunk
+        memtable.put("d", new LSMTreeValue("x".repeat(100), 6), 0);
+
+        assertEquals("some-value-b-2", memtable.get("b").getValue());
+        assertEquals("some-value-b", memtable.get("b", 1).getValue());
+        assertTrue(memtable.get("c").isTombstone());
+        assertEquals(100, memtable.get("d").getValueBytes().length);
+        assertNull(memtable.get("e"));
+        assertEquals(5, memtable.size());
+        assertEquals(List.of("a", "b", "c", "d", "\u00FF"), keys(memtable));
+        assertEquals(List.of("c", "b"), keys(memtable.range("b", "d", true)));
+        assertEquals(List.of("\u00FF"), keys(memtable.prefix("\u00FF")));
+    }
+
+    @Test
+    public void offHeapMemtablesCountStoredBytes() {
+        var memtable = Memtable.offHeap(1024);
+        memtable.put("some-key", new LSMTreeValue("some-value", 1));
+        // Each record is a 4 byte length and its bytes; an overwrite stores only the value
+        assertEquals(4 + 8 + 4 + 10, memtable.getApproximateSize());
+        memtable.put("some-key", new LSMTreeValue("some-other-value", 2));
+        assertEquals(4 + 8 + 4 + 10 + 4 + 16, memtable.getApproximateSize());
+    }
+
+    @Test
+    public void offHeapMemtablesAreFreedWithTheLastReference() {
+        var memtable = Memtable.offHeap(1024);
+        memtable.put("some-key", new LSMTreeValue("some-value", 1));
+
+        assertTrue(memtable.acquire());
+        memtable.release();
+        assertEquals("some-value", memtable.get("some-key").getValue());
+
+        memtable.release();
+        assertFalse(memtable.acquire());
+        assertNull(memtable.get("some-key"));
+    }
+}
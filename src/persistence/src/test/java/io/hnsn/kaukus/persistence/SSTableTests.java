@@ -6,12 +6,16 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.Test;
@@ -87,4 +91,195 @@ public class SSTableTests {
         assertEquals("some-value-to-overwrite", lines[13].key);
         assertEquals("newer value", lines[13].deserialize(serializerFactory));
     }
+
+    @Test
+    public void canCompactBinarySegments() throws URISyntaxException, IOException {
+        var olderFile = Paths.get(getClass().getClassLoader().getResource("SSTableCompactTest.0").toURI());
+        var newerFile = Paths.get(getClass().getClassLoader().getResource("SSTableCompactTest.1").toURI());
+        var configuration = SSTableConfiguration.builder().blockSize(32).build();
+
+        // Upgrade both legacy segments to binary segments by compacting them against an empty segment
+        var emptyPath = Path.of(File.createTempFile("test", null).getPath());
+        var olderBinaryPath = Path.of(File.createTempFile("test", null).getPath());
+        var newerBinaryPath = Path.of(File.createTempFile("test", null).getPath());
+        SSTable.compact(emptyPath, olderFile, olderBinaryPath, configuration);
+        SSTable.compact(emptyPath, newerFile, newerBinaryPath, configuration);
+        assertEquals(SSTableFormat.VERSION_6, SSTableFormat.readVersion(olderBinaryPath));
+
+        var outputPath = Path.of(File.createTempFile("test", null).getPath());
+        SSTable.compact(olderBinaryPath, newerBinaryPath, outputPath, configuration);
+
+        var sstable = new SSTable(outputPath, configuration);
+        assertEquals("phoenix", sstable.tryGetValue("some-deleted-value").getValue());
+        for (var i = 0; i < 10; i++) {
+            assertEquals(MessageFormat.format("some-value-{0}", i), sstable.tryGetValue(MessageFormat.format("some-key-{0}", i)).getValue());
+        }
+        assertEquals("legacy value", sstable.tryGetValue("some-older-untouched-value").getValue());
+        assertTrue(sstable.containsKey("some-value-to-delete").isTombstone());
+        assertEquals("newer value", sstable.tryGetValue("some-value-to-overwrite").getValue());
+    }
+
+    @Test
+    public void canCompactManySegments() throws IOException {
+        var configuration = SSTableConfiguration.builder().blockSize(64).build();
+        var inputPaths = new ArrayList<Path>();
+        // Newest first; segment n overwrites keys 0..n and deletes key n + 1
+        for (var n = 4; n >= 0; n--) {
+            var inputPath = Path.of(File.createTempFile("test", null).getPath());
+            try (var sstableWriter = new SSTableWriter(new FileOutputStream(inputPath.toString()), configuration)) {
+                for (var i = 0; i <= n; i++) sstableWriter.write(MessageFormat.format("some-key-{0}", i), MessageFormat.format("some-value-{0}", n));
+                sstableWriter.writeTombstone(MessageFormat.format("some-key-{0}", n + 1));
+            }
+            inputPaths.add(inputPath);
+        }
+
+        var outputPath = Path.of(File.createTempFile("test", null).getPath());
+        SSTable.compact(inputPaths, outputPath, configuration);
+
+        var lines = SSTable.readAllLines(outputPath).collect(Collectors.toList()).toArray(new Entry[0]);
+        assertEquals(6, lines.length);
+        for (var i = 0; i < 5; i++) {
+            assertEquals(MessageFormat.format("some-key-{0}", i), lines[i].key);
+            assertEquals("some-value-4", lines[i].deserialize(configuration.serializerFactory));
+        }
+        assertEquals("some-key-5", lines[5].key);
+        assertTrue(lines[5].isTombstone);
+    }
+
+    @Test
+    public void dropsTombstonesCompactingBottommostSegments() throws IOException {
+        var configuration = SSTableConfiguration.builder().blockSize(64).build();
+        var olderPath = Path.of(File.createTempFile("test", null).getPath());
+        try (var sstableWriter = new SSTableWriter(new FileOutputStream(olderPath.toString()), configuration)) {
+            sstableWriter.write("some-deleted-key", "some-value");
+            sstableWriter.write("some-expired-key", "some-value");
+            sstableWriter.write("some-key", "some-value");
+        }
+        var newerPath = Path.of(File.createTempFile("test", null).getPath());
+        try (var sstableWriter = new SSTableWriter(new FileOutputStream(newerPath.toString()), configuration)) {
+            sstableWriter.writeTombstone("some-deleted-key");
+            sstableWriter.write("some-expired-key", "some-new-value", System.currentTimeMillis() - 1000);
+            sstableWriter.writeTombstone("some-other-deleted-key");
+        }
+
+        var outputPath = Path.of(File.createTempFile("test", null).getPath());
+        SSTable.compact(List.of(newerPath, olderPath), outputPath, configuration, true);
+
+        var lines = SSTable.readAllLines(outputPath).collect(Collectors.toList()).toArray(new Entry[0]);
+        assertEquals(1, lines.length);
+        assertEquals("some-key", lines[0].key);
+        assertEquals("some-value", lines[0].deserialize(configuration.serializerFactory));
+    }
+
+    @Test
+    public void compactsRangeTombstones() throws IOException {
+        var configuration = SSTableConfiguration.builder().blockSize(64).build();
+        var olderPath = Path.of(File.createTempFile("test", null).getPath());
+        try (var sstableWriter = new SSTableWriter(new FileOutputStream(olderPath.toString()), configuration)) {
+            sstableWriter.write("some-key-a", "some-value");
+            sstableWriter.write("some-key-b", "some-value");
+            sstableWriter.write("some-key-c", "some-value");
+        }
+        var newerPath = Path.of(File.createTempFile("test", null).getPath());
+        try (var sstableWriter = new SSTableWriter(new FileOutputStream(newerPath.toString()), configuration)) {
+            sstableWriter.writeRangeTombstone("some-key-a", "some-key-c");
+            sstableWriter.write("some-key-b", "some-new-value");
+        }
+
+        // The range tombstone deletes older segments' keys but not the segment's own
+        var newer = new SSTable(newerPath, configuration);
+        assertTrue(newer.isRangeDeleted("some-key-a"));
+        assertFalse(newer.isRangeDeleted("some-key-c"));
+        assertEquals("some-new-value", newer.tryGetValue("some-key-b").getValue());
+        newer.close();
+
+        var outputPath = Path.of(File.createTempFile("test", null).getPath());
+        SSTable.compact(List.of(newerPath, olderPath), outputPath, configuration, false);
+        assertEquals(List.of("some-key-b", "some-key-c"), SSTable.readAllLines(outputPath).map(entry -> entry.key).toList());
+        assertEquals("some-key-a", SSTable.readRangeTombstones(outputPath).get(0).getFromKey());
+        assertEquals("some-key-c", SSTable.readRangeTombstones(outputPath).get(0).getToKey());
+
+        // Bottommost outputs have no older segments to delete from
+        SSTable.compact(List.of(newerPath, olderPath), outputPath, configuration, true);
+        assertEquals(List.of("some-key-b", "some-key-c"), SSTable.readAllLines(outputPath).map(entry -> entry.key).toList());
+        assertEquals(List.of(), SSTable.readRangeTombstones(outputPath));
+    }
+
+    @Test
+    public void canReadMappedLegacySegment() throws URISyntaxException, IOException {
+        var filePath = Paths.get(getClass().getClassLoader().getResource("SSTableTest.0").toURI());
+        var configuration = SSTableConfiguration.builder().readMode(SSTableReadMode.MAPPED).build();
+        var sstable = new SSTable(filePath, configuration);
+        for (var i = 0; i < 10; i++) {
+            assertEquals(MessageFormat.format("some-value-{0}", i), sstable.tryGetValue(MessageFormat.format("some-key-{0}", i)).getValue());
+        }
+        assertNull(sstable.tryGetValue("invalid-key"));
+        sstable.close();
+    }
+
+    @Test
+    public void canReadMappedBlockSegment() throws IOException {
+        var configuration = SSTableConfiguration.builder().blockSize(64).readMode(SSTableReadMode.MAPPED).build();
+        var filePath = Path.of(File.createTempFile("test", null).getPath());
+        try (var sstableWriter = new SSTableWriter(new FileOutputStream(filePath.toString()), configuration)) {
+            for (var i = 0; i < 100; i++) {
+                sstableWriter.write(MessageFormat.format("some-key-{0,number,000}", i), MessageFormat.format("some-value-{0}", i));
+            }
+            sstableWriter.writeTombstone("some-key-100");
+        }
+
+        var sstable = new SSTable(filePath, configuration);
+        for (var i = 0; i < 100; i++) {
+            assertEquals(MessageFormat.format("some-value-{0}", i), sstable.tryGetValue(MessageFormat.format("some-key-{0,number,000}", i)).getValue());
+        }
+        assertTrue(sstable.containsKey("some-key-100").isTombstone());
+        assertNull(sstable.tryGetValue("some-key-101"));
+
+        // Closing releases the mapping; later lookups go through the file
+        sstable.close();
+        assertEquals("some-value-42", sstable.tryGetValue("some-key-042").getValue());
+    }
+
+    private static List<String> scanKeys(SSTable sstable, String fromKey, String toKey, boolean isReversed) throws IOException {
+        var keys = new ArrayList<String>();
+        try (var iterator = sstable.scan(fromKey, toKey, isReversed)) {
+            while (iterator.hasNext()) keys.add(iterator.next().key);
+        }
+        return keys;
+    }
+
+    @Test
+    public void canScanRanges() throws IOException {
+        var filePath = Path.of(File.createTempFile("test", null).getPath());
+        var configuration = SSTableConfiguration.builder().blockSize(64).build();
+        var keys = new ArrayList<String>();
+        try (var sstableWriter = new SSTableWriter(new FileOutputStream(filePath.toString()), configuration)) {
+            for (var i = 0; i < 100; i += 2) {
+                var key = MessageFormat.format("some-key-{0,number,000}", i);
+                if (i % 10 == 0) sstableWriter.writeTombstone(key);
+                else sstableWriter.write(key, "some-value");
+                keys.add(key);
+            }
+        }
+        var sstable = new SSTable(filePath, configuration);
+
+        assertEquals(keys, scanKeys(sstable, null, null, false));
+        assertEquals(keys.subList(3, 8), scanKeys(sstable, "some-key-005", "some-key-016", false));
+        assertEquals(keys.subList(3, 8), scanKeys(sstable, "some-key-006", "some-key-015", false));
+        var reversed = new ArrayList<>(keys.subList(3, 8));
+        Collections.reverse(reversed);
+        assertEquals(reversed, scanKeys(sstable, "some-key-005", "some-key-016", true));
+        assertEquals(List.of("some-key-098"), scanKeys(sstable, "some-key-097", null, true));
+        assertEquals(List.of(), scanKeys(sstable, null, "some-key-000", true));
+        assertEquals(List.of(), scanKeys(sstable, "some-key-099", null, false));
+    }
+
+    @Test
+    public void canScanLegacySegments() throws URISyntaxException, IOException {
+        var filePath = Paths.get(getClass().getClassLoader().getResource("SSTableTest.0").toURI());
+        var sstable = new SSTable(filePath, SSTableConfiguration.builder().bytesPerIndexEntry(32).build());
+
+        assertEquals(List.of("some-key-3", "some-key-4", "some-key-5"), scanKeys(sstable, "some-key-3", "some-key-6", false));
+        assertEquals(List.of("some-key-9", "some-key-8"), scanKeys(sstable, "some-key-8", null, true));
+    }
 }
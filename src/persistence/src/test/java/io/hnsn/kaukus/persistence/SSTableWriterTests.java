@@ -1,5 +1,6 @@
 package io.hnsn.kaukus.persistence;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
@@ -9,8 +10,12 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.jupiter.api.Test;
 
@@ -97,6 +102,202 @@ public class SSTableWriterTests {
         assertNull(sstable.tryGetValue("some-tombstone").getValue());
     }
 
+    @Test
+    public void canWriteBlockSSTable() throws IOException {
+        var tempFile = File.createTempFile("test", null);
+        var filePath = Path.of(tempFile.getPath());
+        var configuration = SSTableConfiguration.builder().blockSize(64).build();
+        try (var sstableWriter = new SSTableWriter(new FileOutputStream(tempFile), configuration)) {
+            for (var i = 0; i < 100; i++) {
+                sstableWriter.write(MessageFormat.format("some-key-{0}", 1000 + i), MessageFormat.format("some-value-{0}", i));
+            }
+        }
+
+        assertEquals(SSTableFormat.VERSION_6, SSTableFormat.readVersion(filePath));
+
+        var sstable = new SSTable(filePath, configuration);
+        for (var i = 0; i < 100; i++) {
+            assertTrue(sstable.containsKey(MessageFormat.format("some-key-{0}", 1000 + i)).isHasKey());
+            var result = sstable.tryGetValue(MessageFormat.format("some-key-{0}", 1000 + i));
+            assertEquals(MessageFormat.format("some-value-{0}", i), result.getValue());
+        }
+        assertFalse(sstable.containsKey("some-key-0999").isHasKey());
+        assertFalse(sstable.containsKey("some-key-1050a").isHasKey());
+        assertNull(sstable.tryGetValue("some-key-2000"));
+    }
+
+    @Test
+    public void canWriteCompressedBlockSSTable() throws IOException {
+        for (var compression : SSTableCompression.values()) {
+            var tempFile = File.createTempFile("test", null);
+            var filePath = Path.of(tempFile.getPath());
+            var writeConfiguration = SSTableConfiguration.builder().blockSize(256).compression(compression).build();
+            try (var sstableWriter = new SSTableWriter(new FileOutputStream(tempFile), writeConfiguration)) {
+                for (var i = 0; i < 1000; i++) {
+                    sstableWriter.write(MessageFormat.format("some-key-{0}", 1000 + i), "{\"some-field\": \"some-value\"}");
+                }
+                sstableWriter.writeTombstone("some-key-3000");
+            }
+
+            var metadata = SegmentMetadata.read(filePath, 0);
+            assertEquals(compression, metadata.getCompression());
+            if (compression != SSTableCompression.NONE) {
+                var blockBytes = 0L;
+                for (var entry : metadata.getIndex()) blockBytes += entry.getLength();
+                assertTrue(blockBytes < 1000 * 256 / 8, compression + " didn't compress");
+            }
+
+            // Readers take the compression from the segment rather than their configuration
+            for (var readConfiguration : List.of(
+                    SSTableConfiguration.builder().build(),
+                    SSTableConfiguration.builder().readMode(SSTableReadMode.MAPPED).build(),
+                    SSTableConfiguration.builder().readMode(SSTableReadMode.MAPPED).blockCache(new BlockCache(1024 * 1024)).build(),
+                    SSTableConfiguration.builder().blockCache(new BlockCache(1024 * 1024)).build())) {
+                var sstable = new SSTable(filePath, readConfiguration);
+                for (var i = 0; i < 1000; i += 7) {
+                    assertEquals("{\"some-field\": \"some-value\"}", sstable.tryGetValue(MessageFormat.format("some-key-{0}", 1000 + i)).getValue());
+                }
+                assertTrue(sstable.containsKey("some-key-3000").isTombstone());
+                assertNull(sstable.tryGetValue("some-key-2000a"));
+                sstable.close();
+            }
+
+            try (var iterator = SSTable.iterate(filePath)) {
+                var count = 0;
+                while (iterator.hasNext()) {
+                    iterator.next();
+                    count++;
+                }
+                assertEquals(1001, count);
+            }
+        }
+    }
+
+    @Test
+    public void prefixCompressesKeys() throws IOException {
+        var keys = new ArrayList<String>();
+        for (var i = 0; i < 500; i++) keys.add(MessageFormat.format("user-{0,number,0000}/session/\u00e9t\u00e9-{1}", i / 10, i % 10));
+        keys.add("user-9999/\uD83D\uDE00");
+        keys.add("user-9999/\uD83D\uDE01");
+        keys.sort(SSTableFormat.KEY_ORDER);
+
+        var sizes = new ArrayList<Long>();
+        for (var restartInterval : List.of(1, 16)) {
+            var tempFile = File.createTempFile("test", null);
+            var filePath = Path.of(tempFile.getPath());
+            var configuration = SSTableConfiguration.builder().blockSize(128).blockRestartInterval(restartInterval).build();
+            try (var sstableWriter = new SSTableWriter(new FileOutputStream(tempFile), configuration)) {
+                for (var key : keys) sstableWriter.write(key, "some-value");
+            }
+            sizes.add(Files.size(filePath));
+
+            var sstable = new SSTable(filePath, configuration);
+            for (var key : keys) {
+                assertEquals("some-value", sstable.tryGetValue(key).getValue());
+                assertTrue(sstable.containsKey(key).isHasKey());
+            }
+            assertNull(sstable.tryGetValue("user-0000/session/"));
+            assertNull(sstable.tryGetValue("user-0010/session/\u00e9t\u00e9-0a"));
+            assertNull(sstable.tryGetValue("user-9999/\uD83D\uDE00a"));
+
+            // Index keys after the first are the shortest separators between blocks, cut at any byte
+            var index = SegmentMetadata.read(filePath, 0).getIndex();
+            assertEquals(Keys.fromText(keys.get(0)), index[0].getKey());
+            var indexKeyLength = 0;
+            for (var i = 1; i < index.length; i++) {
+                var separator = index[i].getKey();
+                indexKeyLength += separator.length();
+                assertTrue(SSTableFormat.compareKeys(separator, index[i - 1].getKey()) > 0);
+                // Guards against a separator landing on a key
+                assertFalse(sstable.containsKey(Keys.toBytes(separator)).isHasKey() && !keys.contains(Keys.toText(separator)));
+            }
+            assertTrue(indexKeyLength < (index.length - 1) * Keys.fromText(keys.get(0)).length());
+
+            var read = new ArrayList<String>();
+            try (var iterator = SSTable.iterate(filePath)) {
+                while (iterator.hasNext()) read.add(Keys.toText(iterator.next().key));
+            }
+            assertEquals(keys, read);
+        }
+
+        assertTrue(sizes.get(1) < sizes.get(0));
+    }
+
+    @Test
+    public void canWriteBlockSSTableWithEmptyStringAndTombstone() throws IOException {
+        var tempFile = File.createTempFile("test", null);
+        var filePath = Path.of(tempFile.getPath());
+        var configuration = SSTableConfiguration.builder().build();
+        try (var sstableWriter = new SSTableWriter(new FileOutputStream(tempFile), configuration)) {
+            sstableWriter.write("some-empty-value", "");
+            sstableWriter.writeTombstone("some-tombstone");
+            sstableWriter.write("some-unicode-value", "\u00e9t\u00e9 \uD83D\uDE00");
+        }
+
+        var sstable = new SSTable(filePath, configuration);
+        assertTrue(sstable.containsKey("some-empty-value").isHasKey());
+        assertFalse(sstable.containsKey("some-empty-value").isTombstone());
+        assertEquals("", sstable.tryGetValue("some-empty-value").getValue());
+
+        assertTrue(sstable.containsKey("some-tombstone").isHasKey());
+        assertTrue(sstable.containsKey("some-tombstone").isTombstone());
+        assertNull(sstable.tryGetValue("some-tombstone").getValue());
+
+        assertEquals("\u00e9t\u00e9 \uD83D\uDE00", sstable.tryGetValue("some-unicode-value").getValue());
+    }
+
+    @Test
+    public void canWriteBinaryKeysAndValues() throws IOException {
+        var tempFile = File.createTempFile("test", null);
+        var filePath = Path.of(tempFile.getPath());
+        var configuration = SSTableConfiguration.builder().blockSize(64).build();
+        try (var sstableWriter = new SSTableWriter(new FileOutputStream(tempFile), configuration)) {
+            // Every one and two byte key in unsigned order; each one's value is the key itself
+            for (var i = 0; i < 256; i++) {
+                sstableWriter.write(new byte[] { (byte) i }, new byte[] { (byte) i });
+                sstableWriter.write(new byte[] { (byte) i, (byte) 0xFF }, new byte[] { (byte) i, (byte) 0xFF });
+            }
+            assertArrayEquals(new byte[] { 0x00 }, sstableWriter.getFirstKey());
+            assertArrayEquals(new byte[] { (byte) 0xFF, (byte) 0xFF }, sstableWriter.getLastKey());
+        }
+
+        var sstable = new SSTable(filePath, configuration);
+        for (var i = 0; i < 256; i++) {
+            assertArrayEquals(new byte[] { (byte) i }, sstable.tryGetValue(new byte[] { (byte) i }).getValueBytes());
+            assertArrayEquals(new byte[] { (byte) i, (byte) 0xFF }, sstable.tryGetValue(new byte[] { (byte) i, (byte) 0xFF }).getValueBytes());
+            assertNull(sstable.tryGetValue(new byte[] { (byte) i, 0x00 }));
+        }
+    }
+
+    @Test
+    public void canWriteBlockSSTableWithoutBloomFilter() throws IOException {
+        var tempFile = File.createTempFile("test", null);
+        var filePath = Path.of(tempFile.getPath());
+        var configuration = SSTableConfiguration.builder().bloomFilterFalsePositiveRate(0).build();
+        try (var sstableWriter = new SSTableWriter(new FileOutputStream(tempFile), configuration)) {
+            sstableWriter.write("some-key", "some-value");
+            sstableWriter.writeTombstone("some-tombstone");
+        }
+
+        var sstable = new SSTable(filePath, configuration);
+        assertEquals("some-value", sstable.tryGetValue("some-key").getValue());
+        assertTrue(sstable.containsKey("some-tombstone").isTombstone());
+        assertFalse(sstable.containsKey("some-missing-key").isHasKey());
+    }
+
+    @Test
+    public void canWriteEmptyBlockSSTable() throws IOException {
+        var tempFile = File.createTempFile("test", null);
+        var filePath = Path.of(tempFile.getPath());
+        var configuration = SSTableConfiguration.builder().build();
+        new SSTableWriter(new FileOutputStream(tempFile), configuration).close();
+
+        try (var sstable = new SSTable(filePath, configuration)) {
+            assertFalse(sstable.containsKey("some-key").isHasKey());
+            assertNull(sstable.tryGetValue("some-key"));
+        }
+    }
+
     // @Test
     // public void canWrite() throws IOException {
     //     var tempFile = File.createTempFile("test", null);
@@ -113,4 +314,63 @@ public class SSTableWriterTests {
     //         sstableWriter.flush();
     //     }
     // }
+
+    @Test
+    public void canWriteExpiringValues() throws IOException {
+        var tempFile = File.createTempFile("test", null);
+        var filePath = Path.of(tempFile.getPath());
+        var configuration = SSTableConfiguration.builder().build();
+        var now = System.currentTimeMillis();
+        try (var sstableWriter = new SSTableWriter(new FileOutputStream(tempFile), configuration)) {
+            sstableWriter.write("some-expired-key", "some-value", now - 1000);
+            sstableWriter.write("some-expiring-key", "some-value", now + 60 * 60 * 1000);
+            sstableWriter.write("some-key", "some-value", LSMTreeValue.NEVER_EXPIRES);
+        }
+
+        var sstable = new SSTable(filePath, configuration);
+        assertTrue(sstable.tryGetValue("some-expired-key").isTombstone());
+        assertTrue(sstable.containsKey("some-expired-key").isTombstone());
+        assertEquals("some-value", sstable.tryGetValue("some-expiring-key").getValue());
+        assertFalse(sstable.containsKey("some-expiring-key").isTombstone());
+        assertEquals("some-value", sstable.tryGetValue("some-key").getValue());
+
+        try (var entries = SSTable.iterate(filePath)) {
+            assertEquals(now - 1000, entries.next().expiresAt);
+            assertEquals(now + 60 * 60 * 1000, entries.next().expiresAt);
+            assertEquals(LSMTreeValue.NEVER_EXPIRES, entries.next().expiresAt);
+        }
+    }
+
+    @Test
+    public void canWriteValuePointers() throws IOException {
+        var tempFile = File.createTempFile("test", null);
+        var filePath = Path.of(tempFile.getPath());
+        var configuration = SSTableConfiguration.builder().build();
+        try (var sstableWriter = new SSTableWriter(new FileOutputStream(tempFile), configuration)) {
+            sstableWriter.writeValuePointer("some-expired-key".getBytes(), new ValuePointer(4, 0, 10), System.currentTimeMillis() - 1000);
+            sstableWriter.write("some-inline-key", "some-value");
+            sstableWriter.writeValuePointer("some-key".getBytes(), new ValuePointer(3, 128, 1000), LSMTreeValue.NEVER_EXPIRES);
+            sstableWriter.writeValuePointer("some-other-key".getBytes(), new ValuePointer(3, 2000, 24), LSMTreeValue.NEVER_EXPIRES);
+        }
+
+        var sstable = new SSTable(filePath, configuration);
+        var result = sstable.tryGetValue("some-key");
+        assertTrue(result.hasValue());
+        assertNull(result.getValueBytes());
+        assertEquals(new ValuePointer(3, 128, 1000), result.getValuePointer());
+        assertEquals("some-value", sstable.tryGetValue("some-inline-key").getValue());
+        assertTrue(sstable.tryGetValue("some-expired-key").isTombstone());
+
+        // Referenced bytes include each record's header
+        assertEquals(Map.of(3L, 1000L + 24 + 2 * ValueLog.RECORD_HEADER_SIZE, 4L, 10L + ValueLog.RECORD_HEADER_SIZE), sstable.getValueLogReferences());
+
+        try (var entries = SSTable.iterate(filePath)) {
+            var entry = entries.next();
+            assertEquals("some-expired-key", entry.key);
+            assertEquals(new ValuePointer(4, 0, 10), entry.valuePointer);
+            assertNull(entry.valueBytes);
+            assertNull(entries.next().valuePointer);
+            assertEquals(new ValuePointer(3, 128, 1000), entries.next().valuePointer);
+        }
+    }
 }
@@ -0,0 +1,106 @@
+package io.hnsn.kaukus.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.MessageFormat;
+
+import org.junit.jupiter.api.Test;
+
+public class SegmentMetadataTests {
+    private static Path writeSegment(SSTableConfiguration configuration, int count) throws IOException {
+        var filePath = Path.of(File.createTempFile("test", null).getPath());
+        try (var sstableWriter = new SSTableWriter(new FileOutputStream(filePath.toString()), configuration)) {
+            sstableWriter.writeTombstone("some-deleted-value");
+            for (var i = 0; i < count; i++) {
+                sstableWriter.write(MessageFormat.format("some-key-{0,number,00000}", i), MessageFormat.format("some-value-{0}", i));
+            }
+        }
+
+        return filePath;
+    }
+
+    @Test
+    public void CanReadBlockIndex() throws IOException {
+        var filePath = writeSegment(SSTableConfiguration.builder().blockSize(64).build(), 10);
+
+        var metadata = SegmentMetadata.read(filePath, 0);
+
+        assertEquals(SSTableFormat.VERSION_6, metadata.getVersion());
+        assertNotNull(metadata.getFilter());
+        var index = metadata.getIndex();
+        assertTrue(index.length > 1);
+        assertEquals("some-deleted-value", index[0].getKey());
+        assertTrue(index[0].isTombstone());
+        for (var i = 1; i < index.length; i++) {
+            assertTrue(index[i].getIndex() == index[i - 1].getIndex() + index[i - 1].getLength());
+        }
+    }
+
+    @Test
+    public void countsEntries() throws IOException {
+        var metadata = SegmentMetadata.read(writeSegment(SSTableConfiguration.builder().build(), 10), 0);
+
+        assertEquals(11, metadata.getEntryCount());
+        assertEquals(1, metadata.getTombstoneCount());
+    }
+
+    @Test
+    public void canReadIndexLargerThanTail() throws IOException {
+        var filePath = writeSegment(SSTableConfiguration.builder().blockSize(16).build(), 5000);
+        assertTrue(Files.size(filePath) > SSTableFormat.TAIL_READ_SIZE * 2);
+
+        var metadata = SegmentMetadata.read(filePath, 0);
+
+        var index = metadata.getIndex();
+        assertEquals(5001, index.length);
+        assertEquals("some-key-04999", index[index.length - 1].getKey());
+        assertTrue(metadata.getFilter().mightContain("some-key-04999".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void canReadMappedSegment() throws IOException {
+        var filePath = writeSegment(SSTableConfiguration.builder().blockSize(64).build(), 100);
+        var mapping = MappedSegment.map(filePath);
+
+        var mapped = SegmentMetadata.read(mapping, filePath, 0);
+        var read = SegmentMetadata.read(filePath, 0);
+        mapping.close();
+
+        assertEquals(read.getIndex().length, mapped.getIndex().length);
+        for (var i = 0; i < read.getIndex().length; i++) {
+            assertEquals(read.getIndex()[i], mapped.getIndex()[i]);
+        }
+    }
+
+    @Test
+    public void canReadSegmentWithoutFilter() throws IOException {
+        var filePath = writeSegment(SSTableConfiguration.builder().bloomFilterFalsePositiveRate(0).build(), 10);
+
+        assertNull(SegmentMetadata.read(filePath, 0).getFilter());
+    }
+
+    @Test
+    public void samplesLegacySegments() throws URISyntaxException, IOException {
+        var filePath = Paths.get(getClass().getClassLoader().getResource("SSTableTest.0").toURI());
+
+        var sparse = SegmentMetadata.read(filePath, Integer.MAX_VALUE);
+        var dense = SegmentMetadata.read(filePath, 1);
+
+        assertEquals(SSTableFormat.VERSION_1, sparse.getVersion());
+        assertEquals(1, sparse.getIndex().length);
+        assertEquals(10, dense.getIndex().length);
+        assertFalse(dense.getIndex()[0].isTombstone());
+    }
+}
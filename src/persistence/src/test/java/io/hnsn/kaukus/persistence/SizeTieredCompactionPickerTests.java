@@ -0,0 +1,59 @@
+package io.hnsn.kaukus.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class SizeTieredCompactionPickerTests {
+    private static final LSMTreeConfiguration CONFIGURATION = LSMTreeConfiguration.builder()
+        .sizeTieredMinSegmentSize(100)
+        .sizeTieredTierRatio(4)
+        .sizeTieredThresholds(List.of(3, 2))
+        // The segments have no SSTables to count tombstones in
+        .tombstoneCompactionRatio(0)
+        .build();
+
+    /**
+     * Level 0 segments numbered newest first from the highest index.
+     */
+    private static Manifest manifest(long... sizes) {
+        var segments = new ArrayList<Segment>();
+        for (var i = 0; i < sizes.length; i++) segments.add(new Segment(sizes.length - i, 0, "a", "z", sizes[i], null));
+        return Manifest.of(segments);
+    }
+
+    private static List<Long> indexes(Compaction compaction) {
+        return compaction.getInputs().stream().map(Segment::getIndex).toList();
+    }
+
+    @Test
+    public void assignsTiersBySize() {
+        var picker = new SizeTieredCompactionPicker(CONFIGURATION);
+
+        assertEquals(0, picker.getTier(99));
+        assertEquals(1, picker.getTier(100));
+        assertEquals(1, picker.getTier(399));
+        assertEquals(2, picker.getTier(400));
+        assertEquals(3, picker.getThreshold(0));
+        assertEquals(2, picker.getThreshold(5));
+    }
+
+    @Test
+    public void mergesAdjacentSegmentsOfATier() {
+        var picker = new SizeTieredCompactionPicker(CONFIGURATION);
+
+        assertNull(picker.pick(manifest(10, 20, 150, 30)));
+
+        var compaction = picker.pick(manifest(10, 20, 30, 150));
+        assertEquals(0, compaction.getOutputLevel());
+        assertEquals(List.of(4L, 3L, 2L), indexes(compaction));
+
+        // The lowest tier goes first
+        assertEquals(List.of(5L, 4L, 3L), indexes(picker.pick(manifest(10, 20, 30, 150, 200))));
+        assertEquals(List.of(2L, 1L), indexes(picker.pick(manifest(10, 150, 20, 150, 200))));
+    }
+}
@@ -0,0 +1,56 @@
+package io.hnsn.kaukus.persistence;
+
+import org.apache.avro.Schema;
+import org.apache.avro.specific.SpecificRecordBase;
+
+/**
+ * A hand written stand-in for an Avro generated record.
+ */
+public class TestRecord extends SpecificRecordBase {
+    private static final long serialVersionUID = 1L;
+
+    public static final Schema SCHEMA$ = new Schema.Parser().parse("{\"type\":\"record\",\"name\":\"TestRecord\",\"namespace\":\"io.hnsn.kaukus.persistence\",\"fields\":["
+        + "{\"name\":\"name\",\"type\":{\"type\":\"string\",\"avro.java.string\":\"String\"}},"
+        + "{\"name\":\"count\",\"type\":\"long\"}]}");
+
+    private String name;
+    private long count;
+
+    public TestRecord() { }
+
+    public TestRecord(String name, long count) {
+        this.name = name;
+        this.count = count;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public Schema getSchema() {
+        return SCHEMA$;
+    }
+
+    @Override
+    public Object get(int field) {
+        switch (field) {
+            case 0: return name;
+            case 1: return count;
+            default: throw new IndexOutOfBoundsException("Invalid field " + field);
+        }
+    }
+
+    @Override
+    public void put(int field, Object value) {
+        switch (field) {
+            case 0: name = value == null ? null : value.toString(); break;
+            case 1: count = (Long) value; break;
+            default: throw new IndexOutOfBoundsException("Invalid field " + field);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package io.hnsn.kaukus.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class ValueLogTests {
+    private static byte[] value(int length, int seed) {
+        var value = new byte[length];
+        for (var i = 0; i < length; i++) value[i] = (byte) (seed + i);
+        return value;
+    }
+
+    @Test
+    public void readsAppendedValues() throws IOException {
+        var tempDirectory = Files.createTempDirectory(null);
+        try (var valueLog = new ValueLog(tempDirectory, "test", 1024 * 1024)) {
+            var first = valueLog.append(value(100, 1));
+            var second = valueLog.append(value(0, 2));
+            var third = valueLog.append(value(5000, 3));
+
+            assertEquals(0, first.getFile());
+            assertEquals(first.getRecordSize(), second.getOffset());
+            assertArrayEquals(value(100, 1), valueLog.read(first));
+            assertArrayEquals(value(0, 2), valueLog.read(second));
+            assertArrayEquals(value(5000, 3), valueLog.read(third));
+        }
+    }
+
+    @Test
+    public void startsNewFilesOnceFull() throws IOException {
+        var tempDirectory = Files.createTempDirectory(null);
+        try (var valueLog = new ValueLog(tempDirectory, "test", 256)) {
+            var first = valueLog.append(value(200, 1));
+            var second = valueLog.append(value(200, 2));
+            // Values larger than a file still get one
+            var third = valueLog.append(value(1000, 3));
+
+            assertEquals(List.of(0L, 1L, 2L), List.of(first.getFile(), second.getFile(), third.getFile()));
+            assertTrue(valueLog.isActive(2));
+            assertFalse(valueLog.isActive(0));
+            assertArrayEquals(value(200, 1), valueLog.read(first));
+            assertArrayEquals(value(1000, 3), valueLog.read(third));
+        }
+
+        // Reopened logs append to a new file
+        try (var valueLog = new ValueLog(tempDirectory, "test", 256)) {
+            assertTrue(valueLog.open());
+            assertEquals(3, valueLog.append(value(10, 4)).getFile());
+        }
+    }
+
+    @Test
+    public void deletesUnreferencedFiles() throws IOException {
+        var tempDirectory = Files.createTempDirectory(null);
+        try (var valueLog = new ValueLog(tempDirectory, "test", 256)) {
+            var first = valueLog.append(value(200, 1));
+            valueLog.append(value(200, 2));
+            valueLog.retain(List.of(0L, 1L));
+            valueLog.retain(List.of(0L));
+
+            valueLog.release(List.of(0L));
+            assertTrue(Files.exists(tempDirectory.resolve("test.vlog.0")));
+
+            // Pinned writes hold off deletes
+            valueLog.pin();
+            valueLog.release(List.of(0L));
+            assertArrayEquals(value(200, 1), valueLog.read(first));
+            valueLog.unpin();
+            assertFalse(Files.exists(tempDirectory.resolve("test.vlog.0")));
+
+            // The active file is kept for the values still to come
+            valueLog.release(List.of(1L));
+            assertTrue(Files.exists(tempDirectory.resolve("test.vlog.1")));
+            assertEquals(List.of(1L), List.copyOf(valueLog.getFiles()));
+        }
+    }
+
+    @Test
+    public void detectsCorruptValues() throws IOException {
+        var tempDirectory = Files.createTempDirectory(null);
+        try (var valueLog = new ValueLog(tempDirectory, "test", 1024)) {
+            var pointer = valueLog.append(value(100, 1));
+            valueLog.sync();
+
+            try (var channel = FileChannel.open(tempDirectory.resolve("test.vlog.0"), StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[] { 0 }), ValueLog.RECORD_HEADER_SIZE + 10);
+            }
+
+            assertThrows(IOException.class, () -> valueLog.read(pointer));
+        }
+    }
+}
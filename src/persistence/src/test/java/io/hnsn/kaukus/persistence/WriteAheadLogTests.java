@@ -0,0 +1,264 @@
+package io.hnsn.kaukus.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class WriteAheadLogTests {
+    private static Path createTempFile() throws IOException {
+        var filePath = Path.of(File.createTempFile("test", null).getPath());
+        Files.delete(filePath);
+        return filePath;
+    }
+
+    /**
+     * Replays the log's records with their keys and values decoded as text.
+     */
+    private static List<Object[]> replay(Path filePath) throws IOException {
+        var records = new ArrayList<Object[]>();
+        WriteAheadLog.replay(filePath, (sequence, key, value, expiresAt) -> records.add(new Object[] {
+            sequence, Keys.toText(key), value == null ? null : new String(value, StandardCharsets.UTF_8), expiresAt
+        }));
+        return records;
+    }
+
+    @Test
+    public void commitsConcurrentAppends() throws IOException, InterruptedException {
+        var filePath = createTempFile();
+        var threadCount = 8;
+        var appendCount = 200;
+
+        try (var wal = WriteAheadLog.open(filePath, WalDurability.SYNC, 0, new AtomicLong())) {
+            var threads = new ArrayList<Thread>();
+            for (var t = 0; t < threadCount; t++) {
+                var thread = t;
+                threads.add(new Thread(() -> {
+                    for (var i = 0; i < appendCount; i++) {
+                        try {
+                            wal.put(thread + "-" + i, "some-value");
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }));
+            }
+            for (var thread : threads) thread.start();
+            for (var thread : threads) thread.join();
+        }
+
+        var records = replay(filePath);
+        assertEquals(threadCount * appendCount, records.size());
+        assertEquals(records.size(), new HashSet<>(records.stream().map(record -> record[1]).toList()).size());
+
+        // Records are numbered in log order
+        for (var i = 0; i < records.size(); i++) assertEquals(i + 1L, records.get(i)[0]);
+
+        // Each writer's appends land in the order they were made
+        for (var t = 0; t < threadCount; t++) {
+            var prefix = t + "-";
+            var written = records.stream().map(record -> (String) record[1]).filter(key -> key.startsWith(prefix)).toList();
+            for (var i = 0; i < appendCount; i++) assertEquals(prefix + i, written.get(i));
+        }
+    }
+
+    @Test
+    public void appendsToExistingLog() throws IOException {
+        var filePath = createTempFile();
+        var sequence = new AtomicLong();
+        for (var durability : WalDurability.values()) {
+            try (var wal = WriteAheadLog.open(filePath, durability, 10, sequence)) {
+                wal.put(durability.name(), "some-value");
+            }
+        }
+
+        var records = replay(filePath);
+        assertEquals(List.of("SYNC", "INTERVAL", "BUFFERED"), records.stream().map(record -> record[1]).toList());
+        assertEquals(3L, records.get(2)[0]);
+    }
+
+    @Test
+    public void distinguishesEmptyValuesFromDeletes() throws IOException {
+        var filePath = createTempFile();
+        try (var wal = WriteAheadLog.open(filePath, WalDurability.BUFFERED, 0, new AtomicLong())) {
+            wal.put("some-empty-key", "");
+            wal.delete("some-deleted-key");
+            wal.put(Keys.fromText("some-unicode-key-\uD83D\uDE00"), "\uFFFD");
+        }
+
+        var records = replay(filePath);
+        assertEquals("", records.get(0)[2]);
+        assertNull(records.get(1)[2]);
+        assertEquals("some-unicode-key-\uD83D\uDE00", records.get(2)[1]);
+        assertEquals("\uFFFD", records.get(2)[2]);
+    }
+
+    @Test
+    public void stopsAtTornRecord() throws IOException {
+        var filePath = createTempFile();
+        try (var wal = WriteAheadLog.open(filePath, WalDurability.BUFFERED, 0, new AtomicLong())) {
+            wal.put("some-key", "some-value");
+            wal.put("some-other-key", "some-other-value");
+        }
+
+        var fullLength = Files.size(filePath);
+        try (var file = new RandomAccessFile(filePath.toFile(), "rw")) {
+            file.setLength(fullLength - 3);
+        }
+
+        var records = new ArrayList<Object[]>();
+        var validLength = WriteAheadLog.replay(filePath, (sequence, key, value, expiresAt) -> records.add(new Object[] { sequence, key, value, expiresAt }));
+        assertEquals(1, records.size());
+        assertEquals("some-key", records.get(0)[1]);
+
+        // New records follow the last valid one once the tail is cut off
+        WriteAheadLog.truncate(filePath, validLength);
+        try (var wal = WriteAheadLog.open(filePath, WalDurability.BUFFERED, 0, new AtomicLong(1))) {
+            wal.put("some-new-key", "some-new-value");
+        }
+        assertEquals(List.of("some-key", "some-new-key"), replay(filePath).stream().map(record -> record[1]).toList());
+    }
+
+    @Test
+    public void stopsAtCorruptRecord() throws IOException {
+        var filePath = createTempFile();
+        try (var wal = WriteAheadLog.open(filePath, WalDurability.BUFFERED, 0, new AtomicLong())) {
+            wal.put("some-key", "some-value");
+            wal.put("some-other-key", "some-other-value");
+            wal.put("some-last-key", "some-last-value");
+        }
+
+        // Flip a byte of the second record's value
+        var records = replay(filePath);
+        var bytes = Files.readAllBytes(filePath);
+        var offset = new String(bytes, StandardCharsets.ISO_8859_1).indexOf("some-other-value");
+        bytes[offset] ^= 1;
+        Files.write(filePath, bytes);
+
+        var corrupted = replay(filePath);
+        assertEquals(3, records.size());
+        assertEquals(1, corrupted.size());
+    }
+
+    @Test
+    public void stopsAtCorruptLength() throws IOException {
+        for (var length : List.of(Integer.MAX_VALUE, Integer.MAX_VALUE - 4, -1)) {
+            var filePath = createTempFile();
+            try (var wal = WriteAheadLog.open(filePath, WalDurability.BUFFERED, 0, new AtomicLong())) {
+                wal.put("some-key", "some-value");
+            }
+            var offset = Files.size(filePath);
+            try (var wal = WriteAheadLog.open(filePath, WalDurability.BUFFERED, 0, new AtomicLong(1))) {
+                wal.put("some-other-key", "some-other-value");
+                wal.put("some-last-key", "some-last-value");
+            }
+
+            // Overwrite the second record's length with one that overflows once the prefix is added
+            try (var file = new RandomAccessFile(filePath.toFile(), "rw")) {
+                file.seek(offset);
+                file.writeInt(length);
+            }
+
+            assertEquals(List.of("some-key"), replay(filePath).stream().map(record -> record[1]).toList());
+            assertEquals(offset, WriteAheadLog.replay(filePath, (sequence, key, value, expiresAt) -> { }));
+        }
+    }
+
+    @Test
+    public void readsLargeRecords() throws IOException {
+        var filePath = createTempFile();
+        var value = "v".repeat(3 * 1024 * 1024);
+        try (var wal = WriteAheadLog.open(filePath, WalDurability.BUFFERED, 0, new AtomicLong())) {
+            for (var i = 0; i < 3; i++) wal.put("some-key-" + i, value);
+        }
+
+        var records = replay(filePath);
+        assertEquals(3, records.size());
+        assertEquals(value, records.get(2)[2]);
+    }
+
+    @Test
+    public void detectsLegacyLog() throws IOException {
+        var legacyFile = createTempFile();
+        Files.writeString(legacyFile, "c29tZS1vdGhlci1rZXk=:bmV3ZXN0\n");
+        assertTrue(WriteAheadLog.isLegacy(legacyFile));
+
+        var filePath = createTempFile();
+        WriteAheadLog.open(filePath, WalDurability.BUFFERED, 0, new AtomicLong()).close();
+        assertFalse(WriteAheadLog.isLegacy(filePath));
+        assertEquals(0, replay(filePath).size());
+    }
+
+    @Test
+    public void cannotAppendAfterClose() throws IOException {
+        var filePath = createTempFile();
+        var wal = WriteAheadLog.open(filePath, WalDurability.BUFFERED, 0, new AtomicLong());
+        wal.close();
+
+        assertThrows(IOException.class, () -> wal.put("some-key", "some-value"));
+    }
+
+    @Test
+    public void replaysBatchesWhole() throws IOException {
+        var filePath = createTempFile();
+        try (var wal = WriteAheadLog.open(filePath, WalDurability.BUFFERED, 0, new AtomicLong())) {
+            wal.put("some-key", "some-value");
+            assertEquals(2, wal.write(new WriteBatch().put("some-batch-key", "some-batch-value").remove("some-key").put("some-last-key", "")));
+            wal.put("some-other-key", "some-other-value");
+        }
+
+        var records = replay(filePath);
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), records.stream().map(record -> record[0]).toList());
+        assertEquals(List.of("some-key", "some-batch-key", "some-key", "some-last-key", "some-other-key"), records.stream().map(record -> record[1]).toList());
+        assertEquals("some-batch-value", records.get(1)[2]);
+        assertNull(records.get(2)[2]);
+        assertEquals("", records.get(3)[2]);
+
+        // A batch cut short replays none of its entries
+        var bytes = Files.readAllBytes(filePath);
+        var offset = new String(bytes, StandardCharsets.ISO_8859_1).indexOf("some-last-key");
+        try (var file = new RandomAccessFile(filePath.toFile(), "rw")) {
+            file.setLength(offset);
+        }
+        assertEquals(List.of("some-key"), replay(filePath).stream().map(record -> record[1]).toList());
+    }
+
+    @Test
+    public void replaysRangeDeletes() throws IOException {
+        var filePath = createTempFile();
+        try (var wal = WriteAheadLog.open(filePath, WalDurability.BUFFERED, 0, new AtomicLong())) {
+            wal.put("some-key", "some-value");
+            wal.deleteRange("some-key-a", "some-key-c");
+            wal.write(new WriteBatch().deleteRange("some-key-d", "some-key-f").put("some-other-key", "some-other-value"));
+        }
+
+        var rangeDeletes = new ArrayList<Object[]>();
+        var records = new ArrayList<Object[]>();
+        WriteAheadLog.replay(filePath,
+            (sequence, key, value, expiresAt) -> records.add(new Object[] { sequence, key }),
+            (sequence, fromKey, toKey) -> rangeDeletes.add(new Object[] { sequence, fromKey, toKey }));
+
+        assertEquals(List.of(1L, 4L), records.stream().map(record -> record[0]).toList());
+        assertEquals(2, rangeDeletes.size());
+        assertArrayEquals(new Object[] { 2L, "some-key-a", "some-key-c" }, rangeDeletes.get(0));
+        assertArrayEquals(new Object[] { 3L, "some-key-d", "some-key-f" }, rangeDeletes.get(1));
+
+        // Replaying without a range delete consumer skips them
+        assertEquals(List.of("some-key", "some-other-key"), replay(filePath).stream().map(record -> record[1]).toList());
+    }
+}